@@ -20,8 +20,11 @@
  */
 package org.lenskit.api;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -119,4 +122,26 @@ public interface ItemRecommender {
      */
     ResultList recommendWithDetails(long user, int n, @Nullable Set<Long> candidates,
                                     @Nullable Set<Long> exclude);
+
+    /**
+     * Produce recommendations for each of several users, using the default candidate and exclude
+     * sets.  This is equivalent to calling {@link #recommendWithDetails(long, int, Set, Set)} for each
+     * user, but implementations can override it to score the users together (see
+     * {@link ItemScorer#scoreBatch(List, java.util.Collection)}).  The default implementation
+     * recommends for each user separately.
+     *
+     * @param users The users for whom to generate recommendations.
+     * @param n     The number of recommendations to return for each user. If negative, the recommender
+     *              will return as many recommendations as possible.
+     * @return A map from each user ID to that user's recommendations, iterating in the order of
+     * {@code users}.
+     */
+    @Nonnull
+    default Map<Long,ResultList> recommendBatch(@Nonnull List<Long> users, int n) {
+        Map<Long,ResultList> results = new LinkedHashMap<>();
+        for (Long user: users) {
+            results.put(user, recommendWithDetails(user, n, null, null));
+        }
+        return results;
+    }
 }
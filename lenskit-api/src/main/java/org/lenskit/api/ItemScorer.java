@@ -22,6 +22,8 @@ package org.lenskit.api;
 
 import javax.annotation.Nonnull;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -61,4 +63,25 @@ public interface ItemScorer {
      */
     @Nonnull
     ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items);
+
+    /**
+     * Score a collection of items for each of several users.  This is equivalent to calling
+     * {@link #scoreWithDetails(long, Collection)} for each user, but implementations can override it
+     * to share user-independent work across the users (such as looking up item data), or to visit
+     * their model in a more cache-friendly order.  The default implementation scores each user
+     * separately.
+     *
+     * @param users The users for whom to generate scores.
+     * @param items The items to score for every user.
+     * @return A map from each user ID to that user's scores, iterating in the order of {@code users}.
+     * Every user is present, although their result maps may not contain all requested items.
+     */
+    @Nonnull
+    default Map<Long,ResultMap> scoreBatch(@Nonnull List<Long> users, @Nonnull Collection<Long> items) {
+        Map<Long,ResultMap> results = new LinkedHashMap<>();
+        for (Long user: users) {
+            results.put(user, scoreWithDetails(user, items));
+        }
+        return results;
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.bench;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.grouplens.lenskit.iterative.IterationCount;
+import org.grouplens.lenskit.iterative.IterationCountStoppingCondition;
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.api.ResultMap;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.bias.GlobalBiasModel;
+import org.lenskit.bias.UserItemBiasModel;
+import org.lenskit.data.ratings.PackedRatingMatrix;
+import org.lenskit.data.ratings.PackedRatingMatrixProvider;
+import org.lenskit.data.ratings.PreferenceDomain;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.mf.funksvd.FeatureCount;
+import org.lenskit.mf.funksvd.FunkSVDItemScorer;
+import org.lenskit.mf.funksvd.FunkSVDModel;
+import org.lenskit.mf.funksvd.FunkSVDModelProvider;
+import org.lenskit.mf.funksvd.FunkSVDUpdateRule;
+import org.lenskit.mf.svd.BiasedMFItemScorer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for biased matrix factorization: training with {@link FunkSVDModelProvider} and
+ * scoring with {@link BiasedMFItemScorer#scoreWithDetails(long, java.util.Collection)}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BiasedMFBenchmarks {
+    /**
+     * The number of latent features.
+     */
+    @Param({"25"})
+    public int featureCount;
+
+    /**
+     * The number of training iterations per feature.
+     */
+    @Param({"20"})
+    public int iterationCount;
+
+    /**
+     * The number of training threads.
+     */
+    @Param({"1"})
+    public int threadCount;
+
+    /**
+     * The number of items to score per request.
+     */
+    @Param({"100"})
+    public int itemsPerRequest;
+
+    private PackedRatingMatrix matrix;
+    private FunkSVDUpdateRule rule;
+    private LenskitRecommender recommender;
+    private ItemScorer scorer;
+    private long[] items;
+
+    @Setup(Level.Trial)
+    public void setup(SyntheticRatings data) throws RecommenderBuildException {
+        StandardRatingVectorPDAO pdao = new StandardRatingVectorPDAO(data.getDAO());
+        matrix = new PackedRatingMatrixProvider(pdao, data.makeRandom(1)).get();
+        rule = new FunkSVDUpdateRule(0.001, 0.015, new GlobalBiasModel(3.0),
+                                     new PreferenceDomain(1, 5),
+                                     new IterationCountStoppingCondition(iterationCount));
+
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(FunkSVDItemScorer.class);
+        config.bind(BiasModel.class).to(UserItemBiasModel.class);
+        config.set(FeatureCount.class).to(featureCount);
+        config.set(IterationCount.class).to(iterationCount);
+        recommender = LenskitRecommender.build(config, data.getDAO());
+        scorer = recommender.getItemScorer();
+        items = data.getItemIds();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        recommender.close();
+    }
+
+    /**
+     * Train a model with {@link FunkSVDModelProvider#get()}.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public FunkSVDModel buildModel() {
+        return new FunkSVDModelProvider(matrix, rule, featureCount, 0.1, threadCount).get();
+    }
+
+    /**
+     * Score a batch of items for a user.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ResultMap scoreWithDetails(Cursor cursor) {
+        long user = cursor.nextUser();
+        int n = Math.min(itemsPerRequest, items.length);
+        LongList request = new LongArrayList(n);
+        for (int i = 0; i < n; i++) {
+            request.add(cursor.nextItem());
+        }
+        return scorer.scoreWithDetails(user, request);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.bench;
+
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.Random;
+
+/**
+ * Per-thread cursor over the users and items of the {@linkplain SyntheticRatings synthetic data}.
+ * Each thread walks a different shuffled order, so benchmarks that query one user (or user-item
+ * pair) per invocation spread their queries over the whole data set.
+ */
+@State(Scope.Thread)
+public class Cursor {
+    private long[] users;
+    private long[] items;
+    private int nextUser;
+    private int nextItem;
+
+    @Setup(Level.Trial)
+    public void setup(SyntheticRatings data, ThreadParams threads) {
+        Random rng = data.makeRandom(threads.getThreadIndex());
+        users = LongArrays.shuffle(data.getUserIds().clone(), rng);
+        items = LongArrays.shuffle(data.getItemIds().clone(), rng);
+        nextUser = 0;
+        nextItem = 0;
+    }
+
+    /**
+     * Get the next user.
+     * @return The next user ID.
+     */
+    public long nextUser() {
+        long u = users[nextUser];
+        nextUser = (nextUser + 1) % users.length;
+        return u;
+    }
+
+    /**
+     * Get the next item.
+     * @return The next item ID.
+     */
+    public long nextItem() {
+        long i = items[nextItem];
+        nextItem = (nextItem + 1) % items.length;
+        return i;
+    }
+}
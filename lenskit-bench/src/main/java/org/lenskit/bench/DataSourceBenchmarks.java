@@ -0,0 +1,93 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.bench;
+
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.Rating;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for loading a {@link StaticDataSource} from a CSV rating file, with and without a
+ * {@linkplain StaticDataSource#setSnapshotFile(Path) binary snapshot}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DataSourceBenchmarks {
+    /**
+     * Whether to load the data through a snapshot file.
+     */
+    @Param({"false", "true"})
+    public boolean snapshot;
+
+    private Path directory;
+    private Path ratingFile;
+
+    @Setup(Level.Trial)
+    public void setup(SyntheticRatings data) throws IOException {
+        directory = Files.createTempDirectory("lenskit-bench");
+        ratingFile = directory.resolve("ratings.csv");
+        try (BufferedWriter out = Files.newBufferedWriter(ratingFile, StandardCharsets.UTF_8)) {
+            for (Rating r: data.getRatings()) {
+                out.write(r.getUserId() + "," + r.getItemId() + "," + r.getValue() + ","
+                          + r.getTimestamp() + "\n");
+            }
+        }
+        if (snapshot) {
+            // write the snapshot up front, so the benchmark measures reading it
+            load();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file: (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Load the rating data.
+     */
+    @Benchmark
+    public DataAccessObject load() {
+        StaticDataSource source = StaticDataSource.csvRatingFile(ratingFile);
+        if (snapshot) {
+            source.setSnapshotFile(directory.resolve("ratings.snapshot"));
+        }
+        return source.get();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.bench;
+
+import org.grouplens.lenskit.transform.threshold.AbsoluteThreshold;
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.api.Result;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.knn.NeighborhoodSize;
+import org.lenskit.knn.item.ItemItemScorer;
+import org.lenskit.knn.item.ItemVectorSimilarity;
+import org.lenskit.knn.item.ModelSize;
+import org.lenskit.knn.item.model.*;
+import org.lenskit.similarity.CosineVectorSimilarity;
+import org.lenskit.similarity.PearsonCorrelation;
+import org.lenskit.similarity.VectorSimilarity;
+import org.lenskit.transform.normalize.DefaultUserVectorNormalizer;
+import org.lenskit.transform.normalize.MeanCenteringVectorNormalizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for item-item collaborative filtering: building the similarity model, and scoring
+ * single items with {@link ItemItemScorer#score(long, long)}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ItemItemBenchmarks {
+    /**
+     * The vector similarity for model builds ({@code cosine} or {@code pearson}).
+     */
+    @Param({"cosine", "pearson"})
+    public String similarity;
+
+    /**
+     * The neighbor iteration strategy for model builds ({@code sparse} or {@code basic}).
+     */
+    @Param({"sparse", "basic"})
+    public String strategy;
+
+    /**
+     * The model size (0 for unlimited).
+     */
+    @Param({"100"})
+    public int modelSize;
+
+    private ItemItemBuildContext context;
+    private LenskitRecommender recommender;
+    private ItemScorer scorer;
+
+    @Setup(Level.Trial)
+    public void setup(SyntheticRatings data) throws RecommenderBuildException {
+        StandardRatingVectorPDAO pdao = new StandardRatingVectorPDAO(data.getDAO());
+        context = new ItemItemBuildContextProvider(
+                pdao, new DefaultUserVectorNormalizer(new MeanCenteringVectorNormalizer())).get();
+
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(ItemItemScorer.class);
+        config.bind(VectorSimilarity.class).toInstance(makeSimilarity());
+        config.bind(NeighborIterationStrategy.class).toInstance(makeStrategy());
+        config.set(ModelSize.class).to(modelSize);
+        config.set(NeighborhoodSize.class).to(30);
+        recommender = LenskitRecommender.build(config, data.getDAO());
+        scorer = recommender.getItemScorer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        recommender.close();
+    }
+
+    private VectorSimilarity makeSimilarity() {
+        switch (similarity) {
+        case "cosine":
+            return new CosineVectorSimilarity();
+        case "pearson":
+            return new PearsonCorrelation();
+        default:
+            throw new IllegalArgumentException("unknown similarity " + similarity);
+        }
+    }
+
+    private NeighborIterationStrategy makeStrategy() {
+        switch (strategy) {
+        case "sparse":
+            return new SparseNeighborIterationStrategy();
+        case "basic":
+            return new BasicNeighborIterationStrategy();
+        default:
+            throw new IllegalArgumentException("unknown strategy " + strategy);
+        }
+    }
+
+    /**
+     * Build the item-item model with {@link ItemItemModelProvider#get()}.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ItemItemModel buildModel() {
+        ItemItemModelProvider provider =
+                new ItemItemModelProvider(new ItemVectorSimilarity(makeSimilarity()), context,
+                                          new AbsoluteThreshold(0), makeStrategy(), 1, modelSize);
+        return provider.get();
+    }
+
+    /**
+     * Score a single user-item pair.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Result score(Cursor cursor) {
+        return scorer.score(cursor.nextUser(), cursor.nextItem());
+    }
+}
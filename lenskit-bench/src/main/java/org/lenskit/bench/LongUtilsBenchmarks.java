@@ -0,0 +1,114 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.bench;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import org.lenskit.util.collections.LongUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the sorted set operations in {@link LongUtils}.  Each operation combines two
+ * packed sets of the same size, drawn from a key universe sized so that the sets overlap by
+ * about the requested fraction.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LongUtilsBenchmarks {
+    /**
+     * The size of each set.
+     */
+    @Param({"100", "10000"})
+    public int setSize;
+
+    /**
+     * The expected fraction of each set that is shared with the other.
+     */
+    @Param({"0.1", "0.5"})
+    public double overlap;
+
+    /**
+     * The random seed.
+     */
+    @Param({"42"})
+    public long seed;
+
+    private LongSortedSet left;
+    private LongSortedSet right;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random rng = new Random(seed);
+        // sampling with probability p from a universe of size n/p gives sets of size ~n, which
+        // share a fraction ~p of their keys
+        long universe = Math.round(setSize / overlap);
+        left = randomSet(rng, universe);
+        right = randomSet(rng, universe);
+    }
+
+    private LongSortedSet randomSet(Random rng, long universe) {
+        LongList keys = new LongArrayList(setSize * 2);
+        for (long k = 0; k < universe; k++) {
+            if (rng.nextDouble() < overlap) {
+                keys.add(k);
+            }
+        }
+        return LongUtils.packedSet(keys);
+    }
+
+    @Benchmark
+    public int intersectSize() {
+        return LongUtils.intersectSize(left, right);
+    }
+
+    @Benchmark
+    public boolean hasNCommonItems() {
+        return LongUtils.hasNCommonItems(left, right, 10);
+    }
+
+    @Benchmark
+    public LongSortedSet setIntersect() {
+        return LongUtils.setIntersect(left, right);
+    }
+
+    @Benchmark
+    public LongSortedSet setUnion() {
+        return LongUtils.setUnion(left, right);
+    }
+
+    @Benchmark
+    public LongSortedSet setDifference() {
+        return LongUtils.setDifference(left, right);
+    }
+
+    @Benchmark
+    public int unionSize() {
+        return LongUtils.unionSize(left, right);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.bench;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMaps;
+import org.lenskit.data.ratings.PackedRatingMatrix;
+import org.lenskit.data.ratings.PackedRatingMatrixProvider;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link PackedRatingMatrix#getUserRatingVector(long)} at several thread counts,
+ * to measure how user vector lookups scale when many threads share one rating matrix.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RatingMatrixBenchmarks {
+    private PackedRatingMatrix matrix;
+
+    @Setup(Level.Trial)
+    public void setup(SyntheticRatings data) {
+        StandardRatingVectorPDAO pdao = new StandardRatingVectorPDAO(data.getDAO());
+        matrix = new PackedRatingMatrixProvider(pdao, data.makeRandom(1)).get();
+    }
+
+    private double sumUserVector(Cursor cursor) {
+        double sum = 0;
+        Long2DoubleMap vec = matrix.getUserRatingVector(cursor.nextUser());
+        for (Long2DoubleMap.Entry e: Long2DoubleMaps.fastIterable(vec)) {
+            sum += e.getDoubleValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public double userVectorOneThread(Cursor cursor) {
+        return sumUserVector(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double userVectorFourThreads(Cursor cursor) {
+        return sumUserVector(cursor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public double userVectorAllThreads(Cursor cursor) {
+        return sumUserVector(cursor);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.bench;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.java.quickcheck.Generator;
+import net.java.quickcheck.generator.distribution.RandomConfiguration;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.test.LenskitGenerators;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic rating data shared by the benchmarks.  The ratings are generated by
+ * {@link LenskitGenerators#ratings(long, long)} from a fixed seed, with at most one rating for
+ * each user-item pair, so every benchmark run over the same parameters sees the same data.
+ *
+ * <p>The data size is controlled by the {@link #userCount}, {@link #itemCount} and
+ * {@link #ratingCount} parameters, which can be overridden on the JMH command line (e.g.
+ * {@code -p userCount=10000}).</p>
+ */
+@State(Scope.Benchmark)
+public class SyntheticRatings {
+    /**
+     * The number of users in the user universe.
+     */
+    @Param({"1000"})
+    public int userCount;
+
+    /**
+     * The number of items in the item universe.
+     */
+    @Param({"500"})
+    public int itemCount;
+
+    /**
+     * The number of ratings to generate.
+     */
+    @Param({"50000"})
+    public int ratingCount;
+
+    /**
+     * The random seed for generating ratings.
+     */
+    @Param({"42"})
+    public long seed;
+
+    private List<Rating> ratings;
+    private DataAccessObject dao;
+    private long[] userIds;
+    private long[] itemIds;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        Preconditions.checkArgument((long) ratingCount <= (long) userCount * itemCount / 2,
+                                    "too many ratings for %s users and %s items",
+                                    userCount, itemCount);
+        RandomConfiguration.setSeed(seed);
+        Generator<Rating> gen = LenskitGenerators.ratings(userCount, itemCount);
+        LongSet pairs = new LongOpenHashSet(ratingCount);
+        LongSet users = new LongOpenHashSet();
+        LongSet items = new LongOpenHashSet();
+        ratings = new ArrayList<>(ratingCount);
+        while (ratings.size() < ratingCount) {
+            Rating r = gen.next();
+            if (pairs.add(r.getUserId() * (itemCount + 1) + r.getItemId())) {
+                ratings.add(r);
+                users.add(r.getUserId());
+                items.add(r.getItemId());
+            }
+        }
+        dao = EntityCollectionDAO.create(ratings);
+        userIds = users.toLongArray();
+        LongArrays.quickSort(userIds);
+        itemIds = items.toLongArray();
+        LongArrays.quickSort(itemIds);
+    }
+
+    /**
+     * Get the generated ratings.
+     * @return The list of ratings.
+     */
+    public List<Rating> getRatings() {
+        return Collections.unmodifiableList(ratings);
+    }
+
+    /**
+     * Get a DAO over the generated ratings.
+     * @return The data access object.
+     */
+    public DataAccessObject getDAO() {
+        return dao;
+    }
+
+    /**
+     * Get the IDs of users with at least one rating.
+     * @return The user IDs, in sorted order.
+     */
+    public long[] getUserIds() {
+        return userIds;
+    }
+
+    /**
+     * Get the IDs of items with at least one rating.
+     * @return The item IDs, in sorted order.
+     */
+    public long[] getItemIds() {
+        return itemIds;
+    }
+
+    /**
+     * Create a random number generator seeded from the data seed.
+     * @param salt A value to mix into the seed, so different consumers get different sequences.
+     * @return A random number generator.
+     */
+    public Random makeRandom(long salt) {
+        return new Random(seed * 31 + salt);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.bench;
+
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.basic.TopNItemRecommender;
+import org.lenskit.bias.BiasItemScorer;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.bias.UserItemBiasModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link TopNItemRecommender#recommend(long, int)}.  The recommender uses a bias
+ * scorer, which is cheap, so the benchmark mostly measures candidate selection and ranking.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TopNBenchmarks {
+    /**
+     * The number of recommendations to produce.
+     */
+    @Param({"10", "100"})
+    public int listSize;
+
+    private LenskitRecommender recommender;
+    private ItemRecommender itemRecommender;
+
+    @Setup(Level.Trial)
+    public void setup(SyntheticRatings data) throws RecommenderBuildException {
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(BiasItemScorer.class);
+        config.bind(BiasModel.class).to(UserItemBiasModel.class);
+        config.bind(ItemRecommender.class).to(TopNItemRecommender.class);
+        recommender = LenskitRecommender.build(config, data.getDAO());
+        itemRecommender = recommender.getItemRecommender();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        recommender.close();
+    }
+
+    /**
+     * Recommend items for a user.
+     */
+    @Benchmark
+    public List<Long> recommend(Cursor cursor) {
+        return itemRecommender.recommend(cursor.nextUser(), listSize);
+    }
+}
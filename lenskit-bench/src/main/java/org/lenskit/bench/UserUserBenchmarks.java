@@ -0,0 +1,93 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.bench;
+
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.api.Result;
+import org.lenskit.knn.NeighborhoodSize;
+import org.lenskit.knn.user.NeighborFinder;
+import org.lenskit.knn.user.SnapshotNeighborFinder;
+import org.lenskit.knn.user.LiveNeighborFinder;
+import org.lenskit.knn.user.UserUserItemScorer;
+import org.lenskit.transform.normalize.MeanCenteringVectorNormalizer;
+import org.lenskit.transform.normalize.UserVectorNormalizer;
+import org.lenskit.transform.normalize.VectorNormalizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for scoring with {@link UserUserItemScorer}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserUserBenchmarks {
+    /**
+     * The neighbor finder ({@code snapshot} or {@code live}).
+     */
+    @Param({"snapshot", "live"})
+    public String neighborFinder;
+
+    private LenskitRecommender recommender;
+    private ItemScorer scorer;
+
+    @Setup(Level.Trial)
+    public void setup(SyntheticRatings data) throws RecommenderBuildException {
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(UserUserItemScorer.class);
+        config.within(UserVectorNormalizer.class)
+              .bind(VectorNormalizer.class)
+              .to(MeanCenteringVectorNormalizer.class);
+        switch (neighborFinder) {
+        case "snapshot":
+            config.bind(NeighborFinder.class).to(SnapshotNeighborFinder.class);
+            break;
+        case "live":
+            config.bind(NeighborFinder.class).to(LiveNeighborFinder.class);
+            break;
+        default:
+            throw new IllegalArgumentException("unknown neighbor finder " + neighborFinder);
+        }
+        config.set(NeighborhoodSize.class).to(30);
+        recommender = LenskitRecommender.build(config, data.getDAO());
+        scorer = recommender.getItemScorer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        recommender.close();
+    }
+
+    /**
+     * Score a single user-item pair.
+     */
+    @Benchmark
+    public Result score(Cursor cursor) {
+        return scorer.score(cursor.nextUser(), cursor.nextItem());
+    }
+}
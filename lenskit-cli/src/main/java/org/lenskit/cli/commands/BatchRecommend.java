@@ -0,0 +1,394 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.cli.commands;
+
+import com.google.auto.service.AutoService;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.LenskitRecommenderEngine;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+import org.lenskit.basic.BatchScoringDriver;
+import org.lenskit.cli.Command;
+import org.lenskit.cli.LenskitCommandException;
+import org.lenskit.cli.util.InputData;
+import org.lenskit.cli.util.RecommendationCheckpoint;
+import org.lenskit.cli.util.RecommenderLoader;
+import org.lenskit.cli.util.ScriptEnvironment;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.util.ProgressLogger;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.io.CompressionMode;
+import org.lenskit.util.table.TableLayout;
+import org.lenskit.util.table.TableLayoutBuilder;
+import org.lenskit.util.table.writer.CSVWriter;
+import org.lenskit.util.table.writer.JSONLinesWriter;
+import org.lenskit.util.table.writer.TableWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generate top-N recommendations for many users, writing them to a file.
+ *
+ * <p>The recommender engine is loaded once and shared by a pool of worker threads, each of which
+ * creates its own recommender from it.  Recommendations are written as CSV or JSON lines, compressed
+ * according to the output file name.  With a checkpoint file, an interrupted run can be resumed:
+ * the output is truncated to the last checkpoint and the users it records are skipped.</p>
+ *
+ * @since 3.0
+ */
+@AutoService(Command.class)
+public class BatchRecommend implements Command {
+    private final Logger logger = LoggerFactory.getLogger(BatchRecommend.class);
+
+    private static final TableLayout LAYOUT =
+            new TableLayoutBuilder().addColumns("user", "rank", "item", "score").build();
+
+    @Override
+    public String getName() {
+        return "batch-recommend";
+    }
+
+    @Override
+    public String getHelp() {
+        return "generate recommendations for many users in parallel";
+    }
+
+    @Override
+    public void execute(Namespace opts) throws LenskitCommandException {
+        Context ctx = new Context(opts);
+        LenskitRecommenderEngine engine;
+        try {
+            engine = ctx.loader.loadEngine();
+        } catch (IOException e) {
+            throw new LenskitCommandException("could not load engine", e);
+        }
+
+        DataAccessObject dao = ctx.input.getDAO();
+        if (dao == null) {
+            throw new LenskitCommandException("no input data specified");
+        }
+        try (LenskitRecommender rec = engine.createRecommender(dao)) {
+            if (rec.getItemRecommender() == null) {
+                throw new LenskitCommandException("recommender has no item recommender");
+            }
+        }
+
+        List<RecommendationCheckpoint> checkpoints = new ArrayList<>();
+        List<LenskitRecommender> recommenders = new ArrayList<>();
+        try {
+            RecommendationCheckpoint checkpoint = null;
+            File checkpointFile = ctx.getCheckpointFile();
+            if (checkpointFile != null) {
+                checkpoint = RecommendationCheckpoint.open(checkpointFile);
+                checkpoints.add(checkpoint);
+            }
+
+            LongList users = ctx.getUsers(dao, checkpoint);
+            File outFile = ctx.getOutputFile();
+            long offset = checkpoint != null ? checkpoint.getOutputLength() : 0;
+            CompressionMode comp = CompressionMode.autodetect(outFile);
+            logger.info("recommending for {} users into {} ({} compression)",
+                        users.size(), outFile, comp);
+
+            ProgressLogger progress = ProgressLogger.create(logger)
+                                                    .setLabel("batch recommend")
+                                                    .setCount(users.size())
+                                                    .setPeriod(ctx.getBatchSize() * 10)
+                                                    .start();
+            BatchScoringDriver driver = new BatchScoringDriver(ctx.getThreadCount(), ctx.getBatchSize());
+            try (SegmentedOutput output = new SegmentedOutput(outFile, offset, comp, ctx.useJSON())) {
+                RecSink sink = new RecSink(output, checkpoint, ctx.getCheckpointInterval(), progress);
+                driver.recommendAll(() -> {
+                    LenskitRecommender rec = engine.createRecommender(dao);
+                    synchronized (recommenders) {
+                        recommenders.add(rec);
+                    }
+                    return rec.getItemRecommender();
+                }, users, ctx.getListSize(), sink);
+                sink.finish();
+            }
+
+            double time = progress.finish();
+            logger.info("recommended for {} users in {} ({} users/sec)",
+                        users.size(), ProgressLogger.formatElapsedTime(time),
+                        String.format("%.1f", users.size() / time));
+        } catch (IOException e) {
+            throw new LenskitCommandException("I/O error writing output", e);
+        } finally {
+            for (LenskitRecommender rec: recommenders) {
+                rec.close();
+            }
+            for (RecommendationCheckpoint cp: checkpoints) {
+                try {
+                    cp.close();
+                } catch (IOException e) {
+                    logger.warn("error closing checkpoint", e);
+                }
+            }
+        }
+    }
+
+    public void configureArguments(ArgumentParser parser) {
+        parser.description("Generates recommendations for many users in parallel.");
+        InputData.configureArguments(parser, true);
+        ScriptEnvironment.configureArguments(parser);
+        RecommenderLoader.configureArguments(parser);
+        parser.addArgument("-o", "--output-file")
+              .type(File.class)
+              .metavar("FILE")
+              .required(true)
+              .help("write recommendations to FILE (compressed if it ends in .gz or .xz)");
+        parser.addArgument("--json")
+              .action(Arguments.storeTrue())
+              .help("write JSON lines instead of CSV");
+        parser.addArgument("-n", "--num-recs")
+              .type(Integer.class)
+              .setDefault(10)
+              .metavar("N")
+              .help("generate up to N recommendations per user");
+        parser.addArgument("-j", "--thread-count")
+              .type(Integer.class)
+              .setDefault(Runtime.getRuntime().availableProcessors())
+              .metavar("N")
+              .help("use N worker threads");
+        parser.addArgument("--batch-size")
+              .type(Integer.class)
+              .setDefault(100)
+              .metavar("N")
+              .help("recommend for N users at a time in each thread");
+        parser.addArgument("--checkpoint-file")
+              .type(File.class)
+              .metavar("FILE")
+              .help("record progress in FILE, and resume from it if it exists");
+        parser.addArgument("--checkpoint-interval")
+              .type(Integer.class)
+              .setDefault(10000)
+              .metavar("N")
+              .help("checkpoint after every N users");
+        parser.addArgument("users")
+              .type(Long.class)
+              .nargs("*")
+              .metavar("USER")
+              .help("recommend for USERS (default: all users in the input data)");
+    }
+
+    private static class Context {
+        private final Namespace options;
+        private final InputData input;
+        private final ScriptEnvironment environment;
+        private final RecommenderLoader loader;
+
+        Context(Namespace opts) {
+            options = opts;
+            environment = new ScriptEnvironment(opts);
+            input = new InputData(environment, opts);
+            loader = new RecommenderLoader(input, environment, opts);
+        }
+
+        File getOutputFile() {
+            return options.get("output_file");
+        }
+
+        File getCheckpointFile() {
+            return options.get("checkpoint_file");
+        }
+
+        boolean useJSON() {
+            return options.getBoolean("json");
+        }
+
+        int getListSize() {
+            return options.getInt("num_recs");
+        }
+
+        int getThreadCount() {
+            return options.getInt("thread_count");
+        }
+
+        int getBatchSize() {
+            return options.getInt("batch_size");
+        }
+
+        int getCheckpointInterval() {
+            return options.getInt("checkpoint_interval");
+        }
+
+        LongList getUsers(DataAccessObject dao, RecommendationCheckpoint checkpoint) {
+            List<Long> requested = options.getList("users");
+            LongSet users;
+            if (requested == null || requested.isEmpty()) {
+                users = LongUtils.packedSet(dao.getEntityIds(CommonTypes.USER));
+            } else {
+                users = LongUtils.packedSet(requested);
+            }
+            if (checkpoint != null) {
+                users = LongUtils.setDifference(users, checkpoint.getCompletedUsers());
+            }
+            return new LongArrayList(users);
+        }
+    }
+
+    /**
+     * Output file written in independently-compressed segments, so that it can be truncated at a
+     * segment boundary and appended to when resuming.
+     */
+    private static class SegmentedOutput implements Closeable {
+        private final FileOutputStream file;
+        private final FileChannel channel;
+        private final CompressionMode compression;
+        private final boolean json;
+        private TableWriter current;
+
+        SegmentedOutput(File f, long offset, CompressionMode comp, boolean js) throws IOException {
+            if (f.getParentFile() != null) {
+                f.getParentFile().mkdirs();
+            }
+            file = new FileOutputStream(f, true);
+            channel = file.getChannel();
+            channel.truncate(offset);
+            compression = comp;
+            json = js;
+        }
+
+        TableWriter getWriter() throws IOException {
+            if (current == null) {
+                // check before wrapping, as compressors may write their own headers immediately
+                boolean atStart = channel.size() == 0;
+                OutputStream out = compression.wrapOutput(new UnclosableOutputStream(file));
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                if (json) {
+                    current = new JSONLinesWriter(writer, LAYOUT);
+                } else {
+                    current = new CSVWriter(writer, atStart ? LAYOUT : null);
+                }
+            }
+            return current;
+        }
+
+        /**
+         * Finish the current segment and sync it to disk, so a checkpoint recorded after it never
+         * refers to output that has not been written.
+         * @return The length of the output file.
+         */
+        long finishSegment() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            file.flush();
+            file.getFD().sync();
+            return channel.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finishSegment();
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Output stream that does not close its underlying stream, so a compressor can be finished
+     * without closing the file.
+     */
+    private static class UnclosableOutputStream extends FilterOutputStream {
+        UnclosableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Sink writing recommendations and checkpoints.  The batch driver serializes calls to it.
+     */
+    private static class RecSink implements BatchScoringDriver.Sink<ResultList> {
+        private final SegmentedOutput output;
+        private final RecommendationCheckpoint checkpoint;
+        private final int interval;
+        private final ProgressLogger progress;
+        private final LongList pending = new LongArrayList();
+
+        RecSink(SegmentedOutput out, RecommendationCheckpoint cp, int iv, ProgressLogger prog) {
+            output = out;
+            checkpoint = cp;
+            interval = iv;
+            progress = prog;
+        }
+
+        @Override
+        public void accept(long user, ResultList recs) throws IOException {
+            TableWriter writer = output.getWriter();
+            int rank = 0;
+            for (Result r: recs) {
+                rank += 1;
+                writer.writeRow(user, rank, r.getId(), r.getScore());
+            }
+            progress.advance();
+            if (checkpoint != null) {
+                pending.add(user);
+                if (pending.size() >= interval) {
+                    checkpoint();
+                }
+            }
+        }
+
+        private void checkpoint() throws IOException {
+            long length = output.finishSegment();
+            checkpoint.record(pending, length);
+            pending.clear();
+        }
+
+        /**
+         * Record the final checkpoint.  This is only called if all users were written, so a failed
+         * run resumes from the last complete checkpoint.
+         */
+        void finish() throws IOException {
+            if (checkpoint != null && !pending.isEmpty()) {
+                checkpoint();
+            }
+        }
+    }
+}
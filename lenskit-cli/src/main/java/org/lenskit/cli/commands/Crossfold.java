@@ -153,6 +153,18 @@ public class Crossfold implements Command {
             cf.setOutputDir(dir);
         }
 
+        if (options.getBoolean("streaming")) {
+            cf.setStreaming(true);
+        }
+        Long seed = options.get("hash_seed");
+        if (seed != null) {
+            cf.setHashSeed(seed);
+        }
+        Integer nbuckets = options.get("spill_buckets");
+        if (nbuckets != null) {
+            cf.setSpillBucketCount(nbuckets);
+        }
+
         return cf;
     }
 
@@ -183,6 +195,21 @@ public class Crossfold implements Command {
               .setDefault("rating")
               .help("specify the type of entity to crossfold");
 
+        parser.addArgument("--streaming")
+              .action(Arguments.storeTrue())
+              .dest("streaming")
+              .help("crossfold in one pass over the input, without loading it into memory");
+        parser.addArgument("--hash-seed")
+              .metavar("SEED")
+              .type(Long.class)
+              .dest("hash_seed")
+              .help("seed for assigning IDs to partitions when streaming");
+        parser.addArgument("--spill-buckets")
+              .metavar("N")
+              .type(Integer.class)
+              .dest("spill_buckets")
+              .help("spill test ratings to N files when streaming (default: chosen from input size)");
+
         parser.addArgument("-k", "--partition-count")
               .metavar("K")
               .dest("partitions")
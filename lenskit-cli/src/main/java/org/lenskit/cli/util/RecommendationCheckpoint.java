@@ -0,0 +1,166 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.cli.util;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A checkpoint file for resumable batch output.  The checkpoint records the users whose output has
+ * been completely written, along with the length of the output file after their output.  A resumed
+ * run truncates the output to that length and skips the completed users.
+ *
+ * <p>The file is a text file that is only ever appended to.  Each checkpoint is a block of user IDs,
+ * one per line, followed by a line containing {@code @} and the output length.  Only lines ending in
+ * a newline are read, so a checkpoint whose last line was only partly written is not taken as complete.
+ * Anything after the last complete checkpoint (e.g. from a process that died while writing the
+ * checkpoint) is ignored, and removed from the file when it is opened.</p>
+ */
+public class RecommendationCheckpoint implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RecommendationCheckpoint.class);
+
+    private final File file;
+    private final LongSet completedUsers;
+    private final long outputLength;
+    private FileOutputStream stream;
+    private Writer writer;
+
+    private RecommendationCheckpoint(File file, LongSet users, long length) {
+        this.file = file;
+        completedUsers = users;
+        outputLength = length;
+    }
+
+    /**
+     * Open a checkpoint file, reading any checkpoints it already contains.
+     *
+     * @param file The checkpoint file.  It does not need to exist.
+     * @return The checkpoint.
+     * @throws IOException if there is an error reading the checkpoint file.
+     */
+    public static RecommendationCheckpoint open(File file) throws IOException {
+        LongSet users = new LongOpenHashSet();
+        LongList pending = new LongArrayList();
+        long length = 0;
+        if (file.exists()) {
+            // position just past the last complete checkpoint
+            long valid = 0;
+            long pos = 0;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                StringBuilder line = new StringBuilder();
+                int c;
+                while ((c = in.read()) >= 0) {
+                    pos += 1;
+                    if (c != '\n') {
+                        // checkpoints are ASCII
+                        line.append((char) c);
+                        continue;
+                    }
+                    try {
+                        if (line.length() == 0) {
+                            continue;
+                        } else if (line.charAt(0) == '@') {
+                            length = Long.parseLong(line.substring(1));
+                            users.addAll(pending);
+                            pending.clear();
+                            valid = pos;
+                        } else {
+                            pending.add(Long.parseLong(line.toString()));
+                        }
+                    } catch (NumberFormatException e) {
+                        // a damaged line; the block is discarded below
+                        logger.debug("ignoring malformed checkpoint line {}", line);
+                        pending.clear();
+                    } finally {
+                        line.setLength(0);
+                    }
+                }
+            }
+            if (pos > valid) {
+                logger.warn("{}: ignoring incomplete checkpoint after byte {}", file, valid);
+                // drop the partial block so new checkpoints are not appended to it
+                try (FileChannel chan = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    chan.truncate(valid);
+                }
+            }
+            logger.info("{}: resuming after {} completed users", file, users.size());
+        }
+        return new RecommendationCheckpoint(file, users, length);
+    }
+
+    /**
+     * Get the users that have been completed in previous runs.
+     * @return The set of completed users.
+     */
+    public LongSet getCompletedUsers() {
+        return LongSets.unmodifiable(completedUsers);
+    }
+
+    /**
+     * Get the length of the output as of the last checkpoint.
+     * @return The number of bytes of output that belong to completed users.
+     */
+    public long getOutputLength() {
+        return outputLength;
+    }
+
+    /**
+     * Record a checkpoint.  The checkpoint is synced to disk before this method returns.
+     *
+     * @param users The users completed since the last checkpoint.
+     * @param length The length of the output file after the users' output.
+     * @throws IOException if there is an error writing the checkpoint.
+     */
+    public synchronized void record(LongList users, long length) throws IOException {
+        if (writer == null) {
+            stream = new FileOutputStream(file, true);
+            writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        }
+        for (int i = 0, n = users.size(); i < n; i++) {
+            writer.write(Long.toString(users.getLong(i)));
+            writer.write('\n');
+        }
+        writer.write('@');
+        writer.write(Long.toString(length));
+        writer.write('\n');
+        writer.flush();
+        stream.getFD().sync();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            stream = null;
+        }
+    }
+}
@@ -212,4 +212,16 @@ public class CrossfoldTest {
         assertThat(cf.outputFormat, equalTo(OutputFormat.CSV_GZIP))
         assertThat(cf.outputDir, equalTo(Paths.get("crossfold")))
     }
+
+    @Test
+    public void testStreaming() throws ArgumentParserException, IOException {
+        String[] args = ["--output-dir", "crossfold", "--streaming", "--hash-seed", "42"]
+        Namespace options = parser.parseArgs(args)
+        Crossfolder cf = command.configureCrossfolder(options)
+
+        assertThat(cf.streaming, equalTo(true))
+        assertThat(cf.hashSeed, equalTo(42L))
+        assertThat(cf.method,
+                equalTo(CrossfoldMethods.partitionUsers(SortOrder.RANDOM, HistoryPartitions.holdout(10))))
+    }
 }
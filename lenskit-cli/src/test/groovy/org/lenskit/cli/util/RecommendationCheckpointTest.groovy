@@ -0,0 +1,86 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.cli.util
+
+import it.unimi.dsi.fastutil.longs.LongArrayList
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.hamcrest.Matchers.*
+import static org.junit.Assert.assertThat
+
+class RecommendationCheckpointTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    @Test
+    void testMissingFile() {
+        def cp = RecommendationCheckpoint.open(new File(folder.root, 'missing.txt'))
+        assertThat(cp.completedUsers, hasSize(0))
+        assertThat(cp.outputLength, equalTo(0L))
+    }
+
+    @Test
+    void testRecordAndResume() {
+        def file = new File(folder.root, 'checkpoint.txt')
+        def cp = RecommendationCheckpoint.open(file)
+        cp.record(LongArrayList.wrap([42L, 39L] as long[]), 100)
+        cp.record(LongArrayList.wrap([7L] as long[]), 250)
+        cp.close()
+
+        def resumed = RecommendationCheckpoint.open(file)
+        assertThat(resumed.completedUsers, containsInAnyOrder(42L, 39L, 7L))
+        assertThat(resumed.outputLength, equalTo(250L))
+    }
+
+    @Test
+    void testIgnoreIncompleteCheckpoint() {
+        def file = new File(folder.root, 'checkpoint.txt')
+        file.text = '42\n39\n@100\n7\n1'
+        def cp = RecommendationCheckpoint.open(file)
+        assertThat(cp.completedUsers, containsInAnyOrder(42L, 39L))
+        assertThat(cp.outputLength, equalTo(100L))
+    }
+
+    @Test
+    void testIgnoreTornLength() {
+        def file = new File(folder.root, 'checkpoint.txt')
+        file.text = '42\n39\n@100\n7\n@12'
+        def cp = RecommendationCheckpoint.open(file)
+        assertThat(cp.completedUsers, containsInAnyOrder(42L, 39L))
+        assertThat(cp.outputLength, equalTo(100L))
+    }
+
+    @Test
+    void testAppendAfterTornCheckpoint() {
+        def file = new File(folder.root, 'checkpoint.txt')
+        file.text = '42\n@100\n7\n@12'
+        def cp = RecommendationCheckpoint.open(file)
+        assertThat(file.text, equalTo('42\n@100\n'))
+        cp.record(LongArrayList.wrap([7L, 8L] as long[]), 1234)
+        cp.close()
+
+        def resumed = RecommendationCheckpoint.open(file)
+        assertThat(resumed.completedUsers, containsInAnyOrder(42L, 7L, 8L))
+        assertThat(resumed.outputLength, equalTo(1234L))
+    }
+}
@@ -29,7 +29,9 @@ import org.grouplens.grapht.reflect.Qualifiers;
 import org.grouplens.grapht.reflect.Satisfaction;
 import org.grouplens.grapht.reflect.internal.InstanceSatisfaction;
 import org.grouplens.grapht.solver.DependencySolver;
+import org.lenskit.util.io.BinaryObjectOutputStream;
 import org.lenskit.util.io.CompressionMode;
+import org.lenskit.util.io.ParallelGzipOutputStream;
 import org.lenskit.api.RecommenderBuildException;
 import org.lenskit.api.RecommenderEngine;
 import org.lenskit.data.dao.DataAccessObject;
@@ -150,14 +152,19 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
      * default object serialization so if the factory has a PicoContainer or
      * session bindings containing non-serializable types, this will fail.
      *
+     * GZIP output is compressed in parallel blocks (see {@link ParallelGzipOutputStream}).
+     *
      * @param file The file to write the rec engine to.
      * @param compressed Whether to compress the output file.
      * @throws IOException if there is an error serializing the engine.
      * @see #write(OutputStream)
      */
     public void write(@Nonnull File file, CompressionMode compressed) throws IOException {
-        try (OutputStream out = new FileOutputStream(file);
-             OutputStream zout = compressed.getEffectiveCompressionMode(file.getName()).wrapOutput(out)) {
+        CompressionMode mode = compressed.getEffectiveCompressionMode(file.getName());
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+             OutputStream zout = mode == CompressionMode.GZIP
+                     ? new ParallelGzipOutputStream(out)
+                     : mode.wrapOutput(out)) {
             write(zout);
         }
     }
@@ -166,14 +173,16 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
      * Write the state of this recommender engine to the given stream so
      * that it can be recreated later using another DAOFactory. This uses
      * default object serialization so if the factory has session bindings
-     * containing non-serializable types, this will fail.
+     * containing non-serializable types, this will fail.  Components with a
+     * {@linkplain org.lenskit.util.io.BinaryFormat binary format} are written with
+     * their binary codecs.
      *
      * @param stream The file to write the rec engine to.
      * @throws IOException if there is an error serializing the engine.
      * @see #load(InputStream)
      */
     public void write(@Nonnull @WillClose OutputStream stream) throws IOException {
-        try (ObjectOutputStream out = new ObjectOutputStream(stream)) {
+        try (ObjectOutputStream out = new BinaryObjectOutputStream(stream)) {
             out.writeObject(graph);
         }
     }
@@ -20,6 +20,7 @@
  */
 package org.lenskit;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import org.apache.commons.lang3.tuple.Pair;
 import org.grouplens.grapht.Component;
@@ -33,10 +34,15 @@ import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.inject.GraphtUtils;
 import org.lenskit.inject.RecommenderGraphBuilder;
 import org.lenskit.inject.RecommenderInstantiator;
+import org.lenskit.util.ProgressLogger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Builds LensKit recommender engines from configurations.
@@ -55,8 +61,14 @@ import java.util.List;
  */
 public class LenskitRecommenderEngineBuilder {
     private static final Logger logger = LoggerFactory.getLogger(LenskitRecommenderEngineBuilder.class);
+    /**
+     * The number of slowest components to log after instantiating a graph.
+     */
+    private static final int SLOW_COMPONENT_COUNT = 5;
     private ClassLoader classLoader = ClassLoaders.inferDefault(getClass());
     private List<Pair<LenskitConfiguration,ModelDisposition>> configurations = Lists.newArrayList();
+    private int threadCount = 1;
+    private Map<DAGNode<Component, Dependency>, Long> buildTimes = Collections.emptyMap();
 
     /**
      * Get the class loader this builder will use.  By default, it uses the thread's current context
@@ -78,6 +90,42 @@ public class LenskitRecommenderEngineBuilder {
         return this;
     }
 
+    /**
+     * Get the number of threads this builder will use to instantiate components.
+     *
+     * @return The number of threads.
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Set the number of threads to use to instantiate components.  If greater than 1, shareable
+     * components (such as models) that do not depend on each other are built in parallel; see
+     * {@link RecommenderInstantiator#instantiate(ForkJoinPool)}.  The default is 1, building
+     * components one at a time.
+     *
+     * @param n The number of threads.
+     * @return The builder (for chaining).
+     */
+    public LenskitRecommenderEngineBuilder setThreadCount(int n) {
+        Preconditions.checkArgument(n > 0, "thread count must be positive");
+        threadCount = n;
+        return this;
+    }
+
+    /**
+     * Get the time taken to build each shareable component in the most recent build.  The slowest
+     * components are also logged at the end of each build.
+     *
+     * @return A map of the nodes of the recommender graph to their build times, in nanoseconds.
+     *         It is empty if nothing has been built yet.
+     * @see RecommenderInstantiator#getBuildTimes()
+     */
+    public Map<DAGNode<Component, Dependency>, Long> getBuildTimes() {
+        return buildTimes;
+    }
+
     /**
      * Add a configuration to be included in the recommender engine.  This is the equivalent of
      * calling {@link #addConfiguration(LenskitConfiguration, ModelDisposition)} with the {@link ModelDisposition#INCLUDED}.
@@ -186,10 +234,33 @@ public class LenskitRecommenderEngineBuilder {
     protected DAGNode<Component, Dependency> instantiateGraph(DAGNode<Component, Dependency> graph) {
         RecommenderInstantiator inst = RecommenderInstantiator.create(graph);
 
-        graph = inst.instantiate();
+        if (threadCount > 1) {
+            ForkJoinPool pool = new ForkJoinPool(threadCount);
+            try {
+                graph = inst.instantiate(pool);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            graph = inst.instantiate();
+        }
+        buildTimes = inst.getBuildTimes();
+        logSlowestComponents();
         return graph;
     }
 
+    private void logSlowestComponents() {
+        if (buildTimes.isEmpty() || !logger.isInfoEnabled()) {
+            return;
+        }
+        List<Map.Entry<DAGNode<Component, Dependency>, Long>> times = new ArrayList<>(buildTimes.entrySet());
+        times.sort(Map.Entry.<DAGNode<Component, Dependency>, Long>comparingByValue().reversed());
+        for (Map.Entry<DAGNode<Component, Dependency>, Long> e: times.subList(0, Math.min(SLOW_COMPONENT_COUNT, times.size()))) {
+            logger.info("built {} in {}", e.getKey().getLabel().getSatisfaction(),
+                        ProgressLogger.formatElapsedTime(e.getValue() * 1.0e-9));
+        }
+    }
+
     /**
      * Remove configuration that should be excluded from engine graphs, particularly the DAO.
      *
@@ -0,0 +1,188 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.basic;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.ResultList;
+import org.lenskit.api.ResultMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Drive batch scoring or recommendation for many users in parallel.  The users are split into
+ * batches of a fixed size; each worker thread gets its own scorer or recommender from a supplier
+ * and processes batches with {@link ItemScorer#scoreBatch(List, Collection)} or
+ * {@link ItemRecommender#recommendBatch(List, int)}, passing each user's results to a sink.
+ *
+ * <p>Calls to the sink are serialized, so sinks do not need to be thread-safe.  Users are delivered
+ * in the order their batches complete, not in the order of the user list.  If any batch fails, the
+ * remaining batches are abandoned and the failure is rethrown.</p>
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public class BatchScoringDriver {
+    private static final Logger logger = LoggerFactory.getLogger(BatchScoringDriver.class);
+
+    private final int threadCount;
+    private final int batchSize;
+
+    /**
+     * Receive per-user results from a batch run.
+     *
+     * @param <R> The result type.
+     */
+    @FunctionalInterface
+    public interface Sink<R> {
+        /**
+         * Accept the results for a user.
+         *
+         * @param user The user ID.
+         * @param results The user's results.
+         * @throws IOException if there is an error writing the results.
+         */
+        void accept(long user, R results) throws IOException;
+    }
+
+    /**
+     * Create a new batch driver.
+     *
+     * @param threads The number of worker threads.
+     * @param batch The number of users in each batch.
+     */
+    public BatchScoringDriver(int threads, int batch) {
+        Preconditions.checkArgument(threads > 0, "thread count must be positive");
+        Preconditions.checkArgument(batch > 0, "batch size must be positive");
+        threadCount = threads;
+        batchSize = batch;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Score a set of items for every user.
+     *
+     * @param scorers A supplier of item scorers; it is called once by each worker thread.
+     * @param users The users to score.
+     * @param items The items to score for each user.
+     * @param sink The sink to receive each user's scores.
+     * @throws IOException if the sink fails.
+     */
+    public void scoreAll(Supplier<? extends ItemScorer> scorers, LongList users,
+                         Collection<Long> items, Sink<? super ResultMap> sink) throws IOException {
+        run(() -> {
+            ItemScorer scorer = scorers.get();
+            return batch -> scorer.scoreBatch(batch, items);
+        }, users, sink);
+    }
+
+    /**
+     * Compute top-<em>N</em> recommendations for every user.
+     *
+     * @param recommenders A supplier of item recommenders; it is called once by each worker thread.
+     * @param users The users for whom to recommend.
+     * @param n The number of recommendations per user.
+     * @param sink The sink to receive each user's recommendations.
+     * @throws IOException if the sink fails.
+     */
+    public void recommendAll(Supplier<? extends ItemRecommender> recommenders, LongList users,
+                             int n, Sink<? super ResultList> sink) throws IOException {
+        run(() -> {
+            ItemRecommender rec = recommenders.get();
+            return batch -> rec.recommendBatch(batch, n);
+        }, users, sink);
+    }
+
+    private <R> void run(Supplier<Function<List<Long>, Map<Long, R>>> workers, LongList users,
+                         Sink<? super R> sink) throws IOException {
+        final int nbatches = (users.size() + batchSize - 1) / batchSize;
+        final int nthreads = Math.max(1, Math.min(threadCount, nbatches));
+        logger.info("processing {} users in {} batches with {} threads",
+                    users.size(), nbatches, nthreads);
+
+        AtomicInteger nextBatch = new AtomicInteger();
+        Object sinkLock = new Object();
+        ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+        try {
+            CompletionService<Void> tasks = new ExecutorCompletionService<>(pool);
+            for (int t = 0; t < nthreads; t++) {
+                tasks.submit(() -> {
+                    Function<List<Long>, Map<Long, R>> worker = workers.get();
+                    int b;
+                    while ((b = nextBatch.getAndIncrement()) < nbatches) {
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException("batch scoring interrupted");
+                        }
+                        int start = b * batchSize;
+                        List<Long> batch = users.subList(start, Math.min(start + batchSize, users.size()));
+                        Map<Long, R> results = worker.apply(batch);
+                        synchronized (sinkLock) {
+                            for (Map.Entry<Long, R> e: results.entrySet()) {
+                                sink.accept(e.getKey(), e.getValue());
+                            }
+                        }
+                    }
+                    return null;
+                });
+            }
+
+            for (int t = 0; t < nthreads; t++) {
+                try {
+                    tasks.take().get();
+                } catch (ExecutionException e) {
+                    // stop the other workers from picking up new batches
+                    nextBatch.set(nbatches);
+                    pool.shutdownNow();
+                    Throwable cause = e.getCause();
+                    Throwables.throwIfInstanceOf(cause, IOException.class);
+                    Throwables.throwIfUnchecked(cause);
+                    throw new RuntimeException("error in batch scoring", cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("batch scoring interrupted", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
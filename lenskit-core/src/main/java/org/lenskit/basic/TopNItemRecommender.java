@@ -22,6 +22,10 @@ package org.lenskit.basic;
 
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.ItemScorer;
 import org.lenskit.api.Result;
@@ -114,6 +118,42 @@ public class TopNItemRecommender extends AbstractItemRecommender {
         return getTopNResults(n, scores);
     }
 
+    /**
+     * Implement batch recommendation by computing each user's effective candidates, scoring the union
+     * of the candidate sets for all users with {@link ItemScorer#scoreBatch(List, Collection)}, and
+     * picking each user's top N from their own candidates.
+     */
+    @Nonnull
+    @Override
+    public Map<Long, ResultList> recommendBatch(@Nonnull List<Long> users, int n) {
+        Long2ObjectMap<LongSet> userCandidates = new Long2ObjectOpenHashMap<>(users.size());
+        LongSet allCandidates = new LongOpenHashSet();
+        for (Long user: users) {
+            LongSet cands = getEffectiveCandidates(user, null, null);
+            userCandidates.put((long) user, cands);
+            allCandidates.addAll(cands);
+        }
+        logger.debug("Computing {} recommendations for {} users from {} candidates",
+                     n, users.size(), allCandidates.size());
+
+        Map<Long, ResultMap> scores = scorer.scoreBatch(users, allCandidates);
+        Map<Long, ResultList> results = new Long2ObjectLinkedOpenHashMap<>(users.size());
+        for (Long user: users) {
+            LongSet cands = userCandidates.get((long) user);
+            ResultAccumulator accum = ResultAccumulator.create(n);
+            ResultMap userScores = scores.get(user);
+            if (userScores != null) {
+                for (Result r: userScores) {
+                    if (cands.contains(r.getId())) {
+                        accum.add(r);
+                    }
+                }
+            }
+            results.put(user, accum.finish());
+        }
+        return results;
+    }
+
     private LongSet getEffectiveCandidates(long user, LongSet candidates, LongSet exclude) {
         if (candidates == null) {
             candidates = getPredictableItems(user);
@@ -20,14 +20,13 @@
  */
 package org.lenskit.bias;
 
-import it.unimi.dsi.fastutil.longs.LongIterator;
-import it.unimi.dsi.fastutil.longs.LongIterators;
-import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.*;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.LongSortedArraySet;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
@@ -76,4 +75,37 @@ public class BiasItemScorer extends AbstractItemScorer {
         }
         return Results.newResultMap(results);
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation looks up the item biases once for all users.</p>
+     */
+    @Nonnull
+    @Override
+    public Map<Long, ResultMap> scoreBatch(@Nonnull List<Long> users, @Nonnull Collection<Long> items) {
+        LongSortedArraySet itemSet = LongUtils.packedSet(items);
+        Long2DoubleMap itemBiases = model.getItemBiases(itemSet);
+        final int n = itemSet.size();
+        long[] ids = new long[n];
+        double[] biases = new double[n];
+        LongIterator iter = itemSet.iterator();
+        for (int j = 0; j < n; j++) {
+            ids[j] = iter.nextLong();
+            biases[j] = itemBiases.get(ids[j]);
+        }
+
+        Long2ObjectMap<ResultMap> results = new Long2ObjectLinkedOpenHashMap<>(users.size());
+        LongIterator uiter = LongIterators.asLongIterator(users.iterator());
+        while (uiter.hasNext()) {
+            long user = uiter.nextLong();
+            double base = model.getIntercept() + model.getUserBias(user);
+            List<Result> scores = new ArrayList<>(n);
+            for (int j = 0; j < n; j++) {
+                scores.add(Results.create(ids[j], base + biases[j]));
+            }
+            results.put(user, Results.newResultMap(scores));
+        }
+        return results;
+    }
 }
@@ -20,6 +20,8 @@
  */
 package org.lenskit.data.dao;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Ordering;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.longs.LongSets;
@@ -73,6 +75,32 @@ public class EntityCollectionDAO extends AbstractDataAccessObject implements Des
         return newBuilder().addEntities(data).build();
     }
 
+    /**
+     * Create a DAO from existing entity collections, such as those loaded from a
+     * {@link org.lenskit.data.store.EntityCollectionSnapshot}.
+     * @param collections The entity collections, keyed by entity type.
+     * @return The DAO.
+     */
+    public static EntityCollectionDAO fromCollections(Map<EntityType, EntityCollection> collections) {
+        for (Map.Entry<EntityType, EntityCollection> e: collections.entrySet()) {
+            Preconditions.checkArgument(e.getValue().getType().equals(e.getKey()),
+                                        "collection for %s has type %s", e.getKey(), e.getValue().getType());
+        }
+        return new EntityCollectionDAO(ImmutableMap.copyOf(collections));
+    }
+
+
+    /**
+     * Get the collection storing entities of a type.  This allows code to use optimized
+     * collections such as {@link org.lenskit.data.store.RatingEntityCollection} directly.
+     *
+     * @param type The entity type.
+     * @return The collection of entities of type {@code type}, or {@code null} if there are none.
+     */
+    @Nullable
+    public EntityCollection getEntityCollection(EntityType type) {
+        return storage.get(type);
+    }
 
     @Override
     public Set<EntityType> getEntityTypes() {
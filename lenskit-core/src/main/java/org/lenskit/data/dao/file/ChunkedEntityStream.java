@@ -0,0 +1,264 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.data.dao.file;
+
+import com.google.common.base.Charsets;
+import org.lenskit.data.dao.DataAccessException;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.util.io.AbstractObjectStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Stream that parses entities from a text file in parallel.
+ *
+ * <p>The file is split into chunks of roughly equal size that end on line boundaries.  Worker
+ * threads read each chunk with positional reads, split it into lines, and parse the lines with
+ * their own parser, which is first advanced past the lines of all earlier chunks so that line
+ * numbers (and IDs derived from them) are the same as in a sequential parse.  A bounded window
+ * of chunks is in flight at any time, and the stream returns their entities in file order.
+ */
+class ChunkedEntityStream extends AbstractObjectStream<Entity> {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedEntityStream.class);
+    static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int SCAN_BLOCK_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final EntityFormat format;
+    private final List<String> header;
+    private final long[] bounds;
+    private final ForkJoinPool pool;
+    private final int window;
+
+    private final Deque<CompletableFuture<List<Entity>>> pending = new ArrayDeque<>();
+    private CompletableFuture<Integer> nextStartLine;
+    private int nextChunk = 0;
+    private List<Entity> current = Collections.emptyList();
+    private int position = 0;
+
+    private ChunkedEntityStream(FileChannel chan, EntityFormat fmt, List<String> hdr, long[] bnds) {
+        channel = chan;
+        format = fmt;
+        header = hdr;
+        bounds = bnds;
+        pool = ForkJoinPool.commonPool();
+        window = 2 * pool.getParallelism();
+        nextStartLine = CompletableFuture.completedFuture(0);
+    }
+
+    /**
+     * Open a file for parallel parsing.
+     *
+     * @param file      The file to read.  It must not be compressed.
+     * @param format    The entity format.  Its parsers must support {@link LineEntityParser#skipLines(int)}.
+     * @param chunkSize The approximate size of each chunk, in bytes.
+     * @return The entity stream.
+     * @throws IOException if there is an error opening the file or reading its header.
+     * @throws UnsupportedOperationException if the format's parsers cannot skip lines.
+     */
+    static ChunkedEntityStream open(Path file, EntityFormat format, int chunkSize) throws IOException {
+        FileChannel chan = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = chan.size();
+            long pos = 0;
+            List<String> header = new ArrayList<>();
+            while (header.size() < format.getHeaderLines()) {
+                if (pos >= size) {
+                    throw new IOException(String.format("%s: expected %d header lines, found %d",
+                                                        file, format.getHeaderLines(), header.size()));
+                }
+                long end = findLineEnd(chan, pos, size);
+                List<String> lines = splitLines(readRange(chan, pos, end));
+                header.add(lines.isEmpty() ? "" : lines.get(0));
+                pos = end;
+            }
+            // fail early, in the caller, if this format cannot be parsed in chunks
+            format.makeParser(header).skipLines(0);
+
+            List<Long> starts = new ArrayList<>();
+            while (pos < size) {
+                starts.add(pos);
+                long nominal = pos + chunkSize;
+                pos = nominal >= size ? size : findLineEnd(chan, nominal, size);
+            }
+            long[] bounds = new long[starts.size() + 1];
+            for (int i = 0; i < starts.size(); i++) {
+                bounds[i] = starts.get(i);
+            }
+            bounds[starts.size()] = size;
+            logger.debug("reading {} in {} chunks", file, starts.size());
+            return new ChunkedEntityStream(chan, format, header, bounds);
+        } catch (IOException | RuntimeException e) {
+            try {
+                chan.close();
+            } catch (IOException e2) {
+                e.addSuppressed(e2);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Find the end of the line containing a position.
+     * @return The offset just past the first newline at or after {@code pos}, or {@code size}.
+     */
+    private static long findLineEnd(FileChannel chan, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_BLOCK_SIZE);
+        while (pos < size) {
+            buf.clear();
+            int n = chan.read(buf, pos);
+            if (n < 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static byte[] readRange(FileChannel chan, long start, long end) throws IOException {
+        byte[] bytes = new byte[(int) (end - start)];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) {
+            int n = chan.read(buf, start + buf.position());
+            if (n < 0) {
+                throw new IOException("file truncated while reading");
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Split bytes into lines with the same rules as {@link java.io.BufferedReader#readLine()}.
+     */
+    static List<String> splitLines(byte[] bytes) {
+        String text = new String(bytes, Charsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        int n = text.length();
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                lines.add(text.substring(start, i));
+                if (c == '\r' && i + 1 < n && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        if (start < n) {
+            lines.add(text.substring(start));
+        }
+        return lines;
+    }
+
+    private List<String> readChunk(int chunk) {
+        try {
+            return splitLines(readRange(channel, bounds[chunk], bounds[chunk + 1]));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<Entity> parseChunk(LineEntityParser parser, List<String> lines, int firstLine) {
+        parser.skipLines(firstLine);
+        List<Entity> entities = new ArrayList<>(lines.size());
+        for (String line: lines) {
+            entities.add(parser.parse(line));
+        }
+        return entities;
+    }
+
+    /**
+     * Start reading and parsing the next chunk.
+     */
+    private void submitChunk() {
+        final int chunk = nextChunk++;
+        // parsers are created on this thread, so formats need not be thread-safe
+        final LineEntityParser parser = format.makeParser(header);
+        CompletableFuture<List<String>> lines = CompletableFuture.supplyAsync(() -> readChunk(chunk), pool);
+        CompletableFuture<Integer> startLine = nextStartLine;
+        nextStartLine = startLine.thenCombine(lines, (s, ls) -> s + ls.size());
+        pending.add(lines.thenCombineAsync(startLine, (ls, s) -> parseChunk(parser, ls, s), pool));
+    }
+
+    @Override
+    public Entity readObject() {
+        while (position >= current.size()) {
+            while (nextChunk < bounds.length - 1 && pending.size() < window) {
+                submitChunk();
+            }
+            CompletableFuture<List<Entity>> next = pending.poll();
+            if (next == null) {
+                current = Collections.emptyList();
+                return null;
+            }
+            current = join(next);
+            position = 0;
+        }
+        return current.get(position++);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw new DataAccessException("error reading file", cause.getCause());
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new DataAccessException(cause);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (CompletableFuture<?> f: pending) {
+            f.cancel(false);
+        }
+        pending.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new DataAccessException("error closing file", e);
+        }
+    }
+}
@@ -429,5 +429,10 @@ public class DelimitedColumnEntityFormat implements EntityFormat {
 
             return builder.build();
         }
+
+        @Override
+        public void skipLines(int n) {
+            lineNo += n;
+        }
     }
 }
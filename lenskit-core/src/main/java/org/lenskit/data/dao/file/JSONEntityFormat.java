@@ -212,6 +212,11 @@ public class JSONEntityFormat implements EntityFormat {
             mapper = new ObjectMapper();
         }
 
+        @Override
+        public void skipLines(int n) {
+            lineNo += n;
+        }
+
         @SuppressWarnings("unchecked")
         @Override
         public Entity parse(String line) {
@@ -38,6 +38,18 @@ public abstract class LineEntityParser implements Function<String,Entity> {
      */
     public abstract Entity parse(String line);
 
+    /**
+     * Advance the parser past lines it will not see, as if they had been parsed.  This lets a
+     * parser start in the middle of a file (e.g. when chunks of a file are parsed in parallel)
+     * while numbering lines, and generating line-based IDs, exactly as a sequential parse would.
+     *
+     * @param n The number of lines to skip.
+     * @throws UnsupportedOperationException if the parser cannot skip lines.
+     */
+    public void skipLines(int n) {
+        throw new UnsupportedOperationException("parser cannot skip lines");
+    }
+
     @Nullable
     @Override
     public Entity apply(@Nullable String input) {
@@ -28,12 +28,17 @@ import com.google.common.collect.*;
 import com.google.common.util.concurrent.Monitor;
 import org.lenskit.data.dao.DataAccessException;
 import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.EntityCollectionDAO;
 import org.lenskit.data.dao.EntityCollectionDAOBuilder;
 import org.lenskit.data.entities.*;
 import org.lenskit.data.ratings.PreferenceDomain;
 import org.lenskit.data.ratings.PreferenceDomainBuilder;
+import org.lenskit.data.store.EntityCollection;
+import org.lenskit.data.store.EntityCollectionSnapshot;
 import org.lenskit.util.describe.Describable;
 import org.lenskit.util.describe.DescriptionWriter;
+import org.lenskit.util.describe.Descriptions;
+import org.lenskit.util.describe.HashDescriptionWriter;
 import org.lenskit.util.io.LKFileUtils;
 import org.lenskit.util.io.ObjectStream;
 import org.lenskit.util.parallel.Blockers;
@@ -47,7 +52,9 @@ import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 /**
@@ -65,6 +72,8 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
     private Set<EntityDerivation> derivations = Sets.newLinkedHashSet();
     private final Monitor monitor = new Monitor();
     private volatile SoftReference<DataAccessObject> cachedDao;
+    @Nullable
+    private Path snapshotFile;
 
     /**
      * Construct a new data layout object.
@@ -155,6 +164,31 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
         derivations.add(deriv);
     }
 
+    /**
+     * Set the file in which to keep a binary snapshot of the loaded data.  When a snapshot file is
+     * configured, the data source loads its entities from the snapshot if it is up to date, and
+     * writes a new snapshot after parsing the source files otherwise.  The snapshot is keyed by the
+     * configuration, size, and modification time of each source file, so changing any of them
+     * invalidates it.
+     *
+     * Snapshots are only used when every source is a {@link TextEntitySource} and all of the resulting
+     * entity collections can be stored in a snapshot (see {@link EntityCollectionSnapshot}).
+     *
+     * @param file The snapshot file, or {@code null} to disable snapshots.
+     */
+    public void setSnapshotFile(@Nullable Path file) {
+        snapshotFile = file;
+    }
+
+    /**
+     * Get the snapshot file.
+     * @return The file in which data snapshots are stored, or {@code null} if snapshots are disabled.
+     */
+    @Nullable
+    public Path getSnapshotFile() {
+        return snapshotFile;
+    }
+
     /**
      * Get the list of entity sources.
      * @return The list of entity sources.
@@ -200,7 +234,7 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
                 dao = cache != null ? cache.get() : null;
                 if (dao == null) {
                     try {
-                        dao = makeDAO();
+                        dao = loadDAO();
                         cachedDao = new SoftReference<>(dao);
                     } catch (IOException e) {
                         throw new DataAccessException("cannot load data", e);
@@ -237,7 +271,74 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
         return domain;
     }
 
-    private DataAccessObject makeDAO() throws IOException {
+    private DataAccessObject loadDAO() throws IOException {
+        Path snap = snapshotFile;
+        String key = snap != null ? computeSnapshotKey() : null;
+        if (key != null) {
+            Map<EntityType, EntityCollection> data = null;
+            try {
+                data = EntityCollectionSnapshot.read(snap, key);
+            } catch (IOException | RuntimeException e) {
+                // a damaged snapshot is only a cache; discard it and rebuild from the source files
+                logger.warn("cannot read snapshot " + snap + ", discarding it", e);
+                try {
+                    Files.deleteIfExists(snap);
+                } catch (IOException ex) {
+                    logger.warn("cannot delete snapshot {}: {}", snap, ex.toString());
+                }
+            }
+            if (data != null) {
+                logger.info("loaded {} from snapshot {}", name, snap);
+                return EntityCollectionDAO.fromCollections(data);
+            }
+        }
+
+        EntityCollectionDAO dao = makeDAO();
+        if (key != null) {
+            Map<EntityType, EntityCollection> data = new LinkedHashMap<>();
+            for (EntityType type: dao.getEntityTypes()) {
+                data.put(type, dao.getEntityCollection(type));
+            }
+            if (data.values().stream().allMatch(EntityCollectionSnapshot::isSupported)) {
+                try {
+                    EntityCollectionSnapshot.write(snap, key, data);
+                } catch (IOException e) {
+                    logger.warn("cannot write snapshot " + snap, e);
+                }
+            } else {
+                logger.info("{} has collections that cannot be snapshotted", name);
+            }
+        }
+        return dao;
+    }
+
+    /**
+     * Compute the key identifying the current state of this data source's files.
+     * @return The snapshot key, or {@code null} if the data cannot be snapshotted.
+     */
+    @Nullable
+    private String computeSnapshotKey() {
+        HashDescriptionWriter writer = Descriptions.sha1Writer();
+        writer.putField("version", EntityCollectionSnapshot.VERSION);
+        for (EntitySource source: sources) {
+            if (!(source instanceof TextEntitySource)) {
+                logger.info("{} has non-file source {}, not using snapshot", name, source);
+                return null;
+            }
+            TextEntitySource text = (TextEntitySource) source;
+            writer.putField("source", text.toJSON(null).toString());
+            text.describeTo(writer);
+        }
+        for (Map.Entry<EntityType, TypedName<?>> iae: indexedAttributes.entries()) {
+            writer.putField("index", iae.getKey() + ":" + iae.getValue());
+        }
+        for (EntityDerivation deriv: derivations) {
+            writer.putField("derivation", deriv.getType() + ":" + deriv.getSourceType() + ":" + deriv.getAttribute());
+        }
+        return writer.finish().toString();
+    }
+
+    private EntityCollectionDAO makeDAO() throws IOException {
         logger.info("creating DAO for {}", name);
         Set<EntityType> types = new HashSet<>();
 
@@ -276,15 +377,16 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
             }
         }
 
+        Set<EntityDerivation> derivs = Sets.newLinkedHashSet(derivations);
         for (EntityType type: types) {
             EntityDefaults defaults = EntityDefaults.lookup(type);
             if (defaults == null) {
                 continue;
             }
-            derivations.addAll(defaults.getDefaultDerivations());
+            derivs.addAll(defaults.getDefaultDerivations());
         }
 
-        for (EntityDerivation deriv: derivations) {
+        for (EntityDerivation deriv: derivs) {
             TypedName<Long> column = deriv.getAttribute();
             logger.debug("deriving entity type {} from {} (column {})",
                          deriv.getType(), deriv.getSourceType(), column);
@@ -326,6 +428,10 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
             name = object.get("name").asText();
         }
         final StaticDataSource layout = new StaticDataSource(name);
+        if (object.isObject() && object.has("snapshot")) {
+            String snap = object.get("snapshot").asText();
+            layout.setSnapshotFile(base != null ? Paths.get(base.resolve(snap)) : Paths.get(snap));
+        }
         EntitySources.ParseHandler handler = new EntitySources.ParseHandler() {
             @Override
             public void handleEntitySource(EntitySource source) {
@@ -351,6 +457,9 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
                 Iterator<Map.Entry<String, JsonNode>> iter = object.fields();
                 while (iter.hasNext()) {
                     Map.Entry<String, JsonNode> entry = iter.next();
+                    if (entry.getKey().equals("snapshot")) {
+                        continue;
+                    }
                     EntitySources.fromJSON(entry.getKey(), entry.getValue(), base, handler);
                 }
             }
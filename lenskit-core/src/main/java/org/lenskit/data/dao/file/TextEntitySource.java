@@ -68,6 +68,8 @@ public class TextEntitySource implements EntitySource, Describable {
     private URL sourceURL;
     private EntityFormat format;
     private Map<String,Object> metadata = new HashMap<>();
+    private boolean parallel = false;
+    int chunkSize = ChunkedEntityStream.DEFAULT_CHUNK_SIZE;
 
     /**
      * Construct a new text entity source.
@@ -179,17 +181,62 @@ public class TextEntitySource implements EntitySource, Describable {
         return format;
     }
 
+    /**
+     * Set whether to parse the input in parallel.  Parallel parsing reads an uncompressed local
+     * file in chunks and parses them on worker threads; entities are still returned in file order.
+     * Other inputs, and formats whose parsers cannot start mid-file, are read sequentially.
+     *
+     * @param par {@code true} to parse in parallel when possible.
+     */
+    public void setParallel(boolean par) {
+        parallel = par;
+    }
+
+    /**
+     * Query whether this source parses its input in parallel when possible.
+     * @return {@code true} if parallel parsing is enabled.
+     * @see #setParallel(boolean)
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
     @Override
     public Map<String, Object> getMetadata() {
         return metadata;
     }
 
+    /**
+     * Get the file to parse in parallel, if the source can be parsed in parallel.
+     * @return The file, or {@code null} if the source must be read sequentially.
+     */
+    @Nullable
+    private Path getParallelFile() {
+        if (!parallel || sourceURL == null || !"file".equals(sourceURL.getProtocol())) {
+            return null;
+        }
+        Path path = getFile();
+        if (CompressionMode.AUTO.getEffectiveCompressionMode(path.getFileName().toString()) != CompressionMode.NONE) {
+            return null;
+        }
+        return path;
+    }
+
     /**
      * Open a stream to read entities from this source.
      * @return A stream of entities.
      */
     @Override
     public ObjectStream<Entity> openStream() throws IOException {
+        Path parFile = getParallelFile();
+        if (parFile != null) {
+            try {
+                return ChunkedEntityStream.open(parFile, format, chunkSize);
+            } catch (UnsupportedOperationException e) {
+                logger.debug("format {} cannot be parsed in parallel, reading sequentially", format);
+            }
+        }
+
         BufferedReader reader = source.openBufferedStream();
         ObjectStream<String> lines = new LineStream(reader);
         int headerLines = format.getHeaderLines();
@@ -332,6 +379,7 @@ public class TextEntitySource implements EntitySource, Describable {
         }
 
         source.setFormat(format);
+        source.setParallel(object.path("parallel").asBoolean(false));
         return source;
     }
 
@@ -0,0 +1,139 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.data.ratings;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.util.IdBox;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+
+/**
+ * Rating vector DAO that caches user rating vectors from another rating vector DAO.  Scorers
+ * often fetch the same user's ratings several times while producing one recommendation list;
+ * this keeps the most recently used vectors, packed as {@link Long2DoubleSortedArrayMap}s, in a
+ * bounded concurrent cache with least-recently-used eviction.
+ *
+ * <p>To use it, bind {@link RatingVectorPDAO} to this class; the cache size is set with
+ * {@link RatingVectorCacheSize}.  {@link #streamUsers()} is passed through without caching.
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public class CachingRatingVectorPDAO implements RatingVectorPDAO {
+    private final RatingVectorPDAO delegate;
+    private final LoadingCache<Long, Long2DoubleSortedArrayMap> cache;
+
+    /**
+     * Construct a caching rating vector DAO over the standard rating vectors of a DAO.
+     *
+     * @param dao  The data access object.
+     * @param size The maximum number of vectors to cache.
+     */
+    @Inject
+    public CachingRatingVectorPDAO(DataAccessObject dao, @RatingVectorCacheSize int size) {
+        this(new StandardRatingVectorPDAO(dao), size);
+    }
+
+    /**
+     * Construct a caching rating vector DAO over another rating vector DAO.
+     *
+     * @param delegate The rating vector DAO whose vectors should be cached.
+     * @param size     The maximum number of vectors to cache.
+     */
+    public CachingRatingVectorPDAO(RatingVectorPDAO delegate, int size) {
+        Preconditions.checkArgument(size >= 0, "negative cache size");
+        this.delegate = delegate;
+        cache = CacheBuilder.newBuilder()
+                            .maximumSize(size)
+                            .recordStats()
+                            .build(new CacheLoader<Long, Long2DoubleSortedArrayMap>() {
+                                @Override
+                                public Long2DoubleSortedArrayMap load(@Nonnull Long user) {
+                                    return Long2DoubleSortedArrayMap.create(delegate.userRatingVector(user));
+                                }
+                            });
+    }
+
+    @Nonnull
+    @Override
+    public Long2DoubleMap userRatingVector(long user) {
+        return cache.getUnchecked(user);
+    }
+
+    @Override
+    public ObjectStream<IdBox<Long2DoubleMap>> streamUsers() {
+        return delegate.streamUsers();
+    }
+
+    /**
+     * Discard all cached vectors, for example after the underlying data has changed.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Get the number of lookups that were answered from the cache.
+     * @return The cache hit count.
+     */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /**
+     * Get the number of lookups that had to load a vector from the underlying DAO.
+     * @return The cache miss count.
+     */
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * Get the number of vectors evicted to keep the cache within its size bound.
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    /**
+     * Get a snapshot of all the cache statistics.
+     * @return The cache statistics.
+     */
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingRatingVectorPDAO(" + delegate + ")";
+    }
+}
@@ -22,16 +22,19 @@ package org.lenskit.data.ratings;
 
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import it.unimi.dsi.fastutil.Swapper;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.*;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
 import org.lenskit.util.keys.KeyIndex;
 import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
 
 import javax.annotation.Nonnull;
 import javax.annotation.PreDestroy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -45,12 +48,14 @@ public class PackedRatingMatrix implements RatingMatrix {
     private PackedRatingData data;
     @SuppressWarnings("deprecation")
     private Supplier<List<Collection<RatingMatrixEntry>>> userIndexLists;
-    private transient Long2ObjectMap<Long2DoubleMap> cache;
+    @SuppressWarnings("deprecation")
+    private Supplier<UserVectors> userVectors;
 
     PackedRatingMatrix(PackedRatingData data) {
         super();
         this.data = data;
         userIndexLists = Suppliers.memoize(new UserPreferenceSupplier());
+        userVectors = Suppliers.memoize(new UserVectorSupplier());
     }
 
     private void requireValid() {
@@ -97,25 +102,19 @@ public class PackedRatingMatrix implements RatingMatrix {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The vector is a view of packed per-user arrays, so it is not copied and this method
+     * does not lock once the arrays have been built.
+     */
     @Override
-    public synchronized Long2DoubleMap getUserRatingVector(long userId) {
-        // FIXME Don't make this so locky
-        if (cache == null) {
-            cache = new Long2ObjectOpenHashMap<>();
-        }
-        Long2DoubleMap data = cache.get(userId);
-        if (data != null) {
-            return data;
-        } else {
-            Collection<RatingMatrixEntry> prefs = this.getUserRatings(userId);
-            Long2DoubleMap map = new Long2DoubleOpenHashMap();
-            for (RatingMatrixEntry e: prefs) {
-                map.put(e.getItemId(), e.getValue());
-            }
-            data = new Long2DoubleSortedArrayMap(map);
-            cache.put(userId, data);
-            return data;
+    public Long2DoubleMap getUserRatingVector(long userId) {
+        int uidx = userIndex().tryGetIndex(userId);
+        if (uidx < 0) {
+            return Long2DoubleMaps.EMPTY_MAP;
         }
+        return userVectors.get().getVector(uidx);
     }
 
     /**
@@ -126,6 +125,7 @@ public class PackedRatingMatrix implements RatingMatrix {
     public void dispose() {
         data = null;
         userIndexLists = null;
+        userVectors = null;
     }
 
     /**
@@ -153,4 +153,76 @@ public class PackedRatingMatrix implements RatingMatrix {
             return users;
         }
     }
+
+    /**
+     * Per-user rating vectors in compressed sparse row form.  User <em>u</em>'s ratings occupy
+     * positions {@code offsets[u]} (inclusive) through {@code offsets[u+1]} (exclusive) of the
+     * item and value arrays, sorted by item ID.
+     */
+    private static class UserVectors {
+        private final int[] offsets;
+        private final long[] items;
+        private final double[] values;
+
+        UserVectors(int[] offsets, long[] items, double[] values) {
+            this.offsets = offsets;
+            this.items = items;
+            this.values = values;
+        }
+
+        Long2DoubleMap getVector(int uidx) {
+            if (uidx >= offsets.length - 1) {
+                return Long2DoubleMaps.EMPTY_MAP;
+            }
+            SortedKeyIndex keys = SortedKeyIndex.wrap(items, offsets[uidx], offsets[uidx + 1]);
+            return Long2DoubleSortedArrayMap.wrap(keys, values);
+        }
+    }
+
+    /**
+     * Supplier to pack the user rating vectors.
+     */
+    @SuppressWarnings("deprecation")
+    private class UserVectorSupplier implements Supplier<UserVectors> {
+        @Override @Nonnull
+        public UserVectors get() {
+            KeyIndex items = data.getItemIndex();
+            int nusers = data.getUserIndex().size();
+            int n = data.size();
+            int[] offsets = new int[nusers + 1];
+            PackedRatingData.IndirectEntry entry = data.getEntry(0);
+            for (int i = 0; i < n; i++) {
+                entry.setIndex(i);
+                offsets[entry.getUserIndex() + 1] += 1;
+            }
+            for (int u = 0; u < nusers; u++) {
+                offsets[u + 1] += offsets[u];
+            }
+
+            int[] fill = Arrays.copyOf(offsets, nusers);
+            long[] itemIds = new long[n];
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                entry.setIndex(i);
+                int pos = fill[entry.getUserIndex()]++;
+                itemIds[pos] = items.getKey(entry.getItemIndex());
+                values[pos] = entry.getValue();
+            }
+
+            Swapper swapper = (i, j) -> {
+                long k = itemIds[i];
+                itemIds[i] = itemIds[j];
+                itemIds[j] = k;
+                double v = values[i];
+                values[i] = values[j];
+                values[j] = v;
+            };
+            for (int u = 0; u < nusers; u++) {
+                it.unimi.dsi.fastutil.Arrays.quickSort(offsets[u], offsets[u + 1],
+                                                       (i, j) -> Long.compare(itemIds[i], itemIds[j]),
+                                                       swapper);
+            }
+            return new UserVectors(offsets, itemIds, values);
+        }
+    }
 }
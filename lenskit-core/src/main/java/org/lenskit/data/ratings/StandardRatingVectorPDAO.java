@@ -22,22 +22,29 @@ package org.lenskit.data.ratings;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.EntityCollectionDAO;
 import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.store.EntityCollection;
+import org.lenskit.data.store.RatingEntityCollection;
 import org.lenskit.util.IdBox;
 import org.lenskit.util.io.ObjectStream;
 import org.lenskit.util.io.ObjectStreams;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import net.jcip.annotations.ThreadSafe;
 import javax.inject.Inject;
 import java.util.List;
 
 /**
- * Rating vector source that extracts user ratings from the database.
+ * Rating vector source that extracts user ratings from the database.  If the ratings are stored in
+ * a {@link RatingEntityCollection}, vectors are read directly from its columns.
  */
 @ThreadSafe
 public class StandardRatingVectorPDAO implements RatingVectorPDAO {
     private final DataAccessObject dao;
+    @Nullable
+    private final RatingEntityCollection ratings;
     private volatile IdBox<Long2DoubleMap> cachedValue;
 
     /**
@@ -47,11 +54,30 @@ public class StandardRatingVectorPDAO implements RatingVectorPDAO {
     @Inject
     public StandardRatingVectorPDAO(DataAccessObject dao) {
         this.dao = dao;
+        ratings = findRatingCollection(dao);
+    }
+
+    /**
+     * Find the columnar rating storage of a DAO, if it has one.
+     */
+    @Nullable
+    private static RatingEntityCollection findRatingCollection(DataAccessObject dao) {
+        if (dao instanceof EntityCollectionDAO) {
+            EntityCollection coll = ((EntityCollectionDAO) dao).getEntityCollection(Rating.ENTITY_TYPE);
+            if (coll instanceof RatingEntityCollection) {
+                return (RatingEntityCollection) coll;
+            }
+        }
+        return null;
     }
 
     @Nonnull
     @Override
     public Long2DoubleMap userRatingVector(long user) {
+        if (ratings != null) {
+            return ratings.userRatingVector(user);
+        }
+
         IdBox<Long2DoubleMap> cached = cachedValue;
         if (cached != null && cached.getId() == user) {
             return cached.getValue();
@@ -64,12 +90,21 @@ public class StandardRatingVectorPDAO implements RatingVectorPDAO {
                                               .stream()) {
             map = Ratings.userRatingVector(stream);
         }
+        cachedValue = IdBox.create(user, map);
 
         return map;
     }
 
     @Override
     public ObjectStream<IdBox<Long2DoubleMap>> streamUsers() {
+        if (ratings != null) {
+            RatingEntityCollection rs = ratings;
+            return ObjectStreams.wrap(rs.getUserIds()
+                                        .stream()
+                                        .map(u -> IdBox.<Long2DoubleMap>create(u, rs.userRatingVector(u)))
+                                        .iterator());
+        }
+
         ObjectStream<IdBox<List<Rating>>> stream = dao.query(Rating.class)
                                                       .groupBy(CommonAttributes.USER_ID)
                                                       .stream();
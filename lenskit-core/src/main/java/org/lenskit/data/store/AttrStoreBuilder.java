@@ -63,6 +63,22 @@ class AttrStoreBuilder {
         size += 1;
     }
 
+    /**
+     * Get the shard that will hold the next value, creating it if necessary.
+     *
+     * @return The shard for index {@link #size()}.
+     */
+    Shard nextShard() {
+        int si = Shard.indexOfShard(size);
+        if (si < shards.size()) {
+            return shards.get(si);
+        } else {
+            Shard shard = shardFactory.get();
+            shards.add(shard);
+            return shard;
+        }
+    }
+
     /**
      * Add a value to this store builder.
      *
@@ -28,6 +28,21 @@ class DoubleAttrStoreBuilder extends AttrStoreBuilder {
         super(DoubleShard::create);
     }
 
+    /**
+     * Add a value without boxing it.
+     *
+     * @param val The value to add.
+     */
+    void addDouble(double val) {
+        DoubleShard shard = (DoubleShard) nextShard();
+        DoubleShard s2 = shard.adaptDouble(val);
+        if (s2 != shard) {
+            shards.set(Shard.indexOfShard(size), s2);
+        }
+        s2.put(Shard.indexWithinShard(size), val);
+        size += 1;
+    }
+
     double getDouble(int idx) {
         int si = idx / Shard.SHARD_SIZE;
         int vi = idx % Shard.SHARD_SIZE;
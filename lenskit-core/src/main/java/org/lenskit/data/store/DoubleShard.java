@@ -102,6 +102,13 @@ abstract class DoubleShard extends Shard {
     @Override
     abstract DoubleShard adapt(Object v);
 
+    /**
+     * Adapt this shard to be able to hold a value, without boxing it.
+     * @param v The value to store.
+     * @return This shard, if it can hold the value, or a new shard that can.
+     */
+    abstract DoubleShard adaptDouble(double v);
+
     private static class Full extends DoubleShard {
         private double[] data = new double[SHARD_SIZE];
 
@@ -133,6 +140,11 @@ abstract class DoubleShard extends Shard {
                 throw new IllegalArgumentException("cannot store obj in double");
             }
         }
+
+        @Override
+        DoubleShard adaptDouble(double v) {
+            return this;
+        }
     }
 
     /**
@@ -189,22 +201,26 @@ abstract class DoubleShard extends Shard {
             if (obj == null) {
                 return this;
             } else if (obj instanceof Double) {
-                double v = (double) obj;
-                if (isStorable(v)) {
-                    return this;
-                } else {
-                    Full full = new Full();
-                    int n = size;
-                    full.size = n;
-                    full.mask = mask != null ? (BitSet) mask.clone() : null;
-                    for (int i = 0; i < n; i++) {
-                        full.data[i] = data[i] * 0.5;
-                    }
-                    return full;
-                }
+                return adaptDouble((Double) obj);
             } else {
                 throw new IllegalArgumentException("cannot store obj in double");
             }
         }
+
+        @Override
+        DoubleShard adaptDouble(double v) {
+            if (isStorable(v)) {
+                return this;
+            } else {
+                Full full = new Full();
+                int n = size;
+                full.size = n;
+                full.mask = mask != null ? (BitSet) mask.clone() : null;
+                for (int i = 0; i < n; i++) {
+                    full.data[i] = data[i] * 0.5;
+                }
+                return full;
+            }
+        }
     }
 }
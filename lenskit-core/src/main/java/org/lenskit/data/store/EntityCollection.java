@@ -40,10 +40,13 @@ public abstract class EntityCollection extends AbstractCollection<Entity> {
     EntityCollection() {}
 
     /**
-     * Create a new entity collection builder.
+     * Create a new entity collection builder.  Ratings are stored in a {@link RatingEntityCollection}.
      * @return The builder.
      */
     public static EntityCollectionBuilder newBuilder(EntityType type) {
+        if (type == CommonTypes.RATING) {
+            return new RatingEntityCollectionBuilder(null, null);
+        }
         return new MapEntityCollectionBuilder(type);
     }
 
@@ -56,7 +59,9 @@ public abstract class EntityCollection extends AbstractCollection<Entity> {
     public static EntityCollectionBuilder newBuilder(EntityType type, AttributeSet attrs) {
         Preconditions.checkArgument(attrs.lookup(CommonAttributes.ENTITY_ID) == 0,
                                     "could not find entity ID in: %s", attrs);
-        if (attrs.size() > 1) {
+        if (RatingEntityCollectionBuilder.supportsLayout(type, attrs, null)) {
+            return new RatingEntityCollectionBuilder(attrs, null);
+        } else if (attrs.size() > 1) {
             return new PackedEntityCollectionBuilder(type, attrs, null);
         } else {
             return new BareEntityCollectionBuilder(type);
@@ -73,7 +78,9 @@ public abstract class EntityCollection extends AbstractCollection<Entity> {
     public static EntityCollectionBuilder newBuilder(EntityType type, AttributeSet attrs, Class<? extends EntityBuilder> eb) {
         Preconditions.checkArgument(attrs.lookup(CommonAttributes.ENTITY_ID) == 0,
                                     "could not find entity ID in: %s", attrs);
-        if (attrs.size() > 1) {
+        if (RatingEntityCollectionBuilder.supportsLayout(type, attrs, eb)) {
+            return new RatingEntityCollectionBuilder(attrs, eb);
+        } else if (attrs.size() > 1) {
             return new PackedEntityCollectionBuilder(type, attrs, eb);
         } else {
             return new BareEntityCollectionBuilder(type);
@@ -0,0 +1,795 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.data.store;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.lenskit.data.entities.*;
+import org.lenskit.util.keys.LongSortedArraySet;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Binary, columnar snapshots of entity collections.  A snapshot stores the packed contents of a
+ * set of collections (columns, null masks, indexes, and the precomputed rating indexes) so they
+ * can be reloaded without parsing or sorting.  Loading maps the file into memory and bulk-copies
+ * each column into its array.
+ *
+ * Snapshots support {@link RatingEntityCollection}, bare ID-only collections, and packed
+ * collections whose attributes are {@link Long}, {@link Integer}, {@link Double}, or
+ * {@link String}.  Use {@link #isSupported(EntityCollection)} to check a collection before
+ * writing it.
+ *
+ * Each snapshot carries a key supplied by the caller (typically a hash of the data source
+ * description); {@link #read(Path, String)} ignores snapshots whose version or key do not match.
+ *
+ * @since 3.0
+ */
+public final class EntityCollectionSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(EntityCollectionSnapshot.class);
+    /**
+     * The magic number at the start of each snapshot ("LKSNAP" followed by two zero bytes).
+     */
+    static final long MAGIC = 0x4C4B534E41500000L;
+    /**
+     * The current snapshot format version.
+     */
+    public static final int VERSION = 2;
+
+    private static final byte KIND_BARE = 1;
+    private static final byte KIND_RATING = 2;
+    private static final byte KIND_PACKED = 3;
+
+    private static final byte COL_LONG = 1;
+    private static final byte COL_INT = 2;
+    private static final byte COL_DOUBLE = 3;
+    private static final byte COL_STRING = 4;
+
+    /**
+     * Maximum number of bytes to map at once.
+     */
+    private static final int MAP_CHUNK = 1 << 28;
+    /**
+     * Size of the buffer used to encode arrays for writing.
+     */
+    private static final int WRITE_CHUNK = 1 << 16;
+
+    private EntityCollectionSnapshot() {}
+
+    /**
+     * Query whether a collection can be stored in a snapshot.
+     * @param collection The collection.
+     * @return {@code true} if {@link #write(Path, String, Map)} can store the collection.
+     */
+    public static boolean isSupported(EntityCollection collection) {
+        if (collection instanceof RatingEntityCollection || collection instanceof BareEntityCollection) {
+            return true;
+        } else if (collection instanceof PackedEntityCollection) {
+            for (TypedName<?> attr: ((PackedEntityCollection) collection).getAttributes()) {
+                if (columnKind(attr) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Write a snapshot.  The snapshot is written to a temporary file and moved into place, so
+     * concurrent readers never see a partial snapshot.
+     *
+     * @param file The snapshot file.
+     * @param key The snapshot key.
+     * @param collections The collections to write.
+     * @throws IOException if there is an error writing the snapshot.
+     * @throws IllegalArgumentException if one of the collections is not supported.
+     */
+    public static void write(Path file, String key, Map<EntityType, EntityCollection> collections) throws IOException {
+        for (EntityCollection ec: collections.values()) {
+            Preconditions.checkArgument(isSupported(ec), "collection %s cannot be snapshotted", ec);
+        }
+
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, key);
+                out.writeInt(collections.size());
+                for (Map.Entry<EntityType, EntityCollection> e: collections.entrySet()) {
+                    writeString(out, e.getKey().getName());
+                    EntityCollection ec = e.getValue();
+                    if (ec instanceof RatingEntityCollection) {
+                        out.writeByte(KIND_RATING);
+                        writeRatings(out, (RatingEntityCollection) ec);
+                    } else if (ec instanceof BareEntityCollection) {
+                        out.writeByte(KIND_BARE);
+                        long[] ids = ((LongSortedArraySet) ec.idSet()).toLongArray();
+                        writeLongs(out, ids);
+                    } else {
+                        out.writeByte(KIND_PACKED);
+                        writePacked(out, (PackedEntityCollection) ec);
+                    }
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        logger.info("wrote snapshot of {} collections to {}", collections.size(), file);
+    }
+
+    /**
+     * Read a snapshot.
+     *
+     * @param file The snapshot file.
+     * @param key The expected snapshot key.
+     * @return The collections in the snapshot, or {@code null} if the file does not exist or has
+     * a different version or key.
+     * @throws IOException if there is an error reading the snapshot.
+     */
+    @Nullable
+    public static Map<EntityType, EntityCollection> read(Path file, String key) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel chan = FileChannel.open(file, StandardOpenOption.READ)) {
+            Input in = new Input(chan);
+            if (chan.size() < 12 || in.readLong() != MAGIC) {
+                logger.warn("{} is not a snapshot file", file);
+                return null;
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                logger.info("snapshot {} has version {}, expected {}", file, version, VERSION);
+                return null;
+            }
+            String fileKey = in.readString();
+            if (!fileKey.equals(key)) {
+                logger.info("snapshot {} is out of date", file);
+                return null;
+            }
+
+            int n = in.readInt();
+            Map<EntityType, EntityCollection> result = new LinkedHashMap<>();
+            for (int i = 0; i < n; i++) {
+                EntityType type = EntityType.forName(in.readString());
+                byte kind = in.readByte();
+                EntityCollection ec;
+                switch (kind) {
+                case KIND_RATING:
+                    ec = readRatings(in);
+                    break;
+                case KIND_BARE:
+                    long[] ids = in.readLongs();
+                    ec = new BareEntityCollection(type, new LongSortedArraySet(SortedKeyIndex.wrap(ids, ids.length)));
+                    break;
+                case KIND_PACKED:
+                    ec = readPacked(in, type);
+                    break;
+                default:
+                    throw new IOException("invalid collection kind " + kind + " in " + file);
+                }
+                result.put(type, ec);
+            }
+            logger.info("loaded {} collections from snapshot {}", n, file);
+            return result;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("snapshot " + file + " references unknown class", e);
+        }
+    }
+
+    private static void writeRatings(DataOutputStream out, RatingEntityCollection rc) throws IOException {
+        writeLongs(out, rc.ids);
+        writeLongs(out, rc.users);
+        writeLongs(out, rc.items);
+        writeDoubles(out, rc.values);
+        writeLongs(out, rc.timestamps);
+        writeLongs(out, rc.userIndex.keySet().toLongArray());
+        writeInts(out, rc.userOffsets);
+        writeLongs(out, rc.itemIndex.keySet().toLongArray());
+        writeInts(out, rc.itemOffsets);
+        writeInts(out, rc.itemPositions);
+        writeLongs(out, rc.itemUsers);
+        writeDoubles(out, rc.itemValues);
+        writeLongs(out, rc.sortedIds);
+        writeInts(out, rc.idPositions);
+        out.writeBoolean(rc.uniquePairs);
+    }
+
+    private static RatingEntityCollection readRatings(Input in) throws IOException {
+        long[] ids = in.readLongs();
+        long[] users = in.readLongs();
+        long[] items = in.readLongs();
+        double[] values = in.readDoubles();
+        long[] timestamps = in.readLongs();
+        long[] ukeys = in.readLongs();
+        int[] uoffs = in.readInts();
+        long[] ikeys = in.readLongs();
+        int[] ioffs = in.readInts();
+        int[] ipos = in.readInts();
+        long[] iusers = in.readLongs();
+        double[] ivals = in.readDoubles();
+        long[] sortedIds = in.readLongs();
+        int[] idPositions = in.readInts();
+        boolean unique = in.readByte() != 0;
+        return new RatingEntityCollection(ids, users, items, values, timestamps,
+                                          SortedKeyIndex.wrap(ukeys, ukeys.length), uoffs,
+                                          SortedKeyIndex.wrap(ikeys, ikeys.length), ioffs,
+                                          ipos, iusers, ivals, sortedIds, idPositions, unique);
+    }
+
+    private static void writePacked(DataOutputStream out, PackedEntityCollection pc) throws IOException {
+        Class<? extends EntityBuilder> ebc = pc.getEntityBuilderClass();
+        writeString(out, ebc != null ? ebc.getName() : "");
+        AttributeSet attrs = pc.getAttributes();
+        out.writeInt(attrs.size());
+        for (TypedName<?> attr: attrs) {
+            writeString(out, attr.getName());
+            out.writeByte(columnKind(attr));
+        }
+        int size = pc.size();
+        out.writeInt(size);
+        for (int i = 0; i < attrs.size(); i++) {
+            byte kind = columnKind(attrs.getAttribute(i));
+            AttrStore store = pc.getAttrStore(i);
+            writeColumn(out, kind, size, store::isNull, store::get);
+        }
+        for (int i = 0; i < attrs.size(); i++) {
+            PackIndex index = pc.getIndex(i);
+            out.writeBoolean(index != null);
+            if (index != null) {
+                writeIndex(out, columnKind(attrs.getAttribute(i)), index);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PackedEntityCollection readPacked(Input in, EntityType type) throws IOException, ClassNotFoundException {
+        String ebcName = in.readString();
+        Class<? extends EntityBuilder> ebc = null;
+        if (!ebcName.isEmpty()) {
+            ebc = (Class<? extends EntityBuilder>) Class.forName(ebcName, true, Thread.currentThread().getContextClassLoader());
+        }
+        int nattrs = in.readInt();
+        List<TypedName<?>> names = new ArrayList<>(nattrs);
+        byte[] kinds = new byte[nattrs];
+        for (int i = 0; i < nattrs; i++) {
+            String name = in.readString();
+            kinds[i] = in.readByte();
+            names.add(TypedName.create(name, columnClass(kinds[i])));
+        }
+        AttributeSet attrs = AttributeSet.create(names);
+        int size = in.readInt();
+        AttrStore[] stores = new AttrStore[nattrs];
+        for (int i = 0; i < nattrs; i++) {
+            AttrStoreBuilder asb = PackedEntityCollectionBuilder.makeStoreBuilder(type, attrs.getAttribute(i));
+            readColumn(in, kinds[i], size, asb);
+            stores[i] = asb.build();
+        }
+        PackIndex[] indexes = new PackIndex[nattrs];
+        for (int i = 0; i < nattrs; i++) {
+            if (in.readByte() != 0) {
+                indexes[i] = readIndex(in, kinds[i]);
+            }
+        }
+        return new PackedEntityCollection(type, attrs, stores, indexes, ebc);
+    }
+
+    private static void writeIndex(DataOutputStream out, byte kind, PackIndex index) throws IOException {
+        if (index instanceof LongPackIndex) {
+            LongPackIndex lpi = (LongPackIndex) index;
+            long[] keys = lpi.getValues().toLongArray();
+            out.writeInt(keys.length);
+            writeColumn(out, kind, keys.length, i -> false, i -> keys[i]);
+            writeInts(out, lpi.getOffsetArray());
+            writeInts(out, lpi.getPositionArray());
+            return;
+        }
+        List<Object> keys = new ArrayList<>(index.getValues());
+        int n = keys.size();
+        int[] offsets = new int[n + 1];
+        IntArrayList positions = new IntArrayList();
+        for (int i = 0; i < n; i++) {
+            offsets[i] = positions.size();
+            positions.addAll(index.getPositions(keys.get(i)));
+        }
+        offsets[n] = positions.size();
+        out.writeInt(n);
+        writeColumn(out, kind, n, i -> keys.get(i) == null, keys::get);
+        writeInts(out, offsets);
+        writeInts(out, positions.toIntArray());
+    }
+
+    private static PackIndex readIndex(Input in, byte kind) throws IOException {
+        int n = in.readInt();
+        if (kind == COL_LONG) {
+            checkColumnLength(in, n);
+            BitSet mask = BitSet.valueOf(in.readLongs());
+            long[] lkeys = checkValues(in.readLongs(), n);
+            int[] offsets = readOffsets(in, n);
+            int[] positions = in.readInts();
+            if (!mask.isEmpty()) {
+                throw new IOException("long index has null keys");
+            }
+            for (int i = 1; i < n; i++) {
+                if (lkeys[i] <= lkeys[i - 1]) {
+                    throw new IOException("long index keys are not sorted");
+                }
+            }
+            checkPositions(offsets, positions);
+            return new LongPackIndex(SortedKeyIndex.wrap(lkeys, n), offsets, positions);
+        } else {
+            Object[] keys = readColumn(in, kind, n);
+            int[] offsets = readOffsets(in, n);
+            int[] positions = in.readInts();
+            checkPositions(offsets, positions);
+            Map<Object, IntList> map = new HashMap<>(n);
+            for (int i = 0; i < n; i++) {
+                map.put(keys[i], IntArrayList.wrap(Arrays.copyOfRange(positions, offsets[i], offsets[i + 1])));
+            }
+            return PackIndex.fromMap(map);
+        }
+    }
+
+    private static byte columnKind(TypedName<?> attr) {
+        Class<?> type = attr.getRawType();
+        if (!attr.getType().getType().equals(type)) {
+            return -1; // parameterized types are not supported
+        } else if (type.equals(Long.class)) {
+            return COL_LONG;
+        } else if (type.equals(Integer.class)) {
+            return COL_INT;
+        } else if (type.equals(Double.class)) {
+            return COL_DOUBLE;
+        } else if (type.equals(String.class)) {
+            return COL_STRING;
+        } else {
+            return -1;
+        }
+    }
+
+    private static Class<?> columnClass(byte kind) throws IOException {
+        switch (kind) {
+        case COL_LONG:
+            return Long.class;
+        case COL_INT:
+            return Integer.class;
+        case COL_DOUBLE:
+            return Double.class;
+        case COL_STRING:
+            return String.class;
+        default:
+            throw new IOException("invalid column kind " + kind);
+        }
+    }
+
+    private interface NullTest {
+        boolean isNull(int i);
+    }
+
+    private interface ValueGetter {
+        Object get(int i);
+    }
+
+    /**
+     * Write a column: its length, a null mask (except for strings, which use negative lengths),
+     * and the values.
+     */
+    private static void writeColumn(DataOutputStream out, byte kind, int n, NullTest nulls, ValueGetter values) throws IOException {
+        out.writeInt(n);
+        if (kind == COL_STRING) {
+            int[] lengths = new int[n];
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            for (int i = 0; i < n; i++) {
+                if (nulls.isNull(i)) {
+                    lengths[i] = -1;
+                } else {
+                    byte[] bytes = ((String) values.get(i)).getBytes(StandardCharsets.UTF_8);
+                    lengths[i] = bytes.length;
+                    data.write(bytes);
+                }
+            }
+            writeInts(out, lengths);
+            out.writeInt(data.size());
+            data.writeTo(out);
+            return;
+        }
+
+        BitSet mask = new BitSet(n);
+        for (int i = 0; i < n; i++) {
+            if (nulls.isNull(i)) {
+                mask.set(i);
+            }
+        }
+        writeLongs(out, mask.toLongArray());
+        switch (kind) {
+        case COL_LONG: {
+            long[] vals = new long[n];
+            for (int i = 0; i < n; i++) {
+                if (!mask.get(i)) {
+                    vals[i] = (Long) values.get(i);
+                }
+            }
+            writeLongs(out, vals);
+            break;
+        }
+        case COL_INT: {
+            int[] vals = new int[n];
+            for (int i = 0; i < n; i++) {
+                if (!mask.get(i)) {
+                    vals[i] = (Integer) values.get(i);
+                }
+            }
+            writeInts(out, vals);
+            break;
+        }
+        case COL_DOUBLE: {
+            double[] vals = new double[n];
+            for (int i = 0; i < n; i++) {
+                if (!mask.get(i)) {
+                    vals[i] = (Double) values.get(i);
+                }
+            }
+            writeDoubles(out, vals);
+            break;
+        }
+        default:
+            throw new IllegalArgumentException("invalid column kind " + kind);
+        }
+    }
+
+    private static void checkColumnLength(Input in, int expected) throws IOException {
+        int n = in.readInt();
+        if (n != expected) {
+            throw new IOException("column has " + n + " values, expected " + expected);
+        }
+    }
+
+    private static long[] checkValues(long[] vals, int n) throws IOException {
+        if (vals.length != n) {
+            throw new IOException("column has " + vals.length + " values, expected " + n);
+        }
+        return vals;
+    }
+
+    private static int[] checkValues(int[] vals, int n) throws IOException {
+        if (vals.length != n) {
+            throw new IOException("column has " + vals.length + " values, expected " + n);
+        }
+        return vals;
+    }
+
+    private static double[] checkValues(double[] vals, int n) throws IOException {
+        if (vals.length != n) {
+            throw new IOException("column has " + vals.length + " values, expected " + n);
+        }
+        return vals;
+    }
+
+    private static int[] readOffsets(Input in, int n) throws IOException {
+        int[] offsets = in.readInts();
+        if (offsets.length != n + 1) {
+            throw new IOException("index has " + offsets.length + " offsets, expected " + (n + 1));
+        }
+        return offsets;
+    }
+
+    private static void checkPositions(int[] offsets, int[] positions) throws IOException {
+        if (offsets[0] != 0 || offsets[offsets.length - 1] != positions.length) {
+            throw new IOException("index offsets do not match its positions");
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] < offsets[i - 1]) {
+                throw new IOException("index offsets are not increasing");
+            }
+        }
+    }
+
+    /**
+     * Read a column of strings or other objects.
+     */
+    private static Object[] readColumn(Input in, byte kind, int expected) throws IOException {
+        checkColumnLength(in, expected);
+        final int n = expected;
+        Object[] result = new Object[n];
+        if (kind == COL_STRING) {
+            int[] lengths = checkValues(in.readInts(), n);
+            byte[] data = in.readBytes();
+            int pos = 0;
+            for (int i = 0; i < n; i++) {
+                if (lengths[i] >= 0) {
+                    if (lengths[i] > data.length - pos) {
+                        throw new IOException("string column data is truncated");
+                    }
+                    result[i] = new String(data, pos, lengths[i], StandardCharsets.UTF_8);
+                    pos += lengths[i];
+                }
+            }
+            return result;
+        }
+
+        BitSet mask = BitSet.valueOf(in.readLongs());
+        switch (kind) {
+        case COL_LONG: {
+            long[] vals = checkValues(in.readLongs(), n);
+            for (int i = 0; i < n; i++) {
+                result[i] = mask.get(i) ? null : vals[i];
+            }
+            break;
+        }
+        case COL_INT: {
+            int[] vals = checkValues(in.readInts(), n);
+            for (int i = 0; i < n; i++) {
+                result[i] = mask.get(i) ? null : vals[i];
+            }
+            break;
+        }
+        case COL_DOUBLE: {
+            double[] vals = checkValues(in.readDoubles(), n);
+            for (int i = 0; i < n; i++) {
+                result[i] = mask.get(i) ? null : vals[i];
+            }
+            break;
+        }
+        default:
+            throw new IOException("invalid column kind " + kind);
+        }
+        return result;
+    }
+
+    /**
+     * Read a column straight into an attribute store builder.  Primitive columns are added to
+     * their typed builders without boxing.
+     */
+    private static void readColumn(Input in, byte kind, int n, AttrStoreBuilder asb) throws IOException {
+        if (kind == COL_STRING) {
+            for (Object v: readColumn(in, kind, n)) {
+                if (v == null) {
+                    asb.skip();
+                } else {
+                    asb.add(v);
+                }
+            }
+            return;
+        }
+
+        checkColumnLength(in, n);
+        BitSet mask = BitSet.valueOf(in.readLongs());
+        switch (kind) {
+        case COL_LONG: {
+            LongAttrStoreBuilder lsb = (LongAttrStoreBuilder) asb;
+            long[] vals = checkValues(in.readLongs(), n);
+            for (int i = 0; i < n; i++) {
+                if (mask.get(i)) {
+                    lsb.skip();
+                } else {
+                    lsb.addLong(vals[i]);
+                }
+            }
+            break;
+        }
+        case COL_INT: {
+            IntAttrStoreBuilder isb = (IntAttrStoreBuilder) asb;
+            int[] vals = checkValues(in.readInts(), n);
+            for (int i = 0; i < n; i++) {
+                if (mask.get(i)) {
+                    isb.skip();
+                } else {
+                    isb.addInt(vals[i]);
+                }
+            }
+            break;
+        }
+        case COL_DOUBLE: {
+            DoubleAttrStoreBuilder dsb = (DoubleAttrStoreBuilder) asb;
+            double[] vals = checkValues(in.readDoubles(), n);
+            for (int i = 0; i < n; i++) {
+                if (mask.get(i)) {
+                    dsb.skip();
+                } else {
+                    dsb.addDouble(vals[i]);
+                }
+            }
+            break;
+        }
+        default:
+            throw new IOException("invalid column kind " + kind);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] data) throws IOException {
+        out.writeInt(data.length);
+        ByteBuffer buf = ByteBuffer.allocate(WRITE_CHUNK);
+        LongBuffer view = buf.asLongBuffer();
+        for (int start = 0; start < data.length; start += view.capacity()) {
+            int len = Math.min(view.capacity(), data.length - start);
+            view.clear();
+            view.put(data, start, len);
+            out.write(buf.array(), 0, len * 8);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] data) throws IOException {
+        out.writeInt(data.length);
+        ByteBuffer buf = ByteBuffer.allocate(WRITE_CHUNK);
+        IntBuffer view = buf.asIntBuffer();
+        for (int start = 0; start < data.length; start += view.capacity()) {
+            int len = Math.min(view.capacity(), data.length - start);
+            view.clear();
+            view.put(data, start, len);
+            out.write(buf.array(), 0, len * 4);
+        }
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] data) throws IOException {
+        out.writeInt(data.length);
+        ByteBuffer buf = ByteBuffer.allocate(WRITE_CHUNK);
+        DoubleBuffer view = buf.asDoubleBuffer();
+        for (int start = 0; start < data.length; start += view.capacity()) {
+            int len = Math.min(view.capacity(), data.length - start);
+            view.clear();
+            view.put(data, start, len);
+            out.write(buf.array(), 0, len * 8);
+        }
+    }
+
+    /**
+     * Sequential reader over a snapshot file that maps each region it reads.  Arrays are copied
+     * out of the mapped buffers in bulk, in chunks small enough to map.
+     */
+    private static class Input {
+        private final FileChannel channel;
+        private final long fileSize;
+        private long position;
+
+        Input(FileChannel chan) throws IOException {
+            channel = chan;
+            fileSize = chan.size();
+        }
+
+        private MappedByteBuffer map(long bytes) throws IOException {
+            if (position + bytes > fileSize) {
+                throw new EOFException("snapshot is truncated");
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+            position += bytes;
+            return buf;
+        }
+
+        private ByteBuffer small(int bytes) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(bytes);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, position + buf.position()) < 0) {
+                    throw new EOFException("snapshot is truncated");
+                }
+            }
+            position += bytes;
+            buf.flip();
+            return buf;
+        }
+
+        long readLong() throws IOException {
+            return small(8).getLong();
+        }
+
+        int readInt() throws IOException {
+            return small(4).getInt();
+        }
+
+        byte readByte() throws IOException {
+            return small(1).get();
+        }
+
+        private int readLength() throws IOException {
+            return readLength(1);
+        }
+
+        /**
+         * Read an array length, and check that the file has room for the array before it is
+         * allocated.
+         */
+        private int readLength(int width) throws IOException {
+            int n = readInt();
+            if (n < 0) {
+                throw new IOException("invalid array length " + n);
+            }
+            if ((long) n * width > fileSize - position) {
+                throw new EOFException("snapshot is truncated");
+            }
+            return n;
+        }
+
+        String readString() throws IOException {
+            int n = readLength();
+            return new String(small(n).array(), 0, n, StandardCharsets.UTF_8);
+        }
+
+        byte[] readBytes() throws IOException {
+            byte[] data = new byte[readLength()];
+            for (int start = 0; start < data.length; start += MAP_CHUNK) {
+                int len = Math.min(MAP_CHUNK, data.length - start);
+                map(len).get(data, start, len);
+            }
+            return data;
+        }
+
+        long[] readLongs() throws IOException {
+            long[] data = new long[readLength(8)];
+            int chunk = MAP_CHUNK / 8;
+            for (int start = 0; start < data.length; start += chunk) {
+                int len = Math.min(chunk, data.length - start);
+                map(len * 8L).asLongBuffer().get(data, start, len);
+            }
+            return data;
+        }
+
+        int[] readInts() throws IOException {
+            int[] data = new int[readLength(4)];
+            int chunk = MAP_CHUNK / 4;
+            for (int start = 0; start < data.length; start += chunk) {
+                int len = Math.min(chunk, data.length - start);
+                map(len * 4L).asIntBuffer().get(data, start, len);
+            }
+            return data;
+        }
+
+        double[] readDoubles() throws IOException {
+            double[] data = new double[readLength(8)];
+            int chunk = MAP_CHUNK / 8;
+            for (int start = 0; start < data.length; start += chunk) {
+                int len = Math.min(chunk, data.length - start);
+                map(len * 8L).asDoubleBuffer().get(data, start, len);
+            }
+            return data;
+        }
+    }
+}
@@ -71,6 +71,13 @@ abstract class IntShard extends Shard {
 
     abstract void put(int idx, int value);
 
+    /**
+     * Adapt this shard to be able to hold a value, without boxing it.
+     * @param val The value to store.
+     * @return This shard, if it can hold the value, or a new shard that can.
+     */
+    abstract IntShard adaptInt(int val);
+
     private static class Impl extends IntShard {
 
         private int[] data = new int[SHARD_SIZE];
@@ -127,6 +134,11 @@ abstract class IntShard extends Shard {
             }
         }
 
+        @Override
+        IntShard adaptInt(int val) {
+            return this;
+        }
+
         @Override
         int size() {
             return size;
@@ -156,26 +168,30 @@ abstract class IntShard extends Shard {
             if (obj == null) {
                 return this;
             } else if (obj instanceof Integer) {
-                int val = (Integer) obj;
-                if (val >= Short.MIN_VALUE && val <= Short.MAX_VALUE) {
-                    return this;
-                } else {
-                    IntShard ish = createFull();
-                    int n = delegate.size();
-                    for (int i = 0; i < n; i++) {
-                        if (delegate.isNull(i)) {
-                            ish.clear(i);
-                        } else {
-                            ish.put(i, delegate.getShort(i));
-                        }
-                    }
-                    return ish;
-                }
+                return adaptInt((Integer) obj);
             } else {
                 throw new IllegalArgumentException("cannot store " + obj + " in int shard");
             }
         }
 
+        @Override
+        IntShard adaptInt(int val) {
+            if (val >= Short.MIN_VALUE && val <= Short.MAX_VALUE) {
+                return this;
+            } else {
+                IntShard ish = createFull();
+                int n = delegate.size();
+                for (int i = 0; i < n; i++) {
+                    if (delegate.isNull(i)) {
+                        ish.clear(i);
+                    } else {
+                        ish.put(i, delegate.getShort(i));
+                    }
+                }
+                return ish;
+            }
+        }
+
         @Override
         void clear(int idx) {
             delegate.clear(idx);
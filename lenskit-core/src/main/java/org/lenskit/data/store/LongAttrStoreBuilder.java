@@ -28,6 +28,21 @@ class LongAttrStoreBuilder extends AttrStoreBuilder {
         super(LongShard::create);
     }
 
+    /**
+     * Add a value without boxing it.
+     *
+     * @param val The value to add.
+     */
+    void addLong(long val) {
+        LongShard shard = (LongShard) nextShard();
+        LongShard s2 = shard.adaptLong(val);
+        if (s2 != shard) {
+            shards.set(Shard.indexOfShard(size), s2);
+        }
+        s2.put(Shard.indexWithinShard(size), val);
+        size += 1;
+    }
+
     long getLong(int idx) {
         int si = idx / Shard.SHARD_SIZE;
         int vi = idx % Shard.SHARD_SIZE;
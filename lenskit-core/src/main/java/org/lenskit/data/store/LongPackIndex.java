@@ -0,0 +1,121 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.data.store;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntLists;
+import org.lenskit.util.keys.LongSortedArraySet;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+/**
+ * Pack index over a long-valued attribute.  The distinct values are stored in a sorted key index,
+ * and the positions having each value are stored contiguously (in increasing order) in a single
+ * position array, with an offset array marking where each value's positions begin.  Looking up a
+ * value is a binary search and does not allocate.
+ */
+class LongPackIndex extends PackIndex {
+    private final SortedKeyIndex keys;
+    private final int[] offsets;
+    private final int[] positions;
+
+    /**
+     * Construct a new long pack index.
+     * @param keys The distinct indexed values.
+     * @param offsets The offsets of each value's positions; has length `keys.size() + 1`.
+     * @param positions The positions, grouped by value.
+     */
+    LongPackIndex(SortedKeyIndex keys, int[] offsets, int[] positions) {
+        Preconditions.checkArgument(keys.getLowerBound() == 0, "key index must start at 0");
+        Preconditions.checkArgument(offsets.length == keys.size() + 1, "offset array has wrong length");
+        Preconditions.checkArgument(offsets[keys.size()] == positions.length, "offsets do not cover positions");
+        this.keys = keys;
+        this.offsets = offsets;
+        this.positions = positions;
+    }
+
+    @Override
+    LongSortedArraySet getValues() {
+        return keys.keySet();
+    }
+
+    @Override
+    IntList getPositions(Object value) {
+        if (value instanceof Long) {
+            return getPositions((long) (Long) value);
+        } else {
+            return IntLists.EMPTY_LIST;
+        }
+    }
+
+    /**
+     * Get the positions of entities with a value.
+     * @param value The value.
+     * @return The positions, in increasing order.
+     */
+    IntList getPositions(long value) {
+        int k = findKey(value);
+        return k >= 0 ? getKeyPositions(k) : IntLists.EMPTY_LIST;
+    }
+
+    /**
+     * Look up the index of a value.
+     * @param value The value.
+     * @return The index of the value in {@link #getKeys()}, or a negative value if it is not indexed.
+     */
+    int findKey(long value) {
+        return keys.tryGetIndex(value);
+    }
+
+    /**
+     * Get the number of distinct values.
+     * @return The number of distinct values.
+     */
+    int getKeyCount() {
+        return keys.size();
+    }
+
+    /**
+     * Get the sorted key index of values.
+     * @return The key index.
+     */
+    SortedKeyIndex getKeys() {
+        return keys;
+    }
+
+    /**
+     * Get the positions for a key.
+     * @param k The key index (from {@link #findKey(long)}).
+     * @return The positions of entities with that key.
+     */
+    IntList getKeyPositions(int k) {
+        return IntLists.unmodifiable(IntArrayList.wrap(positions).subList(offsets[k], offsets[k + 1]));
+    }
+
+    int[] getOffsetArray() {
+        return offsets;
+    }
+
+    int[] getPositionArray() {
+        return positions;
+    }
+}
@@ -72,6 +72,13 @@ abstract class LongShard extends Shard {
 
     abstract void put(int idx, long value);
 
+    /**
+     * Adapt this shard to be able to hold a value, without boxing it.
+     * @param val The value to store.
+     * @return This shard, if it can hold the value, or a new shard that can.
+     */
+    abstract LongShard adaptLong(long val);
+
     private void copyFrom(LongShard src) {
         int n = src.size();
         for (int i = 0; i < n; i++) {
@@ -139,6 +146,11 @@ abstract class LongShard extends Shard {
             }
         }
 
+        @Override
+        LongShard adaptLong(long val) {
+            return this;
+        }
+
         @Override
         int size() {
             return size;
@@ -168,23 +180,27 @@ abstract class LongShard extends Shard {
             if (obj == null) {
                 return this;
             } else if (obj instanceof Long) {
-                long val = (Long) obj;
-                if (val >= Short.MIN_VALUE && val <= Short.MAX_VALUE) {
-                    return this;
-                } else if (val >= Integer.MIN_VALUE && val <= Integer.MAX_VALUE) {
-                    LongShard lsh = new WrapInt();
-                    lsh.copyFrom(this);
-                    return lsh;
-                } else {
-                    LongShard lsh = createFull();
-                    lsh.copyFrom(this);
-                    return lsh;
-                }
+                return adaptLong((Long) obj);
             } else {
                 throw new IllegalArgumentException("cannot store " + obj + " in int shard");
             }
         }
 
+        @Override
+        LongShard adaptLong(long val) {
+            if (val >= Short.MIN_VALUE && val <= Short.MAX_VALUE) {
+                return this;
+            } else if (val >= Integer.MIN_VALUE && val <= Integer.MAX_VALUE) {
+                LongShard lsh = new WrapInt();
+                lsh.copyFrom(this);
+                return lsh;
+            } else {
+                LongShard lsh = createFull();
+                lsh.copyFrom(this);
+                return lsh;
+            }
+        }
+
         @Override
         void clear(int idx) {
             delegate.clear(idx);
@@ -224,20 +240,24 @@ abstract class LongShard extends Shard {
         LongShard adapt(Object obj) {
             if (obj == null) {
                 return this;
-            }if (obj instanceof Long) {
-                long val = (Long) obj;
-                if (val >= Integer.MIN_VALUE && val <= Integer.MAX_VALUE) {
-                    return this;
-                } else {
-                    LongShard lsh = createFull();
-                    lsh.copyFrom(this);
-                    return lsh;
-                }
+            } else if (obj instanceof Long) {
+                return adaptLong((Long) obj);
             } else {
                 throw new IllegalArgumentException("cannot store " + obj + " in int shard");
             }
         }
 
+        @Override
+        LongShard adaptLong(long val) {
+            if (val >= Integer.MIN_VALUE && val <= Integer.MAX_VALUE) {
+                return this;
+            } else {
+                LongShard lsh = createFull();
+                lsh.copyFrom(this);
+                return lsh;
+            }
+        }
+
         @Override
         void clear(int idx) {
             delegate.clear(idx);
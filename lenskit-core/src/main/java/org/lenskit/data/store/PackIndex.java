@@ -21,10 +21,11 @@
 package org.lenskit.data.store;
 
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.ints.IntLists;
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.lenskit.util.keys.SortedKeyIndex;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -34,23 +35,52 @@ import java.util.stream.Collectors;
 /**
  * Index for packed collections.
  */
-class PackIndex {
-    private final Map<?, IntList> indexMap;
+abstract class PackIndex {
+    /**
+     * Get the distinct values in the index.
+     * @return The set of indexed values.
+     */
+    abstract Set<?> getValues();
 
-    PackIndex(Map<?,IntList> map) {
-        indexMap = map;
-    }
+    /**
+     * Get the positions of entities having a value.
+     * @param value The value.
+     * @return The positions, in increasing order.
+     */
+    abstract IntList getPositions(Object value);
 
-    Set<?> getValues() {
-        return indexMap.keySet();
+    /**
+     * Create a pack index backed by a map.
+     * @param map The map from values to positions.
+     * @return The index.
+     */
+    static PackIndex fromMap(Map<?,IntList> map) {
+        return new MapIndex(map);
     }
 
-    IntList getPositions(Object value) {
-        IntList res = indexMap.get(value);
-        if (res == null) {
-            return IntLists.EMPTY_LIST;
-        } else {
-            return res;
+    /**
+     * Pack index that stores its positions in a map.
+     */
+    static class MapIndex extends PackIndex {
+        private final Map<?, IntList> indexMap;
+
+        MapIndex(Map<?,IntList> map) {
+            indexMap = map;
+        }
+
+        @Override
+        Set<?> getValues() {
+            return indexMap.keySet();
+        }
+
+        @Override
+        IntList getPositions(Object value) {
+            IntList res = indexMap.get(value);
+            if (res == null) {
+                return IntLists.EMPTY_LIST;
+            } else {
+                return res;
+            }
         }
     }
 
@@ -83,29 +113,53 @@ class PackIndex {
                                                                           return e.getValue();
                                                                       }));
             index.clear();
-            return new PackIndex(map);
+            return new MapIndex(map);
         }
     }
 
+    /**
+     * Builder for {@link LongPackIndex}.  Null values are not indexed.
+     */
     static class LongBuilder implements Builder {
-        Long2ObjectMap<IntArrayList> index = new Long2ObjectOpenHashMap<>();
+        private LongArrayList values = new LongArrayList();
+        private IntArrayList positions = new IntArrayList();
 
         @Override
         public void add(Object value, int idx) {
-            long v = (long) value;
-            IntArrayList list = index.computeIfAbsent(v, k -> new IntArrayList());
-            list.add(idx);
+            if (value != null) {
+                values.add((long) value);
+                positions.add(idx);
+            }
         }
 
         @Override
         public PackIndex build() {
-            Long2ObjectMap<IntList> map = new Long2ObjectOpenHashMap<>();
-            for (Long2ObjectMap.Entry<IntArrayList> e: index.long2ObjectEntrySet()) {
-                e.getValue().trim();
-                map.put(e.getLongKey(), e.getValue());
+            int n = values.size();
+            long[] vals = values.elements();
+            int[] pos = positions.elements();
+            int[] perm = new int[n];
+            for (int i = 0; i < n; i++) {
+                perm[i] = i;
             }
-            index.clear();
-            return new PackIndex(map);
+            // stable sort keeps each value's positions in increasing order
+            IntArrays.mergeSort(perm, (a, b) -> Long.compare(vals[a], vals[b]));
+
+            LongArrayList keys = new LongArrayList();
+            IntArrayList offsets = new IntArrayList();
+            int[] sorted = new int[n];
+            for (int i = 0; i < n; i++) {
+                long v = vals[perm[i]];
+                if (i == 0 || v != vals[perm[i - 1]]) {
+                    keys.add(v);
+                    offsets.add(i);
+                }
+                sorted[i] = pos[perm[i]];
+            }
+            offsets.add(n);
+            values = null;
+            positions = null;
+            return new LongPackIndex(SortedKeyIndex.wrap(keys.toLongArray(), keys.size()),
+                                     offsets.toIntArray(), sorted);
         }
     }
 }
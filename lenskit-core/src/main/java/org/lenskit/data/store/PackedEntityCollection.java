@@ -27,10 +27,11 @@ import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.primitives.Longs;
 import it.unimi.dsi.fastutil.ints.IntList;
-import it.unimi.dsi.fastutil.longs.AbstractLongIterator;
-import it.unimi.dsi.fastutil.longs.AbstractLongSet;
-import it.unimi.dsi.fastutil.longs.LongIterator;
-import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.*;
+import it.unimi.dsi.fastutil.objects.AbstractObjectIterator;
+import it.unimi.dsi.fastutil.objects.AbstractObjectSet;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.ObjectSet;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 import org.lenskit.data.dao.SortKey;
@@ -38,6 +39,7 @@ import org.lenskit.data.entities.*;
 import org.lenskit.util.BinarySearch;
 import org.lenskit.util.describe.Describable;
 import org.lenskit.util.describe.DescriptionWriter;
+import org.lenskit.util.keys.LongSortedArraySet;
 import org.lenskit.util.reflect.InstanceFactory;
 
 import javax.annotation.Nonnull;
@@ -55,6 +57,7 @@ import java.util.stream.Stream;
 class PackedEntityCollection extends EntityCollection implements Describable {
     private final EntityType entityType;
     private final IntFunction<Entity> entityBuilder;
+    private final Class<? extends EntityBuilder> entityBuilderClass;
     private final AttributeSet attributes;
     private final LongAttrStore idStore;
     private final AttrStore[] attrStores;
@@ -69,6 +72,7 @@ class PackedEntityCollection extends EntityCollection implements Describable {
         attributes = attrs;
         attrStores = stores;
         indexes = idxes;
+        entityBuilderClass = ebc;
         idStore = (LongAttrStore) stores[0];
         size = idStore.size();
 
@@ -164,7 +168,9 @@ class PackedEntityCollection extends EntityCollection implements Describable {
         }
 
         PackIndex index = indexes[idx];
-        if (index != null) {
+        if (index instanceof LongPackIndex) {
+            return new GroupedMap((LongPackIndex) index);
+        } else if (index != null) {
             return index.getValues()
                     .stream()
                     .collect(Collectors.toMap(l -> (Long) l,
@@ -196,6 +202,24 @@ class PackedEntityCollection extends EntityCollection implements Describable {
         return idStore.size();
     }
 
+    AttributeSet getAttributes() {
+        return attributes;
+    }
+
+    AttrStore getAttrStore(int attr) {
+        return attrStores[attr];
+    }
+
+    @Nullable
+    PackIndex getIndex(int attr) {
+        return indexes[attr];
+    }
+
+    @Nullable
+    Class<? extends EntityBuilder> getEntityBuilderClass() {
+        return entityBuilderClass;
+    }
+
     @Override
     public String toString() {
         return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
@@ -355,6 +379,72 @@ class PackedEntityCollection extends EntityCollection implements Describable {
         }
     }
 
+    /**
+     * View of a long pack index as a map of entity lists.
+     */
+    private class GroupedMap extends AbstractLong2ObjectMap<List<Entity>> {
+        private final LongPackIndex index;
+
+        GroupedMap(LongPackIndex idx) {
+            index = idx;
+        }
+
+        @Override
+        public int size() {
+            return index.getKeyCount();
+        }
+
+        @Override
+        public boolean containsKey(long k) {
+            return index.findKey(k) >= 0;
+        }
+
+        @Override
+        public List<Entity> get(long k) {
+            int ki = index.findKey(k);
+            return ki >= 0 ? new EntityList(index.getKeyPositions(ki)) : defRetValue;
+        }
+
+        @Override
+        public LongSortedArraySet keySet() {
+            return index.getValues();
+        }
+
+        @Override
+        public ObjectSet<Long2ObjectMap.Entry<List<Entity>>> long2ObjectEntrySet() {
+            return new AbstractObjectSet<Long2ObjectMap.Entry<List<Entity>>>() {
+                @Override
+                public ObjectIterator<Long2ObjectMap.Entry<List<Entity>>> iterator() {
+                    return new AbstractObjectIterator<Long2ObjectMap.Entry<List<Entity>>>() {
+                        int k = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return k < index.getKeyCount();
+                        }
+
+                        @Override
+                        public Long2ObjectMap.Entry<List<Entity>> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Long2ObjectMap.Entry<List<Entity>> e =
+                                    new BasicEntry<>(index.getKeys().getKey(k),
+                                                     new EntityList(index.getKeyPositions(k)));
+                            k += 1;
+                            return e;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return index.getKeyCount();
+                }
+            };
+        }
+    }
+
     private class IdSearch extends BinarySearch {
         private final long targetId;
 
@@ -62,28 +62,35 @@ class PackedEntityCollectionBuilder extends EntityCollectionBuilder {
         idStore = new LongAttrStoreBuilder();
         storeBuilders[0] = idStore;
         for (int i = 1; i < n; i++) {
-            TypedName<?> attr = attrs.getAttribute(i);
-            AttrStoreBuilder asb;
-            if (attr.getType().equals(TypeToken.of(Long.class))) {
-                logger.debug("{}: storing  long column {}", et, attr.getName());
-                asb = new LongAttrStoreBuilder();
-            } else if (attr.getType().equals(TypeToken.of(Integer.class))) {
-                logger.debug("{}: storing int column {}", et, attr.getName());
-                asb = new AttrStoreBuilder(IntShard::create);
-            } else if (attr.getType().equals(TypeToken.of(Double.class))) {
-                logger.debug("{}: storing double column {}", et, attr.getName());
-                asb = new DoubleAttrStoreBuilder();
-            } else {
-                logger.debug("{}: storing object column {}", et, attr);
-                asb = new AttrStoreBuilder(ObjectShard::new);
-            }
-            storeBuilders[i] = asb;
+            storeBuilders[i] = makeStoreBuilder(et, attrs.getAttribute(i));
         }
 
         entityBuilderClass = ebc;
 
     }
 
+    /**
+     * Create the store builder for an attribute column.
+     * @param et The entity type (for logging).
+     * @param attr The attribute.
+     * @return A builder for the attribute's column.
+     */
+    static AttrStoreBuilder makeStoreBuilder(EntityType et, TypedName<?> attr) {
+        if (attr.getType().equals(TypeToken.of(Long.class))) {
+            logger.debug("{}: storing  long column {}", et, attr.getName());
+            return new LongAttrStoreBuilder();
+        } else if (attr.getType().equals(TypeToken.of(Integer.class))) {
+            logger.debug("{}: storing int column {}", et, attr.getName());
+            return new IntAttrStoreBuilder();
+        } else if (attr.getType().equals(TypeToken.of(Double.class))) {
+            logger.debug("{}: storing double column {}", et, attr.getName());
+            return new DoubleAttrStoreBuilder();
+        } else {
+            logger.debug("{}: storing object column {}", et, attr);
+            return new AttrStoreBuilder(ObjectShard::new);
+        }
+    }
+
     @Override
     public <T> EntityCollectionBuilder addIndex(TypedName<T> attribute) {
         int pos = attributes.lookup(attribute);
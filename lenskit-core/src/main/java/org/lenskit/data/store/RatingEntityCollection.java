@@ -0,0 +1,494 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.data.store;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
+import it.unimi.dsi.fastutil.doubles.DoubleLists;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.*;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.lenskit.data.entities.*;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.describe.Describable;
+import org.lenskit.util.describe.DescriptionWriter;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.LongSortedArraySet;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Columnar entity collection specialized for ratings.
+ *
+ * <p>
+ * Ratings are stored as primitive columns of IDs, users, items, values and timestamps, sorted
+ * by user and then by item (ties broken by timestamp and ID).  User and item offsets, along with
+ * copies of the user and value columns permuted into item order, give each user's and each item's
+ * ratings as a contiguous slice.  Code that knows about this collection can use the primitive
+ * accessors such as {@link #userItems(long)} and {@link #userRatingVector(long)} to read ratings
+ * without allocating an entity per rating; the generic {@link EntityCollection} methods produce
+ * {@link Rating} objects on demand.
+ *
+ * @since 3.0
+ */
+public class RatingEntityCollection extends EntityCollection implements Describable {
+    // columns are package-private so that EntityCollectionSnapshot can write them directly
+    final long[] ids;
+    final long[] users;
+    final long[] items;
+    final double[] values;
+    final long[] timestamps;
+
+    final SortedKeyIndex userIndex;
+    final int[] userOffsets;
+    final SortedKeyIndex itemIndex;
+    final int[] itemOffsets;
+    /** Positions of the ratings in item order. */
+    final int[] itemPositions;
+    final long[] itemUsers;
+    final double[] itemValues;
+
+    /** Sorted rating IDs, and the position of each. */
+    final long[] sortedIds;
+    final int[] idPositions;
+    final boolean uniquePairs;
+
+    private transient HashCode contentHash;
+
+    /**
+     * Construct a rating collection from columns that are already in user-item order.
+     */
+    RatingEntityCollection(long[] ids, long[] users, long[] items, double[] values, long[] timestamps) {
+        int n = ids.length;
+        Preconditions.checkArgument(users.length == n && items.length == n
+                                            && values.length == n && timestamps.length == n,
+                                    "column lengths do not match");
+        this.ids = ids;
+        this.users = users;
+        this.items = items;
+        this.values = values;
+        this.timestamps = timestamps;
+
+        LongArrayList ukeys = new LongArrayList();
+        IntArrayList uoffs = new IntArrayList();
+        boolean unique = true;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || users[i] != users[i - 1]) {
+                ukeys.add(users[i]);
+                uoffs.add(i);
+            } else if (items[i] == items[i - 1]) {
+                unique = false;
+            }
+        }
+        uoffs.add(n);
+        uniquePairs = unique;
+        userIndex = SortedKeyIndex.wrap(ukeys.toLongArray(), ukeys.size());
+        userOffsets = uoffs.toIntArray();
+
+        int[] iperm = new int[n];
+        for (int i = 0; i < n; i++) {
+            iperm[i] = i;
+        }
+        // stable sort keeps each item's ratings in user order
+        IntArrays.mergeSort(iperm, (a, b) -> Long.compare(items[a], items[b]));
+        itemPositions = iperm;
+        itemUsers = new long[n];
+        itemValues = new double[n];
+        LongArrayList ikeys = new LongArrayList();
+        IntArrayList ioffs = new IntArrayList();
+        for (int j = 0; j < n; j++) {
+            int pos = iperm[j];
+            itemUsers[j] = users[pos];
+            itemValues[j] = values[pos];
+            if (j == 0 || items[pos] != items[iperm[j - 1]]) {
+                ikeys.add(items[pos]);
+                ioffs.add(j);
+            }
+        }
+        ioffs.add(n);
+        itemIndex = SortedKeyIndex.wrap(ikeys.toLongArray(), ikeys.size());
+        itemOffsets = ioffs.toIntArray();
+
+        int[] idperm = new int[n];
+        for (int i = 0; i < n; i++) {
+            idperm[i] = i;
+        }
+        IntArrays.quickSort(idperm, (a, b) -> Long.compare(ids[a], ids[b]));
+        idPositions = idperm;
+        sortedIds = new long[n];
+        for (int i = 0; i < n; i++) {
+            sortedIds[i] = ids[idperm[i]];
+            Preconditions.checkArgument(i == 0 || sortedIds[i] > sortedIds[i - 1],
+                                        "duplicate rating ID %s", sortedIds[i]);
+        }
+    }
+
+    /**
+     * Construct a rating collection from its columns and precomputed indexes.  This is used to
+     * reload collections from snapshots without re-sorting.
+     */
+    RatingEntityCollection(long[] ids, long[] users, long[] items, double[] values, long[] timestamps,
+                           SortedKeyIndex userIndex, int[] userOffsets,
+                           SortedKeyIndex itemIndex, int[] itemOffsets,
+                           int[] itemPositions, long[] itemUsers, double[] itemValues,
+                           long[] sortedIds, int[] idPositions, boolean uniquePairs) {
+        int n = ids.length;
+        Preconditions.checkArgument(users.length == n && items.length == n
+                                            && values.length == n && timestamps.length == n,
+                                    "column lengths do not match");
+        Preconditions.checkArgument(userOffsets.length == userIndex.size() + 1
+                                            && itemOffsets.length == itemIndex.size() + 1,
+                                    "offset lengths do not match indexes");
+        Preconditions.checkArgument(itemPositions.length == n && itemUsers.length == n
+                                            && itemValues.length == n && sortedIds.length == n
+                                            && idPositions.length == n,
+                                    "index lengths do not match");
+        this.ids = ids;
+        this.users = users;
+        this.items = items;
+        this.values = values;
+        this.timestamps = timestamps;
+        this.userIndex = userIndex;
+        this.userOffsets = userOffsets;
+        this.itemIndex = itemIndex;
+        this.itemOffsets = itemOffsets;
+        this.itemPositions = itemPositions;
+        this.itemUsers = itemUsers;
+        this.itemValues = itemValues;
+        this.sortedIds = sortedIds;
+        this.idPositions = idPositions;
+        this.uniquePairs = uniquePairs;
+    }
+
+    @Override
+    public EntityType getType() {
+        return CommonTypes.RATING;
+    }
+
+    @Override
+    public LongSet idSet() {
+        return new LongSortedArraySet(SortedKeyIndex.wrap(sortedIds, sortedIds.length));
+    }
+
+    /**
+     * Get the users who have ratings in this collection.
+     * @return The set of user IDs.
+     */
+    public LongSortedArraySet getUserIds() {
+        return userIndex.keySet();
+    }
+
+    /**
+     * Get the items that have ratings in this collection.
+     * @return The set of item IDs.
+     */
+    public LongSortedArraySet getItemIds() {
+        return itemIndex.keySet();
+    }
+
+    /**
+     * Get the items a user has rated.
+     * @param user The user ID.
+     * @return A read-only view of the items the user has rated, in increasing order of item ID.
+     *         If the user has rated an item more than once, it appears more than once.
+     */
+    public LongList userItems(long user) {
+        int u = userIndex.tryGetIndex(user);
+        if (u < 0) {
+            return LongLists.EMPTY_LIST;
+        }
+        return slice(items, userOffsets[u], userOffsets[u + 1]);
+    }
+
+    /**
+     * Get the values of a user's ratings.
+     * @param user The user ID.
+     * @return A read-only view of the user's rating values, parallel to {@link #userItems(long)}.
+     */
+    public DoubleList userValues(long user) {
+        int u = userIndex.tryGetIndex(user);
+        if (u < 0) {
+            return DoubleLists.EMPTY_LIST;
+        }
+        return slice(values, userOffsets[u], userOffsets[u + 1]);
+    }
+
+    /**
+     * Get the users who have rated an item.
+     * @param item The item ID.
+     * @return A read-only view of the users who have rated the item, in increasing order of user ID.
+     */
+    public LongList itemUsers(long item) {
+        int i = itemIndex.tryGetIndex(item);
+        if (i < 0) {
+            return LongLists.EMPTY_LIST;
+        }
+        return slice(itemUsers, itemOffsets[i], itemOffsets[i + 1]);
+    }
+
+    /**
+     * Get the values of an item's ratings.
+     * @param item The item ID.
+     * @return A read-only view of the item's rating values, parallel to {@link #itemUsers(long)}.
+     */
+    public DoubleList itemValues(long item) {
+        int i = itemIndex.tryGetIndex(item);
+        if (i < 0) {
+            return DoubleLists.EMPTY_LIST;
+        }
+        return slice(itemValues, itemOffsets[i], itemOffsets[i + 1]);
+    }
+
+    /**
+     * Get a user's rating vector.  If the user has rated each item at most once, this is a view of
+     * the stored columns and does not copy them; otherwise, the most recent rating of each item
+     * (by timestamp, then by ID) is used.
+     *
+     * @param user The user ID.
+     * @return The user's rating vector (empty if the user has no ratings).
+     */
+    public Long2DoubleSortedArrayMap userRatingVector(long user) {
+        int u = userIndex.tryGetIndex(user);
+        if (u < 0) {
+            return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.empty(), new double[0]);
+        }
+        int start = userOffsets[u];
+        int end = userOffsets[u + 1];
+        if (uniquePairs) {
+            return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(items, start, end), values);
+        }
+
+        long[] keys = new long[end - start];
+        double[] vals = new double[end - start];
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            if (n > 0 && keys[n - 1] == items[i]) {
+                // later entries for the same item are more recent
+                vals[n - 1] = values[i];
+            } else {
+                keys[n] = items[i];
+                vals[n] = values[i];
+                n++;
+            }
+        }
+        return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, n), vals);
+    }
+
+    @Nullable
+    @Override
+    public Entity lookup(long id) {
+        int pos = Arrays.binarySearch(sortedIds, id);
+        return pos >= 0 ? makeRating(idPositions[pos]) : null;
+    }
+
+    @Nonnull
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> List<Entity> find(TypedName<T> name, T value) {
+        if (name == CommonAttributes.USER_ID) {
+            return findUser((Long) value);
+        } else if (name == CommonAttributes.ITEM_ID) {
+            return findItem((Long) value);
+        } else if (name == CommonAttributes.ENTITY_ID) {
+            Entity e = lookup((Long) value);
+            return e != null ? ImmutableList.of(e) : ImmutableList.of();
+        } else {
+            return stream().filter(e -> value.equals(e.maybeGet(name)))
+                           .collect(Collectors.toList());
+        }
+    }
+
+    @Nonnull
+    @Override
+    public <T> List<Entity> find(Attribute<T> attr) {
+        return find(attr.getTypedName(), attr.getValue());
+    }
+
+    @Nonnull
+    @Override
+    public List<Entity> find(String name, Object value) {
+        if (value instanceof Long) {
+            if (name.equals(CommonAttributes.USER_ID.getName())) {
+                return findUser((Long) value);
+            } else if (name.equals(CommonAttributes.ITEM_ID.getName())) {
+                return findItem((Long) value);
+            }
+        }
+        return stream().filter(e -> value.equals(e.maybeGet(name)))
+                       .collect(Collectors.toList());
+    }
+
+    private List<Entity> findUser(long user) {
+        int u = userIndex.tryGetIndex(user);
+        if (u < 0) {
+            return ImmutableList.of();
+        }
+        return new UserRatingList(userOffsets[u], userOffsets[u + 1]);
+    }
+
+    private List<Entity> findItem(long item) {
+        int i = itemIndex.tryGetIndex(item);
+        if (i < 0) {
+            return ImmutableList.of();
+        }
+        return new ItemRatingList(itemOffsets[i], itemOffsets[i + 1]);
+    }
+
+    @Override
+    public Map<Long, List<Entity>> grouped(TypedName<Long> attr) {
+        Preconditions.checkArgument(attr != CommonAttributes.ENTITY_ID,
+                                    "cannot group by entity ID");
+        Long2ObjectMap<List<Entity>> groups = new Long2ObjectLinkedOpenHashMap<>();
+        if (attr == CommonAttributes.USER_ID) {
+            for (int u = 0; u < userIndex.size(); u++) {
+                groups.put(userIndex.getKey(u), new UserRatingList(userOffsets[u], userOffsets[u + 1]));
+            }
+        } else if (attr == CommonAttributes.ITEM_ID) {
+            for (int i = 0; i < itemIndex.size(); i++) {
+                groups.put(itemIndex.getKey(i), new ItemRatingList(itemOffsets[i], itemOffsets[i + 1]));
+            }
+        } else {
+            return stream().filter(e -> e.hasAttribute(attr))
+                           .collect(Collectors.groupingBy(e -> e.getLong(attr)));
+        }
+        return groups;
+    }
+
+    /**
+     * Stream the ratings in order of ID.
+     * @return A stream of the ratings.
+     */
+    public Stream<Entity> stream() {
+        return IntStream.range(0, ids.length)
+                        .mapToObj(i -> makeRating(idPositions[i]));
+    }
+
+    @Override
+    public Iterator<Entity> iterator() {
+        return stream().iterator();
+    }
+
+    @Override
+    public int size() {
+        return ids.length;
+    }
+
+    private Rating makeRating(int pos) {
+        return Rating.newBuilder()
+                     .setId(ids[pos])
+                     .setUserId(users[pos])
+                     .setItemId(items[pos])
+                     .setRating(values[pos])
+                     .setTimestamp(timestamps[pos])
+                     .build();
+    }
+
+    private static LongList slice(long[] data, int start, int end) {
+        return LongLists.unmodifiable(LongArrayList.wrap(data).subList(start, end));
+    }
+
+    private static DoubleList slice(double[] data, int start, int end) {
+        return DoubleLists.unmodifiable(DoubleArrayList.wrap(data).subList(start, end));
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+                .append("ratings", ids.length)
+                .append("users", userIndex.size())
+                .append("items", itemIndex.size())
+                .build();
+    }
+
+    @Override
+    public void describeTo(DescriptionWriter writer) {
+        writer.putField("entity_count", ids.length);
+        writer.putList("attributes", Rating.ATTRIBUTES);
+        if (contentHash == null) {
+            Hasher hash = Hashing.md5().newHasher();
+            for (int i = 0; i < ids.length; i++) {
+                int pos = idPositions[i];
+                hash.putLong(ids[pos]);
+                hash.putLong(users[pos]);
+                hash.putLong(items[pos]);
+                hash.putDouble(values[pos]);
+                hash.putLong(timestamps[pos]);
+            }
+            contentHash = hash.hash();
+        }
+        writer.putField("content_hash", contentHash);
+    }
+
+    private class UserRatingList extends AbstractList<Entity> {
+        private final int start;
+        private final int end;
+
+        UserRatingList(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Entity get(int index) {
+            Preconditions.checkElementIndex(index, end - start);
+            return makeRating(start + index);
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+
+    private class ItemRatingList extends AbstractList<Entity> {
+        private final int start;
+        private final int end;
+
+        ItemRatingList(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Entity get(int index) {
+            Preconditions.checkElementIndex(index, end - start);
+            return makeRating(itemPositions[start + index]);
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.data.store;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.data.entities.*;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builder for {@link RatingEntityCollection}s.
+ *
+ * <p>The builder stores ratings in primitive columns.  If it is given an entity that the columnar
+ * layout cannot represent exactly (one with attributes other than those of {@link Rating}, or
+ * without a user, item or rating), or is asked to replace a rating, it copies what it has
+ * so far into a general-purpose builder and delegates to that from then on.
+ */
+class RatingEntityCollectionBuilder extends EntityCollectionBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(RatingEntityCollectionBuilder.class);
+
+    private final AttributeSet layout;
+    private final Class<? extends EntityBuilder> entityBuilderClass;
+    private final List<String> indexes = new ArrayList<>();
+
+    private LongArrayList ids = new LongArrayList();
+    private LongArrayList users = new LongArrayList();
+    private LongArrayList items = new LongArrayList();
+    private DoubleArrayList values = new DoubleArrayList();
+    private LongArrayList timestamps = new LongArrayList();
+    private LongSet idSet = null;
+    private long lastEntityId = Long.MIN_VALUE;
+
+    private EntityCollectionBuilder fallback;
+
+    /**
+     * Create a new rating collection builder.
+     * @param attrs The layout the collection was declared with, or {@code null} if there is none.
+     * @param ebc The entity builder class the layout was declared with.
+     */
+    RatingEntityCollectionBuilder(@Nullable AttributeSet attrs, @Nullable Class<? extends EntityBuilder> ebc) {
+        layout = attrs;
+        entityBuilderClass = ebc;
+    }
+
+    /**
+     * Query whether a declared layout can be stored by a rating collection.
+     * @param type The entity type.
+     * @param attrs The attributes.
+     * @param ebc The entity builder class.
+     * @return {@code true} if the layout describes ratings that this builder can store.
+     */
+    static boolean supportsLayout(EntityType type, AttributeSet attrs, @Nullable Class<? extends EntityBuilder> ebc) {
+        if (type != CommonTypes.RATING) {
+            return false;
+        }
+        if (ebc != null && !ebc.equals(RatingBuilder.class) && !ebc.equals(BasicEntityBuilder.class)) {
+            return false;
+        }
+        if (attrs.lookup(CommonAttributes.USER_ID) < 0 || attrs.lookup(CommonAttributes.ITEM_ID) < 0
+                || attrs.lookup(CommonAttributes.RATING) < 0) {
+            return false;
+        }
+        for (TypedName<?> name: attrs) {
+            if (Rating.ATTRIBUTES.lookup(name) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public <T> EntityCollectionBuilder addIndex(TypedName<T> attribute) {
+        if (fallback != null) {
+            fallback.addIndex(attribute);
+        } else {
+            indexes.add(attribute.getName());
+        }
+        return this;
+    }
+
+    @Override
+    public EntityCollectionBuilder addIndex(String attrName) {
+        if (fallback != null) {
+            fallback.addIndex(attrName);
+        } else {
+            indexes.add(attrName);
+        }
+        return this;
+    }
+
+    @Override
+    public EntityCollectionBuilder add(Entity e, boolean replace) {
+        if (fallback != null) {
+            fallback.add(e, replace);
+            return this;
+        }
+
+        long id = e.getId();
+        if (id <= lastEntityId && idSet == null) {
+            idSet = new LongOpenHashSet(ids);
+        }
+        if (idSet != null && idSet.contains(id)) {
+            if (replace) {
+                switchToFallback().add(e, true);
+            }
+            return this;
+        }
+        if (!isStorable(e)) {
+            switchToFallback().add(e, replace);
+            return this;
+        }
+
+        ids.add(id);
+        users.add(e.getLong(CommonAttributes.USER_ID));
+        items.add(e.getLong(CommonAttributes.ITEM_ID));
+        values.add(e.getDouble(CommonAttributes.RATING));
+        timestamps.add(e.hasAttribute(CommonAttributes.TIMESTAMP) ? e.getLong(CommonAttributes.TIMESTAMP) : -1);
+        lastEntityId = Math.max(lastEntityId, id);
+        if (idSet != null) {
+            idSet.add(id);
+        }
+        return this;
+    }
+
+    private boolean isStorable(Entity e) {
+        if (!e.hasAttribute(CommonAttributes.USER_ID) || !e.hasAttribute(CommonAttributes.ITEM_ID)
+                || !e.hasAttribute(CommonAttributes.RATING)) {
+            return false;
+        }
+        for (TypedName<?> name: e.getTypedAttributeNames()) {
+            if (Rating.ATTRIBUTES.lookup(name) < 0) {
+                return false;
+            }
+        }
+        // a negative timestamp would be read back as no timestamp
+        return !e.hasAttribute(CommonAttributes.TIMESTAMP) || e.getLong(CommonAttributes.TIMESTAMP) >= 0;
+    }
+
+    private EntityCollectionBuilder switchToFallback() {
+        logger.debug("ratings do not fit columnar layout, switching to general entity storage");
+        if (layout != null) {
+            fallback = new PackedEntityCollectionBuilder(CommonTypes.RATING, layout, entityBuilderClass);
+        } else {
+            fallback = new MapEntityCollectionBuilder(CommonTypes.RATING);
+        }
+        for (String name: indexes) {
+            fallback.addIndex(name);
+        }
+        int n = ids.size();
+        for (int i = 0; i < n; i++) {
+            fallback.add(makeRating(i), false);
+        }
+        ids = users = items = timestamps = null;
+        values = null;
+        return fallback;
+    }
+
+    private Rating makeRating(int i) {
+        return Rating.newBuilder()
+                     .setId(ids.getLong(i))
+                     .setUserId(users.getLong(i))
+                     .setItemId(items.getLong(i))
+                     .setRating(values.getDouble(i))
+                     .setTimestamp(timestamps.getLong(i))
+                     .build();
+    }
+
+    @Override
+    public Iterable<Entity> entities() {
+        if (fallback != null) {
+            return fallback.entities();
+        }
+        List<Entity> list = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            list.add(makeRating(i));
+        }
+        return list;
+    }
+
+    @Override
+    public EntityCollection build() {
+        if (fallback != null) {
+            return fallback.build();
+        }
+
+        final int n = ids.size();
+        final long[] uc = users.elements();
+        final long[] ic = items.elements();
+        final long[] tc = timestamps.elements();
+        final long[] idc = ids.elements();
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        IntArrays.quickSort(order, (a, b) -> {
+            int cmp = Long.compare(uc[a], uc[b]);
+            if (cmp == 0) {
+                cmp = Long.compare(ic[a], ic[b]);
+            }
+            if (cmp == 0) {
+                cmp = Long.compare(tc[a], tc[b]);
+            }
+            if (cmp == 0) {
+                cmp = Long.compare(idc[a], idc[b]);
+            }
+            return cmp;
+        });
+
+        long[] sIds = new long[n];
+        long[] sUsers = new long[n];
+        long[] sItems = new long[n];
+        double[] sValues = new double[n];
+        long[] sTimes = new long[n];
+        double[] vc = values.elements();
+        for (int i = 0; i < n; i++) {
+            int p = order[i];
+            sIds[i] = idc[p];
+            sUsers[i] = uc[p];
+            sItems[i] = ic[p];
+            sValues[i] = vc[p];
+            sTimes[i] = tc[p];
+        }
+        ids = users = items = timestamps = null;
+        values = null;
+
+        RatingEntityCollection coll = new RatingEntityCollection(sIds, sUsers, sItems, sValues, sTimes);
+        logger.debug("built {}", coll);
+        return coll;
+    }
+}
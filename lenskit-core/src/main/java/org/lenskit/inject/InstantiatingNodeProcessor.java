@@ -52,7 +52,20 @@ class InstantiatingNodeProcessor implements NodeProcessor {
             return node;
         }
         Object obj = instantiator.apply(node);
+        return replaceWithInstance(node, obj);
+    }
 
+    /**
+     * Create a replacement for a node whose component has been instantiated.
+     *
+     * @param node The node that was instantiated.
+     * @param obj The instance (may be {@code null}).
+     * @return A node with an instance satisfaction for {@code obj}, retaining the non-transient
+     * edges of {@code node}.
+     */
+    static DAGNode<Component, Dependency> replaceWithInstance(@Nonnull DAGNode<Component, Dependency> node, Object obj) {
+        Component label = node.getLabel();
+        Satisfaction satisfaction = label.getSatisfaction();
         Satisfaction instanceSat;
         if (obj == null) {
             instanceSat = Satisfactions.nullOfType(satisfaction.getErasedType());
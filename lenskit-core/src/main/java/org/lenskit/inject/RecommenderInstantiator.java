@@ -20,18 +20,25 @@
  */
 package org.lenskit.inject;
 
+import com.google.common.collect.Lists;
 import org.grouplens.grapht.Component;
 import org.grouplens.grapht.Dependency;
 import org.grouplens.grapht.InjectionException;
 import org.grouplens.grapht.LifecycleManager;
+import org.grouplens.grapht.graph.DAGEdge;
 import org.grouplens.grapht.graph.DAGNode;
 import org.lenskit.LenskitConfiguration;
 import org.lenskit.RecommenderConfigurationException;
 import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.util.ProgressLogger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Process a recommender graph to deal with its shareable nodes.
@@ -43,6 +50,7 @@ import java.util.Set;
 public final class RecommenderInstantiator {
     private static final Logger logger = LoggerFactory.getLogger(RecommenderInstantiator.class);
     private final DAGNode<Component, Dependency> graph;
+    private final Map<DAGNode<Component, Dependency>, Long> buildTimes = new ConcurrentHashMap<>();
 
     public static RecommenderInstantiator create(DAGNode<Component,Dependency> g) {
         return new RecommenderInstantiator(g);
@@ -79,13 +87,177 @@ public final class RecommenderInstantiator {
     public DAGNode<Component,Dependency> instantiate() throws RecommenderBuildException {
         try (LifecycleManager lm = new LifecycleManager()) {
             NodeInstantiator instantiator = NodeInstantiator.create(lm);
+            NodeProcessor proc = NodeProcessors.instantiate(instantiator);
             // TODO Verify that no sharable components are lifecycle-managed
-            return replaceShareableNodes(NodeProcessors.instantiate(instantiator));
+            return replaceShareableNodes((node, original) -> {
+                long start = System.nanoTime();
+                DAGNode<Component, Dependency> result = proc.processNode(node, original);
+                if (result != node) {
+                    recordBuildTime(original, System.nanoTime() - start);
+                }
+                return result;
+            });
         } catch (InjectionException e) {
             throw new RecommenderBuildException("Recommender instantiation failed", e);
         }
     }
 
+    /**
+     * Instantiate the recommender graph in parallel.  This produces the same result as {@link
+     * #instantiate()}, but shareable components that do not depend on each other are built
+     * concurrently on a fork-join pool.  Each shareable component is built once all the shareable
+     * components it depends on have been built, and its dependencies are supplied with the
+     * instances already built; non-shareable (transient) dependencies are instantiated separately
+     * for each component that uses them.
+     *
+     * @param pool The pool on which to build components.
+     * @return A new recommender graph with all shareable nodes pre-instantiated.
+     * @throws RecommenderBuildException If there is an error instantiating the graph.
+     */
+    public DAGNode<Component,Dependency> instantiate(ForkJoinPool pool) throws RecommenderBuildException {
+        Set<DAGNode<Component, Dependency>> shareable = GraphtUtils.getShareableNodes(graph);
+        logger.debug("instantiating {} shared nodes with parallelism {}",
+                     shareable.size(), pool.getParallelism());
+        List<LifecycleManager> managers = Collections.synchronizedList(new ArrayList<>());
+        Map<DAGNode<Component, Dependency>, CompletableFuture<BuiltNode>> tasks = new HashMap<>();
+        try {
+            // sorted nodes come dependencies-first, so each node's dependencies are scheduled before it
+            for (DAGNode<Component, Dependency> node: graph.getSortedNodes()) {
+                if (shareable.contains(node) && !node.getLabel().getSatisfaction().hasInstance()) {
+                    tasks.put(node, scheduleNode(node, shareable, tasks, managers, pool));
+                }
+            }
+            CompletableFuture.allOf(tasks.values().toArray(new CompletableFuture[tasks.size()])).join();
+
+            return replaceShareableNodes((node, original) -> {
+                CompletableFuture<BuiltNode> task = tasks.get(original);
+                if (task == null) {
+                    return node;
+                }
+                return InstantiatingNodeProcessor.replaceWithInstance(node, task.join().instance);
+            });
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RecommenderBuildException) {
+                throw (RecommenderBuildException) cause;
+            } else {
+                throw new RecommenderBuildException("Recommender instantiation failed", cause);
+            }
+        } catch (InjectionException e) {
+            throw new RecommenderBuildException("Recommender instantiation failed", e);
+        } finally {
+            closeAll(managers);
+        }
+    }
+
+    /**
+     * Schedule a shareable node to be built once its shareable dependencies are available.
+     *
+     * @return A future for the built component and its replacement node.
+     */
+    private CompletableFuture<BuiltNode> scheduleNode(DAGNode<Component, Dependency> node,
+                                                      Set<DAGNode<Component, Dependency>> shareable,
+                                                      Map<DAGNode<Component, Dependency>, CompletableFuture<BuiltNode>> tasks,
+                                                      List<LifecycleManager> managers,
+                                                      ForkJoinPool pool) {
+        // capture the dependencies' tasks now, as the task map is not safe to read from the pool
+        Map<DAGNode<Component, Dependency>, CompletableFuture<BuiltNode>> deps = new LinkedHashMap<>();
+        for (DAGNode<Component, Dependency> dep: findShareableDependencies(node, shareable)) {
+            CompletableFuture<BuiltNode> task = tasks.get(dep);
+            if (task != null) {
+                deps.put(dep, task);
+            }
+        }
+        CompletableFuture<?>[] depTasks = deps.values().toArray(new CompletableFuture[deps.size()]);
+        return CompletableFuture.allOf(depTasks).thenApplyAsync(v -> {
+            // substitute the dependencies' instances into this node's subgraph
+            Map<DAGNode<Component, Dependency>, DAGNode<Component, Dependency>> memory = new HashMap<>();
+            DAGNode<Component, Dependency> current = node;
+            for (Map.Entry<DAGNode<Component, Dependency>, CompletableFuture<BuiltNode>> dep: deps.entrySet()) {
+                DAGNode<Component, Dependency> depNode = dep.getKey();
+                while (memory.containsKey(depNode)) {
+                    depNode = memory.get(depNode);
+                }
+                current = current.replaceNode(depNode, dep.getValue().join().node, memory);
+            }
+
+            LifecycleManager lm = new LifecycleManager();
+            managers.add(lm);
+            long start = System.nanoTime();
+            Object obj;
+            try {
+                obj = NodeInstantiator.create(lm).instantiate(current);
+            } catch (InjectionException e) {
+                throw new CompletionException(e);
+            }
+            recordBuildTime(node, System.nanoTime() - start);
+            return new BuiltNode(obj, InstantiatingNodeProcessor.replaceWithInstance(current, obj));
+        }, pool);
+    }
+
+    /**
+     * A component built by parallel instantiation.
+     */
+    private static class BuiltNode {
+        final Object instance;
+        final DAGNode<Component, Dependency> node;
+
+        BuiltNode(Object obj, DAGNode<Component, Dependency> n) {
+            instance = obj;
+            node = n;
+        }
+    }
+
+    /**
+     * Find the shareable nodes a node depends on, looking through any non-shareable nodes in between.
+     */
+    private static Set<DAGNode<Component, Dependency>> findShareableDependencies(DAGNode<Component, Dependency> node,
+                                                                                Set<DAGNode<Component, Dependency>> shareable) {
+        Set<DAGNode<Component, Dependency>> found = new LinkedHashSet<>();
+        Set<DAGNode<Component, Dependency>> seen = new HashSet<>();
+        Deque<DAGNode<Component, Dependency>> work = new ArrayDeque<>();
+        work.push(node);
+        while (!work.isEmpty()) {
+            DAGNode<Component, Dependency> cur = work.pop();
+            for (DAGEdge<Component, Dependency> edge: cur.getOutgoingEdges()) {
+                DAGNode<Component, Dependency> tail = edge.getTail();
+                if (shareable.contains(tail)) {
+                    found.add(tail);
+                } else if (seen.add(tail)) {
+                    work.push(tail);
+                }
+            }
+        }
+        return found;
+    }
+
+    private void recordBuildTime(DAGNode<Component, Dependency> node, long nanos) {
+        buildTimes.put(node, nanos);
+        if (logger.isDebugEnabled()) {
+            logger.debug("built {} in {}", node.getLabel().getSatisfaction(),
+                        ProgressLogger.formatElapsedTime(nanos * 1.0e-9));
+        }
+    }
+
+    private static void closeAll(List<LifecycleManager> managers) {
+        synchronized (managers) {
+            for (LifecycleManager lm: Lists.reverse(managers)) {
+                lm.close();
+            }
+        }
+    }
+
+    /**
+     * Get the time taken to build each shareable component in the most recent call to {@link
+     * #instantiate()} or {@link #instantiate(ForkJoinPool)}.  For serial instantiation, a
+     * component's time includes building any of its dependencies that had not already been built.
+     *
+     * @return A map of the nodes of the original graph to their build times, in nanoseconds.
+     */
+    public Map<DAGNode<Component, Dependency>, Long> getBuildTimes() {
+        return Collections.unmodifiableMap(buildTimes);
+    }
+
     /**
      * Simulate instantiating a graph.
      * @return The simulated graph.
@@ -37,7 +37,7 @@ import java.io.Serializable;
  */
 @Shareable
 @ThreadSafe
-public class CosineVectorSimilarity implements VectorSimilarity, Serializable {
+public class CosineVectorSimilarity implements DotProductSimilarity, Serializable {
     private static final long serialVersionUID = 1L;
 
     private final double dampingFactor;
@@ -63,8 +63,19 @@ public class CosineVectorSimilarity implements VectorSimilarity, Serializable {
 
     @Override
     public double similarity(Long2DoubleMap vec1, Long2DoubleMap vec2) {
-        final double dot = Vectors.dotProduct(vec1, vec2);
-        final double denom = Vectors.euclideanNorm(vec1) * Vectors.euclideanNorm(vec2) + dampingFactor;
+        return finishSimilarity(Vectors.dotProduct(vec1, vec2),
+                                Vectors.euclideanNorm(vec1),
+                                Vectors.euclideanNorm(vec2));
+    }
+
+    @Override
+    public double vectorStatistic(Long2DoubleMap vec) {
+        return Vectors.euclideanNorm(vec);
+    }
+
+    @Override
+    public double finishSimilarity(double dot, double norm1, double norm2) {
+        final double denom = norm1 * norm2 + dampingFactor;
         if (Scalars.isZero(denom)) {
             return 0;
         } else {
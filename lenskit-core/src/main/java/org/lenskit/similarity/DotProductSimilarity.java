@@ -0,0 +1,77 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.similarity;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+
+/**
+ * A vector similarity function that can be computed from the dot product of two vectors and one
+ * statistic of each vector (such as its norm).  Similarity functions of this form can be computed
+ * in bulk as a sparse matrix product, as the item-item model builder does.
+ *
+ * <p>For any two vectors {@code a} and {@code b}, {@link #similarity(Long2DoubleMap, Long2DoubleMap)}
+ * must return the same value as
+ * {@code finishSimilarity(Vectors.dotProduct(a, b), vectorStatistic(a), vectorStatistic(b))}.</p>
+ *
+ * @since 3.0
+ */
+public interface DotProductSimilarity extends VectorSimilarity {
+    /**
+     * Compute the per-vector statistic used by this similarity function.
+     *
+     * @param vec The vector.
+     * @return The statistic (e.g. the Euclidean norm) of {@code vec}.
+     */
+    double vectorStatistic(Long2DoubleMap vec);
+
+    /**
+     * Compute the similarity of two vectors from their dot product and statistics.
+     *
+     * @param dot The dot product of the two vectors.
+     * @param stat1 The statistic of the first vector.
+     * @param stat2 The statistic of the second vector.
+     * @return The similarity of the vectors.
+     */
+    double finishSimilarity(double dot, double stat1, double stat2);
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation stores the {@linkplain #vectorStatistic(Long2DoubleMap) statistic}
+     * of the vector.</p>
+     */
+    @Override
+    default PreparedVector prepare(Long2DoubleMap vec) {
+        return PreparedVector.create(vec, vectorStatistic(vec));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation finishes the similarity from a merge-join dot product and the
+     * vectors' precomputed statistics.</p>
+     */
+    @Override
+    default double similarity(PreparedVector vec1, PreparedVector vec2) {
+        return finishSimilarity(PreparedVector.dotProduct(vec1, vec2),
+                                vec1.getStatistic(), vec2.getStatistic());
+    }
+}
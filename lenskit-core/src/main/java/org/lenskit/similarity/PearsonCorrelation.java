@@ -121,6 +121,75 @@ public class PearsonCorrelation implements VectorSimilarity, Serializable {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Pearson correlation only considers the items shared by both vectors, so there are no
+     * per-vector statistics to precompute; instead, the prepared form allows the two passes over
+     * the common items to be merge joins over the vectors' sorted key arrays.</p>
+     */
+    @Override
+    public double similarity(PreparedVector vec1, PreparedVector vec2) {
+        final int n1 = vec1.size();
+        final int n2 = vec2.size();
+        if (n1 == 0 || n2 == 0) {
+            return 0;
+        }
+
+        // first pass: means of common items
+        double sum1 = 0;
+        double sum2 = 0;
+        int n = 0;
+        int i1 = 0, i2 = 0;
+        while (i1 < n1 && i2 < n2) {
+            final long k1 = vec1.getKey(i1);
+            final long k2 = vec2.getKey(i2);
+            if (k1 < k2) {
+                i1++;
+            } else if (k2 < k1) {
+                i2++;
+            } else {
+                sum1 += vec1.getValue(i1);
+                sum2 += vec2.getValue(i2);
+                n++;
+                i1++;
+                i2++;
+            }
+        }
+        if (n == 0) {
+            return 0;
+        }
+
+        final double mu1 = sum1 / n;
+        final double mu2 = sum2 / n;
+
+        // second pass: variances and dot product of centered values
+        double var1 = 0;
+        double var2 = 0;
+        double dot = 0;
+        i1 = 0;
+        i2 = 0;
+        while (i1 < n1 && i2 < n2) {
+            final long k1 = vec1.getKey(i1);
+            final long k2 = vec2.getKey(i2);
+            if (k1 < k2) {
+                i1++;
+            } else if (k2 < k1) {
+                i2++;
+            } else {
+                final double v1 = vec1.getValue(i1) - mu1;
+                final double v2 = vec2.getValue(i2) - mu2;
+                var1 += v1 * v1;
+                var2 += v2 * v2;
+                dot += v1 * v2;
+                i1++;
+                i2++;
+            }
+        }
+
+        return dot / (sqrt(var1 * var2) + shrinkage);
+    }
+
     @Override
     public boolean isSparse() {
         return true;
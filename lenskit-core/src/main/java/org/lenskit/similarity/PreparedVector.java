@@ -0,0 +1,219 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.similarity;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import net.jcip.annotations.Immutable;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.io.Serializable;
+
+/**
+ * A vector prepared for repeated similarity computations.  A prepared vector stores its keys and
+ * values in sorted primitive arrays, along with a statistic precomputed by the similarity function
+ * that prepared it (such as the vector's norm).  Similarity functions can then compare two prepared
+ * vectors with a merge join over the arrays, without recomputing per-vector statistics for each pair.
+ *
+ * <p>The values of a prepared vector are not necessarily the values of the original vector; for
+ * example, {@link SpearmanRankCorrelation} prepares vectors of ranks.  A prepared vector should
+ * therefore only be used with the similarity function that created it.</p>
+ *
+ * @see VectorSimilarity#prepare(Long2DoubleMap)
+ * @since 3.0
+ */
+@Immutable
+public final class PreparedVector implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Long2DoubleSortedArrayMap vector;
+    private final long[] keys;
+    private final double[] values;
+    private final double statistic;
+
+    private PreparedVector(Long2DoubleSortedArrayMap vec, long[] ks, double[] vs, double stat) {
+        vector = vec;
+        keys = ks;
+        values = vs;
+        statistic = stat;
+    }
+
+    /**
+     * Prepare a vector with no statistic, using its own values.
+     *
+     * @param vec The vector.
+     * @return The prepared vector.
+     */
+    public static PreparedVector create(Long2DoubleMap vec) {
+        return create(vec, Double.NaN);
+    }
+
+    /**
+     * Prepare a vector using its own values.
+     *
+     * @param vec The vector.
+     * @param stat The precomputed statistic of the vector.
+     * @return The prepared vector.
+     */
+    public static PreparedVector create(Long2DoubleMap vec, double stat) {
+        Long2DoubleSortedArrayMap sv = Long2DoubleSortedArrayMap.create(vec);
+        final int n = sv.size();
+        // the map's keys may be packed into ints or be a range of a larger array, so the merge
+        // joins need flat copies; this is done once per vector, as prepared vectors are cached
+        long[] ks = new long[n];
+        double[] vs = new double[n];
+        for (int i = 0; i < n; i++) {
+            ks[i] = sv.getKeyByIndex(i);
+            vs[i] = sv.getValueByIndex(i);
+        }
+        if (vec != sv) {
+            // the map was converted just for this, so view the copies rather than keeping it too
+            sv = Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(ks, n), vs);
+        }
+        return new PreparedVector(sv, ks, vs, stat);
+    }
+
+    /**
+     * Prepare a vector with transformed values.
+     *
+     * @param vec The vector.
+     * @param vs The values to use for similarity computations, in increasing order of key (the
+     *           array is used as-is, it is <em>not</em> copied).
+     * @param stat The precomputed statistic of the vector.
+     * @return The prepared vector.
+     */
+    public static PreparedVector create(Long2DoubleMap vec, double[] vs, double stat) {
+        Long2DoubleSortedArrayMap sv = Long2DoubleSortedArrayMap.create(vec);
+        final int n = sv.size();
+        Preconditions.checkArgument(vs.length == n,
+                                    "value array has %s entries, expected %s", vs.length, n);
+        long[] ks = new long[n];
+        for (int i = 0; i < n; i++) {
+            ks[i] = sv.getKeyByIndex(i);
+        }
+        return new PreparedVector(sv, ks, vs, stat);
+    }
+
+    /**
+     * Get the original vector.
+     *
+     * @return The vector that was prepared.
+     */
+    public Long2DoubleSortedArrayMap getVector() {
+        return vector;
+    }
+
+    /**
+     * Get the number of entries in the vector.
+     *
+     * @return The vector's size.
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Get the key at a position.
+     *
+     * @param i The position.
+     * @return The key at position {@code i}, in increasing key order.
+     */
+    public long getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Get the prepared value at a position.
+     *
+     * @param i The position.
+     * @return The prepared value at position {@code i}.
+     */
+    public double getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * Get the statistic precomputed for this vector.
+     *
+     * @return The vector's statistic, or {@link Double#NaN} if it has none.
+     */
+    public double getStatistic() {
+        return statistic;
+    }
+
+    /**
+     * Compute the dot product of the prepared values of two vectors.
+     *
+     * @param v1 The first vector.
+     * @param v2 The second vector.
+     * @return The sum of the products of the values of common keys.
+     */
+    public static double dotProduct(PreparedVector v1, PreparedVector v2) {
+        final long[] k1 = v1.keys, k2 = v2.keys;
+        final double[] x1 = v1.values, x2 = v2.values;
+        final int n1 = k1.length, n2 = k2.length;
+        double result = 0;
+        int i1 = 0, i2 = 0;
+        while (i1 < n1 && i2 < n2) {
+            final long a = k1[i1];
+            final long b = k2[i2];
+            if (a < b) {
+                i1++;
+            } else if (b < a) {
+                i2++;
+            } else {
+                result += x1[i1] * x2[i2];
+                i1++;
+                i2++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Count the keys two vectors have in common.
+     *
+     * @param v1 The first vector.
+     * @param v2 The second vector.
+     * @return The size of the intersection of the vectors' key sets.
+     */
+    public static int intersectSize(PreparedVector v1, PreparedVector v2) {
+        final long[] k1 = v1.keys, k2 = v2.keys;
+        final int n1 = k1.length, n2 = k2.length;
+        int n = 0;
+        int i1 = 0, i2 = 0;
+        while (i1 < n1 && i2 < n2) {
+            final long a = k1[i1];
+            final long b = k2[i2];
+            if (a < b) {
+                i1++;
+            } else if (b < a) {
+                i2++;
+            } else {
+                n++;
+                i1++;
+                i2++;
+            }
+        }
+        return n;
+    }
+}
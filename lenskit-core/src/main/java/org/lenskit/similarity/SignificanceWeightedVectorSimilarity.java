@@ -80,6 +80,19 @@ public class SignificanceWeightedVectorSimilarity implements VectorSimilarity, S
         return s / max(n, threshold);
     }
 
+    @Override
+    public PreparedVector prepare(Long2DoubleMap vec) {
+        return delegate.prepare(vec);
+    }
+
+    @Override
+    public double similarity(PreparedVector vec1, PreparedVector vec2) {
+        double s = delegate.similarity(vec1, vec2);
+        int n = PreparedVector.intersectSize(vec1, vec2);
+        s *= n;
+        return s / max(n, threshold);
+    }
+
     @Override
     public boolean isSparse() {
         return delegate.isSparse();
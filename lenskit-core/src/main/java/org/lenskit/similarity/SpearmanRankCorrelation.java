@@ -28,6 +28,7 @@ import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrays;
 import net.jcip.annotations.ThreadSafe;
 import org.lenskit.inject.Shareable;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 import org.lenskit.util.math.Scalars;
 
 import javax.inject.Inject;
@@ -102,6 +103,28 @@ public class SpearmanRankCorrelation implements VectorSimilarity, Serializable {
         return pearson.similarity(rank(vec1), rank(vec2));
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The prepared vector's values are the ranks of the original values.</p>
+     */
+    @Override
+    public PreparedVector prepare(Long2DoubleMap vec) {
+        Long2DoubleSortedArrayMap sv = Long2DoubleSortedArrayMap.create(vec);
+        Long2DoubleMap ranks = rank(sv);
+        final int n = sv.size();
+        double[] rvs = new double[n];
+        for (int i = 0; i < n; i++) {
+            rvs[i] = ranks.get(sv.getKeyByIndex(i));
+        }
+        return PreparedVector.create(sv, rvs, Double.NaN);
+    }
+
+    @Override
+    public double similarity(PreparedVector vec1, PreparedVector vec2) {
+        return pearson.similarity(vec1, vec2);
+    }
+
     @Override
     public boolean isSparse() {
         return true;
@@ -41,6 +41,32 @@ public interface VectorSimilarity {
      */
     double similarity(Long2DoubleMap vec1, Long2DoubleMap vec2);
 
+    /**
+     * Prepare a vector for repeated similarity computations.  Components that compare the same
+     * vectors many times (such as model builders) can prepare each vector once and then use
+     * {@link #similarity(PreparedVector, PreparedVector)}, so that per-vector statistics are not
+     * recomputed for every pair.  The default implementation stores the vector without a statistic.
+     *
+     * @param vec The vector to prepare.
+     * @return The prepared vector, for use only with this similarity function.
+     */
+    default PreparedVector prepare(Long2DoubleMap vec) {
+        return PreparedVector.create(vec);
+    }
+
+    /**
+     * Compute the similarity between two prepared vectors.  This must return the same value as
+     * {@link #similarity(Long2DoubleMap, Long2DoubleMap)} on the original vectors; the default
+     * implementation delegates to it.
+     *
+     * @param vec1 The left vector to compare, prepared by {@link #prepare(Long2DoubleMap)}.
+     * @param vec2 The right vector to compare, prepared by {@link #prepare(Long2DoubleMap)}.
+     * @return The similarity, in the range [-1,1].
+     */
+    default double similarity(PreparedVector vec1, PreparedVector vec2) {
+        return similarity(vec1.getVector(), vec2.getVector());
+    }
+
     /**
      * Query whether this similarity function is sparse (returns 0 for vectors with
      * disjoint key sets).
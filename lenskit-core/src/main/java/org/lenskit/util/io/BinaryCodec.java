@@ -0,0 +1,57 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.io;
+
+import java.io.IOException;
+
+/**
+ * Binary encoder and decoder for a class of objects.  Large model classes can provide a codec
+ * (with the {@link BinaryFormat} annotation) to bypass Java's per-field serialization machinery
+ * and write their primitive arrays in bulk.  Codecs are used by {@link BinaryObjectOutputStream};
+ * data written with them can be read back with any {@link java.io.ObjectInputStream}.
+ *
+ * Codec implementations must have a no-argument constructor (it need not be public, so codecs can
+ * be package-private nested classes of the types they encode), and must be stateless, as a single
+ * instance is shared between all streams.
+ *
+ * @param <T> The type of object encoded.
+ * @since 3.0
+ */
+public interface BinaryCodec<T> {
+    /**
+     * Write an object.
+     *
+     * @param object The object to write.
+     * @param out The output to write to.
+     * @throws IOException if there is an error writing the object.
+     */
+    void write(T object, BinaryOutput out) throws IOException;
+
+    /**
+     * Read an object.
+     *
+     * @param in The input to read from.
+     * @return The object read.
+     * @throws IOException if there is an error reading the object, or the data is invalid.
+     * @throws ClassNotFoundException if a nested object's class cannot be found.
+     */
+    T read(BinaryInput in) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,67 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.io;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.lang.reflect.Constructor;
+
+/**
+ * Look up binary codecs for classes.
+ */
+final class BinaryCodecs {
+    private static final ClassValue<BinaryCodec<?>> CODECS = new ClassValue<BinaryCodec<?>>() {
+        @Override
+        protected BinaryCodec<?> computeValue(Class<?> type) {
+            BinaryFormat format = type.getAnnotation(BinaryFormat.class);
+            if (format == null) {
+                return null;
+            }
+            try {
+                Constructor<? extends BinaryCodec<?>> ctor = format.value().getDeclaredConstructor();
+                ctor.setAccessible(true);
+                return ctor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("cannot instantiate codec " + format.value(), e);
+            }
+        }
+    };
+
+    private BinaryCodecs() {}
+
+    /**
+     * Get the codec for a class.
+     *
+     * @param type The class.
+     * @return The codec, or `null` if the class does not declare a binary format.
+     * @throws InvalidClassException if the class's codec cannot be instantiated.
+     */
+    @SuppressWarnings("unchecked")
+    static BinaryCodec<Object> lookup(Class<?> type) throws IOException {
+        try {
+            return (BinaryCodec<Object>) CODECS.get(type);
+        } catch (IllegalStateException e) {
+            InvalidClassException ex = new InvalidClassException(type.getName(), e.getMessage());
+            ex.initCause(e.getCause());
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.io;
+
+import java.lang.annotation.*;
+
+/**
+ * Specify the binary codec for a serializable class.  When an instance of the annotated class is
+ * written to a {@link BinaryObjectOutputStream}, it is encoded with the codec instead of default
+ * serialization.  The annotation is not inherited; subclasses with additional state are
+ * serialized normally unless they declare a codec of their own.
+ *
+ * @since 3.0
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface BinaryFormat {
+    /**
+     * The codec class for the annotated type.
+     *
+     * @return The codec class.
+     */
+    Class<? extends BinaryCodec<?>> value();
+}
@@ -0,0 +1,181 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.io;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Input for {@linkplain BinaryCodec binary codecs}.  Primitive arrays are read in bulk through an
+ * NIO buffer.
+ *
+ * @since 3.0
+ */
+public final class BinaryInput {
+    private final ObjectInput input;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BinaryOutput.BUFFER_SIZE);
+
+    BinaryInput(ObjectInput in) {
+        input = in;
+    }
+
+    /**
+     * Read an integer.
+     * @return The value read.
+     * @throws IOException if there is an error reading the value.
+     */
+    public int readInt() throws IOException {
+        return input.readInt();
+    }
+
+    /**
+     * Read a long.
+     * @return The value read.
+     * @throws IOException if there is an error reading the value.
+     */
+    public long readLong() throws IOException {
+        return input.readLong();
+    }
+
+    /**
+     * Read a double.
+     * @return The value read.
+     * @throws IOException if there is an error reading the value.
+     */
+    public double readDouble() throws IOException {
+        return input.readDouble();
+    }
+
+    /**
+     * Read an array of integers written by {@link BinaryOutput#writeInts(int[])}.
+     * @return The array.
+     * @throws IOException if there is an error reading the array.
+     */
+    public int[] readInts() throws IOException {
+        int[] data = new int[readLength()];
+        IntBuffer view = buffer.asIntBuffer();
+        for (int pos = 0; pos < data.length; pos += view.capacity()) {
+            int n = Math.min(view.capacity(), data.length - pos);
+            input.readFully(buffer.array(), 0, n * Integer.BYTES);
+            view.clear();
+            view.get(data, pos, n);
+        }
+        return data;
+    }
+
+    /**
+     * Read an array of longs written by {@link BinaryOutput#writeLongs(long[])}.
+     * @return The array.
+     * @throws IOException if there is an error reading the array.
+     */
+    public long[] readLongs() throws IOException {
+        long[] data = new long[readLength()];
+        LongBuffer view = buffer.asLongBuffer();
+        for (int pos = 0; pos < data.length; pos += view.capacity()) {
+            int n = Math.min(view.capacity(), data.length - pos);
+            input.readFully(buffer.array(), 0, n * Long.BYTES);
+            view.clear();
+            view.get(data, pos, n);
+        }
+        return data;
+    }
+
+    /**
+     * Read an array of doubles written by {@link BinaryOutput#writeDoubles(double[])}.
+     * @return The array.
+     * @throws IOException if there is an error reading the array.
+     */
+    public double[] readDoubles() throws IOException {
+        double[] data = new double[readLength()];
+        DoubleBuffer view = buffer.asDoubleBuffer();
+        for (int pos = 0; pos < data.length; pos += view.capacity()) {
+            int n = Math.min(view.capacity(), data.length - pos);
+            input.readFully(buffer.array(), 0, n * Double.BYTES);
+            view.clear();
+            view.get(data, pos, n);
+        }
+        return data;
+    }
+
+    /**
+     * Read a list of sparse vectors written by {@link BinaryOutput#writeVectors(List)}.  The vectors
+     * are views of shared key and value arrays, so reading them makes only a few allocations.
+     *
+     * @return The vectors.
+     * @throws IOException if there is an error reading the vectors, or if they are malformed.
+     */
+    public List<Long2DoubleMap> readVectors() throws IOException {
+        int[] sizes = readInts();
+        long[] keys = readLongs();
+        double[] values = readDoubles();
+        if (values.length != keys.length) {
+            throw new StreamCorruptedException("vector key and value arrays differ in length");
+        }
+        List<Long2DoubleMap> vectors = new ArrayList<>(sizes.length);
+        int start = 0;
+        for (int size: sizes) {
+            if (size < 0 || size > keys.length - start) {
+                throw new StreamCorruptedException("invalid vector size " + size);
+            }
+            int end = start + size;
+            for (int i = start + 1; i < end; i++) {
+                if (keys[i] <= keys[i - 1]) {
+                    throw new StreamCorruptedException("vector keys are not sorted");
+                }
+            }
+            vectors.add(Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, start, end), values));
+            start = end;
+        }
+        if (start != keys.length) {
+            throw new StreamCorruptedException("vector sizes do not match key array");
+        }
+        return vectors;
+    }
+
+    /**
+     * Read a nested object written by {@link BinaryOutput#writeObject(Object)}.
+     * @return The object.
+     * @throws IOException if there is an error reading the object.
+     * @throws ClassNotFoundException if the object's class cannot be found.
+     */
+    public Object readObject() throws IOException, ClassNotFoundException {
+        return input.readObject();
+    }
+
+    private int readLength() throws IOException {
+        int n = input.readInt();
+        if (n < 0) {
+            throw new StreamCorruptedException("negative array length " + n);
+        }
+        return n;
+    }
+}
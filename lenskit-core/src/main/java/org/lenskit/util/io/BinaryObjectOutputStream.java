@@ -0,0 +1,55 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.io;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Object output stream that writes objects with a {@linkplain BinaryFormat binary format} using
+ * their codecs.  All other objects are serialized normally.  The output can be read with a plain
+ * {@link java.io.ObjectInputStream} (or {@link CustomClassLoaderObjectInputStream}), so readers
+ * do not need to know whether the writer used binary codecs.
+ *
+ * @since 3.0
+ */
+public class BinaryObjectOutputStream extends ObjectOutputStream {
+    /**
+     * Create a new binary object output stream.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if there is an error writing the stream header.
+     */
+    public BinaryObjectOutputStream(OutputStream out) throws IOException {
+        super(out);
+        enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) throws IOException {
+        if (obj instanceof EncodedObject || BinaryCodecs.lookup(obj.getClass()) == null) {
+            return obj;
+        } else {
+            return new EncodedObject(obj);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.io;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.List;
+
+/**
+ * Output for {@linkplain BinaryCodec binary codecs}.  Primitive arrays are copied through an NIO
+ * buffer and written in bulk, rather than one element at a time.
+ *
+ * @since 3.0
+ */
+public final class BinaryOutput {
+    static final int BUFFER_SIZE = 8192;
+
+    private final ObjectOutput output;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    BinaryOutput(ObjectOutput out) {
+        output = out;
+    }
+
+    /**
+     * Write an integer.
+     * @param v The value to write.
+     * @throws IOException if there is an error writing the value.
+     */
+    public void writeInt(int v) throws IOException {
+        output.writeInt(v);
+    }
+
+    /**
+     * Write a long.
+     * @param v The value to write.
+     * @throws IOException if there is an error writing the value.
+     */
+    public void writeLong(long v) throws IOException {
+        output.writeLong(v);
+    }
+
+    /**
+     * Write a double.
+     * @param v The value to write.
+     * @throws IOException if there is an error writing the value.
+     */
+    public void writeDouble(double v) throws IOException {
+        output.writeDouble(v);
+    }
+
+    /**
+     * Write an array of integers, preceded by its length.
+     * @param data The array to write.
+     * @throws IOException if there is an error writing the array.
+     * @see BinaryInput#readInts()
+     */
+    public void writeInts(int[] data) throws IOException {
+        output.writeInt(data.length);
+        IntBuffer view = buffer.asIntBuffer();
+        for (int pos = 0; pos < data.length; pos += view.capacity()) {
+            int n = Math.min(view.capacity(), data.length - pos);
+            view.clear();
+            view.put(data, pos, n);
+            output.write(buffer.array(), 0, n * Integer.BYTES);
+        }
+    }
+
+    /**
+     * Write an array of longs, preceded by its length.
+     * @param data The array to write.
+     * @throws IOException if there is an error writing the array.
+     * @see BinaryInput#readLongs()
+     */
+    public void writeLongs(long[] data) throws IOException {
+        output.writeInt(data.length);
+        LongBuffer view = buffer.asLongBuffer();
+        for (int pos = 0; pos < data.length; pos += view.capacity()) {
+            int n = Math.min(view.capacity(), data.length - pos);
+            view.clear();
+            view.put(data, pos, n);
+            output.write(buffer.array(), 0, n * Long.BYTES);
+        }
+    }
+
+    /**
+     * Write an array of doubles, preceded by its length.
+     * @param data The array to write.
+     * @throws IOException if there is an error writing the array.
+     * @see BinaryInput#readDoubles()
+     */
+    public void writeDoubles(double[] data) throws IOException {
+        output.writeInt(data.length);
+        DoubleBuffer view = buffer.asDoubleBuffer();
+        for (int pos = 0; pos < data.length; pos += view.capacity()) {
+            int n = Math.min(view.capacity(), data.length - pos);
+            view.clear();
+            view.put(data, pos, n);
+            output.write(buffer.array(), 0, n * Double.BYTES);
+        }
+    }
+
+    /**
+     * Write a list of sparse vectors as three packed arrays: the vector sizes, the keys of all
+     * vectors, and their values.  The keys and values are streamed from the vectors, so no copy of
+     * the whole list is made.
+     *
+     * @param vectors The vectors to write.
+     * @throws IOException if there is an error writing the vectors.
+     * @see BinaryInput#readVectors()
+     */
+    public void writeVectors(List<? extends Long2DoubleMap> vectors) throws IOException {
+        final int n = vectors.size();
+        int[] sizes = new int[n];
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            sizes[i] = vectors.get(i).size();
+            total += sizes[i];
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IOException("too many vector entries to write");
+        }
+        writeInts(sizes);
+
+        output.writeInt((int) total);
+        LongBuffer keys = buffer.asLongBuffer();
+        for (int i = 0; i < n; i++) {
+            Long2DoubleSortedArrayMap vec = sortedVector(vectors.get(i), sizes[i]);
+            for (int j = 0; j < vec.size(); j++) {
+                if (!keys.hasRemaining()) {
+                    output.write(buffer.array(), 0, keys.position() * Long.BYTES);
+                    keys.clear();
+                }
+                keys.put(vec.getKeyByIndex(j));
+            }
+        }
+        output.write(buffer.array(), 0, keys.position() * Long.BYTES);
+
+        output.writeInt((int) total);
+        DoubleBuffer values = buffer.asDoubleBuffer();
+        for (int i = 0; i < n; i++) {
+            Long2DoubleSortedArrayMap vec = sortedVector(vectors.get(i), sizes[i]);
+            for (int j = 0; j < vec.size(); j++) {
+                if (!values.hasRemaining()) {
+                    output.write(buffer.array(), 0, values.position() * Double.BYTES);
+                    values.clear();
+                }
+                values.put(vec.getValueByIndex(j));
+            }
+        }
+        output.write(buffer.array(), 0, values.position() * Double.BYTES);
+    }
+
+    private static Long2DoubleSortedArrayMap sortedVector(Long2DoubleMap vec, int size) throws IOException {
+        Long2DoubleSortedArrayMap sorted = Long2DoubleSortedArrayMap.create(vec);
+        if (sorted.size() != size) {
+            throw new IOException("vector changed while writing");
+        }
+        return sorted;
+    }
+
+    /**
+     * Write a nested object with Java serialization.  If the object's class has a binary format,
+     * and this output is attached to a {@link BinaryObjectOutputStream}, it will also be encoded
+     * with its codec.
+     *
+     * @param obj The object to write.
+     * @throws IOException if there is an error writing the object.
+     */
+    public void writeObject(Object obj) throws IOException {
+        output.writeObject(obj);
+    }
+}
@@ -123,7 +123,9 @@ public enum CompressionMode {
     }
 
     /**
-     * Wrap an input stream in a decompressor.
+     * Wrap an input stream in a decompressor.  If the input consists of several concatenated
+     * compressed streams (as produced by appending to a compressed file), all of them are read.
+     *
      * @param in The input stream.
      * @return An input stream that wraps {@code in} and decompresses as appropriate.
      * @throws IOException If there is an error setting up the decompressor.
@@ -134,7 +136,7 @@ public enum CompressionMode {
             return in;
         } else {
             try {
-                return new CompressorStreamFactory().createCompressorInputStream(compName, in);
+                return new CompressorStreamFactory(true).createCompressorInputStream(compName, in);
             } catch (CompressorException e) {
                 throw new IOException("Error setting up decompressor", e);
             }
@@ -0,0 +1,64 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.io;
+
+import java.io.*;
+
+/**
+ * Serialized stand-in for an object with a {@linkplain BinaryFormat binary format}.  It records
+ * the object's class, followed by the codec's encoding, and resolves back to the decoded object
+ * when read.
+ */
+final class EncodedObject implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private transient Object object;
+
+    EncodedObject(Object obj) {
+        object = obj;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        Class<?> type = object.getClass();
+        BinaryCodec<Object> codec = BinaryCodecs.lookup(type);
+        if (codec == null) {
+            throw new NotSerializableException(type.getName());
+        }
+        out.writeObject(type);
+        codec.write(object, new BinaryOutput(out));
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        Class<?> type = (Class<?>) in.readObject();
+        BinaryCodec<Object> codec = BinaryCodecs.lookup(type);
+        if (codec == null) {
+            throw new InvalidClassException(type.getName(), "class has no binary format");
+        }
+        object = codec.read(new BinaryInput(in));
+        if (!type.isInstance(object)) {
+            throw new InvalidObjectException("codec for " + type.getName() + " produced " + object);
+        }
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        return object;
+    }
+}
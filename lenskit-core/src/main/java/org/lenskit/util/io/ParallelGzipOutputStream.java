@@ -0,0 +1,195 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.io;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.WillCloseWhenClosed;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output stream that compresses blocks of its input in parallel.  Each block is written as an
+ * independent GZIP member; the concatenated members form a valid GZIP file that any conforming
+ * decompressor (including {@link java.util.zip.GZIPInputStream} and
+ * {@link CompressionMode#wrapInput(InputStream)}) reads as a single stream.
+ *
+ * Blocks are compressed on an executor and written to the underlying stream in order.  At most a
+ * fixed number of blocks are in flight at once, so memory use is bounded regardless of the total
+ * output size.
+ *
+ * @since 3.0
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    /**
+     * The default block size (1 MiB).
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private final OutputStream output;
+    private final Executor executor;
+    private final int maxPending;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block;
+    private int blockLength;
+    private boolean wroteBlock;
+    private boolean closed;
+
+    /**
+     * Create a parallel GZIP stream with the default block size, compressing on the common pool.
+     *
+     * @param out The stream to write to.
+     */
+    public ParallelGzipOutputStream(@WillCloseWhenClosed OutputStream out) {
+        this(out, DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool(),
+             ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Create a parallel GZIP stream.
+     *
+     * @param out The stream to write to.
+     * @param blockSize The size of uncompressed blocks.
+     * @param exec The executor to compress blocks on.
+     * @param threads The number of blocks to compress concurrently.  Up to twice this many blocks
+     *                are buffered before the stream waits for the oldest one to finish.
+     */
+    public ParallelGzipOutputStream(@WillCloseWhenClosed OutputStream out, int blockSize,
+                                    Executor exec, int threads) {
+        Preconditions.checkArgument(blockSize > 0, "block size must be positive");
+        Preconditions.checkArgument(threads > 0, "thread count must be positive");
+        output = out;
+        executor = exec;
+        maxPending = 2 * threads;
+        block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[blockLength++] = (byte) b;
+        if (blockLength == block.length) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] data, int off, int len) throws IOException {
+        ensureOpen();
+        Preconditions.checkPositionIndexes(off, off + len, data.length);
+        while (len > 0) {
+            int n = Math.min(len, block.length - blockLength);
+            System.arraycopy(data, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == block.length) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Flush the stream.  This compresses any partial block and waits for all pending blocks to be
+     * written, so frequent flushes reduce both parallelism and compression ratio.
+     *
+     * @throws IOException if there is an error compressing or writing the data.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (blockLength > 0) {
+            submitBlock();
+        }
+        while (!pending.isEmpty()) {
+            writeOldest();
+        }
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (!wroteBlock && blockLength == 0) {
+                // write an empty member so the output is still a valid GZIP file
+                submitBlock();
+            }
+            flush();
+        } finally {
+            closed = true;
+            for (Future<byte[]> f: pending) {
+                f.cancel(true);
+            }
+            pending.clear();
+            output.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] data = block;
+        final int length = blockLength;
+        pending.addLast(CompletableFuture.supplyAsync(() -> compress(data, length), executor));
+        wroteBlock = true;
+        block = new byte[data.length];
+        blockLength = 0;
+        while (pending.size() >= maxPending) {
+            writeOldest();
+        }
+    }
+
+    private void writeOldest() throws IOException {
+        Future<byte[]> head = pending.removeFirst();
+        try {
+            output.write(head.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("error compressing block", cause);
+        }
+    }
+
+    private static byte[] compress(byte[] data, int length) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(length / 2 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(buffer)) {
+            gz.write(data, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -23,8 +23,14 @@ package org.lenskit.util.keys;
 import com.google.common.base.Preconditions;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongList;
+import org.lenskit.util.io.BinaryCodec;
+import org.lenskit.util.io.BinaryFormat;
+import org.lenskit.util.io.BinaryInput;
+import org.lenskit.util.io.BinaryOutput;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.util.Arrays;
 
 /**
@@ -33,6 +39,7 @@ import java.util.Arrays;
  *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
+@BinaryFormat(CompactSortedKeyIndex.Codec.class)
 class CompactSortedKeyIndex extends SortedKeyIndex {
     private static final long serialVersionUID = 1L;
     private final int[] keys;
@@ -68,4 +75,24 @@ class CompactSortedKeyIndex extends SortedKeyIndex {
         Preconditions.checkArgument(ub >= lowerBound && ub <= upperBound, "upper bound out of range");
         return new CompactSortedKeyIndex(keys, lb, ub);
     }
+
+    static class Codec implements BinaryCodec<CompactSortedKeyIndex> {
+        @Override
+        public void write(CompactSortedKeyIndex index, BinaryOutput out) throws IOException {
+            out.writeInt(index.lowerBound);
+            out.writeInt(index.upperBound);
+            out.writeInts(index.keys);
+        }
+
+        @Override
+        public CompactSortedKeyIndex read(BinaryInput in) throws IOException {
+            int lb = in.readInt();
+            int ub = in.readInt();
+            int[] keys = in.readInts();
+            if (lb < 0 || lb > ub || ub > keys.length) {
+                throw new InvalidObjectException("invalid key index bounds");
+            }
+            return new CompactSortedKeyIndex(keys, lb, ub);
+        }
+    }
 }
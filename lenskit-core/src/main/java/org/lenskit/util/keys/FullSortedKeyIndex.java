@@ -21,8 +21,14 @@
 package org.lenskit.util.keys;
 
 import com.google.common.base.Preconditions;
+import org.lenskit.util.io.BinaryCodec;
+import org.lenskit.util.io.BinaryFormat;
+import org.lenskit.util.io.BinaryInput;
+import org.lenskit.util.io.BinaryOutput;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.util.Arrays;
 
 /**
@@ -30,6 +36,7 @@ import java.util.Arrays;
  *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
+@BinaryFormat(FullSortedKeyIndex.Codec.class)
 class FullSortedKeyIndex extends SortedKeyIndex {
     private static final long serialVersionUID = 1L;
     private final long[] keys;
@@ -61,4 +68,24 @@ class FullSortedKeyIndex extends SortedKeyIndex {
         Preconditions.checkArgument(ub >= lowerBound && ub <= upperBound, "upper bound out of range");
         return new FullSortedKeyIndex(keys, lb, ub);
     }
+
+    static class Codec implements BinaryCodec<FullSortedKeyIndex> {
+        @Override
+        public void write(FullSortedKeyIndex index, BinaryOutput out) throws IOException {
+            out.writeInt(index.lowerBound);
+            out.writeInt(index.upperBound);
+            out.writeLongs(index.keys);
+        }
+
+        @Override
+        public FullSortedKeyIndex read(BinaryInput in) throws IOException {
+            int lb = in.readInt();
+            int ub = in.readInt();
+            long[] keys = in.readLongs();
+            if (lb < 0 || lb > ub || ub > keys.length) {
+                throw new InvalidObjectException("invalid key index bounds");
+            }
+            return new FullSortedKeyIndex(keys, lb, ub);
+        }
+    }
 }
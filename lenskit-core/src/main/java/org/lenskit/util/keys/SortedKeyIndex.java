@@ -54,17 +54,39 @@ public abstract class SortedKeyIndex implements KeyIndex, Serializable {
     }
 
     /**
-     * Create a key set from a collection of keys.
+     * Wrap a range of a key array into a key set.  The resulting index's lower and upper bounds
+     * are the range bounds, so it can be used with value arrays parallel to {@code keys} (e.g.
+     * with {@link Long2DoubleSortedArrayMap#wrap(SortedKeyIndex, double[])}) to view one segment
+     * of a larger packed structure without copying.
+     *
+     * @param keys The key array.  The range {@code [lb,ub)} must be sorted and must not contain
+     *             duplicates; as with {@link #wrap(long[], int)}, this is only checked when
+     *             assertions are enabled.
+     * @param lb   The lower bound of the range (inclusive).
+     * @param ub   The upper bound of the range (exclusive).
+     * @return The key set.
+     */
+    public static SortedKeyIndex wrap(long[] keys, int lb, int ub) {
+        Preconditions.checkPositionIndexes(lb, ub, keys.length);
+        assert MoreArrays.isSorted(keys, lb, ub);
+        return new FullSortedKeyIndex(keys, lb, ub);
+    }
+
+    /**
+     * Create a key set from a collection of keys.  The resulting index's lower bound is always 0.
      *
      * @param keys            The key collection.
      * @return The key set.
      */
     public static SortedKeyIndex fromCollection(Collection<Long> keys) {
         if (keys instanceof LongSortedArraySet) {
-            return ((LongSortedArraySet) keys).getIndex();
-        } else {
-            return fromIterator(keys.size(), keys.iterator());
+            SortedKeyIndex index = ((LongSortedArraySet) keys).getIndex();
+            // subviews are copied so callers can index from 0
+            if (index.getLowerBound() == 0) {
+                return index;
+            }
         }
+        return fromIterator(keys.size(), keys.iterator());
     }
 
     /**
@@ -0,0 +1,89 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.math;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe version of {@link MeanAccumulator}.  Values are added to striped per-thread cells
+ * without locking, and the cells are summed when the mean is requested, so many threads can add
+ * values concurrently without contending on a single monitor.  It can be used anywhere a
+ * {@link MeanAccumulator} is expected.
+ *
+ * The sum of values added concurrently is not computed in a fixed order, so the result may differ
+ * from a sequential sum in the last few bits.  Reads are only exact once all writers are done.
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public class ConcurrentMeanAccumulator extends MeanAccumulator {
+    private final DoubleAdder accSum = new DoubleAdder();
+    private final LongAdder accCount = new LongAdder();
+
+    /**
+     * Add a new datum to the accumulator.
+     *
+     * @param datum new datum to include into the average.
+     */
+    @Override
+    public void add(double datum) {
+        accSum.add(datum);
+        accCount.increment();
+    }
+
+    /**
+     * @return average over all added datums
+     */
+    @Override
+    public double getMean() {
+        long n = accCount.sum();
+        if (n == 0) {
+            return 0;
+        }
+
+        return accSum.sum() / n;
+    }
+
+    /**
+     * Get the total of the values accumulated so far.
+     * @return The total of the values.
+     */
+    @Override
+    public double getTotal() {
+        return accSum.sum();
+    }
+
+    /**
+     * @return amount of values this average is based on
+     */
+    @Override
+    public long getCount() {
+        return accCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return Double.toString(this.getMean());
+    }
+}
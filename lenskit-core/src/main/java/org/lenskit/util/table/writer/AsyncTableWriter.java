@@ -0,0 +1,216 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.table.writer;
+
+import net.jcip.annotations.GuardedBy;
+import org.lenskit.util.table.TableLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table writer that hands rows to a background thread, which writes them to an underlying
+ * writer in batches.  The underlying writer is flushed once {@value #FLUSH_ROWS} rows have been
+ * written since the last flush, or once rows have been waiting unflushed for
+ * {@value #FLUSH_INTERVAL_MS} ms with nothing new arriving, rather than after every row or every
+ * time the queue runs dry.  Rows are written in the order they are submitted.
+ *
+ * Errors from the underlying writer are reported by the next call to {@link #writeRow(List)},
+ * {@link #flush()}, or {@link #close()}.
+ */
+class AsyncTableWriter extends AbstractTableWriter {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncTableWriter.class);
+    private static final List<Object> END = new ArrayList<>();
+    /**
+     * The number of rows to write between flushes of the underlying writer.
+     */
+    static final int FLUSH_ROWS = 1000;
+    /**
+     * How long an idle writer thread holds written rows before flushing them.
+     */
+    static final long FLUSH_INTERVAL_MS = 1000;
+
+    private final TableWriter baseWriter;
+    private final BlockingQueue<Object> queue;
+    private final Thread writerThread;
+    private volatile IOException error;
+    @GuardedBy("this")
+    private boolean closed = false;
+
+    /**
+     * Construct a new asynchronous table writer.
+     *
+     * @param writer The underlying writer.  It is flushed, but not closed, when this writer is closed.
+     * @param capacity The maximum number of rows to queue before {@link #writeRow(List)} blocks.
+     */
+    AsyncTableWriter(TableWriter writer, int capacity) {
+        baseWriter = writer;
+        queue = new ArrayBlockingQueue<>(capacity);
+        writerThread = new Thread(this::drain, "table-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public TableLayout getLayout() {
+        return baseWriter.getLayout();
+    }
+
+    @Override
+    public void writeRow(List<?> row) throws IOException {
+        checkRowWidth(row.size());
+        checkError();
+        List<Object> copy = new ArrayList<>(row);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("writer is closed");
+            }
+            enqueue(copy);
+        }
+    }
+
+    /**
+     * Wait until all rows submitted so far have been written, and flush the underlying writer.
+     */
+    @Override
+    public void flush() throws IOException {
+        CountDownLatch latch = new CountDownLatch(1);
+        synchronized (this) {
+            if (closed) {
+                checkError();
+                return;
+            }
+            enqueue(latch);
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for flush");
+        }
+        checkError();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            enqueue(END);
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for table writer");
+        }
+        checkError();
+    }
+
+    private void enqueue(Object item) throws IOException {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted writing table row");
+        }
+    }
+
+    private void checkError() throws IOException {
+        IOException err = error;
+        if (err != null) {
+            throw new IOException("error writing table rows", err);
+        }
+    }
+
+    /**
+     * Main loop of the writer thread.
+     */
+    private void drain() {
+        List<Object> batch = new ArrayList<>();
+        int unflushed = 0;
+        boolean done = false;
+        while (!done) {
+            Object first;
+            try {
+                if (unflushed > 0) {
+                    first = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } else {
+                    first = queue.take();
+                }
+            } catch (InterruptedException e) {
+                logger.warn("table writer thread interrupted, discarding pending rows");
+                return;
+            }
+            if (first == null) {
+                // idle with rows pending
+                doFlush();
+                unflushed = 0;
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch);
+            for (Object item: batch) {
+                if (item == END) {
+                    done = true;
+                } else if (item instanceof CountDownLatch) {
+                    doFlush();
+                    unflushed = 0;
+                    ((CountDownLatch) item).countDown();
+                } else if (error == null) {
+                    try {
+                        baseWriter.writeRow((List<?>) item);
+                        unflushed += 1;
+                    } catch (IOException e) {
+                        error = e;
+                    } catch (RuntimeException e) {
+                        error = new IOException(e);
+                    }
+                }
+            }
+            batch.clear();
+            if (done || unflushed >= FLUSH_ROWS) {
+                doFlush();
+                unflushed = 0;
+            }
+        }
+    }
+
+    private void doFlush() {
+        if (error == null) {
+            try {
+                baseWriter.flush();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+}
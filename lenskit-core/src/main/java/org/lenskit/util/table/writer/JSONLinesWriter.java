@@ -0,0 +1,94 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.table.writer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import org.lenskit.util.table.TableLayout;
+
+import javax.annotation.Nonnull;
+import javax.annotation.WillCloseWhenClosed;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Write a table as JSON lines: each row is written as a JSON object on its own line, with the
+ * table's column names as keys.  Null values are omitted.
+ *
+ * @since 3.0
+ */
+public class JSONLinesWriter extends AbstractTableWriter {
+    private final TableLayout layout;
+    private JsonGenerator generator;
+
+    /**
+     * Construct a new JSON lines writer.
+     *
+     * @param w The underlying writer to output to.
+     * @param l The table layout.
+     * @throws IOException if there is an error setting up the JSON output.
+     */
+    public JSONLinesWriter(@WillCloseWhenClosed @Nonnull Writer w, @Nonnull TableLayout l) throws IOException {
+        Preconditions.checkNotNull(w, "writer");
+        Preconditions.checkNotNull(l, "layout");
+        layout = l;
+        generator = new ObjectMapper().getFactory().createGenerator(w);
+        generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    public TableLayout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public synchronized void writeRow(List<?> row) throws IOException {
+        Preconditions.checkState(generator != null, "writer has been closed");
+        checkRowWidth(row.size());
+
+        generator.writeStartObject();
+        Iterator<String> cols = layout.getColumns().iterator();
+        for (Object val: row) {
+            String col = cols.next();
+            if (val != null) {
+                generator.writeObjectField(col, val);
+            }
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        generator.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (generator != null) {
+            generator.close();
+            generator = null;
+        }
+    }
+}
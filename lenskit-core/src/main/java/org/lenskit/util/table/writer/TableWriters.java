@@ -74,4 +74,20 @@ public final class TableWriters {
     public static TableWriter prefixed(@WillNotClose TableWriter base, Object... prefix) {
         return prefixed(base, Arrays.asList(prefix));
     }
+
+    /**
+     * Create a table writer that writes rows to an underlying writer on a background thread.
+     * Rows are written in batches, and the underlying writer is flushed only when there are no
+     * more rows waiting, so callers do not pay for synchronous writes and flushes.  Closing the
+     * returned writer waits for all pending rows to be written and flushes, but does not close,
+     * the underlying writer.
+     *
+     * @param base The base table writer for output.
+     * @param capacity The number of rows to buffer before writers block.
+     * @return A table writer that writes asynchronously to {@code base}.
+     * @since 3.0
+     */
+    public static TableWriter async(@WillNotClose TableWriter base, int capacity) {
+        return new AsyncTableWriter(base, capacity);
+    }
 }
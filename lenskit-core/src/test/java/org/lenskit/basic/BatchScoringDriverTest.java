@@ -0,0 +1,115 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.basic;
+
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.junit.Test;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.ResultList;
+import org.lenskit.api.ResultMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entities;
+import org.lenskit.util.collections.LongUtils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class BatchScoringDriverTest {
+    private static final int USER_COUNT = 250;
+
+    private ItemScorer makeScorer() {
+        PrecomputedItemScorer.Builder bld = PrecomputedItemScorer.newBuilder();
+        for (long u = 1; u <= USER_COUNT; u++) {
+            bld.addScore(u, 10, u);
+            bld.addScore(u, 20, -u);
+        }
+        return bld.build();
+    }
+
+    private LongList makeUsers() {
+        LongList users = new LongArrayList();
+        for (long u = 1; u <= USER_COUNT; u++) {
+            users.add(u);
+        }
+        return users;
+    }
+
+    @Test
+    public void testScoreAllUsersOnce() throws IOException {
+        ItemScorer scorer = makeScorer();
+        AtomicInteger suppliers = new AtomicInteger();
+        Map<Long, ResultMap> results = new HashMap<>();
+        BatchScoringDriver driver = new BatchScoringDriver(4, 7);
+        driver.scoreAll(() -> {
+            suppliers.incrementAndGet();
+            return scorer;
+        }, makeUsers(), LongUtils.packedSet(10, 20), (u, r) -> {
+            assertThat(results.put(u, r), nullValue());
+        });
+
+        assertThat(suppliers.get(), equalTo(4));
+        assertThat(results.size(), equalTo(USER_COUNT));
+        for (long u = 1; u <= USER_COUNT; u++) {
+            assertThat(results.get(u).getScore(10), equalTo((double) u));
+            assertThat(results.get(u).getScore(20), equalTo((double) -u));
+        }
+    }
+
+    @Test
+    public void testRecommendAll() throws IOException {
+        StaticDataSource source = new StaticDataSource();
+        source.addSource(ImmutableList.of(Entities.create(CommonTypes.ITEM, 10),
+                                          Entities.create(CommonTypes.ITEM, 20)));
+        DataAccessObject dao = source.get();
+        ItemRecommender rec = new TopNItemRecommender(dao, makeScorer());
+        Map<Long, ResultList> results = new HashMap<>();
+        new BatchScoringDriver(3, 16).recommendAll(() -> rec, makeUsers(), 1, results::put);
+
+        assertThat(results.size(), equalTo(USER_COUNT));
+        for (ResultList recs: results.values()) {
+            assertThat(recs.idList(), contains(10L));
+        }
+    }
+
+    @Test
+    public void testSinkFailure() {
+        ItemScorer scorer = makeScorer();
+        try {
+            new BatchScoringDriver(2, 10).scoreAll(() -> scorer, makeUsers(), LongUtils.packedSet(10), (u, r) -> {
+                throw new IOException("sink failed");
+            });
+            fail("sink failure should propagate");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), equalTo("sink failed"));
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.lenskit.data.entities.Entities;
 import org.lenskit.results.Results;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -112,4 +113,31 @@ public class TopNItemRecommenderTest {
         assertThat(details, hasSize(2));
         assertThat(details.idList(), contains(3L, 2L));
     }
+
+    @Test
+    public void testRecommendBatch() {
+        StaticDataSource source = new StaticDataSource();
+        source.addSource(ImmutableList.of(Entities.create(CommonTypes.ITEM, 3),
+                                          Entities.create(CommonTypes.ITEM, 2),
+                                          Entities.create(CommonTypes.ITEM, 7)));
+        DataAccessObject dao = source.get();
+        ItemScorer scorer = PrecomputedItemScorer.newBuilder()
+                                                 .addScore(42, 2, 3.0)
+                                                 .addScore(42, 7, 1.0)
+                                                 .addScore(42, 3, 3.5)
+                                                 .addScore(39, 7, 4.0)
+                                                 .addScore(39, 2, 2.5)
+                                                 .build();
+        ItemRecommender rec = new TopNItemRecommender(dao, scorer);
+
+        Map<Long, ResultList> batch = rec.recommendBatch(ImmutableList.of(39L, 42L, 12L), 2);
+        assertThat(batch.keySet(), contains(39L, 42L, 12L));
+        assertThat(batch.get(42L).idList(), contains(3L, 2L));
+        assertThat(batch.get(39L).idList(), contains(7L, 2L));
+        assertThat(batch.get(12L), hasSize(0));
+        for (long user: batch.keySet()) {
+            assertThat(batch.get(user).idList(),
+                       equalTo(rec.recommendWithDetails(user, 2, null, null).idList()));
+        }
+    }
 }
@@ -20,6 +20,9 @@
  */
 package org.lenskit.bias;
 
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import org.junit.Before;
 import org.junit.Test;
 import org.lenskit.LenskitConfiguration;
@@ -176,4 +179,29 @@ public class BiasItemScorerTest {
         assertThat(basic.get(5L),
                    closeTo(3.5, 0.001));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testScoreBatch() {
+        Long2DoubleMap users = new Long2DoubleOpenHashMap();
+        users.put(8, 0.5);
+        users.put(1, -0.5);
+        Long2DoubleMap items = new Long2DoubleOpenHashMap();
+        items.put(5, -0.75);
+        items.put(7, 0.25);
+        ItemScorer pred = new BiasItemScorer(new UserItemBiasModel(RATINGS_DAT_MEAN, users, items));
+
+        List<Long> batchUsers = ImmutableList.of(8L, 1L, 28L);
+        Map<Long, ResultMap> batch = pred.scoreBatch(batchUsers, LongUtils.packedSet(5, 7, 10));
+        assertThat(batch.keySet(), contains(8L, 1L, 28L));
+        for (long user: batchUsers) {
+            ResultMap single = pred.scoreWithDetails(user, LongUtils.packedSet(5, 7, 10));
+            ResultMap scores = batch.get(user);
+            assertThat(scores.keySet(), equalTo(single.keySet()));
+            for (Result r: single) {
+                assertThat(scores.getScore(r.getId()), closeTo(r.getScore(), 1.0e-10));
+            }
+        }
+        assertThat(batch.get(8L).getScore(5), closeTo(3.5, 0.001));
+        assertThat(batch.get(28L).getScore(10), closeTo(RATINGS_DAT_MEAN, 0.001));
+    }
+}
@@ -25,21 +25,26 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.google.common.collect.Lists;
 import it.unimi.dsi.fastutil.longs.LongSet;
-import org.apache.commons.lang3.reflect.FieldUtils;
 import org.hamcrest.Matcher;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.dao.EntityCollectionDAO;
 import org.lenskit.data.entities.*;
 import org.lenskit.data.ratings.Rating;
-import org.lenskit.data.store.EntityCollection;
+import org.lenskit.data.store.RatingEntityCollection;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -48,6 +53,8 @@ import static org.junit.Assert.fail;
 public class StaticDataSourceTest {
     private EntityFactory factory = new EntityFactory();
     private ObjectReader reader = new ObjectMapper().reader();
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
 
     @Test
     public void testSomeEvents() {
@@ -136,7 +143,7 @@ public class StaticDataSourceTest {
     }
 
     @Test
-    public void testLoadRatingsList() throws IOException, URISyntaxException, ClassNotFoundException, IllegalAccessException {
+    public void testLoadRatingsList() throws IOException, URISyntaxException {
         URI baseURI = TextEntitySourceTest.class.getResource("ratings.csv").toURI();
         JsonNode node = reader.readTree("[{\"file\": \"ratings.csv\", \"format\": \"csv\"}]");
         StaticDataSource daoProvider = StaticDataSource.fromJSON(node, baseURI);
@@ -144,15 +151,12 @@ public class StaticDataSourceTest {
         DataAccessObject dao = daoProvider.get();
         verifyRatingsCsvData(dao);
 
-        Field f = FieldUtils.getField(EntityCollectionDAO.class, "storage", true);
-        Class<?> cls = Class.forName("org.lenskit.data.store.PackedEntityCollection");
-        Map<EntityType,EntityCollection> storage = (Map<EntityType, EntityCollection>) f.get(dao);
-        assertThat(storage.get(CommonTypes.RATING),
-                   instanceOf(cls));
+        assertThat(((EntityCollectionDAO) dao).getEntityCollection(CommonTypes.RATING),
+                   instanceOf(RatingEntityCollection.class));
     }
 
     @Test
-    public void testLoadRatingsMap() throws IOException, URISyntaxException, ClassNotFoundException, IllegalAccessException {
+    public void testLoadRatingsMap() throws IOException, URISyntaxException {
         URI baseURI = TextEntitySourceTest.class.getResource("ratings.csv").toURI();
         JsonNode node = reader.readTree("{\"ratings\":{\"file\": \"ratings.csv\", \"format\": \"csv\"}}");
         StaticDataSource daoProvider = StaticDataSource.fromJSON(node, baseURI);
@@ -160,11 +164,8 @@ public class StaticDataSourceTest {
         DataAccessObject dao = daoProvider.get();
         verifyRatingsCsvData(dao);
 
-        Field f = FieldUtils.getField(EntityCollectionDAO.class, "storage", true);
-        Class<?> cls = Class.forName("org.lenskit.data.store.PackedEntityCollection");
-        Map<EntityType,EntityCollection> storage = (Map<EntityType, EntityCollection>) f.get(dao);
-        assertThat(storage.get(CommonTypes.RATING),
-                   instanceOf(cls));
+        assertThat(((EntityCollectionDAO) dao).getEntityCollection(CommonTypes.RATING),
+                   instanceOf(RatingEntityCollection.class));
     }
 
     @Test
@@ -245,4 +246,71 @@ public class StaticDataSourceTest {
         assertThat(rlist, hasSize(2));
         assertThat(rlist, (Matcher) equalTo(ratings));
     }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        Path file = tempDir.newFile("ratings.csv").toPath();
+        Path snap = tempDir.getRoot().toPath().resolve("ratings.lksnap");
+        Files.write(file, "10,20,3.5\n11,20,4.0\n".getBytes(StandardCharsets.UTF_8));
+        FileTime mtime = Files.getLastModifiedTime(file);
+
+        StaticDataSource source = StaticDataSource.csvRatingFile(file);
+        source.setSnapshotFile(snap);
+        DataAccessObject dao = source.get();
+        assertThat(dao.getEntityIds(CommonTypes.USER), containsInAnyOrder(10L, 11L));
+        assertThat(Files.exists(snap), equalTo(true));
+
+        // same size and timestamp: the snapshot is reused
+        Files.write(file, "10,20,3.5\n12,20,4.0\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, mtime);
+        source = StaticDataSource.csvRatingFile(file);
+        source.setSnapshotFile(snap);
+        dao = source.get();
+        assertThat(dao.getEntityIds(CommonTypes.USER), containsInAnyOrder(10L, 11L));
+        assertThat(dao.getEntityIds(CommonTypes.ITEM), contains(20L));
+        assertThat(((EntityCollectionDAO) dao).getEntityCollection(CommonTypes.RATING),
+                   instanceOf(RatingEntityCollection.class));
+
+        // a new timestamp invalidates it
+        Files.setLastModifiedTime(file, FileTime.fromMillis(mtime.toMillis() + 10000));
+        source = StaticDataSource.csvRatingFile(file);
+        source.setSnapshotFile(snap);
+        dao = source.get();
+        assertThat(dao.getEntityIds(CommonTypes.USER), containsInAnyOrder(10L, 12L));
+    }
+
+    @Test
+    public void testCorruptSnapshotIsRebuilt() throws IOException {
+        Path file = tempDir.newFile("ratings.csv").toPath();
+        Path snap = tempDir.getRoot().toPath().resolve("ratings.lksnap");
+        Files.write(file, "10,20,3.5\n11,20,4.0\n".getBytes(StandardCharsets.UTF_8));
+
+        StaticDataSource source = StaticDataSource.csvRatingFile(file);
+        source.setSnapshotFile(snap);
+        source.get();
+        byte[] good = Files.readAllBytes(snap);
+
+        // keep the header and key, but garble everything after them
+        byte[] bad = Arrays.copyOf(good, good.length - 16);
+        for (int i = bad.length - 64; i < bad.length; i++) {
+            bad[i] = (byte) 0xFF;
+        }
+        Files.write(snap, bad);
+
+        source = StaticDataSource.csvRatingFile(file);
+        source.setSnapshotFile(snap);
+        DataAccessObject dao = source.get();
+        assertThat(dao.getEntityIds(CommonTypes.USER), containsInAnyOrder(10L, 11L));
+        // the snapshot was replaced with a good one
+        assertThat(Files.readAllBytes(snap), equalTo(good));
+    }
+
+    @Test
+    public void testSnapshotJSON() throws IOException, URISyntaxException {
+        URI baseURI = StaticDataSourceTest.class.getResource("ratings.csv").toURI();
+        JsonNode node = reader.readTree("{\"ratings\": {\"file\": \"ratings.csv\", \"format\": \"csv\"}, \"snapshot\": \"ratings.lksnap\"}");
+        StaticDataSource daoProvider = StaticDataSource.fromJSON(node, baseURI);
+        assertThat(daoProvider.getSnapshotFile(), equalTo(Paths.get(baseURI.resolve("ratings.lksnap"))));
+        assertThat(daoProvider.getSources(), hasSize(1));
+    }
 }
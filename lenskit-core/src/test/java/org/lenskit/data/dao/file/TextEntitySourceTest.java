@@ -23,7 +23,10 @@ package org.lenskit.data.dao.file;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.collect.Lists;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.lenskit.data.entities.*;
 import org.lenskit.data.ratings.Rating;
 import org.lenskit.data.ratings.RatingBuilder;
@@ -32,7 +35,12 @@ import org.lenskit.util.io.ObjectStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -40,6 +48,9 @@ import static org.junit.Assert.assertThat;
 public class TextEntitySourceTest {
     private ObjectReader reader = new ObjectMapper().reader();
 
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
     @Test
     public void testMinimalTSVConfig() throws IOException {
         JsonNode node = reader.readTree("{\"file\": \"ratings.tsv\", \"name\": \"woozle\"}");
@@ -310,4 +321,59 @@ public class TextEntitySourceTest {
         }
     }
 
+    @Test
+    public void testParallelConfig() throws IOException {
+        JsonNode node = reader.readTree("{\"file\": \"ratings.csv\", \"format\": \"csv\", \"parallel\": true}");
+        TextEntitySource fr = TextEntitySource.fromJSON("test", node, Paths.get("").toUri());
+        assertThat(fr.isParallel(), equalTo(true));
+        node = reader.readTree("{\"file\": \"ratings.csv\", \"format\": \"csv\"}");
+        assertThat(TextEntitySource.fromJSON("test", node, Paths.get("").toUri()).isParallel(),
+                   equalTo(false));
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws IOException {
+        Path file = tempDir.newFile("ratings.csv").toPath();
+        StringBuilder text = new StringBuilder("user,item,rating,timestamp\n");
+        Random rng = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            text.append(rng.nextInt(50))
+                .append(',')
+                .append(rng.nextInt(100))
+                .append(',')
+                .append(1 + rng.nextInt(5))
+                .append(',')
+                .append(1000 + i)
+                .append(i % 7 == 0 ? "\r\n" : "\n");
+        }
+        // no newline at the end of the last line
+        text.append("7,8,3.5,2000");
+        Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+
+        JsonNode node = reader.readTree("{\"file\": \"ratings.csv\", \"format\": \"csv\", \"header\": true}");
+        TextEntitySource seq = TextEntitySource.fromJSON("test", node, tempDir.getRoot().toURI());
+        TextEntitySource par = TextEntitySource.fromJSON("test", node, tempDir.getRoot().toURI());
+        par.setParallel(true);
+        par.chunkSize = 64;
+
+        List<Entity> expected;
+        try (ObjectStream<Entity> stream = seq.openStream()) {
+            expected = Lists.newArrayList(stream);
+        }
+        assertThat(expected, hasSize(501));
+        try (ObjectStream<Entity> stream = par.openStream()) {
+            assertThat(stream, instanceOf(ChunkedEntityStream.class));
+            List<Entity> actual = Lists.newArrayList(stream);
+            assertThat(actual, equalTo(expected));
+        }
+    }
+
+    @Test
+    public void testSplitLines() {
+        byte[] bytes = "a,b\r\nc\rd\n\ne".getBytes(StandardCharsets.UTF_8);
+        assertThat(ChunkedEntityStream.splitLines(bytes),
+                   contains("a,b", "c", "d", "", "e"));
+        assertThat(ChunkedEntityStream.splitLines("x\n".getBytes(StandardCharsets.UTF_8)),
+                   contains("x"));
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.data.ratings;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.entities.EntityFactory;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CachingRatingVectorPDAOTest {
+    EntityFactory factory = new EntityFactory();
+    EntityCollectionDAO dao;
+
+    @Before
+    public void createDAO() {
+        dao = EntityCollectionDAO.create(factory.rating(42, 39, 2.5),
+                                         factory.rating(42, 20, 3.5),
+                                         factory.rating(17, 39, 1.5));
+    }
+
+    @Test
+    public void testNoUser() {
+        CachingRatingVectorPDAO source = new CachingRatingVectorPDAO(dao, 10);
+        assertThat(source.userRatingVector(5).entrySet(), hasSize(0));
+    }
+
+    @Test
+    public void testGetsOnlyRatings() {
+        CachingRatingVectorPDAO source = new CachingRatingVectorPDAO(dao, 10);
+        Long2DoubleMap vec = source.userRatingVector(42);
+        assertThat(vec, instanceOf(Long2DoubleSortedArrayMap.class));
+        assertThat(vec.entrySet(), hasSize(2));
+        assertThat(vec, hasEntry(39L, 2.5));
+        assertThat(vec, hasEntry(20L, 3.5));
+    }
+
+    @Test
+    public void testCachesVectors() {
+        CachingRatingVectorPDAO source = new CachingRatingVectorPDAO(dao, 10);
+        Long2DoubleMap vec = source.userRatingVector(42);
+        assertThat(source.userRatingVector(42), sameInstance(vec));
+        source.userRatingVector(17);
+        assertThat(source.getHitCount(), equalTo(1L));
+        assertThat(source.getMissCount(), equalTo(2L));
+        assertThat(source.getEvictionCount(), equalTo(0L));
+
+        source.invalidateAll();
+        assertThat(source.userRatingVector(42), equalTo(vec));
+        assertThat(source.getMissCount(), equalTo(3L));
+    }
+
+    @Test
+    public void testEvicts() {
+        CachingRatingVectorPDAO source = new CachingRatingVectorPDAO(dao, 1);
+        source.userRatingVector(42);
+        source.userRatingVector(17);
+        source.userRatingVector(42);
+        assertThat(source.getHitCount(), equalTo(0L));
+        assertThat(source.getMissCount(), equalTo(3L));
+        assertThat(source.getEvictionCount(), equalTo(2L));
+        assertThat(source.userRatingVector(42), hasEntry(20L, 3.5));
+    }
+}
@@ -34,6 +34,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
@@ -250,4 +253,38 @@ public class PackedRatingMatrixTest {
         assertEquals(3, ratings.get(9), EPSILON);
         assertEquals(4, ratings.get(10), EPSILON);
     }
+
+    @Test
+    public void testUserRatingVectorSorted() {
+        Long2DoubleMap ratings = snap.getUserRatingVector(4);
+        assertThat(ratings.keySet(), contains(7L, 8L, 9L, 10L, 11L));
+        assertThat(snap.getUserRatingVector(4), equalTo(ratings));
+        assertThat(snap.getUserRatingVector(42).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void testConcurrentUserRatingVectors() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(exec.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        for (long u: snap.getUserIds()) {
+                            Long2DoubleMap v = snap.getUserRatingVector(u);
+                            if (v.size() != snap.getUserRatings(u).size()) {
+                                return false;
+                            }
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> r: results) {
+                assertThat(r.get(), equalTo(true));
+            }
+        } finally {
+            exec.shutdown();
+        }
+    }
 }
@@ -0,0 +1,199 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.data.store;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lenskit.data.entities.*;
+import org.lenskit.data.ratings.Rating;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class EntityCollectionSnapshotTest {
+    private static final TypedName<String> TITLE = TypedName.create("title", String.class);
+    private static final TypedName<Integer> YEAR = TypedName.create("year", Integer.class);
+    private static final TypedName<Double> SCORE = TypedName.create("score", Double.class);
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+    private EntityFactory factory = new EntityFactory();
+
+    private Map<EntityType, EntityCollection> roundTrip(EntityCollection ec) throws IOException {
+        assertThat(EntityCollectionSnapshot.isSupported(ec), equalTo(true));
+        Path file = tempDir.getRoot().toPath().resolve("data.lksnap");
+        EntityCollectionSnapshot.write(file, "key", ImmutableMap.of(ec.getType(), ec));
+        Map<EntityType, EntityCollection> result = EntityCollectionSnapshot.read(file, "key");
+        assertThat(result, notNullValue());
+        assertThat(result.keySet(), contains(ec.getType()));
+        return result;
+    }
+
+    @Test
+    public void testRatings() throws IOException {
+        Rating r1 = factory.rating(10, 203, 3.5);
+        Rating r2 = factory.rating(12, 203, 4.0, 1000);
+        Rating r3 = factory.rating(10, 150, 2.0);
+        EntityCollection ec = EntityCollection.newBuilder(CommonTypes.RATING)
+                                              .add(r1).add(r2).add(r3)
+                                              .build();
+
+        EntityCollection loaded = roundTrip(ec).get(CommonTypes.RATING);
+        assertThat(loaded, instanceOf(RatingEntityCollection.class));
+        RatingEntityCollection rc = (RatingEntityCollection) loaded;
+        assertThat(rc.size(), equalTo(3));
+        assertThat(rc.getUserIds(), contains(10L, 12L));
+        assertThat(rc.userItems(10), contains(150L, 203L));
+        assertThat(rc.itemUsers(203), contains(10L, 12L));
+        assertThat(rc.itemValues(203), contains(3.5, 4.0));
+        assertThat(rc.userRatingVector(10), hasEntry(150L, 2.0));
+        assertThat(rc.lookup(r2.getId()), equalTo(r2));
+        assertThat(Lists.newArrayList(rc), contains(r1, r2, r3));
+    }
+
+    @Test
+    public void testBare() throws IOException {
+        EntityCollection ec = new BareEntityCollectionBuilder(CommonTypes.ITEM).add(Entities.create(CommonTypes.ITEM, 42))
+                                                                              .add(Entities.create(CommonTypes.ITEM, 7))
+                                                                              .build();
+        EntityCollection loaded = roundTrip(ec).get(CommonTypes.ITEM);
+        assertThat(loaded.idSet(), contains(7L, 42L));
+        assertThat(loaded.lookup(42), equalTo(Entities.create(CommonTypes.ITEM, 42)));
+    }
+
+    @Test
+    public void testPacked() throws IOException {
+        AttributeSet attrs = AttributeSet.create(CommonAttributes.ENTITY_ID, CommonAttributes.USER_ID,
+                                                 TITLE, YEAR, SCORE);
+        Entity e1 = Entities.newBuilder(CommonTypes.ITEM, 5)
+                            .setAttribute(CommonAttributes.USER_ID, 10L)
+                            .setAttribute(TITLE, "Héros")
+                            .setAttribute(YEAR, 1999)
+                            .setAttribute(SCORE, 2.5)
+                            .build();
+        Entity e2 = Entities.newBuilder(CommonTypes.ITEM, 3)
+                            .setAttribute(CommonAttributes.USER_ID, 10L)
+                            .setAttribute(YEAR, 2004)
+                            .build();
+        Entity e3 = Entities.newBuilder(CommonTypes.ITEM, 8)
+                            .setAttribute(CommonAttributes.USER_ID, 12L)
+                            .setAttribute(TITLE, "Heat")
+                            .build();
+        EntityCollection ec = EntityCollection.newBuilder(CommonTypes.ITEM, attrs)
+                                              .addIndex(CommonAttributes.USER_ID)
+                                              .addIndex(TITLE)
+                                              .add(e1).add(e2).add(e3)
+                                              .build();
+
+        EntityCollection loaded = roundTrip(ec).get(CommonTypes.ITEM);
+        assertThat(loaded, instanceOf(PackedEntityCollection.class));
+        assertThat(loaded.size(), equalTo(3));
+        assertThat(Lists.newArrayList(loaded), contains(e2, e1, e3));
+        assertThat(loaded.lookup(3), equalTo(e2));
+        assertThat(loaded.lookup(3).maybeGet(TITLE), nullValue());
+        assertThat(loaded.find(CommonAttributes.USER_ID, 10L), containsInAnyOrder(e1, e2));
+        assertThat(loaded.find(TITLE, "Heat"), contains(e3));
+        assertThat(((PackedEntityCollection) loaded).getIndex(3), nullValue());
+        assertThat(((PackedEntityCollection) loaded).getIndex(1), notNullValue());
+    }
+
+    @Test
+    public void testPackedWideValues() throws IOException {
+        // enough entities to fill more than one shard, with values that force each primitive
+        // shard to widen partway through
+        AttributeSet attrs = AttributeSet.create(CommonAttributes.ENTITY_ID, CommonAttributes.USER_ID,
+                                                 YEAR, SCORE);
+        EntityCollectionBuilder ecb = EntityCollection.newBuilder(CommonTypes.ITEM, attrs)
+                                                      .addIndex(CommonAttributes.USER_ID);
+        List<Entity> entities = new ArrayList<>();
+        int n = Shard.SHARD_SIZE + 100;
+        for (int i = 0; i < n; i++) {
+            EntityBuilder eb = Entities.newBuilder(CommonTypes.ITEM, i);
+            eb.setAttribute(CommonAttributes.USER_ID, i < 50 ? (long) i : (long) i << 33);
+            if (i % 7 != 0) {
+                eb.setAttribute(YEAR, i < 100 ? i : i * 100000);
+            }
+            eb.setAttribute(SCORE, i < 200 ? i * 0.5 : i / 3.0);
+            Entity e = eb.build();
+            entities.add(e);
+            ecb.add(e);
+        }
+        EntityCollection loaded = roundTrip(ecb.build()).get(CommonTypes.ITEM);
+        assertThat(loaded.size(), equalTo(n));
+        for (Entity e: entities) {
+            assertThat(loaded.lookup(e.getId()), equalTo(e));
+        }
+        assertThat(loaded.find(CommonAttributes.USER_ID, 300L << 33), contains(entities.get(300)));
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        EntityCollection ec = EntityCollection.newBuilder(CommonTypes.RATING)
+                                              .add(factory.rating(10, 203, 3.5))
+                                              .add(factory.rating(12, 203, 4.0))
+                                              .build();
+        Path file = tempDir.getRoot().toPath().resolve("data.lksnap");
+        EntityCollectionSnapshot.write(file, "key", ImmutableMap.of(CommonTypes.RATING, ec));
+        try (FileChannel chan = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            chan.truncate(Files.size(file) - 20);
+        }
+        try {
+            EntityCollectionSnapshot.read(file, "key");
+            org.junit.Assert.fail("reading a truncated snapshot should fail");
+        } catch (IOException e) {
+            /* expected */
+        }
+    }
+
+    @Test
+    public void testUnsupported() {
+        TypedName<Object> blob = TypedName.create("blob", Object.class);
+        EntityCollection ec = EntityCollection.newBuilder(CommonTypes.ITEM,
+                                                          AttributeSet.create(CommonAttributes.ENTITY_ID, blob))
+                                              .add(Entities.create(CommonTypes.ITEM, 42))
+                                              .build();
+        assertThat(EntityCollectionSnapshot.isSupported(ec), equalTo(false));
+    }
+
+    @Test
+    public void testKeyMismatch() throws IOException {
+        EntityCollection ec = EntityCollection.newBuilder(CommonTypes.RATING)
+                                              .add(factory.rating(10, 203, 3.5))
+                                              .build();
+        Path file = tempDir.getRoot().toPath().resolve("data.lksnap");
+        assertThat(EntityCollectionSnapshot.read(file, "key"), nullValue());
+        EntityCollectionSnapshot.write(file, "key", ImmutableMap.of(CommonTypes.RATING, ec));
+        assertThat(EntityCollectionSnapshot.read(file, "other"), nullValue());
+        assertThat(EntityCollectionSnapshot.read(file, "key"), notNullValue());
+    }
+}
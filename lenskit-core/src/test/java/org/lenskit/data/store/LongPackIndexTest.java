@@ -0,0 +1,59 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.data.store;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class LongPackIndexTest {
+    @Test
+    public void testEmpty() {
+        LongPackIndex index = (LongPackIndex) new PackIndex.LongBuilder().build();
+        assertThat(index.getKeyCount(), equalTo(0));
+        assertThat(index.getValues(), hasSize(0));
+        assertThat(index.getPositions(42L), hasSize(0));
+        assertThat(index.findKey(42), lessThan(0));
+    }
+
+    @Test
+    public void testBuild() {
+        PackIndex.Builder builder = new PackIndex.LongBuilder();
+        builder.add(7L, 0);
+        builder.add(3L, 1);
+        builder.add(null, 2);
+        builder.add(7L, 3);
+        builder.add(3L, 4);
+        builder.add(5L, 5);
+        LongPackIndex index = (LongPackIndex) builder.build();
+
+        assertThat(index.getKeyCount(), equalTo(3));
+        assertThat(index.getValues(), contains(3L, 5L, 7L));
+        assertThat(index.getPositions(3L), contains(1, 4));
+        assertThat(index.getPositions(5L), contains(5));
+        assertThat(index.getPositions((Object) 7L), contains(0, 3));
+        assertThat(index.getPositions(4L), hasSize(0));
+        assertThat(index.getPositions("7"), hasSize(0));
+        assertThat(index.findKey(5), equalTo(1));
+        assertThat(index.getKeyPositions(2), contains(0, 3));
+    }
+}
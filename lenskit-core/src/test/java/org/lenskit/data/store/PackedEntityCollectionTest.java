@@ -190,4 +190,48 @@ public class PackedEntityCollectionTest {
                                               .build();
         assertThat(ec, contains(r));
     }
+
+    @Test
+    public void testGroupedLongIndex() {
+        TypedName<Long> group = TypedName.create("group", Long.class);
+        List<Entity> items = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            EntityBuilder eb = Entities.newBuilder(CommonTypes.ITEM, 100 - i);
+            if (i % 5 != 0) {
+                eb.setAttribute(group, (long) (i % 3));
+            }
+            items.add(eb.build());
+        }
+        EntityCollectionBuilder bld = EntityCollection.newBuilder(CommonTypes.ITEM,
+                                                                  AttributeSet.create(CommonAttributes.ENTITY_ID, group))
+                                                      .addIndex(group);
+        items.forEach(bld::add);
+        EntityCollection ec = bld.build();
+
+        Map<Long, List<Entity>> groups = ec.grouped(group);
+        assertThat(groups.keySet(), contains(0L, 1L, 2L));
+        assertThat(groups.containsKey(5L), equalTo(false));
+        assertThat(groups.get(5L), nullValue());
+        for (long g = 0; g < 3; g++) {
+            List<Entity> expected = Lists.newArrayList();
+            for (Entity e: items) {
+                if (e.maybeGet(group) != null && e.getLong(group) == g) {
+                    expected.add(e);
+                }
+            }
+            assertThat(groups.get(g), containsInAnyOrder(expected.toArray()));
+            assertThat(ec.find(group, g), equalTo(groups.get(g)));
+            // entities come back in ID order
+            for (int i = 1; i < groups.get(g).size(); i++) {
+                assertThat(groups.get(g).get(i).getId(),
+                           greaterThan(groups.get(g).get(i - 1).getId()));
+            }
+        }
+        int total = 0;
+        for (Map.Entry<Long, List<Entity>> e: groups.entrySet()) {
+            total += e.getValue().size();
+            assertThat(e.getValue(), equalTo(groups.get(e.getKey())));
+        }
+        assertThat(total, equalTo(16));
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.data.store;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.lenskit.data.entities.*;
+import org.lenskit.data.ratings.Rating;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RatingEntityCollectionTest {
+    private EntityFactory factory = new EntityFactory();
+
+    private EntityCollection build(Entity... entities) {
+        EntityCollectionBuilder builder = EntityCollection.newBuilder(CommonTypes.RATING);
+        for (Entity e: entities) {
+            builder.add(e);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testEmpty() {
+        EntityCollection ec = build();
+        assertThat(ec, instanceOf(RatingEntityCollection.class));
+        RatingEntityCollection rc = (RatingEntityCollection) ec;
+        assertThat(rc.size(), equalTo(0));
+        assertThat(rc.lookup(42), nullValue());
+        assertThat(rc.idSet(), hasSize(0));
+        assertThat(rc.userItems(42), hasSize(0));
+        assertThat(rc.userRatingVector(42).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void testColumns() {
+        Rating r1 = factory.rating(10, 203, 3.5);
+        Rating r2 = factory.rating(12, 203, 4.0, 1000);
+        Rating r3 = factory.rating(10, 150, 2.0);
+        RatingEntityCollection rc = (RatingEntityCollection) build(r1, r2, r3);
+
+        assertThat(rc.size(), equalTo(3));
+        assertThat(rc.getUserIds(), contains(10L, 12L));
+        assertThat(rc.getItemIds(), contains(150L, 203L));
+        assertThat(rc.userItems(10), contains(150L, 203L));
+        assertThat(rc.userValues(10), contains(2.0, 3.5));
+        assertThat(rc.itemUsers(203), contains(10L, 12L));
+        assertThat(rc.itemValues(203), contains(3.5, 4.0));
+        assertThat(rc.itemUsers(42), hasSize(0));
+
+        Map<Long, Double> vec = rc.userRatingVector(10);
+        assertThat(vec.size(), equalTo(2));
+        assertThat(vec, hasEntry(150L, 2.0));
+        assertThat(vec, hasEntry(203L, 3.5));
+    }
+
+    @Test
+    public void testEntities() {
+        Rating r1 = factory.rating(10, 203, 3.5);
+        Rating r2 = factory.rating(12, 203, 4.0, 1000);
+        Rating r3 = factory.rating(10, 150, 2.0);
+        EntityCollection ec = build(r1, r2, r3);
+
+        assertThat(ec.lookup(r2.getId()), equalTo(r2));
+        assertThat(ec.idSet(), contains(r1.getId(), r2.getId(), r3.getId()));
+        assertThat(Lists.newArrayList(ec), contains(r1, r2, r3));
+        assertThat(ec.find(CommonAttributes.USER_ID, 10L), contains(r3, r1));
+        assertThat(ec.find(CommonAttributes.ITEM_ID, 203L), contains(r1, r2));
+        assertThat(ec.find("user", 12L), contains(r2));
+        assertThat(ec.find(CommonAttributes.RATING, 2.0), contains(r3));
+        assertThat(ec.find(CommonAttributes.USER_ID, 42L), hasSize(0));
+
+        Map<Long, List<Entity>> groups = ec.grouped(CommonAttributes.ITEM_ID);
+        assertThat(groups.keySet(), containsInAnyOrder(150L, 203L));
+        assertThat(groups.get(203L), contains(r1, r2));
+    }
+
+    @Test
+    public void testRepeatedRatings() {
+        Rating r1 = factory.rating(10, 203, 3.5, 1000);
+        Rating r2 = factory.rating(10, 203, 4.0, 2000);
+        RatingEntityCollection rc = (RatingEntityCollection) build(r2, r1);
+
+        assertThat(rc.userItems(10), contains(203L, 203L));
+        Map<Long, Double> vec = rc.userRatingVector(10);
+        assertThat(vec.size(), equalTo(1));
+        assertThat(vec, hasEntry(203L, 4.0));
+    }
+
+    @Test
+    public void testFallbackForExtraAttributes() {
+        Rating r1 = factory.rating(10, 203, 3.5);
+        Entity odd = Entities.newBuilder(CommonTypes.RATING)
+                             .setId(100)
+                             .setAttribute(CommonAttributes.USER_ID, 10L)
+                             .setAttribute(CommonAttributes.ITEM_ID, 150L)
+                             .setAttribute(CommonAttributes.RATING, 3.0)
+                             .setAttribute(CommonAttributes.NAME, "odd")
+                             .build();
+        EntityCollection ec = build(r1, odd);
+        assertThat(ec, not(instanceOf(RatingEntityCollection.class)));
+        assertThat(ec.size(), equalTo(2));
+        assertThat(ec.lookup(r1.getId()), equalTo(r1));
+        assertThat(ec.lookup(100), equalTo(odd));
+    }
+
+    @Test
+    public void testFallbackForReplacement() {
+        Rating r1 = factory.rating(10, 203, 3.5);
+        Rating r2 = Rating.newBuilder()
+                          .setId(r1.getId())
+                          .setUserId(10)
+                          .setItemId(203)
+                          .setRating(5.0)
+                          .build();
+        EntityCollection ec = build(r1, r2);
+        assertThat(ec.size(), equalTo(1));
+        assertThat(ec.lookup(r1.getId()), equalTo(r2));
+    }
+
+    @Test
+    public void testLayout() {
+        EntityCollectionBuilder builder = EntityCollection.newBuilder(CommonTypes.RATING, Rating.ATTRIBUTES);
+        Rating r1 = factory.rating(10, 203, 3.5);
+        EntityCollection ec = builder.add(r1).build();
+        assertThat(ec, instanceOf(RatingEntityCollection.class));
+        assertThat(ec.lookup(r1.getId()), equalTo(r1));
+
+        EntityCollectionBuilder other = EntityCollection.newBuilder(CommonTypes.RATING,
+                                                                    AttributeSet.create(CommonAttributes.ENTITY_ID,
+                                                                                        CommonAttributes.USER_ID,
+                                                                                        CommonAttributes.ITEM_ID,
+                                                                                        CommonAttributes.COUNT));
+        assertThat(other, not(instanceOf(RatingEntityCollectionBuilder.class)));
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.inject;
+
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.graph.DAGNode;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommenderEngineBuilder;
+import org.lenskit.api.RecommenderBuildException;
+
+import javax.inject.Inject;
+import java.io.Serializable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RecommenderInstantiatorTest {
+    /**
+     * Barrier that both models must reach while building, so they can only be built concurrently.
+     */
+    static volatile CyclicBarrier barrier;
+
+    private LenskitConfiguration config;
+
+    @Before
+    public void setup() {
+        barrier = null;
+        config = new LenskitConfiguration();
+        config.clearRoots();
+        config.addRoot(Root.class);
+    }
+
+    @Test
+    public void testSerialInstantiation() {
+        RecommenderInstantiator inst = RecommenderInstantiator.create(config.buildGraph());
+        DAGNode<Component, Dependency> graph = inst.instantiate();
+        checkGraph(graph);
+        assertThat(inst.getBuildTimes().size(), equalTo(3));
+    }
+
+    @Test
+    public void testParallelInstantiation() {
+        barrier = new CyclicBarrier(2);
+        RecommenderInstantiator inst = RecommenderInstantiator.create(config.buildGraph());
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            DAGNode<Component, Dependency> graph = inst.instantiate(pool);
+            checkGraph(graph);
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(inst.getBuildTimes().size(), equalTo(3));
+        assertThat(inst.getBuildTimes().values(), everyItem(greaterThan(0L)));
+    }
+
+    @Test
+    public void testEngineBuilderBuildTimes() {
+        LenskitRecommenderEngineBuilder builder = new LenskitRecommenderEngineBuilder();
+        builder.addConfiguration(config);
+        assertThat(builder.getBuildTimes().size(), equalTo(0));
+        builder.buildRecommender(null).close();
+        assertThat(builder.getBuildTimes().size(), equalTo(3));
+    }
+
+    @Test(expected = RecommenderBuildException.class)
+    public void testParallelFailure() {
+        config.addRoot(Broken.class);
+        RecommenderInstantiator inst = RecommenderInstantiator.create(config.buildGraph());
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            inst.instantiate(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void checkGraph(DAGNode<Component, Dependency> graph) {
+        ModelA a = findInstance(graph, ModelA.class);
+        ModelB b = findInstance(graph, ModelB.class);
+        Data data = findInstance(graph, Data.class);
+        assertThat(a, notNullValue());
+        assertThat(b, notNullValue());
+        assertThat(a.data, sameInstance(data));
+        assertThat(b.data, sameInstance(data));
+        // the root is not shareable, so it is left for recommender construction
+        assertThat(findInstance(graph, Root.class), nullValue());
+    }
+
+    private static <T> T findInstance(DAGNode<Component, Dependency> graph, Class<T> type) {
+        for (DAGNode<Component, Dependency> node: graph.getReachableNodes()) {
+            if (node.getLabel().getSatisfaction().hasInstance()) {
+                Object obj = NodeInstantiator.create().apply(node);
+                if (type.isInstance(obj)) {
+                    return type.cast(obj);
+                }
+            }
+        }
+        return null;
+    }
+
+    static void awaitPartner() {
+        CyclicBarrier b = barrier;
+        if (b != null) {
+            try {
+                b.await(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException("models were not built concurrently", e);
+            }
+        }
+    }
+
+    @Shareable
+    public static class Data implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @Inject
+        public Data() {
+        }
+    }
+
+    @Shareable
+    public static class ModelA implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final Data data;
+
+        @Inject
+        public ModelA(Data d) {
+            awaitPartner();
+            data = d;
+        }
+    }
+
+    @Shareable
+    public static class ModelB implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final Data data;
+
+        @Inject
+        public ModelB(Data d) {
+            awaitPartner();
+            data = d;
+        }
+    }
+
+    @Shareable
+    public static class Broken implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @Inject
+        public Broken(Data d) {
+            throw new IllegalStateException("cannot build");
+        }
+    }
+
+    public static class Root {
+        @Inject
+        public Root(ModelA a, ModelB b) {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.similarity;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMaps;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.junit.Test;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test that prepared vectors give the same similarities as the original vectors.
+ */
+public class PreparedVectorTest {
+    private static final double EPSILON = 1.0e-6;
+
+    private final Random rng = new Random(42);
+
+    private Long2DoubleMap randomVector() {
+        Long2DoubleMap vec = new Long2DoubleOpenHashMap();
+        int n = rng.nextInt(20);
+        for (int i = 0; i < n; i++) {
+            // a small key space, so vectors overlap; rounded values, so there are ties
+            vec.put(rng.nextInt(30), Math.round(rng.nextDouble() * 8) / 2.0);
+        }
+        return vec;
+    }
+
+    private void checkSimilarity(VectorSimilarity sim) {
+        for (int i = 0; i < 100; i++) {
+            Long2DoubleMap v1 = randomVector();
+            Long2DoubleMap v2 = randomVector();
+            PreparedVector p1 = sim.prepare(v1);
+            PreparedVector p2 = sim.prepare(v2);
+            double expected = sim.similarity(v1, v2);
+            if (Double.isNaN(expected)) {
+                // e.g. undamped correlation of constant vectors
+                assertThat(Double.isNaN(sim.similarity(p1, p2)), equalTo(true));
+            } else {
+                assertThat(sim.similarity(p1, p2), closeTo(expected, EPSILON));
+            }
+        }
+    }
+
+    @Test
+    public void testCreate() {
+        long[] keys = {5, 1, 7};
+        double[] values = {2.5, 1.5, 2};
+        Long2DoubleSortedArrayMap vec = Long2DoubleSortedArrayMap.wrapUnsorted(keys, values);
+        PreparedVector pv = PreparedVector.create(vec, 3.0);
+        assertThat(pv.size(), equalTo(3));
+        assertThat(pv.getKey(0), equalTo(1L));
+        assertThat(pv.getValue(0), equalTo(1.5));
+        assertThat(pv.getKey(2), equalTo(7L));
+        assertThat(pv.getValue(2), equalTo(2.0));
+        assertThat(pv.getStatistic(), equalTo(3.0));
+        assertThat(pv.getVector().get(5), equalTo(2.5));
+        // an array map is kept rather than copied again
+        assertThat(pv.getVector(), sameInstance(vec));
+    }
+
+    @Test
+    public void testEmpty() {
+        PreparedVector pv = PreparedVector.create(Long2DoubleMaps.EMPTY_MAP);
+        assertThat(pv.size(), equalTo(0));
+        assertThat(Double.isNaN(pv.getStatistic()), equalTo(true));
+        assertThat(PreparedVector.dotProduct(pv, pv), equalTo(0.0));
+        assertThat(PreparedVector.intersectSize(pv, pv), equalTo(0));
+    }
+
+    @Test
+    public void testDotProductAndIntersect() {
+        Long2DoubleMap v1 = Long2DoubleSortedArrayMap.wrapUnsorted(new long[]{1, 5, 7, 8},
+                                                                  new double[]{1.5, 2.5, 2, 3.5});
+        Long2DoubleMap v2 = Long2DoubleSortedArrayMap.wrapUnsorted(new long[]{1, 5, 7, 9},
+                                                                  new double[]{2, 2.5, 1.7, 0.8});
+        PreparedVector p1 = PreparedVector.create(v1);
+        PreparedVector p2 = PreparedVector.create(v2);
+        assertThat(PreparedVector.dotProduct(p1, p2), closeTo(1.5 * 2 + 2.5 * 2.5 + 2 * 1.7, EPSILON));
+        assertThat(PreparedVector.intersectSize(p1, p2), equalTo(3));
+    }
+
+    @Test
+    public void testCosine() {
+        checkSimilarity(new CosineVectorSimilarity());
+        checkSimilarity(new CosineVectorSimilarity(5));
+    }
+
+    @Test
+    public void testPearson() {
+        checkSimilarity(new PearsonCorrelation());
+        checkSimilarity(new PearsonCorrelation(10));
+    }
+
+    @Test
+    public void testSpearman() {
+        checkSimilarity(new SpearmanRankCorrelation());
+    }
+
+    @Test
+    public void testSignificanceWeighted() {
+        checkSimilarity(new SignificanceWeightedVectorSimilarity(5, new CosineVectorSimilarity()));
+        checkSimilarity(new SignificanceWeightedVectorSimilarity(5, new PearsonCorrelation()));
+    }
+}
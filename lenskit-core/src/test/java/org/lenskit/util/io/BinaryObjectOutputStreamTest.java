@@ -0,0 +1,210 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.io;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.junit.Test;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class BinaryObjectOutputStreamTest {
+    private static Object roundTrip(Object obj) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new BinaryObjectOutputStream(buffer)) {
+            out.writeObject(obj);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+
+    @Test
+    public void testPlainObject() throws IOException, ClassNotFoundException {
+        List<String> list = new ArrayList<>(Arrays.asList("foo", "bar"));
+        assertThat(roundTrip(list), equalTo((Object) list));
+    }
+
+    @Test
+    public void testEncodedObject() throws IOException, ClassNotFoundException {
+        Blob blob = new Blob(new int[]{1, 2}, new long[]{3L << 40}, new double[]{Math.PI, -0.0});
+        Blob copy = (Blob) roundTrip(blob);
+        assertThat(copy.ints, equalTo(blob.ints));
+        assertThat(copy.longs, equalTo(blob.longs));
+        assertThat(copy.doubles, equalTo(blob.doubles));
+        assertThat(copy.name, equalTo("decoded"));
+    }
+
+    @Test
+    public void testLargeArrays() throws IOException, ClassNotFoundException {
+        // larger than the transfer buffer, and not a multiple of it
+        int n = BinaryOutput.BUFFER_SIZE + 37;
+        int[] ints = new int[n];
+        long[] longs = new long[n];
+        double[] doubles = new double[n];
+        for (int i = 0; i < n; i++) {
+            ints[i] = i * 7;
+            longs[i] = (long) i << 33;
+            doubles[i] = i / 3.0;
+        }
+        Blob copy = (Blob) roundTrip(new Blob(ints, longs, doubles));
+        assertThat(copy.ints, equalTo(ints));
+        assertThat(copy.longs, equalTo(longs));
+        assertThat(copy.doubles, equalTo(doubles));
+    }
+
+    @Test
+    public void testSharedReferences() throws IOException, ClassNotFoundException {
+        Blob blob = new Blob(new int[]{1}, new long[0], new double[0]);
+        List<Blob> list = new ArrayList<>(Arrays.asList(blob, blob));
+        @SuppressWarnings("unchecked")
+        List<Blob> copy = (List<Blob>) roundTrip(list);
+        assertThat(copy, hasSize(2));
+        assertThat(copy.get(0), sameInstance(copy.get(1)));
+        assertThat(copy.get(0).name, equalTo("decoded"));
+    }
+
+    @Test
+    public void testKeyIndex() throws IOException, ClassNotFoundException {
+        SortedKeyIndex compact = SortedKeyIndex.create(1, 5, 7, 42);
+        SortedKeyIndex full = SortedKeyIndex.create(1, 5, 7, 42L << 35);
+        SortedKeyIndex sub = full.subIndex(1, 3);
+        for (SortedKeyIndex idx: Arrays.asList(compact, full, sub)) {
+            SortedKeyIndex copy = (SortedKeyIndex) roundTrip(idx);
+            assertThat(copy.getClass(), equalTo((Object) idx.getClass()));
+            assertThat(copy.getLowerBound(), equalTo(idx.getLowerBound()));
+            assertThat(copy.keySet(), equalTo(idx.keySet()));
+        }
+    }
+
+    @Test
+    public void testSubclassNotEncodedAsParent() throws IOException, ClassNotFoundException {
+        SubBlob blob = new SubBlob();
+        Object copy = roundTrip(blob);
+        // the format annotation is not inherited, so the subclass goes through Java serialization
+        assertThat(copy, instanceOf(SubBlob.class));
+        assertThat(((SubBlob) copy).name, equalTo("original"));
+    }
+
+    @Test
+    public void testVectors() throws IOException, ClassNotFoundException {
+        Long2DoubleMap v1 = new Long2DoubleOpenHashMap();
+        v1.put(42, 1.5);
+        v1.put(7, -2.0);
+        v1.put(1L << 40, 0.25);
+        Long2DoubleMap v2 = new Long2DoubleOpenHashMap();
+        Long2DoubleMap v3 = new Long2DoubleOpenHashMap();
+        v3.put(3, 3.0);
+        VectorList vl = new VectorList(Arrays.asList(v1, v2, v3));
+        VectorList copy = (VectorList) roundTrip(vl);
+        assertThat(copy.vectors, hasSize(3));
+        for (int i = 0; i < 3; i++) {
+            assertThat(copy.vectors.get(i), equalTo(vl.vectors.get(i)));
+        }
+    }
+
+    @Test
+    public void testLargeVectors() throws IOException, ClassNotFoundException {
+        // enough entries to fill the output buffer several times
+        List<Long2DoubleMap> vectors = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            Long2DoubleMap v = new Long2DoubleOpenHashMap();
+            for (int j = 0; j < 1000; j++) {
+                v.put(j * 7 + i, i + j * 0.5);
+            }
+            vectors.add(i % 2 == 0 ? v : Long2DoubleSortedArrayMap.create(v));
+        }
+        VectorList copy = (VectorList) roundTrip(new VectorList(vectors));
+        assertThat(copy.vectors, hasSize(7));
+        for (int i = 0; i < 7; i++) {
+            assertThat(copy.vectors.get(i), equalTo(vectors.get(i)));
+        }
+    }
+
+    static class SubBlob extends Blob {
+        private static final long serialVersionUID = 1L;
+
+        SubBlob() {
+            super(new int[]{1}, new long[0], new double[0]);
+        }
+    }
+
+    @BinaryFormat(VectorList.Codec.class)
+    static class VectorList implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final List<Long2DoubleMap> vectors;
+
+        VectorList(List<Long2DoubleMap> vs) {
+            vectors = vs;
+        }
+
+        static class Codec implements BinaryCodec<VectorList> {
+            @Override
+            public void write(VectorList object, BinaryOutput out) throws IOException {
+                out.writeVectors(object.vectors);
+            }
+
+            @Override
+            public VectorList read(BinaryInput in) throws IOException {
+                return new VectorList(in.readVectors());
+            }
+        }
+    }
+
+    @BinaryFormat(BlobCodec.class)
+    static class Blob implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final int[] ints;
+        final long[] longs;
+        final double[] doubles;
+        String name = "original";
+
+        Blob(int[] is, long[] ls, double[] ds) {
+            ints = is;
+            longs = ls;
+            doubles = ds;
+        }
+    }
+
+    static class BlobCodec implements BinaryCodec<Blob> {
+        @Override
+        public void write(Blob object, BinaryOutput out) throws IOException {
+            out.writeInts(object.ints);
+            out.writeLongs(object.longs);
+            out.writeDoubles(object.doubles);
+        }
+
+        @Override
+        public Blob read(BinaryInput in) throws IOException {
+            Blob blob = new Blob(in.readInts(), in.readLongs(), in.readDoubles());
+            blob.name = "decoded";
+            return blob;
+        }
+    }
+}
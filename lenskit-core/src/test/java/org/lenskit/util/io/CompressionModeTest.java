@@ -20,8 +20,12 @@
  */
 package org.lenskit.util.io;
 
+import com.google.common.io.ByteStreams;
 import org.junit.Test;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
@@ -54,4 +58,17 @@ public class CompressionModeTest {
         assertThat(CompressionMode.AUTO.getEffectiveCompressionMode("foo.txt"),
                    equalTo(CompressionMode.NONE));
     }
+
+    @Test
+    public void testReadConcatenatedStreams() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (String part: new String[]{"hello ", "world"}) {
+            try (OutputStream out = CompressionMode.GZIP.wrapOutput(buffer)) {
+                out.write(part.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        InputStream in = CompressionMode.GZIP.wrapInput(new ByteArrayInputStream(buffer.toByteArray()));
+        String text = new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        assertThat(text, equalTo("hello world"));
+    }
 }
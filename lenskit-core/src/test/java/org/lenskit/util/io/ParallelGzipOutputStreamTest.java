@@ -0,0 +1,90 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.io;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ParallelGzipOutputStreamTest {
+    private static byte[] decompress(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(buffer).close();
+        assertThat(buffer.size(), greaterThan(0));
+        assertThat(decompress(buffer.toByteArray()).length, equalTo(0));
+    }
+
+    @Test
+    public void testManyBlocks() throws IOException {
+        byte[] data = new byte[100000];
+        Random rng = new Random(42);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + rng.nextInt(4));
+        }
+        ExecutorService exec = Executors.newFixedThreadPool(3);
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (OutputStream out = new ParallelGzipOutputStream(buffer, 1000, exec, 3)) {
+                out.write(data[0]);
+                out.write(data, 1, 4999);
+                out.flush();
+                out.write(data, 5000, data.length - 5000);
+            }
+            assertThat(buffer.size(), lessThan(data.length));
+            assertThat(decompress(buffer.toByteArray()), equalTo(data));
+            InputStream in = CompressionMode.GZIP.wrapInput(new ByteArrayInputStream(buffer.toByteArray()));
+            assertThat(ByteStreams.toByteArray(in), equalTo(data));
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    @Test
+    public void testObjectStream() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        double[] values = new double[50000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 0.5;
+        }
+        try (ObjectOutputStream out = new BinaryObjectOutputStream(new ParallelGzipOutputStream(buffer, 4096, ForkJoinPool.commonPool(), 2))) {
+            out.writeObject(values);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(LKFileUtils.transparentlyDecompress(new ByteArrayInputStream(buffer.toByteArray())))) {
+            assertThat((double[]) in.readObject(), equalTo(values));
+        }
+    }
+}
@@ -120,4 +120,14 @@ public class SortedKeyIndexTest {
         assertThat(subk.findUpperBound(5), equalTo(5));
         assertThat(subk.findUpperBound(4), equalTo(5));
     }
+
+    @Test
+    public void testFromSubViewCollection() {
+        SortedKeyIndex keys = SortedKeyIndex.create(0, 1, 2, 3, 4, 5, 6, 7);
+        SortedKeyIndex copy = SortedKeyIndex.fromCollection(keys.subIndex(2, 5).keySet());
+        assertThat(copy.getLowerBound(), equalTo(0));
+        assertThat(copy.size(), equalTo(3));
+        assertThat(copy.getKey(0), equalTo(2L));
+        assertThat(copy.tryGetIndex(4), equalTo(2));
+    }
 }
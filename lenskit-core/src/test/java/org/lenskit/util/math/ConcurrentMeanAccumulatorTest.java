@@ -0,0 +1,73 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.math;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ConcurrentMeanAccumulatorTest {
+    @Test
+    public void testEmpty() {
+        ConcurrentMeanAccumulator acc = new ConcurrentMeanAccumulator();
+        assertThat(acc.getMean(), equalTo(0.0));
+        assertThat(acc.getCount(), equalTo(0L));
+    }
+
+    @Test
+    public void testAdd() {
+        ConcurrentMeanAccumulator acc = new ConcurrentMeanAccumulator();
+        acc.add(10);
+        acc.add(3);
+        acc.add(7);
+        assertThat(acc.getMean(), closeTo(6.666666, 1.0e-5));
+        assertThat(acc.getTotal(), closeTo(20, 1.0e-6));
+        assertThat(acc.getCount(), equalTo(3L));
+    }
+
+    @Test
+    public void testConcurrentAdd() throws InterruptedException {
+        // used through the base type, as metric contexts are
+        final MeanAccumulator acc = new ConcurrentMeanAccumulator();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final double value = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    acc.add(value);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        assertThat(acc.getCount(), equalTo(40000L));
+        assertThat(acc.getTotal(), closeTo(60000, 1.0e-6));
+        assertThat(acc.getMean(), closeTo(1.5, 1.0e-6));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.table.writer;
+
+import org.junit.Test;
+import org.lenskit.util.table.TableLayout;
+import org.lenskit.util.table.TableLayoutBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AsyncTableWriterTest {
+    private final TableLayout layout = new TableLayoutBuilder().addColumn("A").addColumn("B").build();
+
+    @Test
+    public void testWritesInOrder() throws IOException {
+        RecordingWriter base = new RecordingWriter();
+        TableWriter writer = TableWriters.async(base, 4);
+        for (int i = 0; i < 100; i++) {
+            writer.writeRow(i, "x" + i);
+        }
+        writer.flush();
+        assertThat(base.rows, hasSize(100));
+        assertThat(base.flushes, greaterThan(0));
+        writer.close();
+        assertThat(base.closed, equalTo(false));
+        for (int i = 0; i < 100; i++) {
+            assertThat(base.rows.get(i), contains((Object) i, "x" + i));
+        }
+    }
+
+    @Test
+    public void testBatchesFlushesForSlowProducer() throws IOException, InterruptedException {
+        RecordingWriter base = new RecordingWriter();
+        TableWriter writer = TableWriters.async(base, 4);
+        for (int i = 0; i < 20; i++) {
+            writer.writeRow(i, "x" + i);
+            Thread.sleep(2);
+        }
+        writer.close();
+        assertThat(base.rows, hasSize(20));
+        // one flush at close, plus at most a few idle flushes on a slow machine
+        assertThat(base.flushes, allOf(greaterThan(0), lessThan(5)));
+    }
+
+    @Test
+    public void testFlushesAfterManyRows() throws IOException {
+        RecordingWriter base = new RecordingWriter();
+        TableWriter writer = TableWriters.async(base, 16);
+        for (int i = 0; i < AsyncTableWriter.FLUSH_ROWS * 3; i++) {
+            writer.writeRow(i, i);
+        }
+        writer.close();
+        assertThat(base.rows, hasSize(AsyncTableWriter.FLUSH_ROWS * 3));
+        assertThat(base.flushes, allOf(greaterThanOrEqualTo(3), lessThanOrEqualTo(5)));
+    }
+
+    @Test
+    public void testConcurrentWriters() throws IOException {
+        RecordingWriter base = new RecordingWriter();
+        TableWriter writer = TableWriters.async(base, 16);
+        IntStream.range(0, 1000).parallel().forEach(i -> {
+            try {
+                writer.writeRow(i, i * 2);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.close();
+        assertThat(base.rows, hasSize(1000));
+    }
+
+    @Test
+    public void testReportsError() throws IOException {
+        RecordingWriter base = new RecordingWriter();
+        base.fail = true;
+        TableWriter writer = TableWriters.async(base, 4);
+        writer.writeRow(1, 2);
+        try {
+            writer.close();
+            fail("close should report the write error");
+        } catch (IOException e) {
+            /* expected */
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCheckWidth() throws IOException {
+        try (TableWriter writer = TableWriters.async(new RecordingWriter(), 4)) {
+            writer.writeRow(1);
+        }
+    }
+
+    private class RecordingWriter extends AbstractTableWriter {
+        List<List<Object>> rows = Collections.synchronizedList(new ArrayList<>());
+        int flushes = 0;
+        boolean closed = false;
+        boolean fail = false;
+
+        @Override
+        public TableLayout getLayout() {
+            return layout;
+        }
+
+        @Override
+        public void writeRow(List<?> row) throws IOException {
+            if (fail) {
+                throw new IOException("write failed");
+            }
+            rows.add(new ArrayList<>(row));
+        }
+
+        @Override
+        public void flush() {
+            flushes += 1;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
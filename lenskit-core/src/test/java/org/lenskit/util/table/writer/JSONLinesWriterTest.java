@@ -0,0 +1,54 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.util.table.writer;
+
+import org.junit.Test;
+import org.lenskit.util.table.TableLayout;
+import org.lenskit.util.table.TableLayoutBuilder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class JSONLinesWriterTest {
+    @Test
+    public void testWriteRows() throws IOException {
+        TableLayout layout = new TableLayoutBuilder().addColumns("user", "item", "name").build();
+        StringWriter out = new StringWriter();
+        try (TableWriter writer = new JSONLinesWriter(out, layout)) {
+            writer.writeRow(42L, 39L, "Wall-E");
+            writer.writeRow(42L, 7L, null);
+        }
+        assertThat(out.toString(),
+                   equalTo("{\"user\":42,\"item\":39,\"name\":\"Wall-E\"}\n" +
+                           "{\"user\":42,\"item\":7}\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongRowWidth() throws IOException {
+        TableLayout layout = new TableLayoutBuilder().addColumns("user", "item").build();
+        try (TableWriter writer = new JSONLinesWriter(new StringWriter(), layout)) {
+            writer.writeRow(42L);
+        }
+    }
+}
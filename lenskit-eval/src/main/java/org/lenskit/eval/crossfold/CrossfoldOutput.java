@@ -37,12 +37,18 @@ class CrossfoldOutput implements Closeable {
     private final Random random;
     private final Closer closer;
     private final int count;
+    private final long hashSeed;
+    private final Path spillDir;
+    private final Crossfolder crossfolder;
     private final List<RatingWriter> trainWriters, testWriters;
 
     public CrossfoldOutput(Crossfolder cf, Random rng) throws IOException {
         random = rng;
         closer = Closer.create();
         count = cf.getPartitionCount();
+        hashSeed = cf.getHashSeed();
+        spillDir = cf.getOutputDir();
+        crossfolder = cf;
         trainWriters = Lists.newArrayListWithCapacity(count);
         testWriters = Lists.newArrayListWithCapacity(count);
         try {
@@ -84,6 +90,38 @@ class CrossfoldOutput implements Closeable {
         return testWriters.get(i);
     }
 
+    /**
+     * Assign a key to a partition by a seeded hash.  Streaming crossfold methods use this in
+     * place of shuffling, so the assignment only depends on the key and the crossfolder's hash
+     * seed.  Partitions are balanced in expectation, but not exactly.
+     *
+     * @param key The key (entity or group ID) to assign.
+     * @return The partition number, in the range [0, {@link #getCount()}).
+     */
+    public int hashPartition(long key) {
+        return (int) Long.remainderUnsigned(mix(key, hashSeed), count);
+    }
+
+    /**
+     * Open spill files for grouping ratings that do not fit in memory.
+     *
+     * @return A new rating spill, in a temporary directory next to the output files.
+     * @throws IOException if there is an error creating the spill files.
+     */
+    public RatingSpill openSpill() throws IOException {
+        return RatingSpill.create(spillDir, crossfolder.resolveSpillBucketCount(), hashSeed);
+    }
+
+    /**
+     * Mix a key with a seed into a well-distributed 64-bit hash (the SplitMix64 finalizer).
+     */
+    static long mix(long key, long seed) {
+        long h = key + seed * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
     @Override
     public void close() throws IOException {
         closer.close();
@@ -30,6 +30,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.data.dao.DataAccessException;
 import org.lenskit.data.dao.DataAccessObject;
@@ -38,11 +39,17 @@ import org.lenskit.data.dao.file.StaticDataSource;
 import org.lenskit.data.dao.file.TextEntitySource;
 import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entities;
+import org.lenskit.data.entities.Entity;
 import org.lenskit.data.entities.EntityType;
 import org.lenskit.data.output.OutputFormat;
 import org.lenskit.data.output.RatingWriter;
 import org.lenskit.data.output.RatingWriters;
+import org.lenskit.data.ratings.Rating;
 import org.lenskit.eval.traintest.DataSet;
+import org.lenskit.util.io.CompressionMode;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.io.ObjectStreams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,12 +73,34 @@ import java.util.*;
  * - `partNN.test.csv` - a CSV file containing the test data for part *NN*
  * - `partNN.test.yaml` - a YAML manifest for the test data for part *NN*
  *
+ * By default, the crossfolder loads the input data into memory.  In {@linkplain #setStreaming(boolean) streaming}
+ * mode, it instead makes one sequential pass over the input entity sources, assigning entities (or users/items) to
+ * partitions by a seeded hash of their IDs, and spills the ratings of test users to disk to split their histories.
+ * This lets it crossfold data sets much larger than the heap.  Streaming supports the entity partition and the
+ * user/item partition methods, but not sampling.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class Crossfolder {
     public static final String ITEM_FILE_NAME = "items.txt";
 
     private static final Logger logger = LoggerFactory.getLogger(Crossfolder.class);
+    /**
+     * The number of spill buckets to use when the input size is unknown, and the fewest to choose automatically.
+     */
+    static final int DEFAULT_SPILL_BUCKETS = 64;
+    /**
+     * The most spill buckets to choose automatically.
+     */
+    static final int MAX_SPILL_BUCKETS = 4096;
+    /**
+     * The input bytes to allot to each automatically-chosen spill bucket.
+     */
+    static final long SPILL_BUCKET_INPUT_SIZE = 64L * 1024 * 1024;
+    /**
+     * The assumed expansion of compressed input files when estimating the input size.
+     */
+    private static final int COMPRESSION_RATIO = 4;
 
     private Random rng;
     private String name;
@@ -82,6 +111,9 @@ public class Crossfolder {
     private OutputFormat outputFormat = OutputFormat.CSV;
     private CrossfoldMethod method = CrossfoldMethods.partitionUsers(SortOrder.RANDOM, HistoryPartitions.holdout(10));
     private boolean writeTimestamps = true;
+    private boolean streaming = false;
+    private long hashSeed;
+    private int spillBucketCount = 0;
     private boolean executed = false;
 
     public Crossfolder() {
@@ -91,6 +123,7 @@ public class Crossfolder {
     public Crossfolder(String n) {
         name = n;
         rng = new Random();
+        hashSeed = rng.nextLong();
     }
 
     /**
@@ -232,6 +265,114 @@ public class Crossfolder {
         return writeTimestamps;
     }
 
+    /**
+     * Configure whether to crossfold in streaming mode.  Streaming mode does not load the input data into
+     * memory; if the crossfold method does not support streaming, the crossfolder warns and loads the data anyway.
+     *
+     * @param stream {@code true} to crossfold in one streaming pass over the input.
+     * @return The crossfolder (for chaining).
+     */
+    public Crossfolder setStreaming(boolean stream) {
+        streaming = stream;
+        return this;
+    }
+
+    /**
+     * Query whether the crossfolder will run in streaming mode.
+     * @return {@code true} if streaming mode is enabled.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Set the seed for hashing IDs to partitions in streaming mode.  Crossfolding the same input with the same
+     * seed assigns the same entities or users to each partition.  The default is a random seed.
+     *
+     * @param seed The hash seed.
+     * @return The crossfolder (for chaining).
+     */
+    public Crossfolder setHashSeed(long seed) {
+        hashSeed = seed;
+        return this;
+    }
+
+    /**
+     * Get the seed for hashing IDs to partitions in streaming mode.
+     * @return The hash seed.
+     */
+    public long getHashSeed() {
+        return hashSeed;
+    }
+
+    /**
+     * Set the number of spill buckets for streaming user or item partitioning.  Test ratings are spilled to
+     * this many files, each of which must fit in memory when it is split.
+     *
+     * By default, the count is chosen from the size of the input files, allotting each bucket about 64 MiB of
+     * input (and assuming 4:1 compression for compressed files).  Inputs whose size cannot be determined, such
+     * as remote URLs, get 64 buckets; set the count explicitly if they are large.
+     *
+     * @param n The number of spill buckets, or 0 to choose it from the input size (the default).
+     * @return The crossfolder (for chaining).
+     */
+    public Crossfolder setSpillBucketCount(int n) {
+        Preconditions.checkArgument(n >= 0, "spill bucket count must be non-negative");
+        spillBucketCount = n;
+        return this;
+    }
+
+    /**
+     * Get the number of spill buckets for streaming crossfolds.
+     * @return The number of spill buckets, or 0 if it is chosen from the input size.
+     */
+    public int getSpillBucketCount() {
+        return spillBucketCount;
+    }
+
+    /**
+     * Get the number of spill buckets to use, choosing it from the input size if it has not been set.
+     *
+     * @return The number of spill buckets.
+     */
+    int resolveSpillBucketCount() {
+        if (spillBucketCount > 0) {
+            return spillBucketCount;
+        }
+
+        long size = 0;
+        for (EntitySource src: source.getSourcesForType(entityType)) {
+            Path file = src instanceof TextEntitySource ? ((TextEntitySource) src).getFile() : null;
+            if (file == null) {
+                logger.debug("cannot determine size of source {}", src);
+                continue;
+            }
+            try {
+                long fsize = Files.size(file);
+                if (CompressionMode.autodetect(file.toFile()) != CompressionMode.NONE) {
+                    fsize *= COMPRESSION_RATIO;
+                }
+                size += fsize;
+            } catch (IOException e) {
+                logger.debug("cannot determine size of {}: {}", file, e.toString());
+            }
+        }
+        int n = spillBucketsForSize(size);
+        logger.info("using {} spill buckets for approximately {} bytes of input", n, size);
+        return n;
+    }
+
+    /**
+     * Choose the number of spill buckets for an input size.
+     *
+     * @param size The approximate input size in bytes (0 if unknown).
+     * @return The number of spill buckets.
+     */
+    static int spillBucketsForSize(long size) {
+        long n = (size + SPILL_BUCKET_INPUT_SIZE - 1) / SPILL_BUCKET_INPUT_SIZE;
+        return (int) Math.min(MAX_SPILL_BUCKETS, Math.max(DEFAULT_SPILL_BUCKETS, n));
+    }
+
     /**
      * Get the visible name of this crossfold split.
      *
@@ -270,10 +411,17 @@ public class Crossfolder {
     public void execute() throws IOException {
         logger.info("ensuring output directory {} exists", outputDir);
         Files.createDirectories(outputDir);
-        logger.info("making sure item list is available");
-        JsonNode itemDataInfo = writeItemFile(source);
-        logger.info("writing train-test split files");
-        createTTFiles(source);
+        JsonNode itemDataInfo;
+        if (useStreaming()) {
+            logger.info("streaming train-test split files");
+            LongSet items = createTTFilesStreaming(source);
+            itemDataInfo = writeItemFile(source, items);
+        } else {
+            logger.info("making sure item list is available");
+            itemDataInfo = writeItemFile(source, null);
+            logger.info("writing train-test split files");
+            createTTFiles(source);
+        }
         logger.info("writing manifests and specs");
         Map<String,Object> metadata = new HashMap<>();
         for (EntitySource src: source.getSourcesForType(entityType)) {
@@ -311,20 +459,34 @@ public class Crossfolder {
         return files;
     }
 
+    private boolean useStreaming() {
+        if (!streaming) {
+            return false;
+        } else if (method instanceof StreamingCrossfoldMethod && ((StreamingCrossfoldMethod) method).canStream()) {
+            return true;
+        } else {
+            logger.warn("crossfold method {} does not support streaming, loading data into memory", method);
+            return false;
+        }
+    }
+
     /**
      * Write the items to a file.
      * @param data The input data.
+     * @param items The item IDs, or `null` to get them from the input data.
      * @return The JSON data to include in the manifest to describe the item file.
      * @throws IOException if there's a problem writing the file.
      */
     @Nullable
-    private JsonNode writeItemFile(StaticDataSource data) throws IOException {
+    private JsonNode writeItemFile(StaticDataSource data, @Nullable LongSet items) throws IOException {
         List<EntitySource> itemSources = data.getSourcesForType(CommonTypes.ITEM);
         if (itemSources.isEmpty()) {
             logger.info("writing item IDs to {}", ITEM_FILE_NAME);
             Path itemFile = outputDir.resolve(ITEM_FILE_NAME);
-            DataAccessObject dao = data.get();
-            LongSet items = dao.getEntityIds(CommonTypes.ITEM);
+            if (items == null) {
+                DataAccessObject dao = data.get();
+                items = dao.getEntityIds(CommonTypes.ITEM);
+            }
             try (BufferedWriter writer = Files.newBufferedWriter(itemFile, Charsets.UTF_8)) {
                 for (Long item: items) { // escape analysis should elide allocations
                     writer.append(item.toString())
@@ -359,6 +521,53 @@ public class Crossfolder {
      * @param data The input data.
      */
     private void createTTFiles(StaticDataSource data) throws IOException {
+        checkSources(data);
+
+        try (CrossfoldOutput out = new CrossfoldOutput(this, rng)) {
+            logger.info("running crossfold method {}", method);
+            method.crossfold(data.get(), out, entityType);
+        }
+    }
+
+    /**
+     * Write train-test split files in one pass over the input sources.
+     *
+     * @param data The input data.
+     * @return The set of item IDs seen in the input.
+     * @throws IOException if there is an error reading the input or writing the files.
+     */
+    private LongSet createTTFilesStreaming(StaticDataSource data) throws IOException {
+        List<EntitySource> sources = checkSources(data);
+        LongSet items = new LongOpenHashSet();
+
+        List<ObjectStream<Entity>> streams = new ArrayList<>(sources.size());
+        try {
+            for (EntitySource src: sources) {
+                streams.add(src.openStream());
+            }
+        } catch (IOException | RuntimeException ex) {
+            for (ObjectStream<Entity> stream: streams) {
+                stream.close();
+            }
+            throw ex;
+        }
+
+        ObjectStream<Entity> entities = ObjectStreams.concat(streams);
+        try (ObjectStream<Rating> ratings = ObjectStreams.transform(
+                     ObjectStreams.filter(entities, e -> e.getType().equals(entityType)),
+                     e -> {
+                         Rating r = Entities.project(e, Rating.class);
+                         items.add(r.getItemId());
+                         return r;
+                     });
+             CrossfoldOutput out = new CrossfoldOutput(this, rng)) {
+            logger.info("streaming crossfold method {} with hash seed {}", method, hashSeed);
+            ((StreamingCrossfoldMethod) method).crossfoldStream(ratings, out);
+        }
+        return items;
+    }
+
+    private List<EntitySource> checkSources(StaticDataSource data) {
         if (entityType != CommonTypes.RATING) {
             logger.warn("entity type is not 'rating', crossfolding may not work correctly");
             logger.warn("crossfolding non-rating data is a work in progress");
@@ -375,11 +584,7 @@ public class Crossfolder {
                             Sets.difference(types, ImmutableSet.of(entityType)));
             }
         }
-
-        try (CrossfoldOutput out = new CrossfoldOutput(this, rng)) {
-            logger.info("running crossfold method {}", method);
-            method.crossfold(data.get(), out, entityType);
-        }
+        return sources;
     }
 
     private void writeManifests(StaticDataSource data, Map<String,Object> meta, JsonNode itemData) throws IOException {
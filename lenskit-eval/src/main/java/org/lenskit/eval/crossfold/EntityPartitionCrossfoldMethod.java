@@ -37,7 +37,7 @@ import java.util.List;
 /**
  * Partition ratings into outputs.
  */
-class EntityPartitionCrossfoldMethod implements CrossfoldMethod {
+class EntityPartitionCrossfoldMethod implements StreamingCrossfoldMethod {
     private static final Logger logger = LoggerFactory.getLogger(EntityPartitionCrossfoldMethod.class);
 
     EntityPartitionCrossfoldMethod() {}
@@ -56,13 +56,29 @@ class EntityPartitionCrossfoldMethod implements CrossfoldMethod {
 
         final int n = ratings.size();
         for (int i = 0; i < n; i++) {
-            for (int f = 0; f < count; f++) {
-                int foldNum = i % count;
-                if (f == foldNum) {
-                    output.getTestWriter(f).writeRating(ratings.get(i));
-                } else {
-                    output.getTrainWriter(f).writeRating(ratings.get(i));
-                }
+            writeRating(ratings.get(i), i % count, output);
+        }
+    }
+
+    @Override
+    public boolean canStream() {
+        return true;
+    }
+
+    @Override
+    public void crossfoldStream(ObjectStream<Rating> input, CrossfoldOutput output) throws IOException {
+        logger.info("streaming ratings to {} partitions by ratings", output.getCount());
+        for (Rating rating: input) {
+            writeRating(rating, output.hashPartition(rating.getId()), output);
+        }
+    }
+
+    private static void writeRating(Rating rating, int foldNum, CrossfoldOutput output) throws IOException {
+        for (int f = 0; f < output.getCount(); f++) {
+            if (f == foldNum) {
+                output.getTestWriter(f).writeRating(rating);
+            } else {
+                output.getTrainWriter(f).writeRating(rating);
             }
         }
     }
@@ -21,6 +21,7 @@
 package org.lenskit.eval.crossfold;
 
 import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -38,7 +39,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-class GroupedCrossfoldMethod implements CrossfoldMethod {
+class GroupedCrossfoldMethod implements StreamingCrossfoldMethod {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final EntityType groupType;
@@ -69,18 +70,10 @@ class GroupedCrossfoldMethod implements CrossfoldMethod {
             for (IdBox<List<Rating>> history : userStream) {
                 int foldNum = splits.get(history.getId());
                 List<Rating> ratings = new ArrayList<>(history.getValue());
-                final int n = ratings.size();
 
                 for (int f = 0; f < count; f++) {
                     if (f == foldNum) {
-                        order.apply(ratings, output.getRandom());
-                        final int p = partition.partition(ratings);
-                        for (int j = 0; j < p; j++) {
-                            output.getTrainWriter(f).writeRating(ratings.get(j));
-                        }
-                        for (int j = p; j < n; j++) {
-                            output.getTestWriter(f).writeRating(ratings.get(j));
-                        }
+                        writeTestGroup(ratings, f, output);
                     } else {
                         for (Rating rating : ratings) {
                             output.getTrainWriter(f).writeRating(rating);
@@ -92,6 +85,65 @@ class GroupedCrossfoldMethod implements CrossfoldMethod {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Only partitioning is supported; disjoint samples need to know all the groups in advance.
+     */
+    @Override
+    public boolean canStream() {
+        return entitySplitter.equals(GroupEntitySplitter.partition());
+    }
+
+    /**
+     * Crossfold a stream in one pass.  Each rating is written directly to the training data of the
+     * partitions its group is not tested in, and spilled to disk for its test partition; once the
+     * input is consumed, the spill is read back one bucket at a time to split each group's
+     * history into train and test data.
+     */
+    @Override
+    public void crossfoldStream(ObjectStream<Rating> input, CrossfoldOutput output) throws IOException {
+        final int count = output.getCount();
+        logger.info("streaming ratings to {} partitions by {} with method {}",
+                    count, groupAttribute, partition);
+        try (RatingSpill spill = output.openSpill()) {
+            for (Rating rating: input) {
+                long group = rating.getLong(groupAttribute);
+                int foldNum = output.hashPartition(group);
+                for (int f = 0; f < count; f++) {
+                    if (f != foldNum) {
+                        output.getTrainWriter(f).writeRating(rating);
+                    }
+                }
+                spill.write(group, rating);
+            }
+            spill.finish();
+
+            for (int b = 0; b < spill.getBucketCount(); b++) {
+                Long2ObjectMap<List<Rating>> groups = spill.readBucket(b);
+                logger.debug("splitting {} groups from spill bucket {}", groups.size(), b);
+                for (Long2ObjectMap.Entry<List<Rating>> e: groups.long2ObjectEntrySet()) {
+                    writeTestGroup(e.getValue(), output.hashPartition(e.getLongKey()), output);
+                }
+            }
+        }
+    }
+
+    /**
+     * Split a group's history into the train and test data of its test partition.
+     */
+    private void writeTestGroup(List<Rating> ratings, int foldNum, CrossfoldOutput output) throws IOException {
+        final int n = ratings.size();
+        order.apply(ratings, output.getRandom());
+        final int p = partition.partition(ratings);
+        for (int j = 0; j < p; j++) {
+            output.getTrainWriter(foldNum).writeRating(ratings.get(j));
+        }
+        for (int j = p; j < n; j++) {
+            output.getTestWriter(foldNum).writeRating(ratings.get(j));
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,181 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.eval.crossfold;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closer;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spill files for grouping ratings by a key without holding them all in memory.  Ratings are
+ * appended to one of a fixed number of bucket files, chosen by a hash of the key; each bucket
+ * then holds all the ratings for its keys, and can be read back and grouped on its own.  With
+ * *B* buckets, grouping needs memory for about 1/*B* of the ratings at a time.
+ *
+ * The spill files live in a temporary directory that is deleted when the spill is closed.
+ */
+class RatingSpill implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RatingSpill.class);
+
+    private final Path directory;
+    private final long seed;
+    private final List<Path> bucketFiles;
+    private final List<DataOutputStream> outputs;
+    private final Closer closer = Closer.create();
+    private boolean writing = true;
+
+    private RatingSpill(Path dir, int nbuckets, long seed) throws IOException {
+        directory = dir;
+        this.seed = ~seed;
+        bucketFiles = new ArrayList<>(nbuckets);
+        outputs = new ArrayList<>(nbuckets);
+        for (int i = 0; i < nbuckets; i++) {
+            Path file = dir.resolve(String.format("bucket%04d.bin", i));
+            bucketFiles.add(file);
+            OutputStream out = Files.newOutputStream(file);
+            outputs.add(closer.register(new DataOutputStream(new BufferedOutputStream(out))));
+        }
+    }
+
+    /**
+     * Create a new spill.
+     *
+     * @param parent The directory in which to create the spill's temporary directory.
+     * @param nbuckets The number of buckets.
+     * @param seed The hash seed.
+     * @return The spill.
+     * @throws IOException if there is an error creating the spill files.
+     */
+    static RatingSpill create(Path parent, int nbuckets, long seed) throws IOException {
+        Preconditions.checkArgument(nbuckets > 0, "bucket count must be positive");
+        Files.createDirectories(parent);
+        Path dir = Files.createTempDirectory(parent, ".spill");
+        logger.debug("spilling ratings to {} buckets in {}", nbuckets, dir);
+        try {
+            return new RatingSpill(dir, nbuckets, seed);
+        } catch (IOException | RuntimeException e) {
+            deleteDirectory(dir);
+            throw e;
+        }
+    }
+
+    /**
+     * Get the number of buckets in this spill.
+     * @return The number of buckets.
+     */
+    int getBucketCount() {
+        return bucketFiles.size();
+    }
+
+    /**
+     * Add a rating to the spill.
+     *
+     * @param key The grouping key.
+     * @param rating The rating.
+     * @throws IOException if there is an error writing the rating.
+     */
+    void write(long key, Rating rating) throws IOException {
+        Preconditions.checkState(writing, "spill has been finished");
+        int bucket = (int) Long.remainderUnsigned(CrossfoldOutput.mix(key, seed), outputs.size());
+        DataOutputStream out = outputs.get(bucket);
+        out.writeLong(key);
+        out.writeLong(rating.getId());
+        out.writeLong(rating.getUserId());
+        out.writeLong(rating.getItemId());
+        out.writeDouble(rating.getValue());
+        out.writeLong(rating.getTimestamp());
+    }
+
+    /**
+     * Finish writing to the spill.  After this, buckets can be read.
+     *
+     * @throws IOException if there is an error flushing the spill files.
+     */
+    void finish() throws IOException {
+        if (writing) {
+            writing = false;
+            closer.close();
+        }
+    }
+
+    /**
+     * Read one bucket of the spill, grouped by key.
+     *
+     * @param bucket The bucket number.
+     * @return The ratings in the bucket, grouped by key, each group in the order it was written.
+     * @throws IOException if there is an error reading the bucket.
+     */
+    Long2ObjectMap<List<Rating>> readBucket(int bucket) throws IOException {
+        Preconditions.checkState(!writing, "spill has not been finished");
+        Path file = bucketFiles.get(bucket);
+        long size = Files.size(file);
+        Long2ObjectMap<List<Rating>> groups = new Long2ObjectOpenHashMap<>();
+        RatingBuilder rb = Rating.newBuilder();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            for (long pos = 0; pos < size; pos += 6 * 8) {
+                long key = in.readLong();
+                Rating r = rb.setId(in.readLong())
+                             .setUserId(in.readLong())
+                             .setItemId(in.readLong())
+                             .setRating(in.readDouble())
+                             .setTimestamp(in.readLong())
+                             .build();
+                List<Rating> group = groups.get(key);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.put(key, group);
+                }
+                group.add(r);
+            }
+        }
+        return groups;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            closer.close();
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private static void deleteDirectory(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file: files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.eval.crossfold;
+
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.io.ObjectStream;
+
+import java.io.IOException;
+
+/**
+ * A crossfold method that can also split its input in a single sequential pass, without loading
+ * it into memory.  Streaming methods assign entities or groups to partitions with
+ * {@link CrossfoldOutput#hashPartition(long)} instead of shuffling them.
+ */
+interface StreamingCrossfoldMethod extends CrossfoldMethod {
+    /**
+     * Query whether this method, as configured, can crossfold a stream.
+     *
+     * @return {@code true} if {@link #crossfoldStream(ObjectStream, CrossfoldOutput)} is supported.
+     */
+    boolean canStream();
+
+    /**
+     * Crossfold a stream of ratings into some outputs.
+     *
+     * @param input The input ratings.  The stream is consumed, but not closed.
+     * @param output The outputs.
+     * @throws IOException if there is an error reading or writing data.
+     */
+    void crossfoldStream(ObjectStream<Rating> input, CrossfoldOutput output) throws IOException;
+}
@@ -36,7 +36,9 @@ import org.lenskit.inject.GraphtUtils;
 import org.lenskit.inject.NodeInstantiator;
 import org.lenskit.inject.NodeProcessor;
 import org.lenskit.util.describe.*;
+import org.lenskit.util.io.BinaryObjectOutputStream;
 import org.lenskit.util.io.CustomClassLoaderObjectInputStream;
+import org.lenskit.util.io.ParallelGzipOutputStream;
 import org.lenskit.util.io.StagedWrite;
 import org.lenskit.util.parallel.Blockers;
 import org.slf4j.Logger;
@@ -55,7 +57,6 @@ import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Shared cache for components in merged compilations.  This cache implements two kinds of caching for shareable nodes:
@@ -294,8 +295,8 @@ class ComponentCache implements NodeProcessor {
             Files.createDirectories(cacheDir);
             try (StagedWrite stage = StagedWrite.begin(cacheFile)) {
                 try (OutputStream out = stage.openOutputStream();
-                     OutputStream gzOut = new GZIPOutputStream(out);
-                     ObjectOutputStream objOut = new ObjectOutputStream(gzOut)) {
+                     OutputStream gzOut = new ParallelGzipOutputStream(out);
+                     ObjectOutputStream objOut = new BinaryObjectOutputStream(gzOut)) {
                     objOut.writeObject(obj);
                 }
                 // now we commit, after closing the output files
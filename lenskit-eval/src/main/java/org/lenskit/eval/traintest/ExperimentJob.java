@@ -21,6 +21,7 @@
 package org.lenskit.eval.traintest;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import net.jcip.annotations.ThreadSafe;
 import org.grouplens.grapht.Component;
@@ -46,6 +47,7 @@ import org.lenskit.util.monitor.TrackedJob;
 import org.lenskit.util.parallel.Blockers;
 import org.lenskit.util.table.RowBuilder;
 import org.lenskit.util.table.writer.TableWriter;
+import org.lenskit.util.table.writer.TableWriters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.tukaani.xz.UnsupportedOptionsException;
@@ -58,10 +60,15 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -78,6 +85,10 @@ class ExperimentJob extends RecursiveAction {
     public static final String SETUP_JOB_TYPE = "tt-setup";
     public static final String TRAIN_JOB_TYPE = "tt-train";
     public static final String TEST_JOB_TYPE = "tt-test";
+    /**
+     * The number of user rows to buffer when writing user output asynchronously.
+     */
+    private static final int USER_ROW_QUEUE_SIZE = 1024;
 
     private final TrainTestExperiment experiment;
     private final AlgorithmInstance algorithm;
@@ -152,6 +163,8 @@ class ExperimentJob extends RecursiveAction {
         TrackedJob test = tracker.makeChild(TEST_JOB_TYPE);
 
         setup.start();
+        Stopwatch setupTimer = Stopwatch.createStarted();
+        boolean reuse = experiment.getReuseRecommenders();
         ExperimentOutputLayout layout = experiment.getOutputLayout();
         TableWriter globalOutput = layout.prefixTable(experiment.getGlobalOutput(),
                                                       dataSet, algorithm);
@@ -164,6 +177,7 @@ class ExperimentJob extends RecursiveAction {
 
         StaticDataSource rt = dataSet.getRuntimeData();
         DataAccessObject runtimeData = rt != null ? rt.get() : null;
+        setupTimer.stop();
         setup.finish();
 
         train.start();
@@ -228,17 +242,36 @@ class ExperimentJob extends RecursiveAction {
             userStream = users.stream();
         }
 
-        UserEvaluator eval = new UserEvaluator(test, userOutput, trainData, runtimeData, engine, accumulators, testData, progress, entityTypes);
+        RecommenderSupply recs = new RecommenderSupply(engine, trainData, runtimeData, reuse);
+        TableWriter userWriter = reuse ? TableWriters.async(userOutput, USER_ROW_QUEUE_SIZE) : userOutput;
+        UserEvaluator eval = new UserEvaluator(test, userWriter, trainData, recs, accumulators, testData, progress, entityTypes, !reuse);
+        Stopwatch outputTimer = Stopwatch.createUnstarted();
         try {
             userStream.forEach(eval);
+            if (reuse) {
+                outputTimer.start();
+                userWriter.close();
+                outputTimer.stop();
+            }
         } catch (Throwable th) {
+            if (reuse) {
+                // stop the writer thread and write out whatever rows were finished
+                try {
+                    userWriter.close();
+                } catch (Throwable e) {
+                    th.addSuppressed(e);
+                }
+            }
             outputRow.add("Succeeded", "N");
             try {
                 globalOutput.writeRow(outputRow.buildList());
             } catch (Throwable e) {
                 th.addSuppressed(e);
             }
-            throw th;
+            Throwables.throwIfUnchecked(th);
+            throw new EvaluationException("error writing user output", th);
+        } finally {
+            recs.close();
         }
 
         test.finish();
@@ -247,6 +280,17 @@ class ExperimentJob extends RecursiveAction {
         logger.info("Tested {} in {}", algorithm.getName(), testTimer);
         outputRow.add("TestTime", testTimer.elapsed(TimeUnit.MILLISECONDS) * 0.001);
         outputRow.add("Succeeded", "Y");
+        if (reuse) {
+            double instTime = recs.getInstantiateNanos() * 1.0e-9;
+            double measureTime = eval.getMeasureNanos() * 1.0e-9;
+            logger.info("{} on {}: setup {}, instantiation {}s, measurement {}s (all threads), output {}",
+                        algorithm.getName(), dataSet.getName(), setupTimer,
+                        String.format("%.3f", instTime), String.format("%.3f", measureTime), outputTimer);
+            outputRow.add("SetupTime", setupTimer.elapsed(TimeUnit.MILLISECONDS) * 0.001);
+            outputRow.add("InstantiateTime", instTime);
+            outputRow.add("MeasureTime", measureTime);
+            outputRow.add("OutputTime", outputTimer.elapsed(TimeUnit.MILLISECONDS) * 0.001);
+        }
         for (ConditionEvaluator ce : accumulators) {
             outputRow.addAll(ce.finish());
         }
@@ -273,13 +317,26 @@ class ExperimentJob extends RecursiveAction {
         return builder.build(train);
     }
 
-    private LenskitRecommender buildRecommender(LenskitRecommenderEngine engine,
-                                                @Nonnull DataAccessObject train,
-                                                @Nullable DataAccessObject runtime) throws RecommenderBuildException {
-        if (runtime == null) {
-            runtime = train;
+    /**
+     * Query whether a recommender graph can be used from several threads at once.  This is the
+     * case when every component is shareable or declared {@link ThreadSafe}.
+     *
+     * @param graph The recommender graph.
+     * @return {@code true} if a single recommender from the graph can serve all threads.
+     */
+    static boolean isThreadSafe(DAGNode<Component, Dependency> graph) {
+        Set<DAGNode<Component, Dependency>> placeholders = GraphtUtils.getPlaceholderNodes(graph);
+        for (DAGNode<Component, Dependency> node: graph.getReachableNodes()) {
+            if (node == graph || placeholders.contains(node) || GraphtUtils.isShareable(node)) {
+                continue;
+            }
+            Class<?> type = node.getLabel().getSatisfaction().getErasedType();
+            if (type.getAnnotation(ThreadSafe.class) == null) {
+                logger.debug("component {} is not thread-safe", type);
+                return false;
+            }
         }
-        return engine.createRecommender(runtime);
+        return true;
     }
 
     /**
@@ -334,33 +391,120 @@ class ExperimentJob extends RecursiveAction {
         }
     }
 
+    /**
+     * Supplies recommenders to the user evaluator.  Without reuse, every user gets a fresh
+     * recommender; with reuse, each thread keeps its own recommender (or all threads share one,
+     * if the recommender is thread-safe).
+     */
+    @ThreadSafe
+    private class RecommenderSupply implements AutoCloseable {
+        private final LenskitRecommenderEngine engine;
+        private final DataAccessObject runtimeData;
+        private final boolean reuse;
+        // per-thread recommenders, cleared on close so pool threads do not keep them reachable
+        private final ConcurrentMap<Thread, LenskitRecommender> threadRecommenders = new ConcurrentHashMap<>();
+        private final Queue<LenskitRecommender> created = new ConcurrentLinkedQueue<>();
+        private final LongAdder instantiateNanos = new LongAdder();
+        private volatile LenskitRecommender sharedRecommender;
+
+        RecommenderSupply(LenskitRecommenderEngine engine, @Nonnull DataAccessObject train,
+                          @Nullable DataAccessObject runtime, boolean reuse) {
+            this.engine = engine;
+            runtimeData = runtime != null ? runtime : train;
+            this.reuse = reuse;
+            if (reuse && isThreadSafe(engine.getGraph())) {
+                logger.info("all components of {} are thread-safe, sharing one recommender", algorithm);
+                sharedRecommender = create();
+            }
+        }
+
+        private LenskitRecommender create() {
+            long start = System.nanoTime();
+            LenskitRecommender rec = engine.createRecommender(runtimeData);
+            instantiateNanos.add(System.nanoTime() - start);
+            if (reuse) {
+                created.add(rec);
+            }
+            return rec;
+        }
+
+        /**
+         * Get a recommender for the current thread to use for one user.
+         */
+        LenskitRecommender acquire() {
+            if (!reuse) {
+                return create();
+            }
+            LenskitRecommender rec = sharedRecommender;
+            if (rec == null) {
+                // only this thread adds its own entry, so there is no race to create it
+                Thread thread = Thread.currentThread();
+                rec = threadRecommenders.get(thread);
+                if (rec == null) {
+                    rec = create();
+                    threadRecommenders.put(thread, rec);
+                }
+            }
+            return rec;
+        }
+
+        /**
+         * Finish using a recommender acquired with {@link #acquire()}.
+         */
+        void release(LenskitRecommender rec) {
+            if (!reuse) {
+                rec.close();
+            }
+        }
+
+        long getInstantiateNanos() {
+            return instantiateNanos.sum();
+        }
+
+        @Override
+        public void close() {
+            threadRecommenders.clear();
+            sharedRecommender = null;
+            LenskitRecommender rec;
+            while ((rec = created.poll()) != null) {
+                rec.close();
+            }
+        }
+    }
+
     @ThreadSafe
     private class UserEvaluator implements Consumer<Entity> {
         private TrackedJob test;
         private TableWriter userOutput;
         private DataAccessObject trainData;
-        private DataAccessObject runtimeData;
-        private LenskitRecommenderEngine engine;
+        private RecommenderSupply recommenders;
         private List<ConditionEvaluator> accumulators;
         private DataAccessObject testData;
         private ProgressLogger progress;
         private List<EntityType> entityTypes;
+        private boolean flushRows;
+        private final LongAdder measureNanos = new LongAdder();
 
-        public UserEvaluator(TrackedJob test, TableWriter userOutput, DataAccessObject trainData, DataAccessObject runtimeData, LenskitRecommenderEngine engine, List<ConditionEvaluator> accumulators, DataAccessObject testData, ProgressLogger progress, List<EntityType> entityTypes) {
+        public UserEvaluator(TrackedJob test, TableWriter userOutput, DataAccessObject trainData, RecommenderSupply recommenders, List<ConditionEvaluator> accumulators, DataAccessObject testData, ProgressLogger progress, List<EntityType> entityTypes, boolean flushRows) {
             this.test = test;
             this.userOutput = userOutput;
             this.trainData = trainData;
-            this.runtimeData = runtimeData;
-            this.engine = engine;
+            this.recommenders = recommenders;
             this.accumulators = accumulators;
             this.testData = testData;
             this.progress = progress;
             this.entityTypes = entityTypes;
+            this.flushRows = flushRows;
+        }
+
+        long getMeasureNanos() {
+            return measureNanos.sum();
         }
 
         @Override
         public void accept(Entity user) {
-            try (LenskitRecommender rec = buildRecommender(engine, trainData, runtimeData)) {
+            LenskitRecommender rec = recommenders.acquire();
+            try {
                 long uid = user.getId();
                 RowBuilder userRow = userOutput.getLayout().newRowBuilder();
                 userRow.add("User", uid);
@@ -391,11 +535,14 @@ class ExperimentJob extends RecursiveAction {
                     userRow.addAll(ures);
                 }
                 userTimer.stop();
+                measureNanos.add(userTimer.elapsed(TimeUnit.NANOSECONDS));
 
                 userRow.add("TestTime", userTimer.elapsed(TimeUnit.MILLISECONDS) * 0.001);
                 try {
                     userOutput.writeRow(userRow.buildList());
-                    userOutput.flush();
+                    if (flushRows) {
+                        userOutput.flush();
+                    }
                 } catch (IOException e) {
                     throw new EvaluationException("error writing user row", e);
                 }
@@ -403,6 +550,8 @@ class ExperimentJob extends RecursiveAction {
 
                 test.finishStep();
                 progress.advance();
+            } finally {
+                recommenders.release(rec);
             }
         }
     }
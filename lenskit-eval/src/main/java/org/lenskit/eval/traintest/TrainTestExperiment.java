@@ -93,6 +93,7 @@ public class TrainTestExperiment {
     private int threadCount = 0;
     private int parallelTasks = 0;
     private boolean continueAfterError = false;
+    private boolean reuseRecommenders = false;
     private ClassLoader classLoader = ClassLoaders.inferDefault(TrainTestExperiment.class);
 
     private List<AlgorithmInstance> algorithms = new ArrayList<>();
@@ -322,6 +323,30 @@ public class TrainTestExperiment {
         continueAfterError = c;
     }
 
+    /**
+     * Query whether evaluation threads reuse recommenders across test users.
+     * @return `true` if recommenders are reused.
+     * @see #setReuseRecommenders(boolean)
+     */
+    public boolean getReuseRecommenders() {
+        return reuseRecommenders;
+    }
+
+    /**
+     * Control whether evaluation threads reuse recommenders across test users.  By default, a fresh
+     * recommender is instantiated for each test user, so no state can leak between users.  When
+     * reuse is enabled, each evaluation thread instantiates one recommender and uses it for all the
+     * users it tests (or a single recommender is shared by all threads, if every component is
+     * shareable or thread-safe); per-user rows are written asynchronously in batches; and the
+     * global output gains per-phase timing columns ({@code SetupTime}, {@code InstantiateTime},
+     * {@code MeasureTime}, and {@code OutputTime}).
+     *
+     * @param reuse `true` to reuse recommenders within each evaluation thread.
+     */
+    public void setReuseRecommenders(boolean reuse) {
+        reuseRecommenders = reuse;
+    }
+
     /**
      * Get the class loader for this experiment.
      * @return The class loader that will be used.
@@ -482,6 +507,12 @@ public class TrainTestExperiment {
         tlb.addColumn("Succeeded")
            .addColumn("BuildTime")
            .addColumn("TestTime");
+        if (reuseRecommenders) {
+            tlb.addColumn("SetupTime")
+               .addColumn("InstantiateTime")
+               .addColumn("MeasureTime")
+               .addColumn("OutputTime");
+        }
         for (EvalTask task: tasks) {
             tlb.addColumns(task.getGlobalColumns());
         }
@@ -641,6 +672,7 @@ public class TrainTestExperiment {
             exp.setShareModelComponents(json.get("share_model_components").asBoolean());
         }
         exp.setContinueAfterError(json.path("continue_after_error").asBoolean(false));
+        exp.setReuseRecommenders(json.path("reuse_recommenders").asBoolean(false));
         if (!json.has("datasets")) {
             throw new IllegalArgumentException("no data sets specified");
         }
@@ -34,6 +34,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Simple evaluator that records user, rating and prediction counts and computes
@@ -69,7 +70,7 @@ public class CoveragePredictMetric extends PredictMetric<CoveragePredictMetric.C
     @Nonnull
     @Override
     public MetricResult getAggregateMeasurements(Context context) {
-        return new AggregateCoverage(context.nusers, context.npreds, context.ngood);
+        return new AggregateCoverage(context.nusers.intValue(), context.npreds.intValue(), context.ngood.intValue());
     }
 
     public static class Coverage extends TypedMetricResult {
@@ -104,14 +105,14 @@ public class CoveragePredictMetric extends PredictMetric<CoveragePredictMetric.C
     }
 
     public class Context {
-        private int npreds = 0;
-        private int ngood = 0;
-        private int nusers = 0;
+        private final LongAdder npreds = new LongAdder();
+        private final LongAdder ngood = new LongAdder();
+        private final LongAdder nusers = new LongAdder();
 
-        private synchronized void addUser(int np, int ng) {
-            npreds += np;
-            ngood += ng;
-            nusers += 1;
+        private void addUser(int np, int ng) {
+            npreds.add(np);
+            ngood.add(ng);
+            nusers.increment();
         }
     }
 }
@@ -35,6 +35,8 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Evaluate a recommender's prediction accuracy with MAE (Mean Absolute Error).
@@ -104,23 +106,24 @@ public class MAEPredictMetric extends PredictMetric<MAEPredictMetric.Context> {
     }
 
     public class Context {
-        private double totalError = 0;
-        private double totalMAE = 0;
-        private int nratings = 0;
-        private int nusers = 0;
+        private final DoubleAdder totalError = new DoubleAdder();
+        private final DoubleAdder totalMAE = new DoubleAdder();
+        private final LongAdder nratings = new LongAdder();
+        private final LongAdder nusers = new LongAdder();
 
-        private synchronized void addUser(int n, double err, double mae) {
-            totalError += err;
-            totalMAE += mae;
-            nratings += n;
-            nusers += 1;
+        private void addUser(int n, double err, double mae) {
+            totalError.add(err);
+            totalMAE.add(mae);
+            nratings.add(n);
+            nusers.increment();
         }
 
-        public synchronized MetricResult finish() {
-            if (nratings > 0) {
-                double v = totalError / nratings;
+        public MetricResult finish() {
+            long nr = nratings.sum();
+            if (nr > 0) {
+                double v = totalError.sum() / nr;
                 logger.info("RMSE: {}", v);
-                return new AggregateResult(totalMAE / nusers, v);
+                return new AggregateResult(totalMAE.sum() / nusers.sum(), v);
             } else {
                 return MetricResult.empty();
             }
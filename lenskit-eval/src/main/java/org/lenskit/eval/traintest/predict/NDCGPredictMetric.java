@@ -38,6 +38,7 @@ import org.lenskit.eval.traintest.metrics.Discount;
 import org.lenskit.eval.traintest.metrics.Discounts;
 import org.lenskit.eval.traintest.metrics.MetricResult;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.math.ConcurrentMeanAccumulator;
 import org.lenskit.util.math.MeanAccumulator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -105,7 +106,7 @@ public class NDCGPredictMetric extends PredictMetric<MeanAccumulator> {
     @Nullable
     @Override
     public MeanAccumulator createContext(AlgorithmInstance algorithm, DataSet dataSet, RecommenderEngine engine) {
-        return new MeanAccumulator();
+        return new ConcurrentMeanAccumulator();
     }
 
     @Nonnull
@@ -132,9 +133,7 @@ public class NDCGPredictMetric extends PredictMetric<MeanAccumulator> {
         double gain = computeDCG(actual, ratings);
         logger.debug("user {} has gain of {} (ideal {})", user.getUserId(), gain, idealGain);
         double score = gain / idealGain;
-        synchronized (context) {
-            context.add(score);
-        }
+        context.add(score);
         ImmutableMap.Builder<String,Double> results = ImmutableMap.builder();
         return MetricResult.fromMap(results.put(columnName, score)
                                            .put(columnName + ".Raw", gain)
@@ -35,6 +35,8 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
 import static java.lang.Math.sqrt;
 
@@ -108,23 +110,24 @@ public class RMSEPredictMetric extends PredictMetric<RMSEPredictMetric.Context>
     }
 
     public class Context {
-        private double totalSSE = 0;
-        private double totalRMSE = 0;
-        private int nratings = 0;
-        private int nusers = 0;
-
-        private synchronized void addUser(int n, double sse, double rmse) {
-            totalSSE += sse;
-            totalRMSE += rmse;
-            nratings += n;
-            nusers += 1;
+        private final DoubleAdder totalSSE = new DoubleAdder();
+        private final DoubleAdder totalRMSE = new DoubleAdder();
+        private final LongAdder nratings = new LongAdder();
+        private final LongAdder nusers = new LongAdder();
+
+        private void addUser(int n, double sse, double rmse) {
+            totalSSE.add(sse);
+            totalRMSE.add(rmse);
+            nratings.add(n);
+            nusers.increment();
         }
 
-        public synchronized MetricResult finish() {
-            if (nratings > 0) {
-                double v = sqrt(totalSSE / nratings);
+        public MetricResult finish() {
+            long nr = nratings.sum();
+            if (nr > 0) {
+                double v = sqrt(totalSSE.sum() / nr);
                 logger.info("RMSE: {}", v);
-                return new AggregateResult(totalRMSE / nusers, v);
+                return new AggregateResult(totalRMSE.sum() / nusers.sum(), v);
             } else {
                 return MetricResult.empty();
             }
@@ -35,6 +35,8 @@ import org.lenskit.eval.traintest.metrics.TypedMetricResult;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Metric that measures the entropy of the top N recommendations across all users.
@@ -87,21 +89,42 @@ public class TopNEntropyMetric extends ListOnlyTopNMetric<TopNEntropyMetric.Cont
         }
     }
 
+    /**
+     * Entropy context.  Each thread counts recommendations into its own partial counts, which are
+     * merged when the entropy is computed, so measuring users does not contend on a lock.
+     */
     public static class Context {
-        private Long2IntMap counts = new Long2IntOpenHashMap();
-        private int recCount = 0;
+        private final Queue<Counts> partials = new ConcurrentLinkedQueue<>();
+        private final ThreadLocal<Counts> localCounts = ThreadLocal.withInitial(() -> {
+            Counts c = new Counts();
+            partials.add(c);
+            return c;
+        });
 
-        private synchronized void addUser(LongList recs) {
+        private void addUser(LongList recs) {
+            Counts local = localCounts.get();
             LongIterator iter = recs.iterator();
             while (iter.hasNext()) {
-                long item = iter.nextLong();
-                counts.put(item, counts.get(item) +1);
-                recCount +=1;
+                local.counts.addTo(iter.nextLong(), 1);
+                local.recCount += 1;
             }
         }
 
+        /**
+         * Compute the entropy.  This must only be called once all users have been measured.
+         * @return The entropy result, or `null` if there were no recommendations.
+         */
         @Nullable
-        public synchronized EntropyResult finish() {
+        public EntropyResult finish() {
+            Long2IntOpenHashMap counts = new Long2IntOpenHashMap();
+            long recCount = 0;
+            for (Counts part: partials) {
+                for (Long2IntMap.Entry e : part.counts.long2IntEntrySet()) {
+                    counts.addTo(e.getLongKey(), e.getIntValue());
+                }
+                recCount += part.recCount;
+            }
+
             if (recCount > 0) {
                 double entropy = 0;
                 for (Long2IntMap.Entry e : counts.long2IntEntrySet()) {
@@ -114,4 +137,9 @@ public class TopNEntropyMetric extends ListOnlyTopNMetric<TopNEntropyMetric.Cont
             }
         }
     }
+
+    private static class Counts {
+        private final Long2IntOpenHashMap counts = new Long2IntOpenHashMap();
+        private long recCount = 0;
+    }
 }
@@ -21,6 +21,7 @@
 package org.lenskit.eval.traintest.recommend;
 
 import it.unimi.dsi.fastutil.longs.LongList;
+import org.lenskit.util.math.ConcurrentMeanAccumulator;
 import org.lenskit.util.math.MeanAccumulator;
 import org.lenskit.api.Recommender;
 import org.lenskit.api.RecommenderEngine;
@@ -51,16 +52,14 @@ public class TopNLengthMetric extends ListOnlyTopNMetric<MeanAccumulator> {
     @Override
     public MetricResult measureUser(Recommender rec, TestUser user, int targetLength, LongList recommendations, MeanAccumulator context) {
         int n = recommendations.size();
-        synchronized (context) {
-            context.add(n);
-        }
+        context.add(n);
         return new LengthResult(n);
     }
 
     @Nullable
     @Override
     public MeanAccumulator createContext(AlgorithmInstance algorithm, DataSet dataSet, RecommenderEngine engine) {
-        return new MeanAccumulator();
+        return new ConcurrentMeanAccumulator();
     }
 
     @Nonnull
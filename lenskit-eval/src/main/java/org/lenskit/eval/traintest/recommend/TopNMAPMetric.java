@@ -25,7 +25,7 @@ import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.apache.commons.lang3.StringUtils;
-import org.lenskit.util.math.MeanAccumulator;
+import org.lenskit.util.math.ConcurrentMeanAccumulator;
 import org.lenskit.api.Recommender;
 import org.lenskit.api.RecommenderEngine;
 import org.lenskit.eval.traintest.AlgorithmInstance;
@@ -160,14 +160,14 @@ public class TopNMAPMetric extends ListOnlyTopNMetric<TopNMAPMetric.Context> {
     public static class Context {
         private final LongSet universe;
         private final RecommenderEngine recommenderEngine;
-        private final MeanAccumulator allMean = new MeanAccumulator();
+        private final ConcurrentMeanAccumulator allMean = new ConcurrentMeanAccumulator();
 
         Context(LongSet universe, RecommenderEngine engine) {
             this.universe = universe;
             recommenderEngine = engine;
         }
 
-        synchronized void addUser(UserResult ur) {
+        void addUser(UserResult ur) {
             allMean.add(ur.avgPrecision);
         }
     }
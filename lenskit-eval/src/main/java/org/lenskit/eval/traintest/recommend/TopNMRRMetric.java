@@ -25,7 +25,7 @@ import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.apache.commons.lang3.StringUtils;
-import org.lenskit.util.math.MeanAccumulator;
+import org.lenskit.util.math.ConcurrentMeanAccumulator;
 import org.lenskit.api.Recommender;
 import org.lenskit.api.RecommenderEngine;
 import org.lenskit.eval.traintest.AlgorithmInstance;
@@ -151,13 +151,13 @@ public class TopNMRRMetric extends ListOnlyTopNMetric<TopNMRRMetric.Context> {
 
     public static class Context {
         private final LongSet universe;
-        private final MeanAccumulator allMean = new MeanAccumulator();
+        private final ConcurrentMeanAccumulator allMean = new ConcurrentMeanAccumulator();
 
         Context(LongSet universe) {
             this.universe = universe;
         }
 
-        synchronized void addUser(UserResult ur) {
+        void addUser(UserResult ur) {
             allMean.add(ur.getRecipRank());
         }
     }
@@ -33,6 +33,7 @@ import org.lenskit.eval.traintest.metrics.Discount;
 import org.lenskit.eval.traintest.metrics.Discounts;
 import org.lenskit.eval.traintest.metrics.MetricResult;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.math.ConcurrentMeanAccumulator;
 import org.lenskit.util.math.MeanAccumulator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -92,7 +93,7 @@ public class TopNNDCGMetric extends ListOnlyTopNMetric<MeanAccumulator> {
     @Nullable
     @Override
     public MeanAccumulator createContext(AlgorithmInstance algorithm, DataSet dataSet, RecommenderEngine engine) {
-        return new MeanAccumulator();
+        return new ConcurrentMeanAccumulator();
     }
 
     @Nonnull
@@ -121,9 +122,7 @@ public class TopNNDCGMetric extends ListOnlyTopNMetric<MeanAccumulator> {
 
         double score = gain / idealGain;
 
-        synchronized (context) {
-            context.add(score);
-        }
+        context.add(score);
         return MetricResult.singleton(columnName, score);
     }
 
@@ -26,6 +26,7 @@ import it.unimi.dsi.fastutil.longs.Long2DoubleFunction;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.LongList;
 import org.apache.commons.lang3.StringUtils;
+import org.lenskit.util.math.ConcurrentMeanAccumulator;
 import org.lenskit.util.math.MeanAccumulator;
 import org.lenskit.api.Recommender;
 import org.lenskit.api.RecommenderEngine;
@@ -66,7 +67,7 @@ public class TopNNDPMMetric extends ListOnlyTopNMetric<MeanAccumulator> {
     @Nullable
     @Override
     public MeanAccumulator createContext(AlgorithmInstance algorithm, DataSet dataSet, RecommenderEngine engine) {
-        return new MeanAccumulator();
+        return new ConcurrentMeanAccumulator();
     }
 
     @Nonnull
@@ -92,9 +93,7 @@ public class TopNNDPMMetric extends ListOnlyTopNMetric<MeanAccumulator> {
 
         double nDPM = dpm / normalizingFactor; // Normalized nDPM
 
-        synchronized (context) {
-            context.add(nDPM);
-        }
+        context.add(nDPM);
 
         return MetricResult.singleton(DEFAULT_COLUMN, nDPM);
     }
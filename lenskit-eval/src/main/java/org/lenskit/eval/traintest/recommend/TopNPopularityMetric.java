@@ -22,7 +22,7 @@ package org.lenskit.eval.traintest.recommend;
 
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongList;
-import org.lenskit.util.math.MeanAccumulator;
+import org.lenskit.util.math.ConcurrentMeanAccumulator;
 import org.lenskit.LenskitRecommender;
 import org.lenskit.api.Recommender;
 import org.lenskit.api.RecommenderEngine;
@@ -98,12 +98,12 @@ public class TopNPopularityMetric extends ListOnlyTopNMetric<TopNPopularityMetri
     }
     
     public class Context {
-        final MeanAccumulator mean = new MeanAccumulator();
+        final ConcurrentMeanAccumulator mean = new ConcurrentMeanAccumulator();
 
         public Context() {
         }
 
-        private synchronized void addUser(double pop) {
+        private void addUser(double pop) {
             mean.add(pop);
         }
     }
@@ -37,6 +37,8 @@ import org.lenskit.util.math.Scalars;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A metric to compute the precision and recall of a recommender given a 
@@ -150,24 +152,25 @@ public class TopNPrecisionRecallMetric extends ListOnlyTopNMetric<TopNPrecisionR
 
     public static class Context {
         final LongSet universe;
-        double totalPrecision = 0;
-        double totalRecall = 0;
-        int nusers = 0;
+        final DoubleAdder totalPrecision = new DoubleAdder();
+        final DoubleAdder totalRecall = new DoubleAdder();
+        final LongAdder nusers = new LongAdder();
 
         public Context(LongSet items) {
             universe = items;
         }
 
-        private synchronized void addUser(double prec, double rec) {
-            totalPrecision += prec;
-            totalRecall += rec;
-            nusers += 1;
+        private void addUser(double prec, double rec) {
+            totalPrecision.add(prec);
+            totalRecall.add(rec);
+            nusers.increment();
         }
 
         @Nullable
         public PresRecResult finish() {
-            if (nusers > 0) {
-                return new PresRecResult(totalPrecision / nusers, totalRecall / nusers);
+            long n = nusers.sum();
+            if (n > 0) {
+                return new PresRecResult(totalPrecision.sum() / n, totalRecall.sum() / n);
             } else {
                 return null;
             }
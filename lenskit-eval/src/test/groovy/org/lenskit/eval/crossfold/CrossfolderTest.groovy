@@ -343,4 +343,96 @@ class CrossfolderTest {
         }
         assertThat(allUsers, hasSize(100))
     }
+
+    @Test
+    public void testStreamingUserPartition() {
+        cf.streaming = true
+        cf.hashSeed = 42
+        cf.spillBucketCount = 3
+        cf.execute()
+        def dss = cf.dataSets
+        assertThat(dss, hasSize(5))
+        def allUsers = new LongOpenHashSet()
+        for (ds in dss) {
+            def users = ds.testData.get().getEntityIds(CommonTypes.USER)
+            // no user is tested twice
+            assertThat(allUsers.intersect(users), empty())
+            allUsers += users
+            // train data should have all users
+            assertThat(ds.trainingData.get().getEntityIds(CommonTypes.USER), hasSize(100))
+            // each test user should have 10 ratings
+            def dao = ds.testData.get()
+            for (user in users) {
+                assertThat(dao.query(CommonTypes.RATING)
+                              .withAttribute(CommonAttributes.USER_ID, user)
+                              .get(),
+                           hasSize(10))
+            }
+            def nTrain = ds.trainingData.get().query(Rating.class).get().size()
+            def nTest = dao.query(Rating.class).get().size()
+            assertThat(nTrain + nTest, equalTo(ratings.size()))
+        }
+        assertThat(allUsers, hasSize(100))
+        assertThat(Files.exists(tmp.root.toPath().resolve("items.txt")),
+                   equalTo(true));
+        // the spill files are cleaned up
+        assertThat(tmp.root.list().findAll { it.startsWith(".spill") }, empty())
+
+        // the same seed gives the same split
+        def cf2 = new Crossfolder()
+        cf2.source = cf.source
+        cf2.outputDir = tmp.newFolder("again")
+        cf2.streaming = true
+        cf2.hashSeed = 42
+        cf2.execute()
+        for (i in 0..<5) {
+            assertThat(cf2.dataSets[i].testData.get().getEntityIds(CommonTypes.USER),
+                       equalTo(dss[i].testData.get().getEntityIds(CommonTypes.USER)))
+        }
+    }
+
+    @Test
+    public void testSpillBucketCount() {
+        // the in-memory source has no size, so it gets the default
+        assertThat(cf.spillBucketCount, equalTo(0))
+        assertThat(cf.resolveSpillBucketCount(), equalTo(Crossfolder.DEFAULT_SPILL_BUCKETS))
+        cf.spillBucketCount = 7
+        assertThat(cf.resolveSpillBucketCount(), equalTo(7))
+
+        assertThat(Crossfolder.spillBucketsForSize(0), equalTo(Crossfolder.DEFAULT_SPILL_BUCKETS))
+        assertThat(Crossfolder.spillBucketsForSize(100 * Crossfolder.SPILL_BUCKET_INPUT_SIZE + 1),
+                   equalTo(101))
+        assertThat(Crossfolder.spillBucketsForSize(Long.MAX_VALUE.intdiv(2)), equalTo(Crossfolder.MAX_SPILL_BUCKETS))
+    }
+
+    @Test
+    public void testStreamingPartitionRatings() {
+        cf.method = CrossfoldMethods.partitionEntities()
+        cf.streaming = true
+        cf.execute()
+        def dss = cf.dataSets
+        assertThat(dss, hasSize(5))
+        def allEvents = new HashSet<Rating>();
+        for (ds in dss) {
+            def events = ds.testData.get().query(Rating.class).get()
+            allEvents += events;
+            def tes = ds.trainingData.get().query(Rating.class).get()
+            assertThat(tes.size() + events.size(), equalTo(ratings.size()))
+        }
+        assertThat(allEvents, hasSize(ratings.size()))
+    }
+
+    @Test
+    public void testStreamingSampleFallsBack() {
+        cf.method = CrossfoldMethods.sampleUsers(SortOrder.RANDOM, HistoryPartitions.holdout(5), 5);
+        cf.streaming = true
+        cf.execute()
+        def allUsers = new LongOpenHashSet()
+        for (ds in cf.dataSets) {
+            def users = ds.testData.get().getEntityIds(CommonTypes.USER)
+            allUsers += users
+            assertThat(users, hasSize(5))
+        }
+        assertThat(allUsers, hasSize(25))
+    }
 }
@@ -104,6 +104,27 @@ class TrainTestExperimentTest {
         assertThat(result.column("Succeeded"), everyItem(equalTo('Y')))
     }
 
+    @Test
+    void testRunReusingRecommenders() {
+        List<DataSet> sets = crossfoldRatings()
+        experiment.addAlgorithm("Baseline") {
+            bind ItemScorer to ItemMeanRatingItemScorer
+        }
+        experiment.addDataSets(sets)
+        experiment.reuseRecommenders = true
+        experiment.userOutputFile = folder.root.toPath().resolve("users.csv")
+        def predT = new PredictEvalTask()
+        experiment.addTask(predT)
+        def result = experiment.execute()
+        assertThat(result, notNullValue())
+        assertThat(result, hasSize(2))
+        assertThat(result.column("Succeeded"), everyItem(equalTo('Y')))
+        assertThat(result.column("InstantiateTime"), everyItem(notNullValue()))
+        assertThat(result.column("OutputTime"), everyItem(notNullValue()))
+        // one header line, and one line per test user in each partition
+        assertThat(folder.root.toPath().resolve("users.csv").readLines(), hasSize(5))
+    }
+
     private List<DataSet> crossfoldRatings() {
         def cf = new Crossfolder()
         cf.source = StaticDataSource.csvRatingFile(file.toPath())
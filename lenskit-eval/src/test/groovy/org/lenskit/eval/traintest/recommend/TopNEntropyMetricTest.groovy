@@ -21,11 +21,13 @@
 package org.lenskit.eval.traintest.recommend
 
 import groovy.json.JsonBuilder
+import it.unimi.dsi.fastutil.longs.LongArrayList
 import org.grouplens.grapht.util.ClassLoaders
 import org.junit.Test
+import org.lenskit.eval.traintest.TestUser
 import org.lenskit.eval.traintest.metrics.MetricLoaderHelper
 
-import static org.hamcrest.Matchers.instanceOf
+import static org.hamcrest.Matchers.*
 import static org.junit.Assert.assertThat
 
 class TopNEntropyMetricTest {
@@ -39,4 +41,33 @@ class TopNEntropyMetricTest {
         def metric = mlh.createMetric(TopNMetric, jsb.toString())
         assertThat(metric, instanceOf(TopNEntropyMetric))
     }
+
+    @Test
+    public void testEvenCounts() {
+        def metric = new TopNEntropyMetric()
+        def context = metric.createContext(null, null, null)
+        def user = TestUser.newBuilder().setUserId(42).build()
+        metric.measureUser(null, user, -1, LongArrayList.wrap([1, 2] as long[]), context)
+        metric.measureUser(null, user, -1, LongArrayList.wrap([3, 4] as long[]), context)
+        def result = metric.getAggregateMeasurements(context)
+        assertThat(result.values['TopN.Entropy'], closeTo(2.0d, 1.0e-6d))
+    }
+
+    @Test
+    public void testParallelUsers() {
+        def metric = new TopNEntropyMetric()
+        def context = metric.createContext(null, null, null)
+        def user = TestUser.newBuilder().setUserId(42).build()
+        def threads = (0..<4).collect { t ->
+            Thread.start {
+                100.times {
+                    metric.measureUser(null, user, -1, LongArrayList.wrap([2 * t, 2 * t + 1] as long[]), context)
+                }
+            }
+        }
+        threads*.join()
+        def result = metric.getAggregateMeasurements(context)
+        // 8 items, each recommended equally often
+        assertThat(result.values['TopN.Entropy'], closeTo(3.0d, 1.0e-6d))
+    }
 }
@@ -72,6 +72,11 @@ class TrainTest extends LenskitTask implements GradleUtils {
      */
     def boolean continueAfterError = false
 
+    /**
+     * Configure whether evaluation threads reuse one recommender across test users.
+     */
+    def boolean reuseRecommenders = false
+
     private Map<String,Object> algorithms = new HashMap<>()
     private List<Callable> dataSets = []
     private List<EvalTaskConfig> evalTasks = []
@@ -224,7 +229,8 @@ class TrainTest extends LenskitTask implements GradleUtils {
                     thread_count          : getThreadCount(),
                     parallel_tasks        : getParallelTasks(),
                     share_model_components: getShareModelComponents(),
-                    continue_after_error  : getContinueAfterError()]
+                    continue_after_error  : getContinueAfterError(),
+                    reuse_recommenders    : getReuseRecommenders()]
         json.datasets = dataSets.collect {it.call()}
         json.algorithms = algorithms.collectEntries {k, v ->
             [k, makeUrl(v, getSpecFile())]
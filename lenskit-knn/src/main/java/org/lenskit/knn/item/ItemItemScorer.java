@@ -22,26 +22,33 @@ package org.lenskit.knn.item;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongIterators;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
 import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.knn.MinNeighbors;
 import org.lenskit.knn.NeighborhoodSize;
 import org.lenskit.knn.item.model.ItemItemModel;
+import org.lenskit.knn.item.model.PackedSimilarityMatrixModel;
 import org.lenskit.results.Results;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
 import org.lenskit.util.InvertibleFunction;
 import org.lenskit.util.collections.Long2DoubleAccumulator;
+import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
 import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.LongSortedArraySet;
+import org.lenskit.util.keys.SortedKeyIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -52,6 +59,10 @@ import java.util.Map;
  */
 public class ItemItemScorer extends AbstractItemScorer {
     private static final Logger logger = LoggerFactory.getLogger(ItemItemScorer.class);
+    /**
+     * The number of items whose neighbor rows are shared by all users in a batch.
+     */
+    private static final int ITEM_BLOCK_SIZE = 64;
     protected final ItemItemModel model;
 
     private final RatingVectorPDAO rvDAO;
@@ -61,6 +72,11 @@ public class ItemItemScorer extends AbstractItemScorer {
     protected final NeighborhoodScorer scorer;
     private final int neighborhoodSize;
     private final int minNeighbors;
+    /**
+     * Per-item neighbor counts for inverted scoring, one array per thread.  Entries are reset to 0
+     * after each use, so only the items a user actually touches are ever cleared.
+     */
+    private final ThreadLocal<int[]> countScratch = new ThreadLocal<>();
 
     /**
      * Construct a new item-item scorer.
@@ -118,6 +134,92 @@ public class ItemItemScorer extends AbstractItemScorer {
         return Results.newResultMap(results);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation normalizes each user's ratings once and then walks the model in blocks
+     * of items, looking up each item's neighbor row a single time and scoring it for every user in
+     * the batch before moving on to the next block.</p>
+     */
+    @Nonnull
+    @Override
+    public Map<Long, ResultMap> scoreBatch(@Nonnull List<Long> users, @Nonnull Collection<Long> items) {
+        logger.debug("scoring {} items for batch of {} users", items.size(), users.size());
+        final int nusers = users.size();
+        BatchUser[] states = new BatchUser[nusers];
+        int maxUserItems = 0;
+        for (int u = 0; u < nusers; u++) {
+            BatchUser state = new BatchUser(users.get(u), items.size());
+            maxUserItems = Math.max(maxUserItems, state.items.size());
+            states[u] = state;
+        }
+
+        long[] itemIds = LongUtils.packedSet(items).toLongArray();
+        if (model instanceof PackedSimilarityMatrixModel) {
+            PackedSimilarityMatrixModel packed = (PackedSimilarityMatrixModel) model;
+            int cap = Math.min(packed.getMaxNeighborCount(), maxUserItems);
+            long[] nbrItems = new long[cap];
+            double[] nbrSims = new double[cap];
+            for (int start = 0; start < itemIds.length; start += ITEM_BLOCK_SIZE) {
+                int end = Math.min(start + ITEM_BLOCK_SIZE, itemIds.length);
+                for (BatchUser state: states) {
+                    for (int i = start; i < end; i++) {
+                        long item = itemIds[i];
+                        int n = packed.findNeighbors(item, state.items, nbrItems, nbrSims);
+                        Long2DoubleMap neighborhood =
+                                Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(nbrItems, n), nbrSims);
+                        scoreNeighborhood(state.scores, item, neighborhood,
+                                          packed.getNeighborCount(item), state.accum);
+                    }
+                }
+            }
+        } else {
+            Long2DoubleSortedArrayMap[] rows = new Long2DoubleSortedArrayMap[ITEM_BLOCK_SIZE];
+            for (int start = 0; start < itemIds.length; start += ITEM_BLOCK_SIZE) {
+                int end = Math.min(start + ITEM_BLOCK_SIZE, itemIds.length);
+                for (int i = start; i < end; i++) {
+                    rows[i - start] = Long2DoubleSortedArrayMap.create(model.getNeighbors(itemIds[i]));
+                }
+                for (BatchUser state: states) {
+                    for (int i = start; i < end; i++) {
+                        Long2DoubleSortedArrayMap row = rows[i - start];
+                        scoreNeighborhood(state.scores, itemIds[i], row.subMap(state.items),
+                                          row.size(), state.accum);
+                    }
+                }
+            }
+        }
+
+        Map<Long, ResultMap> results = new Long2ObjectLinkedOpenHashMap<>(nusers);
+        for (BatchUser state: states) {
+            state.accum.applyReversedTransform(state.transform);
+            results.put(state.user, Results.newResultMap(state.results));
+        }
+        return results;
+    }
+
+    /**
+     * Per-user state for batch scoring.
+     */
+    private class BatchUser {
+        final long user;
+        final InvertibleFunction<Long2DoubleMap, Long2DoubleMap> transform;
+        final Long2DoubleMap scores;
+        final LongSortedArraySet items;
+        final List<ItemItemResult> results;
+        final ItemItemScoreAccumulator accum;
+
+        BatchUser(long user, int nitems) {
+            this.user = user;
+            Long2DoubleMap ratings = Long2DoubleSortedArrayMap.create(rvDAO.userRatingVector(user));
+            transform = normalizer.makeTransformation(user, ratings);
+            scores = transform.apply(ratings);
+            items = LongUtils.packedSet(scores.keySet());
+            results = new ArrayList<>(nitems);
+            accum = ItemItemScoreAccumulator.detailed(results);
+        }
+    }
+
     /**
      * Score all items into an accumulator.
      * @param user The user.
@@ -132,20 +234,180 @@ public class ItemItemScorer extends AbstractItemScorer {
         Long2DoubleMap itemScores = transform.apply(ratings);
 
         LongIterator iter = LongIterators.asLongIterator(items.iterator());
-        while (iter.hasNext()) {
-            final long item = iter.nextLong();
-            scoreItem(itemScores, item, accum);
+        if (model instanceof PackedSimilarityMatrixModel) {
+            PackedSimilarityMatrixModel packed = (PackedSimilarityMatrixModel) model;
+            LongSortedArraySet userItems = LongUtils.packedSet(itemScores.keySet());
+            if (useInvertedScoring(packed, userItems, items.size())) {
+                scoreInvertedItems(itemScores, userItems, LongUtils.asLongSet(items), packed, accum);
+            } else {
+                scorePackedItems(itemScores, userItems, iter, packed, accum);
+            }
+        } else {
+            while (iter.hasNext()) {
+                final long item = iter.nextLong();
+                scoreItem(itemScores, item, accum);
+            }
         }
 
         accum.applyReversedTransform(transform);
     }
 
+    /**
+     * Score items with a packed model, intersecting each row with the user's items in
+     * buffers that are shared by all items.
+     */
+    private void scorePackedItems(Long2DoubleMap userData, LongSortedArraySet userItems, LongIterator items,
+                                  PackedSimilarityMatrixModel packed, ItemItemScoreAccumulator accum) {
+        int cap = Math.min(packed.getMaxNeighborCount(), userItems.size());
+        long[] nbrItems = new long[cap];
+        double[] nbrSims = new double[cap];
+        while (items.hasNext()) {
+            final long item = items.nextLong();
+            int n = packed.findNeighbors(item, userItems, nbrItems, nbrSims);
+            Long2DoubleMap neighborhood =
+                    Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(nbrItems, n), nbrSims);
+            scoreNeighborhood(userData, item, neighborhood, packed.getNeighborCount(item), accum);
+        }
+    }
+
+    /**
+     * Decide whether to score by walking the columns of the user's items instead of the rows of the
+     * items to score.  Only items with at least one rated neighbor are reached that way, so it cannot
+     * be used when {@link MinNeighbors} allows empty neighborhoods.
+     *
+     * <p>The choice is made from the size of the row-oriented matrix, so it does not need the model's
+     * column index; that is only built once a user actually takes the inverted path.</p>
+     *
+     * @param packed The model.
+     * @param userItems The user's items.
+     * @param nitems The number of items to score.
+     * @return {@code true} if the user's columns are expected to hold fewer entries than scoring each
+     * item by its row would examine.
+     */
+    boolean useInvertedScoring(PackedSimilarityMatrixModel packed, LongSortedArraySet userItems,
+                               int nitems) {
+        if (minNeighbors <= 0 || userItems.isEmpty() || packed.getItemDomain().size() == 0) {
+            return false;
+        }
+        // a column has as many entries as a row, on average
+        double meanColumn = (double) packed.getSimilarityCount() / packed.getItemDomain().size();
+        double columnWork = userItems.size() * meanColumn;
+        long rowWork = (long) nitems * Math.min(packed.getMaxNeighborCount(), userItems.size());
+        return columnWork < rowWork;
+    }
+
+    /**
+     * Score items by inverting the neighborhood search: read the column of each item the user has
+     * rated, group the entries by the item whose row they came from, and score only those items.
+     * Each group is exactly that item's row restricted to the user's items, in item order, so the
+     * results are the same as {@link #scorePackedItems(Long2DoubleMap, LongSortedArraySet, LongIterator,
+     * PackedSimilarityMatrixModel, ItemItemScoreAccumulator)}; but the work depends on the user's
+     * history rather than on the number of items to score.
+     */
+    private void scoreInvertedItems(Long2DoubleMap userData, LongSortedArraySet userItems, LongSet items,
+                                    PackedSimilarityMatrixModel packed, ItemItemScoreAccumulator accum) {
+        SortedKeyIndex domain = packed.getItemDomain();
+        SortedKeyIndex uks = userItems.getIndex();
+        final int ulb = uks.getLowerBound();
+        final int nuser = uks.getUpperBound() - ulb;
+
+        // read the user's columns
+        int[] colStarts = new int[nuser + 1];
+        for (int u = 0; u < nuser; u++) {
+            colStarts[u + 1] = colStarts[u] + packed.getReverseNeighborCount(uks.getKey(ulb + u));
+        }
+        final int nentries = colStarts[nuser];
+        int[] rows = new int[nentries];
+        double[] sims = new double[nentries];
+        for (int u = 0; u < nuser; u++) {
+            packed.findReverseNeighbors(uks.getKey(ulb + u), rows, sims, colStarts[u]);
+        }
+
+        int[] counts = countScratch.get();
+        if (counts == null || counts.length < domain.size()) {
+            counts = new int[domain.size()];
+            countScratch.set(counts);
+        }
+        int[] candidates = new int[Math.min(nentries, domain.size())];
+        int ncands = 0;
+        try {
+            // count each candidate's neighbors
+            for (int k = 0; k < nentries; k++) {
+                if (counts[rows[k]]++ == 0) {
+                    candidates[ncands++] = rows[k];
+                }
+            }
+            Arrays.sort(candidates, 0, ncands);
+
+            // prune candidates, and turn the counts of the rest into write positions
+            int[] kept = new int[ncands];
+            int[] starts = new int[ncands + 1];
+            int nkept = 0;
+            int size = 0;
+            for (int c = 0; c < ncands; c++) {
+                int row = candidates[c];
+                if (counts[row] >= minNeighbors && items.contains(domain.getKey(row))) {
+                    kept[nkept] = row;
+                    starts[nkept] = size;
+                    size += counts[row];
+                    counts[row] = starts[nkept];
+                    nkept++;
+                } else {
+                    counts[row] = -1;
+                }
+            }
+            starts[nkept] = size;
+            logger.trace("scoring {} of {} candidate items from {} column entries", nkept, ncands, nentries);
+
+            // group the entries by candidate; columns are read in item order, so each group is sorted
+            long[] nbrItems = new long[size];
+            double[] nbrSims = new double[size];
+            for (int u = 0; u < nuser; u++) {
+                long nbr = uks.getKey(ulb + u);
+                for (int k = colStarts[u]; k < colStarts[u + 1]; k++) {
+                    int pos = counts[rows[k]];
+                    if (pos >= 0) {
+                        nbrItems[pos] = nbr;
+                        nbrSims[pos] = sims[k];
+                        counts[rows[k]] = pos + 1;
+                    }
+                }
+            }
+
+            for (int c = 0; c < nkept; c++) {
+                long item = domain.getKey(kept[c]);
+                Long2DoubleMap neighborhood =
+                        Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(nbrItems, starts[c], starts[c + 1]),
+                                                       nbrSims);
+                scoreNeighborhood(userData, item, neighborhood, packed.getNeighborCount(item), accum);
+            }
+        } finally {
+            // leave the scratch array clean for the next user
+            for (int c = 0; c < ncands; c++) {
+                counts[candidates[c]] = 0;
+            }
+        }
+    }
+
     protected void scoreItem(Long2DoubleMap userData, long item, ItemItemScoreAccumulator accum) {
         // find the usable neighbors
         Long2DoubleSortedArrayMap allNeighbors = Long2DoubleSortedArrayMap.create(model.getNeighbors(item));
         Long2DoubleMap neighborhood = allNeighbors.subMap(userData.keySet());
+        scoreNeighborhood(userData, item, neighborhood, allNeighbors.size(), accum);
+    }
 
-        if (neighborhoodSize > 0) {
+    /**
+     * Truncate a neighborhood and score an item with it.
+     *
+     * @param userData The user's normalized scores.
+     * @param item The item to score.
+     * @param neighborhood The item's neighbors that the user has scored.
+     * @param totalNeighbors The total number of neighbors the item has (for logging).
+     * @param accum The accumulator.
+     */
+    private void scoreNeighborhood(Long2DoubleMap userData, long item, Long2DoubleMap neighborhood,
+                                   int totalNeighbors, ItemItemScoreAccumulator accum) {
+        if (neighborhoodSize > 0 && neighborhood.size() > neighborhoodSize) {
             if (logger.isTraceEnabled()) {
                 logger.trace("truncating {} neighbors to {}", neighborhood.size(), neighborhoodSize);
             }
@@ -162,7 +424,7 @@ public class ItemItemScorer extends AbstractItemScorer {
         }
         if (logger.isTraceEnabled()) {
             logger.trace("scoring item {} with {} of {} neighbors",
-                         item, neighborhood.size(), allNeighbors.size());
+                         item, neighborhood.size(), totalNeighbors);
         }
         scorer.score(item, neighborhood, userData, accum);
     }
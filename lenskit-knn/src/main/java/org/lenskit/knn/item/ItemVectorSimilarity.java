@@ -45,6 +45,14 @@ public class ItemVectorSimilarity implements ItemSimilarity, Serializable, Maybe
         delegate = sim;
     }
 
+    /**
+     * Get the vector similarity this item similarity uses.
+     * @return The underlying vector similarity.
+     */
+    public VectorSimilarity getVectorSimilarity() {
+        return delegate;
+    }
+
     @Override
     public double similarity(long i1, Long2DoubleMap v1, long i2, Long2DoubleMap v2) {
         return delegate.similarity(v1, v2);
@@ -29,10 +29,13 @@ import jdk.nashorn.internal.ir.annotations.Immutable;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
 import org.lenskit.inject.Transient;
+import org.lenskit.similarity.PreparedVector;
+import org.lenskit.similarity.VectorSimilarity;
 import org.lenskit.util.keys.SortedKeyIndex;
 
 import javax.annotation.Nonnull;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Encapsulation of data needed during an item-item model build.  This class
@@ -61,6 +64,8 @@ public class ItemItemBuildContext implements Serializable {
     @Nonnull
     private Long2ObjectMap<LongSortedSet> userItems;
 
+    private transient volatile PreparedVectors preparedVectors;
+
     /**
      * Set up a new item build context.
      *  @param universe The set of items for the model.
@@ -85,6 +90,17 @@ public class ItemItemBuildContext implements Serializable {
         return items.keySet();
     }
 
+    /**
+     * Get the index of the items in the build context.
+     *
+     * @return The item index.  Positions in this index are dense, so builders can use them to
+     *         store per-item state in arrays.
+     */
+    @Nonnull
+    SortedKeyIndex getItemIndex() {
+        return items;
+    }
+
     /**
      * Get the rating vector for an item. Rating vectors contain normalized ratings,
      * using the applicable user-vector normalizer on the user rating vectors.
@@ -100,6 +116,35 @@ public class ItemItemBuildContext implements Serializable {
         return itemVectors[idx];
     }
 
+    /**
+     * Get the rating vector for an item, prepared for a vector similarity function.  Prepared
+     * vectors are computed lazily and cached for the most recently used similarity function, so
+     * each item's vector statistics are computed once per model build instead of once per pair.
+     *
+     * @param sim The similarity function.
+     * @param item The item to query.
+     * @return The rating vector for {@code item}, prepared by {@code sim}.
+     * @throws IllegalArgumentException if {@code item} is not a valid item.
+     * @see VectorSimilarity#prepare(it.unimi.dsi.fastutil.longs.Long2DoubleMap)
+     */
+    @Nonnull
+    public PreparedVector preparedItemVector(VectorSimilarity sim, long item) {
+        int idx = items.tryGetIndex(item);
+        Preconditions.checkArgument(idx >= 0, "unknown item");
+        PreparedVectors pvs = preparedVectors;
+        if (pvs == null || pvs.similarity != sim) {
+            pvs = new PreparedVectors(sim, itemVectors.length);
+            preparedVectors = pvs;
+        }
+        PreparedVector pv = pvs.vectors.get(idx);
+        if (pv == null) {
+            // racing threads compute the same value, so we don't need to lock
+            pv = sim.prepare(itemVectors[idx]);
+            pvs.vectors.set(idx, pv);
+        }
+        return pv;
+    }
+
     /**
      * Get the items rated by a particular user.
      * 
@@ -114,4 +159,17 @@ public class ItemItemBuildContext implements Serializable {
         }
         return items;
     }
+
+    /**
+     * Cache of item vectors prepared by a single similarity function.
+     */
+    private static class PreparedVectors {
+        final VectorSimilarity similarity;
+        final AtomicReferenceArray<PreparedVector> vectors;
+
+        PreparedVectors(VectorSimilarity sim, int n) {
+            similarity = sim;
+            vectors = new AtomicReferenceArray<>(n);
+        }
+    }
 }
@@ -20,6 +20,7 @@
  */
 package org.lenskit.knn.item.model;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableSet;
 import it.unimi.dsi.fastutil.longs.*;
 import net.jcip.annotations.NotThreadSafe;
@@ -27,14 +28,19 @@ import org.grouplens.lenskit.transform.threshold.Threshold;
 import org.lenskit.inject.Transient;
 import org.lenskit.knn.item.ItemSimilarity;
 import org.lenskit.knn.item.ItemSimilarityThreshold;
+import org.lenskit.knn.item.ItemVectorSimilarity;
 import org.lenskit.knn.item.MinCommonUsers;
 import org.lenskit.knn.item.ModelSize;
+import org.lenskit.similarity.DotProductSimilarity;
+import org.lenskit.similarity.PreparedVector;
+import org.lenskit.similarity.VectorSimilarity;
 import org.lenskit.util.IdBox;
 import org.lenskit.util.ProgressLogger;
 import org.lenskit.util.collections.Long2DoubleAccumulator;
 import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
 import org.lenskit.util.collections.UnlimitedLong2DoubleAccumulator;
+import org.lenskit.util.keys.SortedKeyIndex;
 import org.lenskit.util.reflect.ClassQueries;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,6 +63,14 @@ import java.util.stream.Stream;
  * This builder takes a very simple approach. It does not allow for vector
  * normalization and truncates on the fly.
  *
+ * <p>If the item similarity is an {@link org.lenskit.knn.item.ItemVectorSimilarity} over a
+ * {@link DotProductSimilarity} (such as cosine similarity) and neighbors are found with the
+ * {@link SparseNeighborIterationStrategy}, similarities are computed in bulk as a sparse matrix
+ * product instead of pair by pair.  Otherwise, if the item similarity is an
+ * {@link org.lenskit.knn.item.ItemVectorSimilarity}, each item vector is
+ * {@linkplain VectorSimilarity#prepare(Long2DoubleMap) prepared} once and pairs are compared using
+ * the prepared vectors.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 @NotThreadSafe
@@ -69,6 +83,7 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
     private final NeighborIterationStrategy neighborStrategy;
     private final int minCommonUsers;
     private final int modelSize;
+    private final VectorSimilarity vectorSimilarity;
 
     @Inject
     public ItemItemModelProvider(@Transient ItemSimilarity similarity,
@@ -83,10 +98,24 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
         neighborStrategy = nbrStrat;
         minCommonUsers = minCU;
         modelSize = size;
+        if (similarity instanceof ItemVectorSimilarity) {
+            vectorSimilarity = ((ItemVectorSimilarity) similarity).getVectorSimilarity();
+        } else {
+            vectorSimilarity = null;
+        }
     }
 
     @Override
     public SimilarityMatrixModel get() {
+        return new SimilarityMatrixModel(buildNeighborhoods());
+    }
+
+    /**
+     * Compute the truncated neighborhood of every item.
+     *
+     * @return The map of item neighborhoods.
+     */
+    Long2ObjectMap<Long2DoubleMap> buildNeighborhoods() {
         logger.info("building item-item model for {} items", buildContext.getItems().size());
         logger.debug("using similarity function {}", itemSimilarity);
         logger.debug("similarity function is {}",
@@ -94,6 +123,19 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
         logger.debug("similarity function is {}",
                      itemSimilarity.isSymmetric() ? "symmetric" : "non-symmetric");
 
+        DotProductSimilarity productSim = SparseProductSimilarityKernel.getDotProductSimilarity(itemSimilarity);
+        if (productSim != null && neighborStrategy instanceof SparseNeighborIterationStrategy) {
+            logger.info("computing similarities with sparse matrix product of {}", productSim);
+            SparseProductSimilarityKernel kernel =
+                    new SparseProductSimilarityKernel(buildContext, productSim, threshold,
+                                                      minCommonUsers, modelSize);
+            Stopwatch timer = Stopwatch.createStarted();
+            Long2ObjectMap<Long2DoubleMap> rows = kernel.computeNeighborhoods(ClassQueries.isThreadSafe(itemSimilarity));
+            timer.stop();
+            logger.info("built model for {} items in {}", rows.size(), timer);
+            return rows;
+        }
+
         LongSortedSet allItems = buildContext.getItems();
 
         final int nitems = allItems.size();
@@ -134,7 +176,7 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
         logger.info("built model for {} items in {}",
                     ndone, progress.elapsedTime());
 
-        return new SimilarityMatrixModel(sims);
+        return sims;
     }
 
     private IdBox<Long2DoubleMap> makeSimilarityRow(IdBox<Long2DoubleSortedMap> item) {
@@ -142,6 +184,10 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
         LongIterator itemIter = neighborStrategy.neighborIterator(buildContext, itemId1,
                                                                   itemSimilarity.isSymmetric());
         Long2DoubleSortedMap vec1 = item.getValue();
+        PreparedVector pv1 = null;
+        if (vectorSimilarity != null) {
+            pv1 = buildContext.preparedItemVector(vectorSimilarity, itemId1);
+        }
         Long2DoubleMap row = new Long2DoubleOpenHashMap();
 
         while (itemIter.hasNext()) {
@@ -153,7 +199,13 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
                     continue;
                 }
 
-                double sim = itemSimilarity.similarity(itemId1, vec1, itemId2, vec2);
+                double sim;
+                if (pv1 != null) {
+                    PreparedVector pv2 = buildContext.preparedItemVector(vectorSimilarity, itemId2);
+                    sim = vectorSimilarity.similarity(pv1, pv2);
+                } else {
+                    sim = itemSimilarity.similarity(itemId1, vec1, itemId2, vec2);
+                }
                 if (threshold.retain(sim)) {
                     row.put(itemId2, sim);
                 }
@@ -174,14 +226,6 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
         return accum;
     }
 
-    private Long2ObjectMap<Long2DoubleMap> finishRows(Long2ObjectMap<Long2DoubleAccumulator> rows) {
-        Long2ObjectMap<Long2DoubleMap> results = new Long2ObjectOpenHashMap<>(rows.size());
-        for (Long2ObjectMap.Entry<Long2DoubleAccumulator> e: rows.long2ObjectEntrySet()) {
-            results.put(e.getLongKey(), e.getValue().finishMap());
-        }
-        return results;
-    }
-
     private class BasicCollector implements Collector<IdBox<Long2DoubleMap>, Map<Long,Long2DoubleMap>, Long2ObjectMap<Long2DoubleMap>> {
         @Override
         public Supplier<Map<Long, Long2DoubleMap>> supplier() {
@@ -226,54 +270,110 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
         }
     }
 
-    private class SymmetricCollector implements Collector<IdBox<Long2DoubleMap>, Long2ObjectMap<Long2DoubleAccumulator>, Long2ObjectMap<Long2DoubleMap>> {
+    /**
+     * Collector for symmetric similarity rows.  Each row contributes its similarities to both
+     * items' neighborhoods, so rows are accumulated into a single table of per-item accumulators
+     * shared by all threads (the collector is {@link Characteristics#CONCURRENT}).  The table is
+     * an array indexed by item position in the build context, and updates are guarded by a fixed
+     * set of striped locks, so memory use is bounded by the number of items times the model size
+     * regardless of parallelism.
+     */
+    private class SymmetricCollector implements Collector<IdBox<Long2DoubleMap>, StripedAccumulatorTable, Long2ObjectMap<Long2DoubleMap>> {
         @Override
-        public Supplier<Long2ObjectMap<Long2DoubleAccumulator>> supplier() {
-            return Long2ObjectArrayMap::new;
+        public Supplier<StripedAccumulatorTable> supplier() {
+            return () -> new StripedAccumulatorTable(buildContext.getItemIndex());
         }
 
         @Override
-        public BiConsumer<Long2ObjectMap<Long2DoubleAccumulator>, IdBox<Long2DoubleMap>> accumulator() {
+        public BiConsumer<StripedAccumulatorTable, IdBox<Long2DoubleMap>> accumulator() {
             return (acc, row) -> {
                 long i1 = row.getId();
                 for (Long2DoubleMap.Entry e: Long2DoubleMaps.fastIterable(row.getValue())) {
                     long i2 = e.getLongKey();
                     double sim = e.getDoubleValue();
-                    acc.computeIfAbsent(i1, i -> newAccumulator())
-                       .put(i2, sim);
-                    acc.computeIfAbsent(i2, i -> newAccumulator())
-                       .put(i1, sim);
+                    acc.put(i1, i2, sim);
+                    acc.put(i2, i1, sim);
                 }
             };
         }
 
         @Override
-        public BinaryOperator<Long2ObjectMap<Long2DoubleAccumulator>> combiner() {
-            return (am1, am2) -> {
-                for (Long2ObjectMap.Entry<Long2DoubleAccumulator> e: Long2ObjectMaps.fastIterable(am2)) {
-                    long item = e.getLongKey();
-                    Long2DoubleAccumulator a2 = e.getValue();
-                    Long2DoubleAccumulator a1 = am1.get(item);
-                    if (a1 == null) {
-                        am1.put(item, a2);
-                    } else {
-                        for (Long2DoubleMap.Entry ae: Long2DoubleMaps.fastIterable(a2.finishMap())) {
-                            a1.put(ae.getLongKey(), ae.getDoubleValue());
-                        }
-                    }
-                }
-                return am1;
+        public BinaryOperator<StripedAccumulatorTable> combiner() {
+            // only used by non-concurrent reductions, which create a single table
+            return (t1, t2) -> {
+                t1.putAll(t2);
+                return t1;
             };
         }
 
         @Override
-        public Function<Long2ObjectMap<Long2DoubleAccumulator>, Long2ObjectMap<Long2DoubleMap>> finisher() {
-            return ItemItemModelProvider.this::finishRows;
+        public Function<StripedAccumulatorTable, Long2ObjectMap<Long2DoubleMap>> finisher() {
+            return StripedAccumulatorTable::finish;
         }
 
         @Override
         public Set<Characteristics> characteristics() {
-            return ImmutableSet.of(Characteristics.UNORDERED);
+            return ImmutableSet.of(Characteristics.UNORDERED, Characteristics.CONCURRENT);
+        }
+    }
+
+    /**
+     * Table of neighborhood accumulators indexed by item position, with lock striping.
+     */
+    private class StripedAccumulatorTable {
+        private final SortedKeyIndex items;
+        private final Long2DoubleAccumulator[] rows;
+        private final Object[] locks;
+
+        StripedAccumulatorTable(SortedKeyIndex items) {
+            this.items = items;
+            rows = new Long2DoubleAccumulator[items.size()];
+            int nlocks = Runtime.getRuntime().availableProcessors() * 16;
+            locks = new Object[Math.max(1, Math.min(nlocks, rows.length))];
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = new Object();
+            }
+        }
+
+        /**
+         * Add a neighbor to an item's neighborhood.
+         * @param item The item.
+         * @param nbr The neighbor.
+         * @param sim The similarity.
+         */
+        void put(long item, long nbr, double sim) {
+            int pos = items.getIndex(item) - items.getLowerBound();
+            synchronized (locks[pos % locks.length]) {
+                Long2DoubleAccumulator acc = rows[pos];
+                if (acc == null) {
+                    acc = newAccumulator();
+                    rows[pos] = acc;
+                }
+                acc.put(nbr, sim);
+            }
+        }
+
+        void putAll(StripedAccumulatorTable other) {
+            for (int i = 0; i < other.rows.length; i++) {
+                Long2DoubleAccumulator acc = other.rows[i];
+                if (acc != null) {
+                    long item = other.items.getKey(other.items.getLowerBound() + i);
+                    for (Long2DoubleMap.Entry e: Long2DoubleMaps.fastIterable(acc.finishMap())) {
+                        put(item, e.getLongKey(), e.getDoubleValue());
+                    }
+                }
+            }
+        }
+
+        Long2ObjectMap<Long2DoubleMap> finish() {
+            Long2ObjectMap<Long2DoubleMap> results = new Long2ObjectOpenHashMap<>();
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] != null) {
+                    results.put(items.getKey(items.getLowerBound() + i), rows[i].finishMap());
+                    rows[i] = null;
+                }
+            }
+            return results;
         }
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.item.model;
+
+import org.grouplens.lenskit.transform.threshold.Threshold;
+import org.lenskit.inject.Transient;
+import org.lenskit.knn.item.*;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Build an item-item model, write it to a {@linkplain ModelFile model file}, and memory-map it.
+ * The model is built with the same configuration as {@link ItemItemModelProvider}.
+ *
+ * <p>Serializing a recommender engine containing the resulting model only stores the path to the
+ * model file, so loading the engine maps the file instead of deserializing the matrix.  Building
+ * the model again replaces the file; engines serialized against the old file then fail to load
+ * instead of silently using the new model.
+ */
+public class MappedItemItemModelProvider implements Provider<MappedSimilarityMatrixModel> {
+    private final PackedItemItemModelProvider delegate;
+    private final File modelFile;
+
+    @Inject
+    public MappedItemItemModelProvider(@Transient ItemSimilarity similarity,
+                                       @Transient ItemItemBuildContext context,
+                                       @Transient @ItemSimilarityThreshold Threshold thresh,
+                                       @Transient NeighborIterationStrategy nbrStrat,
+                                       @MinCommonUsers int minCU,
+                                       @ModelSize int size,
+                                       @ModelFile File file) {
+        delegate = new PackedItemItemModelProvider(similarity, context, thresh, nbrStrat, minCU, size);
+        modelFile = file;
+    }
+
+    @Override
+    public MappedSimilarityMatrixModel get() {
+        PackedSimilarityMatrixModel model = delegate.get();
+        try {
+            MappedSimilarityMatrixModel.write(model, modelFile.toPath());
+            return MappedSimilarityMatrixModel.open(modelFile.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException("error writing item-item model to " + modelFile, e);
+        }
+    }
+}
@@ -0,0 +1,491 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMaps;
+import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.lenskit.inject.Shareable;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Item-item similarity model whose neighborhoods live in a memory-mapped file.
+ *
+ * <p>
+ * The file stores the same compressed sparse row layout as {@link PackedSimilarityMatrixModel}.
+ * Only the item key index is read into the heap; row offsets, neighbor indexes and similarities
+ * are accessed through read-only mapped buffers.  Opening a model only validates the header, the
+ * file size and the item keys, so it takes roughly as long as reading the key index; each row's
+ * offsets and neighbor indexes are checked as the row is read.  Several processes that open the
+ * same file share its pages in the operating system's page cache.
+ *
+ * <p>
+ * Serializing this model (e.g. as part of a {@link org.lenskit.LenskitRecommenderEngine}) only
+ * records the absolute path of its file and the checksum stored in its header; deserializing it
+ * maps the file again, and fails if the file has since been replaced by a different model.  The
+ * file must therefore be present at the same location wherever the serialized model is loaded.
+ *
+ * <p>
+ * The file format consists of a 40-byte header (magic number, format version, item count,
+ * similarity count and a checksum of the remaining sections) followed by four sections: the sorted
+ * item IDs ({@code long}), the row offsets ({@code long}, one more than the item count), the
+ * neighbor item indexes ({@code int}, sorted within each row, padded to an 8-byte boundary) and
+ * the similarities ({@code double}).  All values are big-endian.
+ *
+ * @since 3.0
+ */
+@DefaultProvider(MappedItemItemModelProvider.class)
+@Shareable
+public class MappedSimilarityMatrixModel implements Serializable, ItemItemModel {
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger(MappedSimilarityMatrixModel.class);
+
+    /**
+     * The magic number identifying item-item model files (ASCII "LKIIMATX").
+     */
+    static final long MAGIC = 0x4C4B49494D415458L;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 40;
+    /**
+     * Maximum size of a single mapped region. Mappings are limited to 2GB, so larger sections
+     * are split into multiple regions.
+     */
+    private static final int REGION_SHIFT = 30;
+
+    private final Path file;
+    private final SortedKeyIndex itemDomain;
+    private final MappedSection offsets;
+    private final MappedSection neighbors;
+    private final MappedSection similarities;
+    private final long nnz;
+    private final long checksum;
+
+    private MappedSimilarityMatrixModel(Path path, SortedKeyIndex items, MappedSection offs,
+                                        MappedSection nbrs, MappedSection sims, long count, long sum) {
+        file = path;
+        itemDomain = items;
+        offsets = offs;
+        neighbors = nbrs;
+        similarities = sims;
+        nnz = count;
+        checksum = sum;
+    }
+
+    /**
+     * Open a model file.
+     *
+     * @param path The model file.
+     * @return The model, backed by a memory mapping of {@code path}.
+     * @throws IOException if there is an error reading the file, or it is not a valid model file.
+     */
+    public static MappedSimilarityMatrixModel open(Path path) throws IOException {
+        Path file = path.toAbsolutePath();
+        try (FileChannel chan = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(chan, header, 0);
+            header.flip();
+            if (header.getLong() != MAGIC) {
+                throw new IOException(file + ": not an item-item model file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + ": unsupported model file version " + version);
+            }
+            int reserved = header.getInt();
+            long nitems = header.getLong();
+            long nnz = header.getLong();
+            long checksum = header.getLong();
+            // bound the counts so the section positions cannot overflow
+            if (reserved != 0 || nitems < 0 || nitems > Integer.MAX_VALUE / 8
+                    || nnz < 0 || nnz > Long.MAX_VALUE / 16) {
+                throw new IOException(file + ": corrupt model header");
+            }
+            int n = (int) nitems;
+
+            Layout layout = new Layout(n, nnz);
+            if (chan.size() < layout.end) {
+                throw new IOException(file + ": truncated model file");
+            } else if (chan.size() > layout.end) {
+                throw new IOException(file + ": unexpected data after end of model");
+            }
+
+            // the key index is small; read it into the heap
+            ByteBuffer keyBuf = ByteBuffer.allocate(n * 8);
+            readFully(chan, keyBuf, layout.keyStart);
+            keyBuf.flip();
+            long[] keys = new long[n];
+            keyBuf.asLongBuffer().get(keys);
+            for (int i = 1; i < n; i++) {
+                if (keys[i] <= keys[i-1]) {
+                    throw new IOException(file + ": item keys are not sorted");
+                }
+            }
+
+            MappedSection offs = MappedSection.map(chan, layout.offsetStart, n + 1L, 8);
+            MappedSection nbrs = MappedSection.map(chan, layout.neighborStart, nnz, 4);
+            MappedSection sims = MappedSection.map(chan, layout.similarityStart, nnz, 8);
+            if (offs.getLong(0) != 0 || offs.getLong(n) != nnz) {
+                throw new IOException(file + ": row offsets do not cover the neighbor section");
+            }
+            logger.debug("mapped {} similarities for {} items from {}", nnz, n, file);
+            return new MappedSimilarityMatrixModel(file, SortedKeyIndex.wrap(keys, n),
+                                                   offs, nbrs, sims, nnz, checksum);
+        }
+    }
+
+    /**
+     * Write an item-item model to a file in the format read by {@link #open(Path)}.  The file is
+     * written to a uniquely-named temporary file alongside {@code path} and then moved into place,
+     * so processes that have the old file open are not disturbed and concurrent writers do not
+     * overwrite each other's partial output.
+     *
+     * @param model The model to write.
+     * @param path The file to write.
+     * @throws IOException if there is an error writing the file.
+     */
+    public static void write(ItemItemModel model, Path path) throws IOException {
+        SortedKeyIndex items = SortedKeyIndex.fromCollection(model.getItemUniverse());
+        int n = items.size();
+        // first pass: compute row offsets
+        long[] rowOffsets = new long[n + 1];
+        for (int i = 0; i < n; i++) {
+            rowOffsets[i+1] = rowOffsets[i] + rowSize(model, items.getKey(i));
+        }
+        long nnz = rowOffsets[n];
+        Layout layout = new Layout(n, nnz);
+
+        Path target = path.toAbsolutePath();
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+        logger.info("writing {} similarities for {} items to {}", nnz, n, target);
+        boolean moved = false;
+        try {
+            writeSections(model, items, rowOffsets, layout, tmp);
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    private static void writeSections(ItemItemModel model, SortedKeyIndex items, long[] rowOffsets,
+                                      Layout layout, Path tmp) throws IOException {
+        int n = items.size();
+        long nnz = rowOffsets[n];
+        try (FileChannel chan = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                                                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            SectionWriter out = new SectionWriter(chan, layout.keyStart);
+            for (int i = 0; i < n; i++) {
+                out.putLong(items.getKey(i));
+            }
+            for (long off: rowOffsets) {
+                out.putLong(off);
+            }
+            out.flush();
+
+            // second pass: write neighbors and similarities, each to its own section
+            SectionWriter nbrOut = new SectionWriter(chan, layout.neighborStart);
+            SectionWriter simOut = new SectionWriter(chan, layout.similarityStart);
+            for (int i = 0; i < n; i++) {
+                Long2DoubleSortedArrayMap row = Long2DoubleSortedArrayMap.create(model.getNeighbors(items.getKey(i)));
+                if (row.size() != rowOffsets[i+1] - rowOffsets[i]) {
+                    throw new IllegalStateException("model changed while writing");
+                }
+                for (int j = 0; j < row.size(); j++) {
+                    int idx = items.tryGetIndex(row.getKeyByIndex(j));
+                    if (idx < 0) {
+                        throw new IllegalArgumentException("neighbor " + row.getKeyByIndex(j) + " not in item universe");
+                    }
+                    nbrOut.putInt(idx);
+                    simOut.putDouble(row.getValueByIndex(j));
+                }
+            }
+            nbrOut.flush();
+            simOut.flush();
+
+            // the header goes last, once the checksum is known
+            long checksum = out.getChecksum();
+            checksum = checksum * 31 + nbrOut.getChecksum();
+            checksum = checksum * 31 + simOut.getChecksum();
+            SectionWriter hdr = new SectionWriter(chan, 0);
+            hdr.putLong(MAGIC);
+            hdr.putInt(VERSION);
+            hdr.putInt(0);
+            hdr.putLong(n);
+            hdr.putLong(nnz);
+            hdr.putLong(checksum);
+            hdr.flush();
+            chan.force(false);
+        }
+    }
+
+    private static int rowSize(ItemItemModel model, long item) {
+        if (model instanceof PackedSimilarityMatrixModel) {
+            return ((PackedSimilarityMatrixModel) model).getNeighborCount(item);
+        } else {
+            return model.getNeighbors(item).size();
+        }
+    }
+
+    /**
+     * Get the file backing this model.
+     * @return The model file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Get the checksum of the model file's contents, as recorded in its header.
+     * @return The file checksum.
+     */
+    long getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public LongSortedSet getItemUniverse() {
+        return itemDomain.keySet();
+    }
+
+    @Override
+    @Nonnull
+    public Long2DoubleMap getNeighbors(long item) {
+        int row = itemDomain.tryGetIndex(item);
+        if (row < 0) {
+            return Long2DoubleMaps.EMPTY_MAP;
+        }
+
+        long start = offsets.getLong(row);
+        long end = offsets.getLong(row + 1);
+        int nitems = itemDomain.size();
+        if (start < 0 || end < start || end > nnz || end - start > nitems) {
+            throw new IllegalStateException(file + ": invalid offsets for row " + row);
+        }
+        int n = (int) (end - start);
+        long[] keys = new long[n];
+        double[] values = new double[n];
+        int last = -1;
+        for (int j = 0; j < n; j++) {
+            int idx = neighbors.getInt(start + j);
+            if (idx <= last || idx >= nitems) {
+                throw new IllegalStateException(file + ": invalid neighbor index " + idx + " in row " + row);
+            }
+            last = idx;
+            keys[j] = itemDomain.getKey(idx);
+            values[j] = similarities.getDouble(start + j);
+        }
+        return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, n), values);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("mapped matrix of %d similarities for %d items in %s",
+                             nnz, itemDomain.size(), file);
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerialProxy(file.toString(), checksum);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException {
+        throw new InvalidObjectException("must use serialization proxy");
+    }
+
+    private static void readFully(FileChannel chan, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = chan.read(buf, pos);
+            if (n < 0) {
+                throw new EOFException("unexpected end of model file");
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Positions of the sections of a model file.
+     */
+    private static class Layout {
+        final long keyStart;
+        final long offsetStart;
+        final long neighborStart;
+        final long similarityStart;
+        final long end;
+
+        Layout(int nitems, long nnz) {
+            keyStart = HEADER_SIZE;
+            offsetStart = keyStart + 8L * nitems;
+            neighborStart = offsetStart + 8L * (nitems + 1);
+            // pad the int section so the doubles are aligned
+            similarityStart = neighborStart + ((4L * nnz + 7) & ~7L);
+            end = similarityStart + 8L * nnz;
+        }
+    }
+
+    /**
+     * A section of primitive values in a mapped file, possibly split into several regions.
+     */
+    private static class MappedSection {
+        private final ByteBuffer[] regions;
+        private final int elementShift;
+        private final int regionElementShift;
+        private final long regionElementMask;
+
+        private MappedSection(ByteBuffer[] regs, int esize) {
+            regions = regs;
+            elementShift = Integer.numberOfTrailingZeros(esize);
+            regionElementShift = REGION_SHIFT - elementShift;
+            regionElementMask = (1L << regionElementShift) - 1;
+        }
+
+        static MappedSection map(FileChannel chan, long start, long count, int esize) throws IOException {
+            long bytes = count * esize;
+            int nregions = (int) ((bytes + (1L << REGION_SHIFT) - 1) >>> REGION_SHIFT);
+            ByteBuffer[] regions = new ByteBuffer[nregions];
+            for (int i = 0; i < nregions; i++) {
+                long off = (long) i << REGION_SHIFT;
+                long size = Math.min(1L << REGION_SHIFT, bytes - off);
+                regions[i] = chan.map(FileChannel.MapMode.READ_ONLY, start + off, size);
+            }
+            return new MappedSection(regions, esize);
+        }
+
+        private ByteBuffer region(long idx) {
+            return regions[(int) (idx >>> regionElementShift)];
+        }
+
+        private int position(long idx) {
+            return (int) (idx & regionElementMask) << elementShift;
+        }
+
+        long getLong(long idx) {
+            return region(idx).getLong(position(idx));
+        }
+
+        int getInt(long idx) {
+            return region(idx).getInt(position(idx));
+        }
+
+        double getDouble(long idx) {
+            return region(idx).getDouble(position(idx));
+        }
+    }
+
+    /**
+     * Buffered writer for one section of a model file.
+     */
+    private static class SectionWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private final CRC32 crc = new CRC32();
+        private long position;
+
+        SectionWriter(FileChannel chan, long pos) {
+            channel = chan;
+            position = pos;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void putLong(long v) throws IOException {
+            ensure(8);
+            buffer.putLong(v);
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buffer.putInt(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            ensure(8);
+            buffer.putDouble(v);
+        }
+
+        /**
+         * Get the checksum of the values flushed so far.
+         */
+        long getChecksum() {
+            return crc.getValue();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static final class SerialProxy implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final long checksum;
+
+        SerialProxy(String path, long sum) {
+            this.path = path;
+            checksum = sum;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            MappedSimilarityMatrixModel model;
+            try {
+                model = open(Paths.get(path));
+            } catch (IOException e) {
+                InvalidObjectException ex = new InvalidObjectException("cannot open item-item model file " + path);
+                ex.initCause(e);
+                throw ex;
+            }
+            if (model.getChecksum() != checksum) {
+                throw new InvalidObjectException("item-item model file " + path + " has been replaced");
+            }
+            return model;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.item.model;
+
+import org.grouplens.lenskit.transform.threshold.Threshold;
+import org.lenskit.inject.Transient;
+import org.lenskit.knn.item.ItemSimilarity;
+import org.lenskit.knn.item.ItemSimilarityThreshold;
+import org.lenskit.knn.item.MinCommonUsers;
+import org.lenskit.knn.item.ModelSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+/**
+ * Build a packed item-item model from rating data.  This uses the same configuration and
+ * build process as {@link ItemItemModelProvider}, but stores the result as a
+ * {@link PackedSimilarityMatrixModel}.
+ */
+public class PackedItemItemModelProvider implements Provider<PackedSimilarityMatrixModel> {
+    private static final Logger logger = LoggerFactory.getLogger(PackedItemItemModelProvider.class);
+
+    private final ItemItemModelProvider delegate;
+
+    @Inject
+    public PackedItemItemModelProvider(@Transient ItemSimilarity similarity,
+                                       @Transient ItemItemBuildContext context,
+                                       @Transient @ItemSimilarityThreshold Threshold thresh,
+                                       @Transient NeighborIterationStrategy nbrStrat,
+                                       @MinCommonUsers int minCU,
+                                       @ModelSize int size) {
+        delegate = new ItemItemModelProvider(similarity, context, thresh, nbrStrat, minCU, size);
+    }
+
+    @Override
+    public PackedSimilarityMatrixModel get() {
+        PackedSimilarityMatrixModel model =
+                PackedSimilarityMatrixModel.fromNeighborhoods(delegate.buildNeighborhoods());
+        logger.info("built {}", model);
+        return model;
+    }
+}
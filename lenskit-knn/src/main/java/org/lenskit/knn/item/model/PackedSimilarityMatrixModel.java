@@ -0,0 +1,462 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.item.model;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMaps;
+import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.lenskit.inject.Shareable;
+import org.lenskit.util.io.BinaryCodec;
+import org.lenskit.util.io.BinaryFormat;
+import org.lenskit.util.io.BinaryInput;
+import org.lenskit.util.io.BinaryOutput;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.LongSortedArraySet;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Item-item similarity model stored as a packed sparse matrix in compressed sparse row (CSR) form.
+ *
+ * <p>
+ * The model stores the item universe as a sorted key index, and the matrix as three primitive
+ * arrays: row offsets, neighbor column indexes (positions in the item universe), and similarity
+ * values.  Within each row, neighbors are stored in increasing order of item ID.  This takes
+ * far less memory than {@link SimilarityMatrixModel}, which stores one map per item, and
+ * serializes as a handful of arrays.
+ *
+ * <p>
+ * {@link #getNeighbors(long)} has to materialize its result; scorers that know about this class
+ * should use {@link #findNeighbors(long, LongSortedArraySet, long[], double[])} to intersect
+ * rows with user data into reusable buffers instead.
+ *
+ * <p>
+ * The model can also be read by <em>column</em>, finding the items that have a given item as a
+ * neighbor with {@link #findReverseNeighbors(long, int[], double[], int)}.  The column index is
+ * built (in linear time) the first time a column is read, and is not serialized; the other
+ * accessors, including {@link #getSimilarityCount()}, never build it.
+ *
+ * <p>
+ * To use this model, bind {@link ItemItemModel} to this class; the default provider,
+ * {@link PackedItemItemModelProvider}, builds it with the same configuration as
+ * {@link ItemItemModelProvider}.
+ *
+ * @since 3.0
+ */
+@DefaultProvider(PackedItemItemModelProvider.class)
+@Shareable
+@BinaryFormat(PackedSimilarityMatrixModel.Codec.class)
+public class PackedSimilarityMatrixModel implements Serializable, ItemItemModel {
+    private static final long serialVersionUID = 1L;
+
+    private final SortedKeyIndex itemDomain;
+    private final int[] rowOffsets;
+    private final int[] neighborIndexes;
+    private final double[] similarities;
+    private transient int maxNeighborCount;
+    private transient volatile ColumnIndex columns;
+
+    /**
+     * Construct a packed model from its arrays.
+     *
+     * @param items   The item domain.
+     * @param offsets The row offsets.  It has one more entry than the domain; row <em>i</em>
+     *                occupies positions <code>offsets[i]</code> (inclusive) through
+     *                <code>offsets[i+1]</code> (exclusive) of the neighbor and similarity arrays.
+     * @param nbrs    The neighbor item indexes.  Each row must be sorted and duplicate-free.
+     * @param sims    The neighbor similarities.
+     * @throws IllegalArgumentException if the arrays are inconsistent.
+     */
+    PackedSimilarityMatrixModel(SortedKeyIndex items, int[] offsets, int[] nbrs, double[] sims) {
+        Preconditions.checkArgument(offsets.length == items.size() + 1,
+                                    "offset array has incorrect length");
+        Preconditions.checkArgument(offsets[0] == 0, "first row does not start at 0");
+        Preconditions.checkArgument(nbrs.length == offsets[items.size()],
+                                    "neighbor array has incorrect length");
+        Preconditions.checkArgument(sims.length == nbrs.length,
+                                    "similarity array has incorrect length");
+        itemDomain = items.frozenCopy();
+        rowOffsets = offsets;
+        neighborIndexes = nbrs;
+        similarities = sims;
+        maxNeighborCount = computeMaxNeighborCount();
+    }
+
+    /**
+     * Create a packed model from a map of item neighborhoods.
+     *
+     * @param nbrs The item neighborhoods.  Every neighbor must also be a key of the map.
+     * @return The packed model.
+     * @throws IllegalArgumentException if a neighborhood refers to an item that does not have
+     *                                  a neighborhood.
+     */
+    public static PackedSimilarityMatrixModel fromNeighborhoods(Map<Long, ? extends Long2DoubleMap> nbrs) {
+        SortedKeyIndex items = SortedKeyIndex.fromCollection(nbrs.keySet());
+        Builder builder = new Builder(items);
+        for (int i = 0; i < items.size(); i++) {
+            builder.addRow(nbrs.get(items.getKey(i)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Create a packed copy of another item-item model.
+     *
+     * @param model The model to pack.
+     * @return The packed model.  If {@code model} is already packed, it is returned as-is.
+     */
+    public static PackedSimilarityMatrixModel fromModel(ItemItemModel model) {
+        if (model instanceof PackedSimilarityMatrixModel) {
+            return (PackedSimilarityMatrixModel) model;
+        }
+        SortedKeyIndex items = SortedKeyIndex.fromCollection(model.getItemUniverse());
+        Builder builder = new Builder(items);
+        for (int i = 0; i < items.size(); i++) {
+            builder.addRow(model.getNeighbors(items.getKey(i)));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public LongSortedSet getItemUniverse() {
+        return itemDomain.keySet();
+    }
+
+    @Override
+    @Nonnull
+    public Long2DoubleMap getNeighbors(long item) {
+        int row = itemDomain.tryGetIndex(item);
+        if (row < 0) {
+            return Long2DoubleMaps.EMPTY_MAP;
+        }
+
+        int start = rowOffsets[row];
+        int n = rowOffsets[row + 1] - start;
+        long[] keys = new long[n];
+        for (int j = 0; j < n; j++) {
+            keys[j] = itemDomain.getKey(neighborIndexes[start + j]);
+        }
+        double[] values = Arrays.copyOfRange(similarities, start, start + n);
+        return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, n), values);
+    }
+
+    /**
+     * Get the number of neighbors an item has.
+     * @param item The item ID.
+     * @return The number of neighbors of {@code item}, or 0 if it is not in the model.
+     */
+    public int getNeighborCount(long item) {
+        int row = itemDomain.tryGetIndex(item);
+        return row < 0 ? 0 : rowOffsets[row + 1] - rowOffsets[row];
+    }
+
+    /**
+     * Get the number of similarities stored in the model (the number of nonzero entries in the matrix).
+     *
+     * @return The total number of neighbors of all items.
+     */
+    public int getSimilarityCount() {
+        return similarities.length;
+    }
+
+    /**
+     * Get the size of the largest neighborhood in the model.  This is useful for sizing the buffers
+     * passed to {@link #findNeighbors(long, LongSortedArraySet, long[], double[])}.
+     *
+     * @return The largest number of neighbors of any item.
+     */
+    public int getMaxNeighborCount() {
+        return maxNeighborCount;
+    }
+
+    /**
+     * Find the neighbors of an item that are in a set of candidate items, without allocating.
+     *
+     * @param item       The item whose neighbors are wanted.
+     * @param candidates The items to keep (typically the items the user has rated).
+     * @param itemsOut   An array to receive the neighbor IDs, in increasing order.  It must be able
+     *                   to hold {@code min(getNeighborCount(item), candidates.size())} items.
+     * @param simsOut    An array to receive the neighbor similarities, parallel to {@code itemsOut}.
+     * @return The number of neighbors stored in the output arrays.
+     */
+    public int findNeighbors(long item, LongSortedArraySet candidates, long[] itemsOut, double[] simsOut) {
+        int row = itemDomain.tryGetIndex(item);
+        if (row < 0) {
+            return 0;
+        }
+
+        SortedKeyIndex cks = candidates.getIndex();
+        final int rstart = rowOffsets[row];
+        final int rend = rowOffsets[row + 1];
+        final int clb = cks.getLowerBound();
+        final int cub = cks.getUpperBound();
+        int n = 0;
+
+        if (cub - clb < rend - rstart) {
+            // few candidates: look each one up in the row
+            for (int ci = clb; ci < cub; ci++) {
+                long k = cks.getKey(ci);
+                int idx = itemDomain.tryGetIndex(k);
+                if (idx >= 0) {
+                    int pos = Arrays.binarySearch(neighborIndexes, rstart, rend, idx);
+                    if (pos >= 0) {
+                        itemsOut[n] = k;
+                        simsOut[n] = similarities[pos];
+                        n++;
+                    }
+                }
+            }
+        } else {
+            // long candidate list: merge the row with it
+            int ci = clb;
+            for (int pos = rstart; pos < rend && ci < cub; pos++) {
+                long k = itemDomain.getKey(neighborIndexes[pos]);
+                while (ci < cub && cks.getKey(ci) < k) {
+                    ci++;
+                }
+                if (ci < cub && cks.getKey(ci) == k) {
+                    itemsOut[n] = k;
+                    simsOut[n] = similarities[pos];
+                    n++;
+                    ci++;
+                }
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Get the item domain of this model.  The item indexes reported by
+     * {@link #findReverseNeighbors(long, int[], double[], int)} are positions in this index.
+     *
+     * @return The (immutable) index of the items in the model.
+     */
+    public SortedKeyIndex getItemDomain() {
+        return itemDomain;
+    }
+
+    /**
+     * Get the number of items that have an item as a neighbor.  This is the number of nonzero
+     * entries in the item's <em>column</em> of the matrix.
+     *
+     * @param item The item ID.
+     * @return The number of items having {@code item} as a neighbor, or 0 if it is not in the model.
+     */
+    public int getReverseNeighborCount(long item) {
+        int col = itemDomain.tryGetIndex(item);
+        if (col < 0) {
+            return 0;
+        }
+        ColumnIndex ci = getColumns();
+        return ci.offsets[col + 1] - ci.offsets[col];
+    }
+
+    /**
+     * Find the items that have an item as a neighbor, without allocating.
+     *
+     * @param item    The item whose column is wanted.
+     * @param rowsOut An array to receive the indexes (in the {@linkplain #getItemDomain() item domain})
+     *                of the items having {@code item} as a neighbor, in increasing order.
+     * @param simsOut An array to receive the similarities, parallel to {@code rowsOut}.  Each value
+     *                is the similarity stored in the corresponding item's row.
+     * @param offset  The position in the output arrays at which to start writing.  The arrays must
+     *                have room for {@link #getReverseNeighborCount(long)} entries after it.
+     * @return The number of entries stored in the output arrays.
+     */
+    public int findReverseNeighbors(long item, int[] rowsOut, double[] simsOut, int offset) {
+        int col = itemDomain.tryGetIndex(item);
+        if (col < 0) {
+            return 0;
+        }
+        ColumnIndex ci = getColumns();
+        int start = ci.offsets[col];
+        int n = ci.offsets[col + 1] - start;
+        System.arraycopy(ci.rows, start, rowsOut, offset, n);
+        System.arraycopy(ci.similarities, start, simsOut, offset, n);
+        return n;
+    }
+
+    private ColumnIndex getColumns() {
+        ColumnIndex ci = columns;
+        if (ci == null) {
+            synchronized (this) {
+                ci = columns;
+                if (ci == null) {
+                    ci = new ColumnIndex();
+                    columns = ci;
+                }
+            }
+        }
+        return ci;
+    }
+
+    private int computeMaxNeighborCount() {
+        int max = 0;
+        for (int i = 1; i < rowOffsets.length; i++) {
+            max = Math.max(max, rowOffsets[i] - rowOffsets[i - 1]);
+        }
+        return max;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (rowOffsets.length != itemDomain.size() + 1
+                || neighborIndexes.length != rowOffsets[itemDomain.size()]
+                || similarities.length != neighborIndexes.length) {
+            throw new InvalidObjectException("inconsistent packed matrix arrays");
+        }
+        maxNeighborCount = computeMaxNeighborCount();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("packed matrix of %d similarities for %d items",
+                             similarities.length, itemDomain.size());
+    }
+
+    /**
+     * The transpose of the matrix, in compressed sparse column form.
+     */
+    private class ColumnIndex {
+        final int[] offsets;
+        final int[] rows;
+        final double[] similarities;
+
+        ColumnIndex() {
+            int n = itemDomain.size();
+            int nnz = neighborIndexes.length;
+            offsets = new int[n + 1];
+            for (int col: neighborIndexes) {
+                offsets[col + 1] += 1;
+            }
+            for (int i = 0; i < n; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+
+            // walk the rows in order, so each column's rows come out sorted
+            rows = new int[nnz];
+            similarities = new double[nnz];
+            int[] fill = Arrays.copyOf(offsets, n);
+            for (int row = 0; row < n; row++) {
+                for (int pos = rowOffsets[row]; pos < rowOffsets[row + 1]; pos++) {
+                    int dst = fill[neighborIndexes[pos]]++;
+                    rows[dst] = row;
+                    similarities[dst] = PackedSimilarityMatrixModel.this.similarities[pos];
+                }
+            }
+        }
+    }
+
+    /**
+     * Binary codec, writing the matrix arrays in bulk.
+     */
+    static class Codec implements BinaryCodec<PackedSimilarityMatrixModel> {
+        @Override
+        public void write(PackedSimilarityMatrixModel model, BinaryOutput out) throws IOException {
+            out.writeObject(model.itemDomain);
+            out.writeInts(model.rowOffsets);
+            out.writeInts(model.neighborIndexes);
+            out.writeDoubles(model.similarities);
+        }
+
+        @Override
+        public PackedSimilarityMatrixModel read(BinaryInput in) throws IOException, ClassNotFoundException {
+            SortedKeyIndex items = (SortedKeyIndex) in.readObject();
+            int[] offsets = in.readInts();
+            int[] nbrs = in.readInts();
+            double[] sims = in.readDoubles();
+            try {
+                return new PackedSimilarityMatrixModel(items, offsets, nbrs, sims);
+            } catch (IllegalArgumentException e) {
+                InvalidObjectException ex = new InvalidObjectException(e.getMessage());
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Builder for packed similarity matrices.  Rows must be added in item order.
+     */
+    static class Builder {
+        private final SortedKeyIndex items;
+        private final int[] offsets;
+        private int[] nbrs;
+        private double[] sims;
+        private int nrows = 0;
+
+        Builder(SortedKeyIndex items) {
+            this.items = items;
+            offsets = new int[items.size() + 1];
+            nbrs = new int[Math.max(16, items.size())];
+            sims = new double[nbrs.length];
+        }
+
+        /**
+         * Add the next row to the matrix.
+         * @param row The neighbors of the next item in the domain.
+         */
+        void addRow(Map<Long,Double> row) {
+            Preconditions.checkState(nrows < items.size(), "too many rows");
+            Long2DoubleSortedArrayMap sorted = Long2DoubleSortedArrayMap.create(row);
+            int start = offsets[nrows];
+            int n = sorted.size();
+            ensureCapacity(start + n);
+            for (int j = 0; j < n; j++) {
+                long nbr = sorted.getKeyByIndex(j);
+                int idx = items.tryGetIndex(nbr);
+                Preconditions.checkArgument(idx >= 0, "neighbor %s is not in the item domain", nbr);
+                nbrs[start + j] = idx;
+                sims[start + j] = sorted.getValueByIndex(j);
+            }
+            nrows += 1;
+            offsets[nrows] = start + n;
+        }
+
+        private void ensureCapacity(int size) {
+            if (size > nbrs.length) {
+                long newSize = Math.max(size, (long) nbrs.length * 3 / 2);
+                Preconditions.checkArgument(newSize <= Integer.MAX_VALUE - 8,
+                                            "too many similarities for a packed matrix");
+                nbrs = Arrays.copyOf(nbrs, (int) newSize);
+                sims = Arrays.copyOf(sims, (int) newSize);
+            }
+        }
+
+        PackedSimilarityMatrixModel build() {
+            Preconditions.checkState(nrows == items.size(), "only %s of %s rows added", nrows, items.size());
+            int size = offsets[nrows];
+            return new PackedSimilarityMatrixModel(items, offsets,
+                                                   Arrays.copyOf(nbrs, size),
+                                                   Arrays.copyOf(sims, size));
+        }
+    }
+}
@@ -29,9 +29,15 @@ import org.lenskit.api.ResultList;
 import org.lenskit.inject.Shareable;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.io.BinaryCodec;
+import org.lenskit.util.io.BinaryFormat;
+import org.lenskit.util.io.BinaryInput;
+import org.lenskit.util.io.BinaryOutput;
 import org.lenskit.util.keys.SortedKeyIndex;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +55,7 @@ import java.util.Map;
  */
 @DefaultProvider(ItemItemModelProvider.class)
 @Shareable
+@BinaryFormat(SimilarityMatrixModel.Codec.class)
 public class SimilarityMatrixModel implements Serializable, ItemItemModel {
     private static final long serialVersionUID = 3L;
 
@@ -114,4 +121,26 @@ public class SimilarityMatrixModel implements Serializable, ItemItemModel {
         }
         return val;
     }
+
+    /**
+     * Binary codec, writing the neighborhoods as packed arrays.
+     */
+    static class Codec implements BinaryCodec<SimilarityMatrixModel> {
+        @Override
+        public void write(SimilarityMatrixModel model, BinaryOutput out) throws IOException {
+            out.writeObject(model.itemDomain);
+            out.writeVectors(model.neighborhoods);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public SimilarityMatrixModel read(BinaryInput in) throws IOException, ClassNotFoundException {
+            SortedKeyIndex items = (SortedKeyIndex) in.readObject();
+            List<Long2DoubleMap> nbrs = in.readVectors();
+            if (nbrs.size() != items.size()) {
+                throw new InvalidObjectException("item domain and neighborhood list differ in size");
+            }
+            return new SimilarityMatrixModel(items, nbrs);
+        }
+    }
 }
@@ -0,0 +1,265 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.*;
+import org.grouplens.lenskit.transform.threshold.Threshold;
+import org.lenskit.knn.item.ItemSimilarity;
+import org.lenskit.knn.item.ItemVectorSimilarity;
+import org.lenskit.similarity.DotProductSimilarity;
+import org.lenskit.similarity.VectorSimilarity;
+import org.lenskit.util.ProgressLogger;
+import org.lenskit.util.collections.Long2DoubleAccumulator;
+import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Compute item neighborhoods for a {@link DotProductSimilarity} as a sparse matrix product.
+ *
+ * <p>The kernel transposes the normalized item vectors into a user-major sparse matrix
+ * <em>R</em>, and computes each row of <em>R<sup>T</sup>R</em> by scattering the rows of the
+ * item's users into dense accumulator arrays indexed by item position.  Items are processed in
+ * blocks of rows in parallel; each block borrows a workspace of accumulators from a pool that
+ * lives only as long as the build, so no item-sized arrays outlive it on pool threads.  The
+ * minimum common user count, similarity threshold and model size are applied to each row as it is
+ * finished, so only the truncated neighborhoods are ever stored.
+ *
+ * <p>Since it only produces pairs of items with users in common, this kernel is only equivalent
+ * to the pairwise build with a sparse neighbor iteration strategy.
+ */
+class SparseProductSimilarityKernel {
+    private static final Logger logger = LoggerFactory.getLogger(SparseProductSimilarityKernel.class);
+    static final int BLOCK_SIZE = 256;
+
+    private final ItemItemBuildContext context;
+    private final DotProductSimilarity similarity;
+    private final Threshold threshold;
+    private final int minCommonUsers;
+    private final int modelSize;
+
+    private final SortedKeyIndex items;
+    private final SortedKeyIndex users;
+    private int[] userOffsets;
+    private int[] userItems;
+    private double[] userValues;
+    private double[] itemStats;
+
+    SparseProductSimilarityKernel(ItemItemBuildContext ctx, DotProductSimilarity sim,
+                                  Threshold thresh, int minCU, int size) {
+        context = ctx;
+        similarity = sim;
+        threshold = thresh;
+        minCommonUsers = minCU;
+        modelSize = size;
+        items = SortedKeyIndex.fromCollection(ctx.getItems());
+        users = SortedKeyIndex.fromCollection(collectUsers());
+    }
+
+    /**
+     * Get the dot-product similarity underlying an item similarity, if it has one.
+     *
+     * @param sim The item similarity.
+     * @return The dot-product similarity that {@code sim} delegates to, or {@code null} if
+     *         {@code sim} cannot be computed by this kernel.
+     */
+    @Nullable
+    static DotProductSimilarity getDotProductSimilarity(ItemSimilarity sim) {
+        if (sim instanceof ItemVectorSimilarity) {
+            VectorSimilarity vsim = ((ItemVectorSimilarity) sim).getVectorSimilarity();
+            if (vsim instanceof DotProductSimilarity) {
+                return (DotProductSimilarity) vsim;
+            }
+        }
+        return null;
+    }
+
+    private LongSet collectUsers() {
+        LongSet us = new LongOpenHashSet();
+        for (long item: context.getItems()) {
+            us.addAll(context.itemVector(item).keySet());
+        }
+        return us;
+    }
+
+    /**
+     * Build the user-major matrix and the item statistics.
+     */
+    private void transpose() {
+        final int nitems = items.size();
+        final int nusers = users.size();
+        itemStats = new double[nitems];
+        userOffsets = new int[nusers + 1];
+        for (int i = 0; i < nitems; i++) {
+            Long2DoubleSortedMap vec = context.itemVector(items.getKey(i));
+            itemStats[i] = similarity.vectorStatistic(vec);
+            LongIterator iter = vec.keySet().iterator();
+            while (iter.hasNext()) {
+                userOffsets[users.getIndex(iter.nextLong()) + 1] += 1;
+            }
+        }
+        for (int u = 0; u < nusers; u++) {
+            userOffsets[u + 1] += userOffsets[u];
+        }
+
+        int nnz = userOffsets[nusers];
+        userItems = new int[nnz];
+        userValues = new double[nnz];
+        int[] fill = Arrays.copyOf(userOffsets, nusers);
+        // items are visited in order, so each user's row is sorted by item
+        for (int i = 0; i < nitems; i++) {
+            Long2DoubleSortedArrayMap vec = Long2DoubleSortedArrayMap.create(context.itemVector(items.getKey(i)));
+            for (int j = 0; j < vec.size(); j++) {
+                int u = users.getIndex(vec.getKeyByIndex(j));
+                int pos = fill[u]++;
+                userItems[pos] = i;
+                userValues[pos] = vec.getValueByIndex(j);
+            }
+        }
+        logger.debug("transposed {} ratings for {} users and {} items", nnz, nusers, nitems);
+    }
+
+    /**
+     * Compute the neighborhoods of all items.
+     *
+     * @param parallel Whether to process blocks of items in parallel.
+     * @return The map of item neighborhoods.  Items with no neighbors are omitted.
+     */
+    Long2ObjectMap<Long2DoubleMap> computeNeighborhoods(boolean parallel) {
+        transpose();
+        final int nitems = items.size();
+        final Long2DoubleMap[] rows = new Long2DoubleMap[nitems];
+        final int nblocks = (nitems + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ProgressLogger progress = ProgressLogger.create(logger)
+                                                .setCount(nblocks)
+                                                .setLabel("item-item product blocks")
+                                                .setWindow(50)
+                                                .start();
+
+        IntStream blocks = IntStream.range(0, nblocks);
+        if (parallel) {
+            blocks = blocks.parallel();
+        }
+        // at most one workspace per concurrently-running block; dropped with the pool
+        final Queue<Workspace> pool = new ConcurrentLinkedQueue<>();
+        blocks.forEach(b -> {
+            Workspace ws = pool.poll();
+            if (ws == null) {
+                ws = new Workspace(nitems);
+            }
+            int end = Math.min(nitems, (b + 1) * BLOCK_SIZE);
+            for (int i = b * BLOCK_SIZE; i < end; i++) {
+                rows[i] = ws.computeRow(i);
+            }
+            pool.offer(ws);
+            progress.advance();
+        });
+        progress.finish();
+        logger.debug("used {} workspaces for {} blocks", pool.size(), nblocks);
+
+        Long2ObjectMap<Long2DoubleMap> result = new Long2ObjectOpenHashMap<>(nitems);
+        for (int i = 0; i < nitems; i++) {
+            if (!rows[i].isEmpty()) {
+                result.put(items.getKey(i), rows[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Scratch space for computing rows, used by one block at a time.
+     */
+    private class Workspace {
+        final double[] dots;
+        final int[] counts;
+        final int[] touched;
+        final long[] nbrItems;
+        final double[] nbrSims;
+
+        Workspace(int nitems) {
+            dots = new double[nitems];
+            counts = new int[nitems];
+            touched = new int[nitems];
+            nbrItems = new long[nitems];
+            nbrSims = new double[nitems];
+        }
+
+        Long2DoubleMap computeRow(int row) {
+            Long2DoubleSortedArrayMap vec = Long2DoubleSortedArrayMap.create(context.itemVector(items.getKey(row)));
+            if (vec.size() < minCommonUsers) {
+                return Long2DoubleMaps.EMPTY_MAP;
+            }
+
+            // scatter: accumulate dot products with every item sharing a user with this one
+            int ntouched = 0;
+            for (int k = 0; k < vec.size(); k++) {
+                int u = users.getIndex(vec.getKeyByIndex(k));
+                double v = vec.getValueByIndex(k);
+                for (int p = userOffsets[u], end = userOffsets[u + 1]; p < end; p++) {
+                    int j = userItems[p];
+                    if (counts[j] == 0) {
+                        touched[ntouched++] = j;
+                    }
+                    counts[j] += 1;
+                    dots[j] += v * userValues[p];
+                }
+            }
+
+            // gather: finish similarities, filter, and reset the accumulators
+            int n = 0;
+            final double stat = itemStats[row];
+            for (int t = 0; t < ntouched; t++) {
+                int j = touched[t];
+                if (j != row && counts[j] >= minCommonUsers) {
+                    double sim = similarity.finishSimilarity(dots[j], stat, itemStats[j]);
+                    if (threshold.retain(sim)) {
+                        nbrItems[n] = items.getKey(j);
+                        nbrSims[n] = sim;
+                        n++;
+                    }
+                }
+                dots[j] = 0;
+                counts[j] = 0;
+            }
+
+            if (n == 0) {
+                return Long2DoubleMaps.EMPTY_MAP;
+            } else if (modelSize > 0 && n > modelSize) {
+                Long2DoubleAccumulator acc = new TopNLong2DoubleAccumulator(modelSize);
+                for (int k = 0; k < n; k++) {
+                    acc.put(nbrItems[k], nbrSims[k]);
+                }
+                return Long2DoubleSortedArrayMap.create(acc.finishMap());
+            } else {
+                return Long2DoubleSortedArrayMap.wrapUnsorted(Arrays.copyOf(nbrItems, n),
+                                                              Arrays.copyOf(nbrSims, n));
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.user;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.jcip.annotations.ThreadSafe;
+import org.grouplens.lenskit.transform.threshold.Threshold;
+import org.lenskit.data.ratings.RatingVectorPDAO;
+import org.lenskit.knn.NeighborhoodSize;
+import org.lenskit.knn.SimilarityNormalizer;
+import org.lenskit.similarity.DotProductSimilarity;
+import org.lenskit.transform.normalize.UserVectorNormalizer;
+import org.lenskit.util.collections.Long2DoubleAccumulator;
+import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
+import org.lenskit.util.collections.UnlimitedLong2DoubleAccumulator;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A neighbor finder that searches a {@link UserPostingIndex} instead of querying the rating data.
+ *
+ * <p>
+ * Candidate neighbors are scored term-at-a-time: the finder walks the posting list of each item
+ * the user has rated, accumulating dot products into a dense per-thread workspace.  If the user
+ * similarity is a {@link DotProductSimilarity} (such as cosine), similarities are finished from
+ * the accumulated products and the index's precomputed user statistics; otherwise, the full
+ * similarity is computed for each co-rating user.  The finder then keeps, for each target item,
+ * only the {@link NeighborhoodSize} most similar users who rated it (or all of them, if the
+ * neighborhood size is not positive), so the scorer sees far fewer candidates than with
+ * {@link SnapshotNeighborFinder}.
+ *
+ * <p>
+ * The candidates are the users who rated at least one of the target items; raters who share no
+ * items with the user are scored with a zero dot product, and kept if the threshold accepts their
+ * similarity.  {@link SnapshotNeighborFinder} also returns co-raters who rated none of the target
+ * items when the user has fewer ratings than there are target items; the scorer ignores those
+ * users, so both finders produce the same scores.
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public class IndexedNeighborFinder implements NeighborFinder {
+    private static final Logger logger = LoggerFactory.getLogger(IndexedNeighborFinder.class);
+
+    private final UserSnapshot snapshot;
+    private final UserPostingIndex index;
+    private final UserSimilarity similarity;
+    @Nullable
+    private final DotProductSimilarity productSimilarity;
+    private final RatingVectorPDAO rvDAO;
+    private final UserVectorNormalizer similarityNormalizer;
+    private final Threshold threshold;
+    private final int neighborhoodSize;
+    private final ThreadLocal<Workspace> workspace;
+
+    @Inject
+    public IndexedNeighborFinder(UserSnapshot snap,
+                                 UserPostingIndex idx,
+                                 UserSimilarity sim,
+                                 RatingVectorPDAO rvd,
+                                 @SimilarityNormalizer UserVectorNormalizer simNorm,
+                                 @UserSimilarityThreshold Threshold thresh,
+                                 @NeighborhoodSize int nnbrs) {
+        snapshot = snap;
+        index = idx;
+        similarity = sim;
+        DotProductSimilarity dps = UserPostingIndex.getDotProductSimilarity(sim);
+        productSimilarity = idx.hasUserStatistics() ? dps : null;
+        rvDAO = rvd;
+        similarityNormalizer = simNorm;
+        threshold = thresh;
+        neighborhoodSize = nnbrs;
+        final int nusers = idx.getUserIndex().size();
+        workspace = ThreadLocal.withInitial(() -> new Workspace(nusers));
+    }
+
+    @Override
+    public Iterable<Neighbor> getCandidateNeighbors(long user, LongSet items) {
+        Long2DoubleMap urs = rvDAO.userRatingVector(user);
+        if (urs.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final Long2DoubleMap normed = similarityNormalizer.makeTransformation(user, urs)
+                                                          .apply(urs);
+        assert normed != null;
+
+        SortedKeyIndex users = index.getUserIndex();
+        int uidx = users.tryGetIndex(user);
+        final int self = uidx < 0 ? -1 : uidx - users.getLowerBound();
+        Workspace ws = workspace.get();
+        try {
+            // accumulate dot products by walking posting lists
+            for (Long2DoubleMap.Entry e: normed.long2DoubleEntrySet()) {
+                int ipos = index.getItemPosition(e.getLongKey());
+                if (ipos < 0) {
+                    continue;
+                }
+                double v = e.getDoubleValue();
+                for (int p = index.getPostingStart(ipos), end = index.getPostingEnd(ipos); p < end; p++) {
+                    ws.add(index.getPostingUser(p), v * index.getPostingValue(p));
+                }
+            }
+            logger.debug("Found {} candidate neighbors for user {}", ws.ntouched, user);
+
+            // compute the similarities
+            double stat = productSimilarity != null ? productSimilarity.vectorStatistic(normed) : 0;
+            for (int i = 0; i < ws.ntouched; i++) {
+                int u = ws.touched[i];
+                ws.values[u] = computeSimilarity(user, normed, stat, self, u, ws.values[u]);
+            }
+
+            // select the closest raters of each target item
+            List<Neighbor> neighbors = new ArrayList<>();
+            Long2DoubleAccumulator accum = null;
+            for (LongIterator iter = items.iterator(); iter.hasNext();) {
+                int ipos = index.getItemPosition(iter.nextLong());
+                if (ipos < 0) {
+                    continue;
+                }
+                if (accum == null) {
+                    accum = neighborhoodSize > 0
+                            ? new TopNLong2DoubleAccumulator(neighborhoodSize)
+                            : new UnlimitedLong2DoubleAccumulator();
+                }
+                for (int p = index.getPostingStart(ipos), end = index.getPostingEnd(ipos); p < end; p++) {
+                    int u = index.getPostingUser(p);
+                    if (!ws.isTouched(u)) {
+                        // this rater shares no items with the user
+                        ws.add(u, 0);
+                        ws.values[u] = computeSimilarity(user, normed, stat, self, u, 0);
+                    }
+                    if (!Double.isNaN(ws.values[u])) {
+                        accum.put(u, ws.values[u]);
+                    }
+                }
+                LongList selected = accum.finishList();
+                for (LongIterator si = selected.iterator(); si.hasNext();) {
+                    int u = (int) si.nextLong();
+                    if (ws.select(u)) {
+                        long nbr = users.getKey(users.getLowerBound() + u);
+                        neighbors.add(new Neighbor(nbr, snapshot.getUserVector(nbr), ws.values[u]));
+                    }
+                }
+            }
+            return neighbors;
+        } finally {
+            ws.clear();
+        }
+    }
+
+    /**
+     * Compute the similarity between the user and a candidate neighbor.
+     *
+     * @param user The user ID.
+     * @param normed The user's normalized rating vector.
+     * @param stat The user's vector statistic, if the similarity is a dot product.
+     * @param self The user's index position, or -1 if the user is not indexed.
+     * @param u The candidate's index position.
+     * @param dot The dot product of the two users' normalized vectors.
+     * @return The similarity, or NaN if it is not acceptable.
+     */
+    private double computeSimilarity(long user, Long2DoubleMap normed, double stat, int self, int u, double dot) {
+        double sim;
+        if (u == self) {
+            sim = Double.NaN;
+        } else if (productSimilarity != null) {
+            sim = productSimilarity.finishSimilarity(dot, stat, index.getUserStatistic(u));
+        } else {
+            SortedKeyIndex users = index.getUserIndex();
+            long nbr = users.getKey(users.getLowerBound() + u);
+            sim = similarity.similarity(user, normed, nbr, snapshot.getNormalizedUserVector(nbr));
+        }
+        return acceptSimilarity(sim) ? sim : Double.NaN;
+    }
+
+    /**
+     * Check if a similarity is acceptable.
+     *
+     * @param sim The similarity to check.
+     * @return {@code false} if the similarity is NaN, infinite, or rejected by the threshold;
+     *         {@code true} otherwise.
+     */
+    private boolean acceptSimilarity(double sim) {
+        return !Double.isNaN(sim) && !Double.isInfinite(sim) && threshold.retain(sim);
+    }
+
+    /**
+     * Per-thread scratch space, with one slot per user.
+     */
+    private static class Workspace {
+        private static final byte TOUCHED = 1;
+        private static final byte SELECTED = 2;
+
+        final double[] values;
+        final byte[] state;
+        final int[] touched;
+        int ntouched;
+
+        Workspace(int nusers) {
+            values = new double[nusers];
+            state = new byte[nusers];
+            touched = new int[nusers];
+        }
+
+        void add(int u, double v) {
+            if (state[u] == 0) {
+                state[u] = TOUCHED;
+                touched[ntouched++] = u;
+            }
+            values[u] += v;
+        }
+
+        boolean isTouched(int u) {
+            return state[u] != 0;
+        }
+
+        /**
+         * Mark a user as selected.
+         * @return {@code true} if the user had not yet been selected.
+         */
+        boolean select(int u) {
+            if (state[u] == SELECTED) {
+                return false;
+            }
+            state[u] = SELECTED;
+            return true;
+        }
+
+        void clear() {
+            for (int i = 0; i < ntouched; i++) {
+                int u = touched[i];
+                values[u] = 0;
+                state[u] = 0;
+            }
+            ntouched = 0;
+        }
+    }
+}
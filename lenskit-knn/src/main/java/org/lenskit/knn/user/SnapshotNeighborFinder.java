@@ -25,6 +25,8 @@ import it.unimi.dsi.fastutil.longs.*;
 import org.grouplens.lenskit.transform.threshold.Threshold;
 import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.knn.SimilarityNormalizer;
+import org.lenskit.similarity.PreparedVector;
+import org.lenskit.similarity.VectorSimilarity;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,7 +37,9 @@ import java.util.Collections;
 import java.util.Iterator;
 
 /**
- * A neighborhood finder that has a snapshot of the rating data for efficiency.
+ * A neighborhood finder that has a snapshot of the rating data for efficiency.  If the user
+ * similarity is a {@link UserVectorSimilarity}, it compares the user against the snapshot's
+ * cached {@linkplain UserSnapshot#getPreparedUserVector(VectorSimilarity, long) prepared vectors}.
  *
  * @since 2.1
  */
@@ -48,6 +52,7 @@ public class SnapshotNeighborFinder implements NeighborFinder {
     private final RatingVectorPDAO rvDAO;
     private final UserVectorNormalizer similarityNormalizer;
     private final Threshold threshold;
+    private final VectorSimilarity vectorSimilarity;
 
     @Inject
     public SnapshotNeighborFinder(UserSnapshot snap,
@@ -60,6 +65,11 @@ public class SnapshotNeighborFinder implements NeighborFinder {
         rvDAO = rvd;
         similarityNormalizer = simNorm;
         threshold = thresh;
+        if (sim instanceof UserVectorSimilarity) {
+            vectorSimilarity = ((UserVectorSimilarity) sim).getVectorSimilarity();
+        } else {
+            vectorSimilarity = null;
+        }
     }
 
     @Override
@@ -109,11 +119,13 @@ public class SnapshotNeighborFinder implements NeighborFinder {
     private class NeighborIterator extends AbstractIterator<Neighbor> {
         private final long user;
         private final Long2DoubleMap userVector;
+        private final PreparedVector preparedVector;
         private final LongIterator neighborIter;
 
         NeighborIterator(long uid, Long2DoubleMap uvec, LongSet nbrs) {
             user = uid;
             userVector = uvec;
+            preparedVector = vectorSimilarity != null ? vectorSimilarity.prepare(uvec) : null;
             neighborIter = nbrs.iterator();
         }
 
@@ -121,8 +133,14 @@ public class SnapshotNeighborFinder implements NeighborFinder {
         protected Neighbor computeNext() {
             while (neighborIter.hasNext()) {
                 final long neighbor = neighborIter.nextLong();
-                Long2DoubleMap vector = snapshot.getNormalizedUserVector(neighbor);
-                double sim = similarity.similarity(user, userVector, neighbor, vector);
+                double sim;
+                if (preparedVector != null) {
+                    PreparedVector vector = snapshot.getPreparedUserVector(vectorSimilarity, neighbor);
+                    sim = vectorSimilarity.similarity(preparedVector, vector);
+                } else {
+                    Long2DoubleMap vector = snapshot.getNormalizedUserVector(neighbor);
+                    sim = similarity.similarity(user, userVector, neighbor, vector);
+                }
                 if (acceptSimilarity(sim)) {
                     return new Neighbor(neighbor, snapshot.getUserVector(neighbor), sim);
                 }
@@ -0,0 +1,253 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.user;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.jcip.annotations.ThreadSafe;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.lenskit.inject.Shareable;
+import org.lenskit.inject.Transient;
+import org.lenskit.similarity.DotProductSimilarity;
+import org.lenskit.similarity.VectorSimilarity;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.Serializable;
+
+/**
+ * Inverted index from items to the users who rated them, used by {@link IndexedNeighborFinder}.
+ *
+ * <p>
+ * Each item has a posting list of user positions (in the user index of the {@link UserSnapshot})
+ * and the users' similarity-normalized ratings of the item, sorted by user.  The posting lists
+ * are stored back to back in primitive arrays.  If the user similarity is a
+ * {@link DotProductSimilarity}, the index also stores each user's vector statistic so neighbor
+ * finders can compute similarities from accumulated dot products alone.
+ *
+ * @since 3.0
+ */
+@Shareable
+@ThreadSafe
+@DefaultProvider(UserPostingIndex.Builder.class)
+public class UserPostingIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final SortedKeyIndex users;
+    private final SortedKeyIndex items;
+    private final int[] itemOffsets;
+    private final int[] postingUsers;
+    private final double[] postingValues;
+    @Nullable
+    private final double[] userStatistics;
+
+    UserPostingIndex(SortedKeyIndex us, SortedKeyIndex is, int[] offsets,
+                     int[] pusers, double[] pvalues, @Nullable double[] stats) {
+        Preconditions.checkArgument(offsets.length == is.size() + 1, "incorrect offset count");
+        Preconditions.checkArgument(pusers.length == offsets[is.size()], "incorrect posting count");
+        Preconditions.checkArgument(pvalues.length == pusers.length, "incorrect value count");
+        Preconditions.checkArgument(stats == null || stats.length == us.size(),
+                                    "incorrect statistic count");
+        users = us;
+        items = is;
+        itemOffsets = offsets;
+        postingUsers = pusers;
+        postingValues = pvalues;
+        userStatistics = stats;
+    }
+
+    /**
+     * Get the user index.  User positions in posting lists are relative to its lower bound.
+     * @return The user index.
+     */
+    public SortedKeyIndex getUserIndex() {
+        return users;
+    }
+
+    /**
+     * Get the position of an item's posting list.
+     * @param item The item ID.
+     * @return The item's position, or a negative value if the item has no postings.
+     */
+    public int getItemPosition(long item) {
+        int idx = items.tryGetIndex(item);
+        return idx < 0 ? -1 : idx - items.getLowerBound();
+    }
+
+    /**
+     * Get the start of an item's posting list.
+     * @param ipos The item position (from {@link #getItemPosition(long)}).
+     * @return The index of the first posting of the item.
+     */
+    public int getPostingStart(int ipos) {
+        return itemOffsets[ipos];
+    }
+
+    /**
+     * Get the end of an item's posting list.
+     * @param ipos The item position (from {@link #getItemPosition(long)}).
+     * @return The index one past the last posting of the item.
+     */
+    public int getPostingEnd(int ipos) {
+        return itemOffsets[ipos + 1];
+    }
+
+    /**
+     * Get the user of a posting.
+     * @param p The posting index.
+     * @return The user position of the posting.
+     */
+    public int getPostingUser(int p) {
+        return postingUsers[p];
+    }
+
+    /**
+     * Get the normalized rating value of a posting.
+     * @param p The posting index.
+     * @return The user's similarity-normalized rating of the item.
+     */
+    public double getPostingValue(int p) {
+        return postingValues[p];
+    }
+
+    /**
+     * Query whether the index has per-user statistics for a dot-product similarity.
+     * @return {@code true} if {@link #getUserStatistic(int)} is available.
+     */
+    public boolean hasUserStatistics() {
+        return userStatistics != null;
+    }
+
+    /**
+     * Get a user's vector statistic.
+     * @param upos The user position.
+     * @return The user's vector statistic for the similarity's {@link DotProductSimilarity}.
+     * @throws IllegalStateException if the index has no statistics.
+     */
+    public double getUserStatistic(int upos) {
+        Preconditions.checkState(userStatistics != null, "index has no user statistics");
+        return userStatistics[upos];
+    }
+
+    /**
+     * Get the number of postings in the index.
+     * @return The total number of postings.
+     */
+    public int getPostingCount() {
+        return postingUsers.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("posting index of %d users, %d items, and %d postings",
+                             users.size(), items.size(), postingUsers.length);
+    }
+
+    /**
+     * Get the dot-product similarity underlying a user similarity, if there is one.
+     * @param sim The user similarity.
+     * @return The dot-product similarity, or {@code null} if {@code sim} does not decompose into
+     *         a dot product.
+     */
+    @Nullable
+    static DotProductSimilarity getDotProductSimilarity(UserSimilarity sim) {
+        if (sim instanceof UserVectorSimilarity) {
+            VectorSimilarity vs = ((UserVectorSimilarity) sim).getVectorSimilarity();
+            if (vs instanceof DotProductSimilarity) {
+                return (DotProductSimilarity) vs;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Build a posting index from a user snapshot.
+     */
+    public static class Builder implements Provider<UserPostingIndex> {
+        private static final Logger logger = LoggerFactory.getLogger(Builder.class);
+        private final UserSnapshot snapshot;
+        private final UserSimilarity similarity;
+
+        @Inject
+        public Builder(@Transient UserSnapshot snap,
+                       @Transient UserSimilarity sim) {
+            snapshot = snap;
+            similarity = sim;
+        }
+
+        @Override
+        public UserPostingIndex get() {
+            SortedKeyIndex users = snapshot.getUserIndex();
+            final int ulb = users.getLowerBound();
+            final int nusers = users.size();
+            DotProductSimilarity dps = getDotProductSimilarity(similarity);
+            double[] stats = dps != null ? new double[nusers] : null;
+
+            // first pass: collect the items and count their postings
+            Long2DoubleSortedArrayMap[] vectors = new Long2DoubleSortedArrayMap[nusers];
+            LongSet itemSet = new LongOpenHashSet();
+            for (int u = 0; u < nusers; u++) {
+                Long2DoubleMap nv = snapshot.getNormalizedUserVector(users.getKey(ulb + u));
+                vectors[u] = Long2DoubleSortedArrayMap.create(nv);
+                itemSet.addAll(nv.keySet());
+                if (stats != null) {
+                    stats[u] = dps.vectorStatistic(nv);
+                }
+            }
+            SortedKeyIndex items = SortedKeyIndex.fromCollection(itemSet);
+            final int ilb = items.getLowerBound();
+            int[] offsets = new int[items.size() + 1];
+            for (Long2DoubleSortedArrayMap vec: vectors) {
+                for (int j = 0; j < vec.size(); j++) {
+                    offsets[items.getIndex(vec.getKeyByIndex(j)) - ilb + 1] += 1;
+                }
+            }
+            for (int i = 0; i < items.size(); i++) {
+                offsets[i + 1] += offsets[i];
+            }
+
+            // second pass: fill the postings; users are visited in order, so lists are sorted
+            int[] fill = new int[items.size()];
+            System.arraycopy(offsets, 0, fill, 0, fill.length);
+            int[] pusers = new int[offsets[items.size()]];
+            double[] pvalues = new double[pusers.length];
+            for (int u = 0; u < nusers; u++) {
+                Long2DoubleSortedArrayMap vec = vectors[u];
+                for (int j = 0; j < vec.size(); j++) {
+                    int p = fill[items.getIndex(vec.getKeyByIndex(j)) - ilb]++;
+                    pusers[p] = u;
+                    pvalues[p] = vec.getValueByIndex(j);
+                }
+            }
+
+            UserPostingIndex index = new UserPostingIndex(users, items, offsets, pusers, pvalues, stats);
+            logger.info("built {}", index);
+            return index;
+        }
+    }
+}
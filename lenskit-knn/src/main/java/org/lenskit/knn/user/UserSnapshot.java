@@ -29,17 +29,26 @@ import org.lenskit.inject.Shareable;
 import org.lenskit.inject.Transient;
 import org.lenskit.knn.ScoreNormalizer;
 import org.lenskit.knn.SimilarityNormalizer;
+import org.lenskit.similarity.PreparedVector;
+import org.lenskit.similarity.VectorSimilarity;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
 import org.lenskit.util.IdBox;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.io.BinaryCodec;
+import org.lenskit.util.io.BinaryFormat;
+import org.lenskit.util.io.BinaryInput;
+import org.lenskit.util.io.BinaryOutput;
 import org.lenskit.util.io.ObjectStream;
 import org.lenskit.util.keys.SortedKeyIndex;
 
 import net.jcip.annotations.ThreadSafe;
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.Serializable;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * User snapshot used by {@link SnapshotNeighborFinder}.
@@ -49,12 +58,14 @@ import java.util.List;
 @Shareable
 @ThreadSafe
 @DefaultProvider(UserSnapshot.Builder.class)
+@BinaryFormat(UserSnapshot.Codec.class)
 public class UserSnapshot implements Serializable {
     private static final long serialVersionUID = 1L;
     private final SortedKeyIndex users;
     private final List<Long2DoubleMap> vectors;
     private final List<Long2DoubleMap> normedVectors;
     private final Long2ObjectMap<LongSortedSet> itemUserSets;
+    private transient volatile PreparedVectors preparedVectors;
 
     /**
      * Construct a user snapshot.
@@ -96,10 +107,122 @@ public class UserSnapshot implements Serializable {
         return normedVectors.get(idx);
     }
 
+    /**
+     * Get a user vector normalized for similarity computations and prepared for a vector
+     * similarity function.  Prepared vectors are computed lazily and cached for the most recently
+     * used similarity function.
+     *
+     * @param sim The similarity function.
+     * @param user The user ID.
+     * @return The normalized user rating vector, prepared by {@code sim}.
+     * @see VectorSimilarity#prepare(Long2DoubleMap)
+     */
+    public PreparedVector getPreparedUserVector(VectorSimilarity sim, long user) {
+        int idx = users.tryGetIndex(user);
+        Preconditions.checkArgument(idx >= 0, "invalid user " + user);
+        PreparedVectors pvs = preparedVectors;
+        if (pvs == null || pvs.similarity != sim) {
+            pvs = new PreparedVectors(sim, normedVectors.size());
+            preparedVectors = pvs;
+        }
+        PreparedVector pv = pvs.vectors.get(idx);
+        if (pv == null) {
+            // racing threads compute the same value, so we don't need to lock
+            pv = sim.prepare(normedVectors.get(idx));
+            pvs.vectors.set(idx, pv);
+        }
+        return pv;
+    }
+
+    /**
+     * Get the index of users in this snapshot.
+     * @return The user index.
+     */
+    SortedKeyIndex getUserIndex() {
+        return users;
+    }
+
     public LongSet getItemUsers(long item) {
         return itemUserSets.get(item);
     }
 
+    /**
+     * Cache of user vectors prepared by a single similarity function.
+     */
+    private static class PreparedVectors {
+        final VectorSimilarity similarity;
+        final AtomicReferenceArray<PreparedVector> vectors;
+
+        PreparedVectors(VectorSimilarity sim, int n) {
+            similarity = sim;
+            vectors = new AtomicReferenceArray<>(n);
+        }
+    }
+
+    /**
+     * Binary codec, writing the user vectors and item-user sets as packed arrays.
+     */
+    static class Codec implements BinaryCodec<UserSnapshot> {
+        @Override
+        public void write(UserSnapshot snap, BinaryOutput out) throws IOException {
+            out.writeObject(snap.users);
+            out.writeVectors(snap.vectors);
+            out.writeVectors(snap.normedVectors);
+
+            SortedKeyIndex items = SortedKeyIndex.fromCollection(snap.itemUserSets.keySet());
+            int[] sizes = new int[items.size()];
+            LongArrayList itemUsers = new LongArrayList();
+            for (int i = 0; i < items.size(); i++) {
+                LongSortedSet us = snap.itemUserSets.get(items.getKey(i));
+                sizes[i] = us.size();
+                itemUsers.addAll(us);
+            }
+            out.writeLongs(items.keySet().toLongArray());
+            out.writeInts(sizes);
+            out.writeLongs(itemUsers.toLongArray());
+        }
+
+        @Override
+        public UserSnapshot read(BinaryInput in) throws IOException, ClassNotFoundException {
+            SortedKeyIndex users = (SortedKeyIndex) in.readObject();
+            List<Long2DoubleMap> vectors = in.readVectors();
+            List<Long2DoubleMap> normedVectors = in.readVectors();
+            long[] items = in.readLongs();
+            int[] sizes = in.readInts();
+            long[] itemUsers = in.readLongs();
+            if (sizes.length != items.length) {
+                throw new InvalidObjectException("item and item-user size arrays differ in length");
+            }
+
+            Long2ObjectMap<LongSortedSet> itemUserSets = new Long2ObjectOpenHashMap<>(items.length);
+            int start = 0;
+            for (int i = 0; i < items.length; i++) {
+                if (sizes[i] < 0 || sizes[i] > itemUsers.length - start) {
+                    throw new InvalidObjectException("invalid item-user set size " + sizes[i]);
+                }
+                int end = start + sizes[i];
+                for (int j = start + 1; j < end; j++) {
+                    if (itemUsers[j] <= itemUsers[j - 1]) {
+                        throw new InvalidObjectException("item-user set is not sorted");
+                    }
+                }
+                itemUserSets.put(items[i], SortedKeyIndex.wrap(itemUsers, start, end).keySet());
+                start = end;
+            }
+            if (start != itemUsers.length) {
+                throw new InvalidObjectException("item-user set sizes do not match user array");
+            }
+
+            try {
+                return new UserSnapshot(users, vectors, normedVectors, itemUserSets);
+            } catch (IllegalArgumentException e) {
+                InvalidObjectException ex = new InvalidObjectException(e.getMessage());
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+    }
+
     public static class Builder implements Provider<UserSnapshot> {
         private final RatingVectorPDAO rvDAO;
         private final UserVectorNormalizer scoreNormalizer;
@@ -44,6 +44,14 @@ public class UserVectorSimilarity implements UserSimilarity, Serializable {
         delegate = sim;
     }
 
+    /**
+     * Get the vector similarity this user similarity uses.
+     * @return The underlying vector similarity.
+     */
+    public VectorSimilarity getVectorSimilarity() {
+        return delegate;
+    }
+
     @Override
     public double similarity(long u1, Long2DoubleMap v1, long u2, Long2DoubleMap v2) {
         return delegate.similarity(v1, v2);
@@ -0,0 +1,219 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.item;
+
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.EntityFactory;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.knn.item.model.ItemItemModel;
+import org.lenskit.knn.item.model.PackedSimilarityMatrixModel;
+import org.lenskit.knn.item.model.SimilarityMatrixModel;
+import org.lenskit.transform.normalize.DefaultUserVectorNormalizer;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.LongSortedArraySet;
+
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test that batch item-item scoring matches scoring each user separately.
+ */
+public class ItemItemScorerBatchTest {
+    private static final int ITEM_COUNT = 150;
+    private static final List<Long> USERS = ImmutableList.of(3L, 1L, 2L, 99L);
+
+    private DataAccessObject dao;
+    private Map<Long, Long2DoubleMap> neighborhoods;
+    private Set<Long> items;
+
+    @Before
+    public void createData() {
+        Random rng = new Random(42);
+        EntityFactory efac = new EntityFactory();
+        List<Rating> ratings = new ArrayList<>();
+        for (long u = 1; u <= 3; u++) {
+            for (long i = 1; i <= ITEM_COUNT; i++) {
+                if (rng.nextDouble() < 0.3) {
+                    ratings.add(efac.rating(u, i, 1 + rng.nextInt(5)));
+                }
+            }
+        }
+        StaticDataSource source = new StaticDataSource();
+        source.addSource(ratings);
+        dao = source.get();
+
+        neighborhoods = new HashMap<>();
+        items = new HashSet<>();
+        for (long i = 1; i <= ITEM_COUNT; i++) {
+            items.add(i);
+            Long2DoubleMap nbrs = new Long2DoubleOpenHashMap();
+            for (long j = 1; j <= ITEM_COUNT; j++) {
+                if (i != j && rng.nextDouble() < 0.2) {
+                    nbrs.put(j, rng.nextDouble());
+                }
+            }
+            neighborhoods.put(i, nbrs);
+        }
+    }
+
+    private ItemItemScorer makeScorer(ItemItemModel model, int nnbrs) {
+        return makeScorer(model, nnbrs, 2);
+    }
+
+    private ItemItemScorer makeScorer(ItemItemModel model, int nnbrs, int min) {
+        return new ItemItemScorer(new StandardRatingVectorPDAO(dao), model,
+                                  new WeightedAverageNeighborhoodScorer(),
+                                  new DefaultUserVectorNormalizer(), nnbrs, min);
+    }
+
+    private void checkBatch(ItemItemScorer scorer) {
+        Map<Long, ResultMap> batch = scorer.scoreBatch(USERS, LongUtils.packedSet(items));
+        assertThat(batch.keySet(), contains(USERS.toArray()));
+        for (long user: USERS) {
+            ResultMap single = scorer.scoreWithDetails(user, items);
+            ResultMap scores = batch.get(user);
+            assertThat(scores.keySet(), equalTo(single.keySet()));
+            for (Result r: single) {
+                assertThat(scores.getScore(r.getId()), closeTo(r.getScore(), 1.0e-10));
+                ItemItemResult ir = scores.get(r.getId()).as(ItemItemResult.class);
+                assertThat(ir, notNullValue());
+                assertThat(ir.getNeighborhoodSize(),
+                           equalTo(r.as(ItemItemResult.class).getNeighborhoodSize()));
+            }
+        }
+        assertThat(batch.get(1L).size(), greaterThan(0));
+        assertThat(batch.get(99L).size(), equalTo(0));
+    }
+
+    @Test
+    public void testMatrixModel() {
+        checkBatch(makeScorer(new SimilarityMatrixModel(neighborhoods), 0));
+    }
+
+    @Test
+    public void testTruncatedNeighborhoods() {
+        checkBatch(makeScorer(new SimilarityMatrixModel(neighborhoods), 5));
+    }
+
+    @Test
+    public void testPackedModel() {
+        checkBatch(makeScorer(PackedSimilarityMatrixModel.fromNeighborhoods(neighborhoods), 5));
+    }
+
+    /**
+     * Check scoring every item with a packed model against the row-by-row scores of the map-based model.
+     */
+    @Test
+    public void testPackedAllItems() {
+        PackedSimilarityMatrixModel packed = PackedSimilarityMatrixModel.fromNeighborhoods(neighborhoods);
+        SimilarityMatrixModel matrix = new SimilarityMatrixModel(neighborhoods);
+        for (int min: new int[]{1, 3}) {
+            ItemItemScorer packedScorer = makeScorer(packed, 5, min);
+            ItemItemScorer matrixScorer = makeScorer(matrix, 5, min);
+            for (long user: USERS) {
+                ResultMap expected = matrixScorer.scoreWithDetails(user, items);
+                ResultMap actual = packedScorer.scoreWithDetails(user, items);
+                assertThat(actual.keySet(), equalTo(expected.keySet()));
+                for (Result r: expected) {
+                    ItemItemResult ir = actual.get(r.getId()).as(ItemItemResult.class);
+                    assertThat(ir.getScore(), closeTo(r.getScore(), 1.0e-10));
+                    assertThat(ir.getNeighborhoodSize(),
+                               equalTo(r.as(ItemItemResult.class).getNeighborhoodSize()));
+                }
+                Map<Long, Double> basic = packedScorer.score(user, LongUtils.packedSet(1L, 2L, 3L));
+                for (Map.Entry<Long, Double> e: basic.entrySet()) {
+                    assertThat(e.getValue(), closeTo(expected.getScore(e.getKey()), 1.0e-10));
+                }
+            }
+        }
+    }
+
+    /**
+     * Make a scorer that always or never takes the inverted (column-walking) path, and counts how
+     * often it is taken.
+     */
+    private ItemItemScorer makeForcedScorer(ItemItemModel model, int nnbrs, int min,
+                                            final boolean inverted, final int[] uses) {
+        return new ItemItemScorer(new StandardRatingVectorPDAO(dao), model,
+                                  new WeightedAverageNeighborhoodScorer(),
+                                  new DefaultUserVectorNormalizer(), nnbrs, min) {
+            @Override
+            boolean useInvertedScoring(PackedSimilarityMatrixModel packed, LongSortedArraySet userItems,
+                                       int nitems) {
+                if (inverted) {
+                    uses[0] += 1;
+                }
+                return inverted && !userItems.isEmpty();
+            }
+        };
+    }
+
+    @Test
+    public void testInvertedMatchesRows() {
+        PackedSimilarityMatrixModel packed = PackedSimilarityMatrixModel.fromNeighborhoods(neighborhoods);
+        int[] uses = new int[1];
+        for (int nnbrs: new int[]{0, 5}) {
+            for (int min: new int[]{1, 3}) {
+                ItemItemScorer inverted = makeForcedScorer(packed, nnbrs, min, true, uses);
+                ItemItemScorer rows = makeForcedScorer(packed, nnbrs, min, false, uses);
+                for (long user: USERS) {
+                    for (Set<Long> toScore: Arrays.asList(items, LongUtils.packedSet(1L, 2L, 3L, 5L, 8L, 13L))) {
+                        ResultMap expected = rows.scoreWithDetails(user, toScore);
+                        // score twice, to make sure the scratch space is left clean
+                        for (int round = 0; round < 2; round++) {
+                            ResultMap actual = inverted.scoreWithDetails(user, toScore);
+                            assertThat(actual.keySet(), equalTo(expected.keySet()));
+                            for (Result r: expected) {
+                                ItemItemResult ir = actual.get(r.getId()).as(ItemItemResult.class);
+                                assertThat(ir.getScore(), closeTo(r.getScore(), 1.0e-10));
+                                assertThat(ir.getNeighborhoodSize(),
+                                           equalTo(r.as(ItemItemResult.class).getNeighborhoodSize()));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertThat(uses[0], greaterThan(0));
+    }
+
+    @Test
+    public void testChoosesInvertedForAllItems() {
+        PackedSimilarityMatrixModel packed = PackedSimilarityMatrixModel.fromNeighborhoods(neighborhoods);
+        ItemItemScorer scorer = makeScorer(packed, 5);
+        LongSortedArraySet userItems = LongUtils.packedSet(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+        assertThat(scorer.useInvertedScoring(packed, userItems, ITEM_COUNT), equalTo(true));
+        assertThat(scorer.useInvertedScoring(packed, userItems, 1), equalTo(false));
+        assertThat(makeScorer(packed, 5, 0).useInvertedScoring(packed, userItems, ITEM_COUNT),
+                   equalTo(false));
+    }
+}
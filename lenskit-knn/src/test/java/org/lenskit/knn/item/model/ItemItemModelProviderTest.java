@@ -0,0 +1,110 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.*;
+import org.grouplens.lenskit.transform.threshold.AbsoluteThreshold;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.knn.item.ItemSimilarity;
+import org.lenskit.knn.item.ItemVectorSimilarity;
+import org.lenskit.similarity.PearsonCorrelation;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ItemItemModelProviderTest {
+    private ItemItemBuildContext context;
+    private ItemSimilarity similarity;
+
+    @Before
+    public void createContext() {
+        Random rng = new Random(17);
+        int nitems = 500;
+        long[] ids = new long[nitems];
+        Long2DoubleSortedMap[] vectors = new Long2DoubleSortedMap[nitems];
+        for (int i = 0; i < nitems; i++) {
+            ids[i] = 5 * i + 1;
+            Long2DoubleMap vec = new Long2DoubleOpenHashMap();
+            int n = rng.nextInt(30);
+            for (int k = 0; k < n; k++) {
+                vec.put(rng.nextInt(100), rng.nextGaussian());
+            }
+            vectors[i] = LongUtils.frozenMap(vec);
+        }
+        context = new ItemItemBuildContext(SortedKeyIndex.wrap(ids, nitems), vectors,
+                                           new Long2ObjectOpenHashMap<>());
+        similarity = new ItemVectorSimilarity(new PearsonCorrelation());
+    }
+
+    /**
+     * Compute the full neighborhood of an item, with no truncation.
+     */
+    private Long2DoubleMap fullNeighborhood(long item) {
+        Long2DoubleMap row = new Long2DoubleOpenHashMap();
+        Long2DoubleSortedMap v1 = context.itemVector(item);
+        for (long other: context.getItems()) {
+            Long2DoubleSortedMap v2 = context.itemVector(other);
+            if (other != item && LongUtils.hasNCommonItems(v1.keySet(), v2.keySet(), 2)) {
+                double sim = similarity.similarity(item, v1, other, v2);
+                if (Math.abs(sim) > 0.1) {
+                    row.put(other, sim);
+                }
+            }
+        }
+        return row;
+    }
+
+    @Test
+    public void testSymmetricBuildKeepsTopNeighbors() {
+        assertThat(similarity.isSymmetric(), equalTo(true));
+        ItemItemModelProvider provider =
+                new ItemItemModelProvider(similarity, context, new AbsoluteThreshold(0.1),
+                                          new BasicNeighborIterationStrategy(), 2, 20);
+        Long2ObjectMap<Long2DoubleMap> rows = provider.buildNeighborhoods();
+
+        assertThat(rows.isEmpty(), equalTo(false));
+        for (long item: context.getItems()) {
+            Long2DoubleMap full = fullNeighborhood(item);
+            Long2DoubleMap row = rows.get(item);
+            if (full.isEmpty()) {
+                assertThat(row, nullValue());
+                continue;
+            }
+            assertThat(row, notNullValue());
+            assertThat(row.size(), equalTo(Math.min(20, full.size())));
+            double least = Double.POSITIVE_INFINITY;
+            for (Long2DoubleMap.Entry e: row.long2DoubleEntrySet()) {
+                assertThat(e.getDoubleValue(), closeTo(full.get(e.getLongKey()), 1.0e-10));
+                least = Math.min(least, e.getDoubleValue());
+            }
+            for (Long2DoubleMap.Entry e: full.long2DoubleEntrySet()) {
+                if (!row.containsKey(e.getLongKey())) {
+                    assertThat(e.getDoubleValue(), lessThanOrEqualTo(least + 1.0e-10));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MappedSimilarityMatrixModelTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Long2ObjectMap<Long2DoubleMap> rows;
+
+    @Before
+    public void createRows() {
+        rows = new Long2ObjectOpenHashMap<>();
+        Long2DoubleMap r1 = new Long2DoubleOpenHashMap();
+        r1.put(5, 0.5);
+        r1.put(2, 0.25);
+        r1.put(9, 0.75);
+        rows.put(1, r1);
+        Long2DoubleMap r2 = new Long2DoubleOpenHashMap();
+        r2.put(1, 0.25);
+        rows.put(2, r2);
+        rows.put(5, new Long2DoubleOpenHashMap());
+        Long2DoubleMap r9 = new Long2DoubleOpenHashMap();
+        r9.put(1, 0.75);
+        r9.put(5, -0.1);
+        rows.put(9, r9);
+    }
+
+    @Test
+    public void testWriteAndOpen() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("model.imat");
+        MappedSimilarityMatrixModel.write(new SimilarityMatrixModel(rows), file);
+        MappedSimilarityMatrixModel model = MappedSimilarityMatrixModel.open(file);
+        assertThat(model.getItemUniverse(), contains(1L, 2L, 5L, 9L));
+        for (long item: rows.keySet()) {
+            assertThat(model.getNeighbors(item), equalTo(rows.get(item)));
+        }
+        assertThat(model.getNeighbors(42).isEmpty(), equalTo(true));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder.getRoot().toPath())) {
+            assertThat(files, contains(file));
+        }
+    }
+
+    @Test
+    public void testWritePacked() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("model.imat");
+        MappedSimilarityMatrixModel.write(PackedSimilarityMatrixModel.fromNeighborhoods(rows), file);
+        MappedSimilarityMatrixModel model = MappedSimilarityMatrixModel.open(file);
+        for (long item: rows.keySet()) {
+            assertThat(model.getNeighbors(item), equalTo(rows.get(item)));
+        }
+    }
+
+    @Test
+    public void testEmptyModel() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("empty.imat");
+        MappedSimilarityMatrixModel.write(new SimilarityMatrixModel(new Long2ObjectOpenHashMap<>()), file);
+        MappedSimilarityMatrixModel model = MappedSimilarityMatrixModel.open(file);
+        assertThat(model.getItemUniverse(), hasSize(0));
+        assertThat(model.getNeighbors(1).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void testSerializeReopensFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("model.imat");
+        MappedSimilarityMatrixModel.write(new SimilarityMatrixModel(rows), file);
+        MappedSimilarityMatrixModel model = MappedSimilarityMatrixModel.open(file);
+        byte[] data = SerializationUtils.serialize(model);
+        // the serialized form is just the file name
+        assertThat(data.length, lessThan(512));
+        MappedSimilarityMatrixModel copy = SerializationUtils.deserialize(data);
+        assertThat(copy.getFile(), equalTo(model.getFile()));
+        for (long item: rows.keySet()) {
+            assertThat(copy.getNeighbors(item), equalTo(rows.get(item)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectBadFile() throws IOException {
+        Path file = folder.newFile("bad.imat").toPath();
+        Files.write(file, new byte[64]);
+        MappedSimilarityMatrixModel.open(file);
+    }
+
+    @Test
+    public void testRejectReplacedFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("model.imat");
+        MappedSimilarityMatrixModel.write(new SimilarityMatrixModel(rows), file);
+        byte[] data = SerializationUtils.serialize(MappedSimilarityMatrixModel.open(file));
+
+        rows.get(1).put(5, 0.6);
+        MappedSimilarityMatrixModel.write(new SimilarityMatrixModel(rows), file);
+        try {
+            SerializationUtils.deserialize(data);
+            fail("deserialized model from replaced file");
+        } catch (SerializationException e) {
+            assertThat(e.getCause(), instanceOf(InvalidObjectException.class));
+        }
+    }
+
+    @Test
+    public void testRejectCorruptFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("model.imat");
+        MappedSimilarityMatrixModel.write(new SimilarityMatrixModel(rows), file);
+        byte[] good = Files.readAllBytes(file);
+        int offsetStart = MappedSimilarityMatrixModel.HEADER_SIZE + 8 * 4;
+        int neighborStart = offsetStart + 8 * 5;
+
+        // a row offset past the end of the neighbors is caught when the row is read
+        byte[] bytes = good.clone();
+        ByteBuffer.wrap(bytes).putLong(offsetStart + 8, 100);
+        checkRowRejected(file, bytes, 1);
+
+        // as is a neighbor index outside the item domain
+        bytes = good.clone();
+        ByteBuffer.wrap(bytes).putInt(neighborStart, 4);
+        checkRowRejected(file, bytes, 1);
+
+        // a truncated file
+        checkRejected(file, Arrays.copyOf(good, good.length - 8));
+        // trailing garbage
+        checkRejected(file, Arrays.copyOf(good, good.length + 8));
+        // a huge similarity count
+        bytes = good.clone();
+        ByteBuffer.wrap(bytes).putLong(24, Long.MAX_VALUE);
+        checkRejected(file, bytes);
+    }
+
+    private static void checkRowRejected(Path file, byte[] bytes, long item) throws IOException {
+        Files.write(file, bytes);
+        MappedSimilarityMatrixModel model = MappedSimilarityMatrixModel.open(file);
+        try {
+            model.getNeighbors(item);
+            fail("read corrupt row");
+        } catch (IllegalStateException e) {
+            /* expected */
+        }
+    }
+
+    private static void checkRejected(Path file, byte[] bytes) throws IOException {
+        Files.write(file, bytes);
+        try {
+            MappedSimilarityMatrixModel.open(file);
+            fail("opened corrupt model file");
+        } catch (IOException e) {
+            /* expected */
+        }
+    }
+}
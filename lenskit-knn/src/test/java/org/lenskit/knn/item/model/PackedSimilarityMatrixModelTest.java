@@ -0,0 +1,184 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.item.model;
+
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingVectorPDAO;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.knn.item.ItemItemScorer;
+import org.lenskit.knn.item.WeightedAverageNeighborhoodScorer;
+import org.lenskit.transform.normalize.DefaultUserVectorNormalizer;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.io.BinaryObjectOutputStream;
+
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PackedSimilarityMatrixModelTest {
+    private Long2ObjectMap<Long2DoubleMap> rows;
+    private PackedSimilarityMatrixModel model;
+
+    @Before
+    public void createModel() {
+        rows = new Long2ObjectOpenHashMap<>();
+        Long2DoubleMap r1 = new Long2DoubleOpenHashMap();
+        r1.put(5, 0.5);
+        r1.put(2, 0.25);
+        r1.put(9, 0.75);
+        rows.put(1, r1);
+        Long2DoubleMap r2 = new Long2DoubleOpenHashMap();
+        r2.put(1, 0.25);
+        rows.put(2, r2);
+        rows.put(5, new Long2DoubleOpenHashMap());
+        Long2DoubleMap r9 = new Long2DoubleOpenHashMap();
+        r9.put(1, 0.75);
+        r9.put(5, -0.1);
+        rows.put(9, r9);
+        model = PackedSimilarityMatrixModel.fromNeighborhoods(rows);
+    }
+
+    @Test
+    public void testNeighbors() {
+        assertThat(model.getItemUniverse(), contains(1L, 2L, 5L, 9L));
+        for (long item: rows.keySet()) {
+            assertThat(model.getNeighbors(item), equalTo(rows.get(item)));
+            assertThat(model.getNeighborCount(item), equalTo(rows.get(item).size()));
+        }
+        assertThat(model.getNeighbors(42).isEmpty(), equalTo(true));
+        assertThat(model.getNeighborCount(42), equalTo(0));
+        assertThat(model.getMaxNeighborCount(), equalTo(3));
+    }
+
+    @Test
+    public void testFindNeighborsMerge() {
+        long[] items = new long[3];
+        double[] sims = new double[3];
+        int n = model.findNeighbors(1, LongUtils.packedSet(0, 2, 3, 4, 9, 10), items, sims);
+        assertThat(n, equalTo(2));
+        assertThat(items[0], equalTo(2L));
+        assertThat(sims[0], closeTo(0.25, 1.0e-6));
+        assertThat(items[1], equalTo(9L));
+        assertThat(sims[1], closeTo(0.75, 1.0e-6));
+    }
+
+    @Test
+    public void testFindNeighborsLookup() {
+        long[] items = new long[1];
+        double[] sims = new double[1];
+        int n = model.findNeighbors(1, LongUtils.packedSet(5), items, sims);
+        assertThat(n, equalTo(1));
+        assertThat(items[0], equalTo(5L));
+        assertThat(sims[0], closeTo(0.5, 1.0e-6));
+        assertThat(model.findNeighbors(5, LongUtils.packedSet(1, 2), items, sims),
+                   equalTo(0));
+        assertThat(model.findNeighbors(42, LongUtils.packedSet(1, 2), items, sims),
+                   equalTo(0));
+    }
+
+    @Test
+    public void testReverseNeighbors() {
+        assertThat(model.getReverseNeighborCount(5), equalTo(2));
+        assertThat(model.getReverseNeighborCount(2), equalTo(1));
+        assertThat(model.getReverseNeighborCount(42), equalTo(0));
+
+        int[] rows = new int[4];
+        double[] sims = new double[4];
+        assertThat(model.findReverseNeighbors(2, rows, sims, 0), equalTo(1));
+        int n = model.findReverseNeighbors(5, rows, sims, 1);
+        assertThat(n, equalTo(2));
+        assertThat(model.getItemDomain().getKey(rows[0]), equalTo(1L));
+        assertThat(sims[0], closeTo(0.25, 1.0e-6));
+        assertThat(model.getItemDomain().getKey(rows[1]), equalTo(1L));
+        assertThat(sims[1], closeTo(0.5, 1.0e-6));
+        assertThat(model.getItemDomain().getKey(rows[2]), equalTo(9L));
+        assertThat(sims[2], closeTo(-0.1, 1.0e-6));
+        assertThat(model.findReverseNeighbors(42, rows, sims, 0), equalTo(0));
+    }
+
+    @Test
+    public void testFromModel() {
+        SimilarityMatrixModel matrix = new SimilarityMatrixModel(rows);
+        PackedSimilarityMatrixModel packed = PackedSimilarityMatrixModel.fromModel(matrix);
+        assertThat(packed.getItemUniverse(), equalTo(matrix.getItemUniverse()));
+        for (long item: rows.keySet()) {
+            assertThat(packed.getNeighbors(item), equalTo(matrix.getNeighbors(item)));
+        }
+        assertThat(PackedSimilarityMatrixModel.fromModel(packed), sameInstance(packed));
+    }
+
+    @Test
+    public void testScoreWithPackedModel() {
+        List<Rating> ratings = ImmutableList.of(Rating.create(42, 2, 4.0),
+                                                Rating.create(42, 5, 2.0),
+                                                Rating.create(42, 9, 3.0));
+        RatingVectorPDAO rvDAO = new StandardRatingVectorPDAO(EntityCollectionDAO.create(ratings));
+        ItemItemScorer basic = new ItemItemScorer(rvDAO, new SimilarityMatrixModel(rows),
+                                                  new WeightedAverageNeighborhoodScorer(),
+                                                  new DefaultUserVectorNormalizer(), 20, 1);
+        ItemItemScorer packed = new ItemItemScorer(rvDAO, model,
+                                                   new WeightedAverageNeighborhoodScorer(),
+                                                   new DefaultUserVectorNormalizer(), 20, 1);
+        List<Long> items = ImmutableList.of(1L, 2L, 5L, 9L, 42L);
+        Map<Long, Double> expected = basic.score(42, items);
+        assertThat(expected.keySet(), containsInAnyOrder(1L, 9L));
+        assertThat(packed.score(42, items), equalTo(expected));
+    }
+
+    @Test
+    public void testSerialize() {
+        PackedSimilarityMatrixModel copy = SerializationUtils.clone(model);
+        assertThat(copy.getItemUniverse(), equalTo(model.getItemUniverse()));
+        assertThat(copy.getMaxNeighborCount(), equalTo(3));
+        for (long item: rows.keySet()) {
+            assertThat(copy.getNeighbors(item), equalTo(rows.get(item)));
+        }
+    }
+
+    @Test
+    public void testBinarySerialize() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new BinaryObjectOutputStream(buffer)) {
+            out.writeObject(model);
+        }
+        PackedSimilarityMatrixModel copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+            copy = (PackedSimilarityMatrixModel) in.readObject();
+        }
+        assertThat(copy.getItemUniverse(), equalTo(model.getItemUniverse()));
+        assertThat(copy.getMaxNeighborCount(), equalTo(3));
+        for (long item: rows.keySet()) {
+            assertThat(copy.getNeighbors(item), equalTo(rows.get(item)));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.util.io.BinaryObjectOutputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SimilarityMatrixModelTest {
+    private Map<Long, Long2DoubleMap> rows;
+    private SimilarityMatrixModel model;
+
+    @Before
+    public void createModel() {
+        rows = new HashMap<>();
+        Long2DoubleMap r1 = new Long2DoubleOpenHashMap();
+        r1.put(5, 0.5);
+        r1.put(2, 0.25);
+        r1.put(9, 0.75);
+        rows.put(1L, r1);
+        Long2DoubleMap r2 = new Long2DoubleOpenHashMap();
+        r2.put(1, 0.25);
+        rows.put(2L, r2);
+        rows.put(5L, new Long2DoubleOpenHashMap());
+        Long2DoubleMap r9 = new Long2DoubleOpenHashMap();
+        r9.put(1, 0.75);
+        r9.put(5, -0.1);
+        rows.put(9L, r9);
+        model = new SimilarityMatrixModel(rows);
+    }
+
+    private void checkCopy(SimilarityMatrixModel copy) {
+        assertThat(copy.getItemUniverse(), equalTo(model.getItemUniverse()));
+        for (long item: rows.keySet()) {
+            assertThat(copy.getNeighbors(item), equalTo(rows.get(item)));
+        }
+        assertThat(copy.getNeighbors(42).isEmpty(), equalTo(true));
+        assertThat(copy.toString(), equalTo(model.toString()));
+    }
+
+    @Test
+    public void testSerialize() {
+        checkCopy(SerializationUtils.clone(model));
+    }
+
+    @Test
+    public void testBinarySerialize() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new BinaryObjectOutputStream(buffer)) {
+            out.writeObject(model);
+        }
+        byte[] bytes = buffer.toByteArray();
+        // the codec writes arrays, not the model's member objects
+        assertThat(new String(bytes, StandardCharsets.ISO_8859_1), not(containsString("Long2DoubleSortedArrayMap")));
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            checkCopy((SimilarityMatrixModel) in.readObject());
+        }
+    }
+}
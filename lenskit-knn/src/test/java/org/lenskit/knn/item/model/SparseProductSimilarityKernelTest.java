@@ -0,0 +1,121 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.*;
+import org.grouplens.lenskit.transform.threshold.AbsoluteThreshold;
+import org.grouplens.lenskit.transform.threshold.Threshold;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.knn.item.ItemSimilarity;
+import org.lenskit.knn.item.ItemVectorSimilarity;
+import org.lenskit.similarity.CosineVectorSimilarity;
+import org.lenskit.similarity.DotProductSimilarity;
+import org.lenskit.similarity.PearsonCorrelation;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SparseProductSimilarityKernelTest {
+    private ItemItemBuildContext context;
+
+    @Before
+    public void createContext() {
+        Random rng = new Random(42);
+        int nitems = 300;
+        SortedKeyIndex items = SortedKeyIndex.fromCollection(LongUtils.packedSet(makeIds(nitems)));
+        Long2DoubleSortedMap[] vectors = new Long2DoubleSortedMap[nitems];
+        for (int i = 0; i < nitems; i++) {
+            Long2DoubleMap vec = new Long2DoubleOpenHashMap();
+            int n = rng.nextInt(40);
+            for (int k = 0; k < n; k++) {
+                vec.put(1000 + rng.nextInt(200), rng.nextGaussian());
+            }
+            vectors[i] = LongUtils.frozenMap(vec);
+        }
+        context = new ItemItemBuildContext(items, vectors, new Long2ObjectOpenHashMap<>());
+    }
+
+    private static long[] makeIds(int n) {
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = 10 + 3 * i;
+        }
+        return ids;
+    }
+
+    private Long2ObjectMap<Long2DoubleMap> build(NeighborIterationStrategy strat, int minCU, int size) {
+        ItemSimilarity sim = new ItemVectorSimilarity(new CosineVectorSimilarity(0.5));
+        Threshold thresh = new AbsoluteThreshold(0.01);
+        ItemItemModelProvider provider = new ItemItemModelProvider(sim, context, thresh, strat, minCU, size);
+        return provider.buildNeighborhoods();
+    }
+
+    @Test
+    public void testDetectProductSimilarity() {
+        assertThat(SparseProductSimilarityKernel.getDotProductSimilarity(new ItemVectorSimilarity(new CosineVectorSimilarity())),
+                   notNullValue());
+        assertThat(SparseProductSimilarityKernel.getDotProductSimilarity(new ItemVectorSimilarity(new PearsonCorrelation())),
+                   nullValue());
+    }
+
+    @Test
+    public void testMatchesPairwiseBuild() {
+        Long2ObjectMap<Long2DoubleMap> expected = build(new BasicNeighborIterationStrategy(), 1, 0);
+        Long2ObjectMap<Long2DoubleMap> actual = build(new SparseNeighborIterationStrategy(), 1, 0);
+        assertThat(actual.keySet(), equalTo(expected.keySet()));
+        for (long item: expected.keySet()) {
+            assertThat(actual.get(item), equalTo(expected.get(item)));
+        }
+    }
+
+    @Test
+    public void testMatchesPairwiseBuildTruncated() {
+        Long2ObjectMap<Long2DoubleMap> expected = build(new BasicNeighborIterationStrategy(), 3, 10);
+        Long2ObjectMap<Long2DoubleMap> actual = build(new SparseNeighborIterationStrategy(), 3, 10);
+        assertThat(actual.keySet(), equalTo(expected.keySet()));
+        for (long item: expected.keySet()) {
+            Long2DoubleMap row = actual.get(item);
+            assertThat(row.size(), lessThanOrEqualTo(10));
+            assertThat(row.keySet(), equalTo(expected.get(item).keySet()));
+            for (Long2DoubleMap.Entry e: row.long2DoubleEntrySet()) {
+                assertThat(e.getDoubleValue(), closeTo(expected.get(item).get(e.getLongKey()), 1.0e-10));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        DotProductSimilarity sim = new CosineVectorSimilarity(0.5);
+        Threshold thresh = new AbsoluteThreshold(0.01);
+        Long2ObjectMap<Long2DoubleMap> expected =
+                new SparseProductSimilarityKernel(context, sim, thresh, 2, 10).computeNeighborhoods(false);
+        SparseProductSimilarityKernel kernel = new SparseProductSimilarityKernel(context, sim, thresh, 2, 10);
+        // build twice, so reused workspaces must come back cleared
+        for (int round = 0; round < 2; round++) {
+            assertThat(kernel.computeNeighborhoods(true), equalTo(expected));
+        }
+    }
+}
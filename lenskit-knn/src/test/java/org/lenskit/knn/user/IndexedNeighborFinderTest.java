@@ -0,0 +1,170 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.user;
+
+import org.grouplens.lenskit.transform.threshold.AbsoluteThreshold;
+import org.grouplens.lenskit.transform.threshold.NoThreshold;
+import org.grouplens.lenskit.transform.threshold.Threshold;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingVectorPDAO;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.similarity.CosineVectorSimilarity;
+import org.lenskit.similarity.PearsonCorrelation;
+import org.lenskit.similarity.VectorSimilarity;
+import org.lenskit.transform.normalize.DefaultUserVectorNormalizer;
+import org.lenskit.transform.normalize.IdentityVectorNormalizer;
+import org.lenskit.transform.normalize.MeanCenteringVectorNormalizer;
+import org.lenskit.transform.normalize.UserVectorNormalizer;
+import org.lenskit.util.collections.LongUtils;
+
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class IndexedNeighborFinderTest {
+    private RatingVectorPDAO rvDAO;
+    private UserVectorNormalizer normalizer;
+    private UserSnapshot snapshot;
+    private Threshold threshold;
+
+    @Before
+    public void createData() {
+        Random rng = new Random(23);
+        List<Rating> ratings = new ArrayList<>();
+        for (long user = 1; user <= 200; user++) {
+            Set<Long> items = new HashSet<>();
+            int n = 20 + rng.nextInt(20);
+            while (items.size() < n) {
+                items.add(100L + rng.nextInt(60));
+            }
+            for (long item: items) {
+                ratings.add(Rating.create(user, item, 0.5 + rng.nextDouble() * 4.5));
+            }
+        }
+        rvDAO = new StandardRatingVectorPDAO(EntityCollectionDAO.create(ratings));
+        normalizer = new DefaultUserVectorNormalizer(new MeanCenteringVectorNormalizer());
+        snapshot = new UserSnapshot.Builder(rvDAO, normalizer, normalizer).get();
+        threshold = new AbsoluteThreshold(0.01);
+    }
+
+    private void checkScores(VectorSimilarity vsim) {
+        checkScores(vsim, 10);
+    }
+
+    private void checkScores(VectorSimilarity vsim, int nnbrs) {
+        UserSimilarity sim = new UserVectorSimilarity(vsim);
+        UserPostingIndex index = new UserPostingIndex.Builder(snapshot, sim).get();
+        assertThat(index.hasUserStatistics(), equalTo(UserPostingIndex.getDotProductSimilarity(sim) != null));
+
+        NeighborFinder base = new SnapshotNeighborFinder(snapshot, sim, rvDAO, normalizer, threshold);
+        NeighborFinder indexed = new IndexedNeighborFinder(snapshot, index, sim, rvDAO, normalizer,
+                                                           threshold, nnbrs);
+        UserUserItemScorer expected = new UserUserItemScorer(rvDAO, base, normalizer,
+                                                             new WeightedAverageUserNeighborhoodScorer(2), nnbrs);
+        UserUserItemScorer actual = new UserUserItemScorer(rvDAO, indexed, normalizer,
+                                                           new WeightedAverageUserNeighborhoodScorer(2), nnbrs);
+
+        List<Long> items = new ArrayList<>();
+        for (long item = 95; item < 185; item++) {
+            items.add(item);
+        }
+        for (long user = 1; user <= 200; user += 7) {
+            Map<Long, Double> es = expected.score(user, items);
+            Map<Long, Double> as = actual.score(user, items);
+            assertThat(as.keySet(), equalTo(es.keySet()));
+            for (Map.Entry<Long, Double> e: es.entrySet()) {
+                assertThat(as.get(e.getKey()), closeTo(e.getValue(), 1.0e-8));
+            }
+        }
+    }
+
+    @Test
+    public void testCosineMatchesSnapshotFinder() {
+        checkScores(new CosineVectorSimilarity());
+    }
+
+    @Test
+    public void testPearsonMatchesSnapshotFinder() {
+        checkScores(new PearsonCorrelation());
+    }
+
+    @Test
+    public void testUnlimitedNeighborhoodMatchesSnapshotFinder() {
+        checkScores(new CosineVectorSimilarity(), 0);
+        checkScores(new PearsonCorrelation(), -1);
+    }
+
+    @Test
+    public void testIncludesRatersWithoutCommonItems() {
+        List<Rating> ratings = new ArrayList<>();
+        ratings.add(Rating.create(1, 10, 3.0));
+        ratings.add(Rating.create(2, 20, 4.0));
+        ratings.add(Rating.create(3, 10, 2.0));
+        ratings.add(Rating.create(3, 20, 5.0));
+        RatingVectorPDAO dao = new StandardRatingVectorPDAO(EntityCollectionDAO.create(ratings));
+        UserVectorNormalizer norm = new DefaultUserVectorNormalizer(new IdentityVectorNormalizer());
+        UserSnapshot snap = new UserSnapshot.Builder(dao, norm, norm).get();
+        UserSimilarity sim = new UserVectorSimilarity(new CosineVectorSimilarity());
+        UserPostingIndex index = new UserPostingIndex.Builder(snap, sim).get();
+
+        NeighborFinder base = new SnapshotNeighborFinder(snap, sim, dao, norm, new NoThreshold());
+        NeighborFinder indexed = new IndexedNeighborFinder(snap, index, sim, dao, norm, new NoThreshold(), 0);
+        Map<Long, Double> expected = new HashMap<>();
+        for (Neighbor n: base.getCandidateNeighbors(1, LongUtils.packedSet(20))) {
+            expected.put(n.user, n.similarity);
+        }
+        Map<Long, Double> actual = new HashMap<>();
+        for (Neighbor n: indexed.getCandidateNeighbors(1, LongUtils.packedSet(20))) {
+            actual.put(n.user, n.similarity);
+        }
+        assertThat(actual.keySet(), containsInAnyOrder(2L, 3L));
+        assertThat(actual.get(2L), closeTo(0, 1.0e-8));
+        assertThat(actual.keySet(), equalTo(expected.keySet()));
+
+        // with a positive threshold, the rater with no common items is dropped
+        indexed = new IndexedNeighborFinder(snap, index, sim, dao, norm, threshold, 0);
+        List<Long> kept = new ArrayList<>();
+        for (Neighbor n: indexed.getCandidateNeighbors(1, LongUtils.packedSet(20))) {
+            kept.add(n.user);
+        }
+        assertThat(kept, contains(3L));
+    }
+
+    @Test
+    public void testNeighborsRatedTargetItems() {
+        UserSimilarity sim = new UserVectorSimilarity(new CosineVectorSimilarity());
+        UserPostingIndex index = new UserPostingIndex.Builder(snapshot, sim).get();
+        NeighborFinder finder = new IndexedNeighborFinder(snapshot, index, sim, rvDAO, normalizer,
+                                                          threshold, 3);
+        int count = 0;
+        for (Neighbor n: finder.getCandidateNeighbors(5, LongUtils.packedSet(120, 130))) {
+            assertThat(n.user, not(equalTo(5L)));
+            assertThat(n.vector.containsKey(120) || n.vector.containsKey(130), equalTo(true));
+            count += 1;
+        }
+        assertThat(count, allOf(greaterThan(0), lessThanOrEqualTo(6)));
+        assertThat(finder.getCandidateNeighbors(5000, LongUtils.packedSet(120)), emptyIterable());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.knn.user;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingVectorPDAO;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.transform.normalize.DefaultUserVectorNormalizer;
+import org.lenskit.transform.normalize.MeanCenteringVectorNormalizer;
+import org.lenskit.transform.normalize.UserVectorNormalizer;
+import org.lenskit.util.io.BinaryObjectOutputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class UserSnapshotTest {
+    private UserSnapshot snapshot;
+
+    @Before
+    public void createSnapshot() {
+        Random rng = new Random(11);
+        List<Rating> ratings = new ArrayList<>();
+        for (long user = 1; user <= 50; user++) {
+            for (long item = 100; item < 140; item++) {
+                if (rng.nextDouble() < 0.3) {
+                    ratings.add(Rating.create(user, item, 1 + rng.nextInt(5)));
+                }
+            }
+        }
+        RatingVectorPDAO rvDAO = new StandardRatingVectorPDAO(EntityCollectionDAO.create(ratings));
+        UserVectorNormalizer normalizer = new DefaultUserVectorNormalizer(new MeanCenteringVectorNormalizer());
+        snapshot = new UserSnapshot.Builder(rvDAO, new DefaultUserVectorNormalizer(), normalizer).get();
+    }
+
+    @Test
+    public void testBinarySerialize() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new BinaryObjectOutputStream(buffer)) {
+            out.writeObject(snapshot);
+        }
+        byte[] bytes = buffer.toByteArray();
+        // the codec writes arrays, not the snapshot's member objects
+        assertThat(new String(bytes, StandardCharsets.ISO_8859_1), not(containsString("Long2ObjectOpenHashMap")));
+
+        UserSnapshot copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            copy = (UserSnapshot) in.readObject();
+        }
+        assertThat(copy.getUserIndex().keySet(), equalTo(snapshot.getUserIndex().keySet()));
+        for (long user: snapshot.getUserIndex().keySet()) {
+            assertThat(copy.getUserVector(user), equalTo(snapshot.getUserVector(user)));
+            assertThat(copy.getNormalizedUserVector(user), equalTo(snapshot.getNormalizedUserVector(user)));
+        }
+        for (long item = 100; item < 140; item++) {
+            assertThat(copy.getItemUsers(item), equalTo(snapshot.getItemUsers(item)));
+        }
+        assertThat(copy.getItemUsers(42), nullValue());
+    }
+}
@@ -20,67 +20,184 @@
  */
 package org.lenskit.slopeone;
 
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSortedSet;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
 import org.lenskit.util.keys.KeyedObject;
 import org.lenskit.util.keys.KeyedObjectMap;
 import org.lenskit.util.keys.SortedKeyIndex;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * A model for a {@link SlopeOneItemScorer} or {@link WeightedSlopeOneItemScorer}.
  * Stores calculated deviation values and number of co-rating users for each item pair.
+ *
+ * <p>The model is stored as the upper triangle of a sparse matrix in compressed sparse row
+ * form: each pair is stored once, in the row of the lesser item ID, and only pairs with at least
+ * one co-rating user are stored.  Lookups are a binary search in primitive arrays.
  */
 @DefaultProvider(SlopeOneModelProvider.class)
 @Shareable
 public class SlopeOneModel implements Serializable {
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 3L;
 
-    private final KeyedObjectMap<ModelRow> matrix;
+    private final SortedKeyIndex items;
+    private final int[] rowOffsets;
+    private final int[] columns;
+    private final double[] deviations;
+    private final int[] coratings;
 
+    /**
+     * Construct a model from a matrix of model rows.
+     *
+     * @param matrix The model rows, as built by {@link SlopeOneModelDataAccumulator}.
+     */
     public SlopeOneModel(KeyedObjectMap<ModelRow> matrix) {
-        this.matrix = matrix;
+        LongSet ids = new LongOpenHashSet(matrix.keySet());
+        for (ModelRow row: matrix) {
+            ids.addAll(row.items.keySet());
+        }
+        items = SortedKeyIndex.fromCollection(ids);
+
+        int n = items.size();
+        rowOffsets = new int[n + 1];
+        for (ModelRow row: matrix) {
+            rowOffsets[items.getIndex(row.item) + 1] = countStored(row);
+        }
+        for (int i = 0; i < n; i++) {
+            rowOffsets[i + 1] += rowOffsets[i];
+        }
+        int nnz = rowOffsets[n];
+        columns = new int[nnz];
+        deviations = new double[nnz];
+        coratings = new int[nnz];
+        for (ModelRow row: matrix) {
+            int pos = rowOffsets[items.getIndex(row.item)];
+            // row keys are sorted, so the columns of each row are as well
+            for (int j = 0; j < row.items.size(); j++) {
+                long other = row.items.getKey(row.items.getLowerBound() + j);
+                if (row.item < other && row.coratings[j] > 0) {
+                    columns[pos] = items.getIndex(other);
+                    deviations[pos] = row.deviations[j];
+                    coratings[pos] = row.coratings[j];
+                    pos++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Construct a model from its packed arrays.
+     *
+     * @param items   The item domain.
+     * @param offsets The row offsets, one more than the number of items.
+     * @param cols    The column (item) indexes of the stored pairs; sorted within each row, and
+     *                greater than the row index.
+     * @param devs    The deviations of the stored pairs.
+     * @param cors    The co-rating counts of the stored pairs.
+     */
+    SlopeOneModel(SortedKeyIndex items, int[] offsets, int[] cols, double[] devs, int[] cors) {
+        Preconditions.checkArgument(offsets.length == items.size() + 1,
+                                    "offset array has incorrect length");
+        Preconditions.checkArgument(cols.length == offsets[items.size()],
+                                    "column array has incorrect length");
+        Preconditions.checkArgument(devs.length == cols.length && cors.length == cols.length,
+                                    "value arrays have incorrect length");
+        this.items = items.frozenCopy();
+        rowOffsets = offsets;
+        columns = cols;
+        deviations = devs;
+        coratings = cors;
+    }
+
+    private static int countStored(ModelRow row) {
+        int n = 0;
+        for (int j = 0; j < row.items.size(); j++) {
+            if (row.item < row.items.getKey(row.items.getLowerBound() + j) && row.coratings[j] > 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Get the items in the model.
+     *
+     * @return The set of items the model knows about.
+     */
+    public LongSortedSet getItems() {
+        return items.keySet();
+    }
+
+    /**
+     * Get the number of item pairs stored in the model.
+     *
+     * @return The number of item pairs with at least one co-rating user.
+     */
+    public int getPairCount() {
+        return columns.length;
+    }
+
+    /**
+     * Find the storage position of an item pair.
+     *
+     * @param lo The lesser item ID.
+     * @param hi The greater item ID.
+     * @return The position of the pair, or a negative value if it is not stored.
+     */
+    private int findPair(long lo, long hi) {
+        int row = items.tryGetIndex(lo);
+        if (row < 0) {
+            return -1;
+        }
+        int col = items.tryGetIndex(hi);
+        if (col < 0) {
+            return -1;
+        }
+        return Arrays.binarySearch(columns, rowOffsets[row], rowOffsets[row + 1], col);
     }
 
     public double getDeviation(long item1, long item2) {
         if (item1 == item2) {
             return 0;
         } else if (item1 < item2) {
-            ModelRow row = matrix.get(item1);
-            if (row == null) {
-                return Double.NaN;
-            } else {
-                return row.getDeviation(item2);
-            }
+            int pos = findPair(item1, item2);
+            return pos >= 0 ? deviations[pos] : Double.NaN;
         } else {
-            ModelRow row = matrix.get(item2);
-            if (row == null) {
-                return Double.NaN;
-            } else {
-                return -row.getDeviation(item1);
-            }
+            int pos = findPair(item2, item1);
+            return pos >= 0 ? -deviations[pos] : Double.NaN;
         }
     }
 
     public int getCoratings(long item1, long item2) {
         if (item1 == item2) {
             return 0;
-        } else if (item1 < item2) {
-            ModelRow row = matrix.get(item1);
-            if (row == null) {
-                return 0;
-            } else {
-                return row.getCoratings(item2);
-            }
-        } else {
-            ModelRow row = matrix.get(item2);
-            if (row == null) {
-                return 0;
-            } else {
-                return row.getCoratings(item1);
-            }
         }
+        int pos = item1 < item2 ? findPair(item1, item2) : findPair(item2, item1);
+        return pos >= 0 ? coratings[pos] : 0;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (rowOffsets.length != items.size() + 1
+                || columns.length != rowOffsets[items.size()]
+                || deviations.length != columns.length
+                || coratings.length != columns.length) {
+            throw new InvalidObjectException("inconsistent slope-one model arrays");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("slope-one model of %d pairs for %d items", columns.length, items.size());
     }
 
     static class ModelRow implements Serializable, KeyedObject {
@@ -104,23 +221,5 @@ public class SlopeOneModel implements Serializable {
         public long getKey() {
             return item;
         }
-
-        double getDeviation(long item) {
-            int idx = items.tryGetIndex(item);
-            if (idx >= 0) {
-                return deviations[idx];
-            } else {
-                return Double.NaN;
-            }
-        }
-
-        int getCoratings(long item) {
-            int idx = items.tryGetIndex(item);
-            if (idx >= 0) {
-                return coratings[idx];
-            } else {
-                return 0;
-            }
-        }
     }
 }
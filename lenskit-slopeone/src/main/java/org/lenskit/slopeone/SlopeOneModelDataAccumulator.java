@@ -28,6 +28,12 @@ import org.lenskit.util.keys.SortedKeyIndex;
 
 import java.util.Map;
 
+/**
+ * Pairwise accumulator for slope-one model data.
+ *
+ * @deprecated {@link SlopeOneModelProvider} now builds the model directly from co-rated pairs.
+ */
+@Deprecated
 public class SlopeOneModelDataAccumulator {
 
     private Long2ObjectMap<Pair<Long2DoubleMap, Long2IntMap>> workMatrix;
@@ -20,32 +20,51 @@
  */
 package org.lenskit.slopeone;
 
-import it.unimi.dsi.fastutil.longs.Long2DoubleSortedMap;
 import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.inject.Transient;
 import org.lenskit.knn.item.model.ItemItemBuildContext;
+import org.lenskit.util.ProgressLogger;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
 
 /**
- * Pre-computes the deviations and number of mutual rating users for every pair
- * of items and stores the results in a {@code DeviationMatrix} and
- * {@code CoratingMatrix}. These matrices are later used by a
- * {@code SlopeOneItemScorer}.
+ * Pre-computes the deviations and number of mutual rating users for every co-rated pair
+ * of items and stores the results in a {@link SlopeOneModel}.
+ *
+ * <p>Rather than comparing every pair of item vectors, the provider transposes the item vectors
+ * into per-user rating lists, and computes each row of the model by scattering the lists of the
+ * row item's users into dense accumulators.  Only pairs that some user has rated together are
+ * ever visited, and rows are computed in parallel, each with a workspace borrowed from a pool
+ * that is discarded when the build finishes.
  */
 public class SlopeOneModelProvider implements Provider<SlopeOneModel> {
-    private final SlopeOneModelDataAccumulator accumulator;
+    private static final Logger logger = LoggerFactory.getLogger(SlopeOneModelProvider.class);
 
     private final ItemItemBuildContext buildContext;
+    private final double damping;
+
+    private SortedKeyIndex items;
+    private SortedKeyIndex users;
+    private int[] userOffsets;
+    private int[] userItems;
+    private double[] userValues;
 
     @Inject
     public SlopeOneModelProvider(@Transient ItemItemBuildContext context,
                                  @DeviationDamping double damping) {
-
         buildContext = context;
-        accumulator = new SlopeOneModelDataAccumulator(damping, context.getItems());
+        this.damping = damping;
     }
 
     /**
@@ -53,20 +72,151 @@ public class SlopeOneModelProvider implements Provider<SlopeOneModel> {
      */
     @Override
     public SlopeOneModel get() {
-        LongSet items = buildContext.getItems();
-        LongIterator outer = items.iterator();
-        while (outer.hasNext()) {
-            final long item1 = outer.nextLong();
-            final Long2DoubleSortedMap vec1 = buildContext.itemVector(item1);
-            LongIterator inner = items.iterator();
-            while (inner.hasNext()) {
-                final long item2 = inner.nextLong();
-                if (item1 != item2) {
-                    Long2DoubleSortedMap vec2 = buildContext.itemVector(item2);
-                    accumulator.putItemPair(item1, vec1, item2, vec2);
+        transpose();
+        final int nitems = items.size();
+        final Row[] rows = new Row[nitems];
+        ProgressLogger progress = ProgressLogger.create(logger)
+                                                .setCount(nitems)
+                                                .setLabel("slope-one rows")
+                                                .setWindow(50)
+                                                .start();
+        // at most one workspace per concurrently-running row; dropped with the pool
+        final Queue<Workspace> pool = new ConcurrentLinkedQueue<>();
+        IntStream.range(0, nitems).parallel().forEach(i -> {
+            Workspace ws = pool.poll();
+            if (ws == null) {
+                ws = new Workspace(nitems);
+            }
+            rows[i] = ws.computeRow(i);
+            pool.offer(ws);
+            progress.advance();
+        });
+        progress.finish();
+
+        int[] offsets = new int[nitems + 1];
+        for (int i = 0; i < nitems; i++) {
+            offsets[i + 1] = offsets[i] + rows[i].columns.length;
+        }
+        int nnz = offsets[nitems];
+        int[] columns = new int[nnz];
+        double[] deviations = new double[nnz];
+        int[] coratings = new int[nnz];
+        for (int i = 0; i < nitems; i++) {
+            Row row = rows[i];
+            int n = row.columns.length;
+            System.arraycopy(row.columns, 0, columns, offsets[i], n);
+            System.arraycopy(row.deviations, 0, deviations, offsets[i], n);
+            System.arraycopy(row.coratings, 0, coratings, offsets[i], n);
+        }
+
+        SlopeOneModel model = new SlopeOneModel(items, offsets, columns, deviations, coratings);
+        logger.info("built {}", model);
+        return model;
+    }
+
+    /**
+     * Build the user-major rating lists from the item vectors.
+     */
+    private void transpose() {
+        items = SortedKeyIndex.fromCollection(buildContext.getItems());
+        LongSet us = new LongOpenHashSet();
+        for (long item: buildContext.getItems()) {
+            us.addAll(buildContext.itemVector(item).keySet());
+        }
+        users = SortedKeyIndex.fromCollection(us);
+
+        final int nitems = items.size();
+        final int nusers = users.size();
+        userOffsets = new int[nusers + 1];
+        for (int i = 0; i < nitems; i++) {
+            LongIterator iter = buildContext.itemVector(items.getKey(i)).keySet().iterator();
+            while (iter.hasNext()) {
+                userOffsets[users.getIndex(iter.nextLong()) + 1] += 1;
+            }
+        }
+        for (int u = 0; u < nusers; u++) {
+            userOffsets[u + 1] += userOffsets[u];
+        }
+
+        int nnz = userOffsets[nusers];
+        userItems = new int[nnz];
+        userValues = new double[nnz];
+        int[] fill = Arrays.copyOf(userOffsets, nusers);
+        // items are visited in order, so each user's list is sorted by item
+        for (int i = 0; i < nitems; i++) {
+            Long2DoubleSortedArrayMap vec = Long2DoubleSortedArrayMap.create(buildContext.itemVector(items.getKey(i)));
+            for (int j = 0; j < vec.size(); j++) {
+                int pos = fill[users.getIndex(vec.getKeyByIndex(j))]++;
+                userItems[pos] = i;
+                userValues[pos] = vec.getValueByIndex(j);
+            }
+        }
+        logger.debug("transposed {} ratings for {} users and {} items", nnz, nusers, nitems);
+    }
+
+    /**
+     * A finished row of the model.
+     */
+    private static class Row {
+        final int[] columns;
+        final double[] deviations;
+        final int[] coratings;
+
+        Row(int[] cols, double[] devs, int[] cors) {
+            columns = cols;
+            deviations = devs;
+            coratings = cors;
+        }
+    }
+
+    /**
+     * Scratch space for computing rows, used by one row at a time.
+     */
+    private class Workspace {
+        final double[] sums;
+        final int[] counts;
+        final int[] touched;
+
+        Workspace(int nitems) {
+            sums = new double[nitems];
+            counts = new int[nitems];
+            touched = new int[nitems];
+        }
+
+        Row computeRow(int row) {
+            Long2DoubleSortedArrayMap vec = Long2DoubleSortedArrayMap.create(buildContext.itemVector(items.getKey(row)));
+
+            // scatter: accumulate deviations from every later item sharing a user with this one
+            int ntouched = 0;
+            for (int k = 0; k < vec.size(); k++) {
+                int u = users.getIndex(vec.getKeyByIndex(k));
+                double v = vec.getValueByIndex(k);
+                int end = userOffsets[u + 1];
+                // the user's list is sorted, so the later items follow this one
+                int start = Arrays.binarySearch(userItems, userOffsets[u], end, row) + 1;
+                for (int p = start; p < end; p++) {
+                    int j = userItems[p];
+                    if (counts[j] == 0) {
+                        touched[ntouched++] = j;
+                    }
+                    counts[j] += 1;
+                    sums[j] += v - userValues[p];
                 }
             }
+
+            // gather: finish deviations and reset the accumulators
+            Arrays.sort(touched, 0, ntouched);
+            int[] cols = Arrays.copyOf(touched, ntouched);
+            double[] devs = new double[ntouched];
+            int[] cors = new int[ntouched];
+            for (int t = 0; t < ntouched; t++) {
+                int j = cols[t];
+                devs[t] = sums[j] / (counts[j] + damping);
+                cors[t] = counts[j];
+                sums[j] = 0;
+                counts[j] = 0;
+            }
+            return new Row(cols, devs, cors);
         }
-        return new SlopeOneModel(accumulator.buildMatrix());
     }
 }
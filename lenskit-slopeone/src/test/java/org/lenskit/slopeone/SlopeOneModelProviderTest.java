@@ -20,17 +20,21 @@
  */
 package org.lenskit.slopeone;
 
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import org.apache.commons.lang3.SerializationUtils;
 import org.junit.Test;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.dao.file.StaticDataSource;
 import org.lenskit.data.ratings.Rating;
 import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.knn.item.model.ItemItemBuildContext;
 import org.lenskit.knn.item.model.ItemItemBuildContextProvider;
 import org.lenskit.transform.normalize.DefaultUserVectorNormalizer;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 
@@ -38,13 +42,17 @@ public class SlopeOneModelProviderTest {
 
     public static final double EPSILON = 1.0e-6;
 
-    private SlopeOneModel getModel(List<Rating> ratings) {
+    private ItemItemBuildContext getContext(List<Rating> ratings) {
         StaticDataSource source = StaticDataSource.fromList(ratings);
         DataAccessObject dao = source.get();
         RatingVectorPDAO rvDAO = new StandardRatingVectorPDAO(dao);
         ItemItemBuildContextProvider contextFactory = new ItemItemBuildContextProvider(
                 rvDAO, new DefaultUserVectorNormalizer());
-        SlopeOneModelProvider provider = new SlopeOneModelProvider(contextFactory.get(), 0);
+        return contextFactory.get();
+    }
+
+    private SlopeOneModel getModel(List<Rating> ratings) {
+        SlopeOneModelProvider provider = new SlopeOneModelProvider(getContext(ratings), 0);
         return provider.get();
     }
 
@@ -180,4 +188,58 @@ public class SlopeOneModelProviderTest {
         assertEquals(-1, model4.getDeviation(6, 7), EPSILON);
         assertEquals(1, model4.getDeviation(7, 6), EPSILON);
     }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testMatchesPairwiseBuild() {
+        Random rng = new Random(42);
+        List<Rating> rs = new ArrayList<>();
+        for (long u = 1; u <= 40; u++) {
+            for (long i = 1; i <= 30; i++) {
+                if (rng.nextDouble() < 0.2) {
+                    rs.add(Rating.create(u, i, 1 + rng.nextInt(9) * 0.5));
+                }
+            }
+        }
+        ItemItemBuildContext context = getContext(rs);
+        SlopeOneModel model = new SlopeOneModelProvider(context, 2).get();
+
+        SlopeOneModelDataAccumulator acc = new SlopeOneModelDataAccumulator(2, context.getItems());
+        for (long i1: context.getItems()) {
+            for (long i2: context.getItems()) {
+                acc.putItemPair(i1, context.itemVector(i1), i2, context.itemVector(i2));
+            }
+        }
+        SlopeOneModel expected = new SlopeOneModel(acc.buildMatrix());
+
+        assertEquals(expected.getItems(), model.getItems());
+        assertEquals(expected.getPairCount(), model.getPairCount());
+        LongIterator outer = context.getItems().iterator();
+        while (outer.hasNext()) {
+            long i1 = outer.nextLong();
+            for (long i2: context.getItems()) {
+                assertEquals(expected.getCoratings(i1, i2), model.getCoratings(i1, i2));
+                assertEquals(expected.getDeviation(i1, i2), model.getDeviation(i1, i2), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testSerialize() {
+        List<Rating> rs = new ArrayList<>();
+        rs.add(Rating.create(1, 4, 3.5));
+        rs.add(Rating.create(2, 4, 5));
+        rs.add(Rating.create(3, 5, 4.25));
+        rs.add(Rating.create(1, 7, 4));
+        rs.add(Rating.create(2, 7, 4));
+        rs.add(Rating.create(3, 7, 1.5));
+
+        SlopeOneModel model = SerializationUtils.clone(getModel(rs));
+        assertEquals(2, model.getPairCount());
+        assertEquals(2, model.getCoratings(7, 4));
+        assertEquals(-0.25, model.getDeviation(7, 4), EPSILON);
+        assertEquals(0, model.getCoratings(4, 5));
+        assertEquals(Double.NaN, model.getDeviation(5, 4), 0);
+        assertEquals(0, model.getCoratings(4, 42));
+    }
 }
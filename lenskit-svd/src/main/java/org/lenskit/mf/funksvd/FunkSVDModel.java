@@ -27,8 +27,14 @@ import org.apache.commons.math3.linear.MatrixUtils;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
 import org.lenskit.mf.svd.MFModel;
+import org.lenskit.util.io.BinaryFormat;
+import org.lenskit.util.io.BinaryInput;
+import org.lenskit.util.io.BinaryOutput;
 import org.lenskit.util.keys.KeyIndex;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -39,6 +45,7 @@ import java.util.List;
  */
 @DefaultProvider(FunkSVDModelProvider.class)
 @Shareable
+@BinaryFormat(FunkSVDModel.Codec.class)
 public final class FunkSVDModel extends MFModel {
     private static final long serialVersionUID = 3L;
 
@@ -51,12 +58,24 @@ public final class FunkSVDModel extends MFModel {
         super(umat, imat, uidx, iidx);
 
         featureInfo = ImmutableList.copyOf(features);
+        averageUser = computeAverageUser();
+    }
+
+    private FunkSVDModel(double[] ufeats, double[] ifeats, int nfeatures,
+                         KeyIndex uidx, KeyIndex iidx,
+                         List<FeatureInfo> features) {
+        super(ufeats, ifeats, nfeatures, uidx, iidx);
+
+        featureInfo = ImmutableList.copyOf(features);
+        averageUser = computeAverageUser();
+    }
 
+    private RealVector computeAverageUser() {
         double[] means = new double[featureCount];
         for (int f = featureCount - 1; f >= 0; f--) {
             means[f] = featureInfo.get(f).getUserAverage();
         }
-        averageUser = MatrixUtils.createRealVector(means);
+        return MatrixUtils.createRealVector(means);
     }
 
     /**
@@ -79,4 +98,27 @@ public final class FunkSVDModel extends MFModel {
     public RealVector getAverageUserVector() {
         return averageUser;
     }
+
+    /**
+     * Binary codec, writing the feature matrices in bulk.  The feature metadata is small, and uses
+     * Java serialization.
+     */
+    static class Codec extends BaseCodec<FunkSVDModel> {
+        @Override
+        protected void writeExtra(FunkSVDModel model, BinaryOutput out) throws IOException {
+            out.writeObject(new ArrayList<>(model.featureInfo));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected FunkSVDModel create(double[] ufeats, double[] ifeats, int nfeatures,
+                                      KeyIndex uidx, KeyIndex iidx,
+                                      BinaryInput in) throws IOException, ClassNotFoundException {
+            List<FeatureInfo> features = (List<FeatureInfo>) in.readObject();
+            if (features.size() != nfeatures) {
+                throw new InvalidObjectException("feature info does not match feature count");
+            }
+            return new FunkSVDModel(ufeats, ifeats, nfeatures, uidx, iidx, features);
+        }
+    }
 }
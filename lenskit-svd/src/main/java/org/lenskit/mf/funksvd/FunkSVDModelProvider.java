@@ -21,6 +21,7 @@
 package org.lenskit.mf.funksvd;
 
 import org.apache.commons.lang3.time.StopWatch;
+import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
@@ -36,6 +37,7 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * SVD recommender builder using gradient descent (Funk SVD).
@@ -49,6 +51,9 @@ import java.util.List;
  * <a href="http://www.timelydevelopment.com/demos/NetflixPrize.aspx">Timely
  * Development's sample code</a>.</p>
  *
+ * <p>If {@link TrainingThreadCount} is greater than 1, each feature iteration is run in parallel
+ * over a stratified partition of the ratings (see {@link StratifiedRatingBlocks}).</p>
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class FunkSVDModelProvider implements Provider<FunkSVDModel> {
@@ -59,21 +64,51 @@ public class FunkSVDModelProvider implements Provider<FunkSVDModel> {
     protected final double initialValue;
 
     protected final FunkSVDUpdateRule rule;
+    protected final int threadCount;
+
+    private StratifiedRatingBlocks blocks;
+    private ForkJoinPool pool;
 
-    @Inject
     public FunkSVDModelProvider(@Transient @Nonnull RatingMatrix snapshot,
                                 @Transient @Nonnull FunkSVDUpdateRule rule,
                                 @FeatureCount int featureCount,
                                 @InitialFeatureValue double initVal) {
+        this(snapshot, rule, featureCount, initVal, 1);
+    }
+
+    @Inject
+    public FunkSVDModelProvider(@Transient @Nonnull RatingMatrix snapshot,
+                                @Transient @Nonnull FunkSVDUpdateRule rule,
+                                @FeatureCount int featureCount,
+                                @InitialFeatureValue double initVal,
+                                @TrainingThreadCount int nthreads) {
         this.featureCount = featureCount;
         this.initialValue = initVal;
         this.snapshot = snapshot;
         this.rule = rule;
+        this.threadCount = nthreads;
     }
 
 
     @Override
     public FunkSVDModel get() {
+        if (threadCount > 1) {
+            logger.info("training with {} threads", threadCount);
+            blocks = new StratifiedRatingBlocks(snapshot.getRatings(), threadCount);
+            pool = new ForkJoinPool(threadCount);
+        }
+        try {
+            return buildModel();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            blocks = null;
+            pool = null;
+        }
+    }
+
+    private FunkSVDModel buildModel() {
         int userCount = snapshot.getUserIds().size();
         RealMatrix userFeatures = MatrixUtils.createRealMatrix(userCount, featureCount);
 
@@ -92,8 +127,8 @@ public class FunkSVDModelProvider implements Provider<FunkSVDModel> {
 
         // Use scratch vectors for each feature for better cache locality
         // Per-feature vectors are strided in the output matrices
-        RealVector uvec = MatrixUtils.createRealVector(new double [userCount]);
-        RealVector ivec = MatrixUtils.createRealVector(new double[itemCount]);
+        RealVector uvec = new ArrayRealVector(userCount);
+        RealVector ivec = new ArrayRealVector(itemCount);
 
         for (int f = 0; f < featureCount; f++) {
             logger.debug("Training feature {}", f);
@@ -160,7 +195,11 @@ public class FunkSVDModelProvider implements Provider<FunkSVDModel> {
         TrainingLoopController controller = rule.getTrainingLoopController();
         List<RatingMatrixEntry> ratings = snapshot.getRatings();
         while (controller.keepTraining(rmse)) {
-            rmse = doFeatureIteration(estimates, ratings, userFeatureVector, itemFeatureVector, trail);
+            if (blocks != null) {
+                rmse = doParallelFeatureIteration(estimates, userFeatureVector, itemFeatureVector, trail);
+            } else {
+                rmse = doFeatureIteration(estimates, ratings, userFeatureVector, itemFeatureVector, trail);
+            }
             fib.addTrainingRound(rmse);
             logger.trace("iteration {} finished with RMSE {}", controller.getIterationCount(), rmse);
         }
@@ -201,6 +240,33 @@ public class FunkSVDModelProvider implements Provider<FunkSVDModel> {
         return updater.getRMSE();
     }
 
+    /**
+     * Do a single feature iteration in parallel over the stratified rating blocks.
+     *
+     * @param estimates The estimates.
+     * @param userFeatureVector The user column vector for the current feature.
+     * @param itemFeatureVector The item column vector for the current feature.
+     * @param trail The sum of the remaining user-item-feature values.
+     * @return The RMSE of the feature iteration.
+     */
+    private double doParallelFeatureIteration(TrainingEstimator estimates,
+                                              RealVector userFeatureVector, RealVector itemFeatureVector,
+                                              double trail) {
+        if (userFeatureVector instanceof ArrayRealVector && itemFeatureVector instanceof ArrayRealVector) {
+            return blocks.doFeatureIteration(rule, estimates,
+                                             ((ArrayRealVector) userFeatureVector).getDataRef(),
+                                             ((ArrayRealVector) itemFeatureVector).getDataRef(),
+                                             trail, pool);
+        } else {
+            double[] ufv = userFeatureVector.toArray();
+            double[] ifv = itemFeatureVector.toArray();
+            double rmse = blocks.doFeatureIteration(rule, estimates, ufv, ifv, trail, pool);
+            userFeatureVector.setSubVector(0, new ArrayRealVector(ufv, false));
+            itemFeatureVector.setSubVector(0, new ArrayRealVector(ifv, false));
+            return rmse;
+        }
+    }
+
     /**
      * Add a feature's summary to the feature info builder.
      *
@@ -0,0 +1,151 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.mf.funksvd;
+
+import org.lenskit.data.ratings.RatingMatrixEntry;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Ratings partitioned into a grid of user and item strata for parallel training, in the style of
+ * distributed stochastic gradient descent (DSGD).
+ *
+ * <p>
+ * Users and items are each assigned to one of <var>k</var> strata by index.  An iteration over
+ * the ratings runs in <var>k</var> sub-epochs; in sub-epoch <var>s</var>, the blocks
+ * <code>(b, (b+s) mod k)</code> are trained in parallel.  Those blocks share no users or items,
+ * so the threads never update the same feature value and need no locking.  Each block is
+ * processed in rating order and sub-epochs run one after another, so training is deterministic
+ * for a given rating order (and therefore for a given random seed), independent of thread
+ * scheduling.  It does visit ratings in a different order than sequential training, so results
+ * differ slightly from a single-threaded build.
+ */
+final class StratifiedRatingBlocks {
+    private final int strata;
+    private final int[][] ratingIndexes;
+    private final int[][] userIndexes;
+    private final int[][] itemIndexes;
+    private final double[][] values;
+
+    /**
+     * Partition a list of ratings.
+     *
+     * @param ratings The ratings.
+     * @param k       The number of strata.
+     */
+    StratifiedRatingBlocks(List<RatingMatrixEntry> ratings, int k) {
+        strata = k;
+        int nblocks = k * k;
+        int[] sizes = new int[nblocks];
+        for (RatingMatrixEntry r: ratings) {
+            sizes[block(r)] += 1;
+        }
+
+        ratingIndexes = new int[nblocks][];
+        userIndexes = new int[nblocks][];
+        itemIndexes = new int[nblocks][];
+        values = new double[nblocks][];
+        for (int b = 0; b < nblocks; b++) {
+            ratingIndexes[b] = new int[sizes[b]];
+            userIndexes[b] = new int[sizes[b]];
+            itemIndexes[b] = new int[sizes[b]];
+            values[b] = new double[sizes[b]];
+        }
+
+        int[] fill = new int[nblocks];
+        for (RatingMatrixEntry r: ratings) {
+            int b = block(r);
+            int pos = fill[b]++;
+            ratingIndexes[b][pos] = r.getIndex();
+            userIndexes[b][pos] = r.getUserIndex();
+            itemIndexes[b][pos] = r.getItemIndex();
+            values[b][pos] = r.getValue();
+        }
+    }
+
+    private int block(RatingMatrixEntry r) {
+        return (r.getUserIndex() % strata) * strata + r.getItemIndex() % strata;
+    }
+
+    /**
+     * Get the number of strata.
+     * @return The number of user (and item) strata.
+     */
+    int getStrataCount() {
+        return strata;
+    }
+
+    /**
+     * Do a single feature iteration over all ratings.
+     *
+     * @param rule      The update rule.
+     * @param estimates The estimates.
+     * @param ufv       The user feature values for the current feature.
+     * @param ifv       The item feature values for the current feature.
+     * @param trail     The sum of the remaining user-item-feature values.
+     * @param pool      The thread pool to train blocks in.
+     * @return The RMSE of the feature iteration.
+     */
+    double doFeatureIteration(FunkSVDUpdateRule rule, TrainingEstimator estimates,
+                              double[] ufv, double[] ifv, double trail,
+                              ForkJoinPool pool) {
+        final double[] sse = new double[strata * strata];
+        final int[] counts = new int[strata * strata];
+        for (int s = 0; s < strata; s++) {
+            final int shift = s;
+            pool.submit(() -> IntStream.range(0, strata).parallel().forEach(us -> {
+                int b = us * strata + (us + shift) % strata;
+                FunkSVDUpdater updater = rule.createUpdater();
+                trainBlock(b, updater, estimates, ufv, ifv, trail);
+                double rmse = updater.getRMSE();
+                counts[b] = updater.getUpdateCount();
+                sse[b] = counts[b] > 0 ? rmse * rmse * counts[b] : 0;
+            })).join();
+        }
+
+        double total = 0;
+        int n = 0;
+        for (int b = 0; b < sse.length; b++) {
+            total += sse[b];
+            n += counts[b];
+        }
+        return n > 0 ? Math.sqrt(total / n) : Double.NaN;
+    }
+
+    private void trainBlock(int b, FunkSVDUpdater updater, TrainingEstimator estimates,
+                            double[] ufv, double[] ifv, double trail) {
+        final int[] ris = ratingIndexes[b];
+        final int[] uis = userIndexes[b];
+        final int[] iis = itemIndexes[b];
+        final double[] vs = values[b];
+        for (int j = 0; j < ris.length; j++) {
+            final int uidx = uis[j];
+            final int iidx = iis[j];
+
+            updater.prepare(0, vs[j], estimates.get(ris[j]), ufv[uidx], ifv[iidx], trail);
+
+            ufv[uidx] += updater.getUserFeatureUpdate();
+            ifv[iidx] += updater.getItemFeatureUpdate();
+        }
+    }
+}
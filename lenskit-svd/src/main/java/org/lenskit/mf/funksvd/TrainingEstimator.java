@@ -73,6 +73,15 @@ public final class TrainingEstimator {
         return estimates[pref.getIndex()];
     }
 
+    /**
+     * Get the estimate for a rating by index.
+     * @param index The rating's index in the rating matrix.
+     * @return The estimate.
+     */
+    double get(int index) {
+        return estimates[index];
+    }
+
     /**
      * Update the current estimates with trained values for a new feature.
      * @param ufvs The user feature values.
@@ -20,10 +20,7 @@
  */
 package org.lenskit.mf.svd;
 
-import it.unimi.dsi.fastutil.longs.Long2DoubleFunction;
-import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
-import it.unimi.dsi.fastutil.longs.LongIterator;
-import it.unimi.dsi.fastutil.longs.LongIterators;
+import it.unimi.dsi.fastutil.longs.*;
 import org.apache.commons.math3.linear.RealVector;
 import org.lenskit.api.ItemScorer;
 import org.lenskit.api.Result;
@@ -33,7 +30,8 @@ import org.lenskit.basic.AbstractItemScorer;
 import org.lenskit.bias.BiasModel;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
-import org.lenskit.util.math.Vectors;
+import org.lenskit.util.keys.KeyIndex;
+import org.lenskit.util.keys.LongSortedArraySet;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -41,6 +39,7 @@ import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Item scorer using biased matrix factorization.  This implements SVD-style item scorers.
@@ -49,6 +48,11 @@ import java.util.List;
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class BiasedMFItemScorer extends AbstractItemScorer {
+    /**
+     * The number of items whose features are scored together in {@link #scoreBatch(List, Collection)}.
+     */
+    private static final int ITEM_BLOCK_SIZE = 256;
+
     private final MFModel model;
     private final BiasedMFKernel kernel;
     private final BiasModel biasModel;
@@ -84,28 +88,128 @@ public class BiasedMFItemScorer extends AbstractItemScorer {
         return model;
     }
 
+    /**
+     * Get the kernel this scorer uses.
+     * @return The scoring kernel.
+     */
+    public BiasedMFKernel getKernel() {
+        return kernel;
+    }
+
     @Nonnull
     @Override
     public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
-        Long2DoubleMap baselines = biasModel.getItemBiases(LongUtils.packedSet(items));
-        baselines = Vectors.addScalar(baselines, biasModel.getIntercept() + biasModel.getUserBias(user));
+        Long2DoubleMap itemBiases = biasModel.getItemBiases(LongUtils.packedSet(items));
+        double base = biasModel.getIntercept() + biasModel.getUserBias(user);
 
         RealVector uvec = getUserPreferenceVector(user);
         if (uvec == null) {
             return Results.newResultMap();
         }
 
-        List<Result> results = new ArrayList<>(items.size());
+        // gather the known items and their baselines, then score them in one batch
+        KeyIndex itemIndex = model.getItemIndex();
+        int n = 0;
+        long[] ids = new long[items.size()];
+        int[] indexes = new int[items.size()];
+        double[] scores = new double[items.size()];
         LongIterator iter = LongIterators.asLongIterator(items.iterator());
         while (iter.hasNext()) {
             long item = iter.nextLong();
-            RealVector ivec = model.getItemVector(item);
-            if (ivec != null) {
-                double score = kernel.apply(baselines.get(item), uvec, ivec);
-                results.add(Results.create(item, score));
+            int iidx = itemIndex.tryGetIndex(item);
+            if (iidx >= 0) {
+                ids[n] = item;
+                indexes[n] = iidx;
+                scores[n] = itemBiases.get(item) + base;
+                n++;
             }
         }
+        kernel.applyAll(uvec.toArray(), model, indexes, n, scores);
+
+        List<Result> results = new ArrayList<>(n);
+        for (int j = 0; j < n; j++) {
+            results.add(Results.create(ids[j], scores[j]));
+        }
 
         return Results.newResultMap(results);
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation computes the scores as a blocked matrix product.  It looks up the items'
+     * biases and model indexes once, and then applies the kernel to each block of items for all of
+     * the users, so the block's item features stay in cache while they are used.</p>
+     */
+    @Nonnull
+    @Override
+    public Map<Long, ResultMap> scoreBatch(@Nonnull List<Long> users, @Nonnull Collection<Long> items) {
+        LongSortedArraySet itemSet = LongUtils.packedSet(items);
+        Long2DoubleMap itemBiases = biasModel.getItemBiases(itemSet);
+
+        // gather the known items and their biases
+        KeyIndex itemIndex = model.getItemIndex();
+        int n = 0;
+        long[] ids = new long[itemSet.size()];
+        int[] indexes = new int[itemSet.size()];
+        double[] biases = new double[itemSet.size()];
+        LongIterator iter = itemSet.iterator();
+        while (iter.hasNext()) {
+            long item = iter.nextLong();
+            int iidx = itemIndex.tryGetIndex(item);
+            if (iidx >= 0) {
+                ids[n] = item;
+                indexes[n] = iidx;
+                biases[n] = itemBiases.get(item);
+                n++;
+            }
+        }
+
+        // set up the users' preference vectors and baseline scores
+        final int nusers = users.size();
+        long[] userIds = new long[nusers];
+        double[][] userVectors = new double[nusers][];
+        double[][] scores = new double[nusers][];
+        LongIterator uiter = LongIterators.asLongIterator(users.iterator());
+        for (int u = 0; u < nusers; u++) {
+            long user = uiter.nextLong();
+            userIds[u] = user;
+            RealVector uvec = getUserPreferenceVector(user);
+            if (uvec != null) {
+                userVectors[u] = uvec.toArray();
+                double base = biasModel.getIntercept() + biasModel.getUserBias(user);
+                double[] us = new double[n];
+                for (int j = 0; j < n; j++) {
+                    us[j] = biases[j] + base;
+                }
+                scores[u] = us;
+            }
+        }
+
+        int[] block = new int[Math.min(ITEM_BLOCK_SIZE, n)];
+        double[] buffer = new double[block.length];
+        for (int start = 0; start < n; start += ITEM_BLOCK_SIZE) {
+            int bn = Math.min(ITEM_BLOCK_SIZE, n - start);
+            System.arraycopy(indexes, start, block, 0, bn);
+            for (int u = 0; u < nusers; u++) {
+                if (userVectors[u] != null) {
+                    System.arraycopy(scores[u], start, buffer, 0, bn);
+                    kernel.applyAll(userVectors[u], model, block, bn, buffer);
+                    System.arraycopy(buffer, 0, scores[u], start, bn);
+                }
+            }
+        }
+
+        Long2ObjectMap<ResultMap> results = new Long2ObjectLinkedOpenHashMap<>(nusers);
+        for (int u = 0; u < nusers; u++) {
+            List<Result> ures = new ArrayList<>(scores[u] != null ? n : 0);
+            if (scores[u] != null) {
+                for (int j = 0; j < n; j++) {
+                    ures.add(Results.create(ids[j], scores[u][j]));
+                }
+            }
+            results.put(userIds[u], Results.newResultMap(ures));
+        }
+        return results;
+    }
 }
@@ -20,8 +20,10 @@
  */
 package org.lenskit.mf.svd;
 
+import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
 import org.grouplens.grapht.annotation.DefaultImplementation;
+import org.lenskit.util.keys.KeyIndex;
 
 import javax.annotation.Nonnull;
 
@@ -49,4 +51,28 @@ public interface BiasedMFKernel {
      * @throws IllegalArgumentException if the user and item vectors have different lengths.
      */
     double apply(double bias, @Nonnull RealVector user, @Nonnull RealVector item);
+
+    /**
+     * Apply the kernel function to a batch of items.  The default implementation calls
+     * {@link #apply(double, RealVector, RealVector)} for each item; kernels should override it
+     * with a loop over the model's packed feature arrays.
+     *
+     * @param user   The user-factor vector.
+     * @param model  The model containing the item-factor vectors.
+     * @param items  The item indexes (in the model's item index) to score.
+     * @param n      The number of items in {@code items} to score.
+     * @param scores An array holding the combined user-item bias for each item on input, and
+     *               receiving the kernel function values on output.
+     * @throws IllegalArgumentException if the user vector has the wrong length.
+     */
+    default void applyAll(@Nonnull double[] user, @Nonnull MFModel model,
+                          @Nonnull int[] items, int n, @Nonnull double[] scores) {
+        RealVector uvec = new ArrayRealVector(user, false);
+        KeyIndex index = model.getItemIndex();
+        for (int j = 0; j < n; j++) {
+            RealVector ivec = model.getItemVector(index.getKey(items[j]));
+            assert ivec != null;
+            scores[j] = apply(scores[j], uvec, ivec);
+        }
+    }
 }
@@ -60,6 +60,22 @@ public class DomainClampingKernel implements BiasedMFKernel, Serializable {
         return result;
     }
 
+    @Override
+    public void applyAll(@Nonnull double[] user, @Nonnull MFModel model,
+                         @Nonnull int[] items, int n, @Nonnull double[] scores) {
+        final int nf = model.getFeatureCount();
+        Preconditions.checkArgument(user.length == nf, "user vector has wrong length");
+        final double[] ifeats = model.getItemFeatureArray();
+        for (int j = 0; j < n; j++) {
+            final int ioff = items[j] * nf;
+            double result = scores[j];
+            for (int f = 0; f < nf; f++) {
+                result = domain.clampValue(result + user[f] * ifeats[ioff + f]);
+            }
+            scores[j] = result;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
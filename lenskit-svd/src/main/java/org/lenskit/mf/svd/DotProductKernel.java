@@ -20,6 +20,7 @@
  */
 package org.lenskit.mf.svd;
 
+import com.google.common.base.Preconditions;
 import org.apache.commons.math3.linear.RealVector;
 import org.lenskit.inject.Shareable;
 
@@ -43,6 +44,22 @@ public class DotProductKernel implements BiasedMFKernel, Serializable {
         return bias + user.dotProduct(item);
     }
 
+    @Override
+    public void applyAll(@Nonnull double[] user, @Nonnull MFModel model,
+                         @Nonnull int[] items, int n, @Nonnull double[] scores) {
+        final int nf = model.getFeatureCount();
+        Preconditions.checkArgument(user.length == nf, "user vector has wrong length");
+        final double[] ifeats = model.getItemFeatureArray();
+        for (int j = 0; j < n; j++) {
+            final int ioff = items[j] * nf;
+            double sum = 0;
+            for (int f = 0; f < nf; f++) {
+                sum += user[f] * ifeats[ioff + f];
+            }
+            scores[j] += sum;
+        }
+    }
+
     @Override
     public int hashCode() {
         return DotProductKernel.class.hashCode();
@@ -0,0 +1,336 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.mf.svd;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.jcip.annotations.ThreadSafe;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.inject.Shareable;
+import org.lenskit.inject.Transient;
+import org.lenskit.results.Results;
+import org.lenskit.util.keys.KeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index for finding the items with the largest biased inner product with a user vector (maximum
+ * inner product search) without scoring every item.
+ *
+ * <p>
+ * Items are sorted by the norm of their feature vectors and grouped into buckets of
+ * {@link InnerProductBucketSize} items; the index stores each bucket's largest norm and largest
+ * item bias, along with a copy of the item features in bucket order.  By the Cauchy-Schwarz
+ * inequality, no item in a bucket can score more than its largest bias plus the user vector's
+ * norm times its largest item norm.  A search scores buckets in decreasing order of this bound
+ * and stops as soon as the bound falls below the <var>n</var>th best score found so far, so
+ * results are exact.  The search can also be cut off after scoring a fraction of the items,
+ * trading recall for speed.
+ *
+ * <p>
+ * Scores are computed as by {@link BiasedMFItemScorer} with a {@link DotProductKernel}: the
+ * user-item bias plus the dot product of the user and item vectors.
+ *
+ * @since 3.0
+ */
+@Shareable
+@ThreadSafe
+@DefaultProvider(InnerProductIndex.Builder.class)
+public class InnerProductIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int featureCount;
+    private final long[] itemIds;
+    private final double[] itemBiases;
+    private final double[] features;
+    private final int[] bucketOffsets;
+    private final double[] bucketMaxNorms;
+    private final double[] bucketMaxBiases;
+
+    InnerProductIndex(int nf, long[] ids, double[] biases, double[] feats,
+                      int[] offsets, double[] maxNorms, double[] maxBiases) {
+        Preconditions.checkArgument(biases.length == ids.length, "bias array has wrong length");
+        Preconditions.checkArgument(feats.length == (long) ids.length * nf,
+                                    "feature array has wrong length");
+        Preconditions.checkArgument(offsets.length == maxNorms.length + 1
+                                            && maxBiases.length == maxNorms.length,
+                                    "bucket arrays have inconsistent lengths");
+        featureCount = nf;
+        itemIds = ids;
+        itemBiases = biases;
+        features = feats;
+        bucketOffsets = offsets;
+        bucketMaxNorms = maxNorms;
+        bucketMaxBiases = maxBiases;
+    }
+
+    /**
+     * Get the number of items in the index.
+     * @return The number of indexed items.
+     */
+    public int getItemCount() {
+        return itemIds.length;
+    }
+
+    /**
+     * Get the number of buckets in the index.
+     * @return The number of norm buckets.
+     */
+    public int getBucketCount() {
+        return bucketMaxNorms.length;
+    }
+
+    /**
+     * Find the top-scoring items for a user.
+     *
+     * @param user       The user feature vector.
+     * @param bias       The bias to add to every item's score (typically the intercept plus the
+     *                   user's bias).
+     * @param n          The number of items to find.
+     * @param candidates The candidate items, or {@code null} to consider all indexed items.
+     * @param exclude    Items to exclude, or {@code null} to exclude nothing.
+     * @param fraction   The largest fraction of the items to score; 1 gives exact results.
+     * @return The top-scoring items, in decreasing order of score.
+     */
+    public ResultList search(double[] user, double bias, int n,
+                             @Nullable LongSet candidates, @Nullable LongSet exclude,
+                             double fraction) {
+        Preconditions.checkArgument(user.length == featureCount, "user vector has wrong length");
+        Preconditions.checkArgument(n >= 0, "negative result count");
+        final int nbuckets = bucketMaxNorms.length;
+        if (n == 0 || nbuckets == 0) {
+            return Results.newResultList();
+        }
+
+        double unorm = 0;
+        for (double v: user) {
+            unorm += v * v;
+        }
+        unorm = Math.sqrt(unorm);
+
+        final double[] bounds = new double[nbuckets];
+        int[] order = new int[nbuckets];
+        for (int b = 0; b < nbuckets; b++) {
+            bounds[b] = bucketMaxBiases[b] + unorm * bucketMaxNorms[b];
+            order[b] = b;
+        }
+        IntArrays.quickSort(order, (b1, b2) -> Double.compare(bounds[b2], bounds[b1]));
+
+        long budget = fraction >= 1 ? Long.MAX_VALUE : Math.max(n, (long) Math.ceil(fraction * itemIds.length));
+        ScoreHeap heap = new ScoreHeap(n);
+        long scored = 0;
+        for (int b: order) {
+            if (heap.isFull() && (bounds[b] <= heap.minScore() || scored >= budget)) {
+                break;
+            }
+            for (int j = bucketOffsets[b], end = bucketOffsets[b + 1]; j < end; j++) {
+                long item = itemIds[j];
+                if (candidates != null && !candidates.contains(item)) {
+                    continue;
+                }
+                if (exclude != null && exclude.contains(item)) {
+                    continue;
+                }
+                final int off = j * featureCount;
+                double dot = 0;
+                for (int f = 0; f < featureCount; f++) {
+                    dot += user[f] * features[off + f];
+                }
+                heap.offer(item, itemBiases[j] + dot);
+                scored += 1;
+            }
+        }
+
+        return heap.finish(bias);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("inner product index of %d items in %d buckets",
+                             itemIds.length, bucketMaxNorms.length);
+    }
+
+    /**
+     * Bounded min-heap of item scores.
+     */
+    private static class ScoreHeap {
+        private final long[] items;
+        private final double[] scores;
+        private int size;
+
+        ScoreHeap(int n) {
+            items = new long[n];
+            scores = new double[n];
+        }
+
+        boolean isFull() {
+            return size == items.length;
+        }
+
+        double minScore() {
+            return scores[0];
+        }
+
+        void offer(long item, double score) {
+            if (size < items.length) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) / 2;
+                    if (scores[parent] <= score) {
+                        break;
+                    }
+                    items[i] = items[parent];
+                    scores[i] = scores[parent];
+                    i = parent;
+                }
+                items[i] = item;
+                scores[i] = score;
+            } else if (score > scores[0]) {
+                siftDown(item, score);
+            }
+        }
+
+        private void siftDown(long item, double score) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && scores[child + 1] < scores[child]) {
+                    child += 1;
+                }
+                if (scores[child] >= score) {
+                    break;
+                }
+                items[i] = items[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            items[i] = item;
+            scores[i] = score;
+        }
+
+        /**
+         * Empty the heap into a result list.
+         * @param bias The bias to add to each score.
+         * @return The results, in decreasing order of score.
+         */
+        ResultList finish(double bias) {
+            Result[] results = new Result[size];
+            while (size > 0) {
+                int last = --size;
+                results[last] = Results.create(items[0], scores[0] + bias);
+                if (last > 0) {
+                    siftDown(items[last], scores[last]);
+                }
+            }
+            List<Result> list = new ArrayList<>(results.length);
+            for (Result r: results) {
+                list.add(r);
+            }
+            return Results.newResultList(list);
+        }
+    }
+
+    /**
+     * Build an inner product index over the item vectors of a matrix factorization model.
+     */
+    public static class Builder implements Provider<InnerProductIndex> {
+        private static final Logger logger = LoggerFactory.getLogger(Builder.class);
+
+        private final MFModel model;
+        private final BiasModel biasModel;
+        private final int bucketSize;
+
+        @Inject
+        public Builder(@Transient MFModel model, @Transient BiasModel bias,
+                       @InnerProductBucketSize int bsize) {
+            Preconditions.checkArgument(bsize > 0, "bucket size must be positive");
+            this.model = model;
+            biasModel = bias;
+            bucketSize = bsize;
+        }
+
+        @Override
+        public InnerProductIndex get() {
+            final int nitems = model.getItemCount();
+            final int nf = model.getFeatureCount();
+            final double[] mfeats = model.getItemFeatureArray();
+            KeyIndex index = model.getItemIndex();
+
+            final double[] norms = new double[nitems];
+            int[] order = new int[nitems];
+            for (int i = 0; i < nitems; i++) {
+                double ss = 0;
+                for (int f = 0; f < nf; f++) {
+                    double v = mfeats[i * nf + f];
+                    ss += v * v;
+                }
+                norms[i] = Math.sqrt(ss);
+                order[i] = i;
+            }
+            IntArrays.quickSort(order, (i1, i2) -> Double.compare(norms[i2], norms[i1]));
+
+            long[] ids = new long[nitems];
+            double[] biases = new double[nitems];
+            double[] feats = new double[nitems * nf];
+            for (int j = 0; j < nitems; j++) {
+                int i = order[j];
+                ids[j] = index.getKey(i);
+                biases[j] = biasModel.getItemBias(ids[j]);
+                System.arraycopy(mfeats, i * nf, feats, j * nf, nf);
+            }
+
+            int nbuckets = (nitems + bucketSize - 1) / bucketSize;
+            int[] offsets = new int[nbuckets + 1];
+            double[] maxNorms = new double[nbuckets];
+            double[] maxBiases = new double[nbuckets];
+            for (int b = 0; b < nbuckets; b++) {
+                int start = b * bucketSize;
+                int end = Math.min(nitems, start + bucketSize);
+                offsets[b + 1] = end;
+                maxNorms[b] = norms[order[start]];
+                double mb = Double.NEGATIVE_INFINITY;
+                for (int j = start; j < end; j++) {
+                    mb = Math.max(mb, biases[j]);
+                }
+                maxBiases[b] = mb;
+            }
+
+            InnerProductIndex idx = new InnerProductIndex(nf, ids, biases, feats,
+                                                          offsets, maxNorms, maxBiases);
+            logger.info("built {}", idx);
+            return idx;
+        }
+    }
+}
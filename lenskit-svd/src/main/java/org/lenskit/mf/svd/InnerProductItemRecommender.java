@@ -0,0 +1,122 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.mf.svd;
+
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.apache.commons.math3.linear.RealVector;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+import org.lenskit.basic.TopNItemRecommender;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.results.Results;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Top-N recommender for biased matrix factorization that finds the top items with an
+ * {@link InnerProductIndex} instead of scoring every candidate item.
+ *
+ * <p>
+ * The index only reproduces the scores of a {@link BiasedMFItemScorer} using the
+ * {@link DotProductKernel}, so this recommender falls back to {@link TopNItemRecommender}
+ * behavior when the scorer uses another kernel, when all items are requested, or when the
+ * candidate set is small enough that scoring it directly is cheaper.  To use it, bind
+ * {@link org.lenskit.api.ItemRecommender} to this class; the index is built from the
+ * {@link MFModel}, so if the model is a subclass (e.g. {@link org.lenskit.mf.funksvd.FunkSVDModel}),
+ * bind {@link MFModel} to it as well.
+ *
+ * @since 3.0
+ */
+public class InnerProductItemRecommender extends TopNItemRecommender {
+    private static final Logger logger = LoggerFactory.getLogger(InnerProductItemRecommender.class);
+    @Nullable
+    private final MFModel model;
+    private final BiasModel biasModel;
+    @Nullable
+    private final InnerProductIndex index;
+    private final double searchFraction;
+
+    @Inject
+    public InnerProductItemRecommender(DataAccessObject data, ItemScorer scorer,
+                                       BiasModel bias, InnerProductIndex index,
+                                       @InnerProductSearchFraction double fraction) {
+        super(data, scorer);
+        biasModel = bias;
+        searchFraction = fraction;
+        if (scorer instanceof BiasedMFItemScorer
+                && ((BiasedMFItemScorer) scorer).getKernel() instanceof DotProductKernel) {
+            model = ((BiasedMFItemScorer) scorer).getModel();
+            this.index = index;
+        } else {
+            logger.warn("scorer {} does not use a dot product kernel, inner product index disabled",
+                        scorer);
+            model = null;
+            this.index = null;
+        }
+    }
+
+    private boolean useIndex(int n, @Nullable LongSet candidates) {
+        // scoring a small candidate set directly is cheaper than searching
+        return index != null && n >= 0
+                && (candidates == null || candidates.size() * 4 >= index.getItemCount());
+    }
+
+    @Override
+    protected List<Long> recommend(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
+        if (!useIndex(n, candidates)) {
+            return super.recommend(user, n, candidates, exclude);
+        }
+        ResultList results = search(user, n, candidates, exclude);
+        List<Long> items = new ArrayList<>(results.size());
+        for (Result r: results) {
+            items.add(r.getId());
+        }
+        return items;
+    }
+
+    @Override
+    protected ResultList recommendWithDetails(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
+        if (!useIndex(n, candidates)) {
+            return super.recommendWithDetails(user, n, candidates, exclude);
+        }
+        return search(user, n, candidates, exclude);
+    }
+
+    private ResultList search(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
+        assert index != null && model != null;
+        RealVector uvec = model.getUserVector(user);
+        if (uvec == null) {
+            return Results.newResultList();
+        }
+        if (exclude == null) {
+            exclude = getDefaultExcludes(user);
+        }
+        double bias = biasModel.getIntercept() + biasModel.getUserBias(user);
+        return index.search(uvec.toArray(), bias, n, candidates, exclude, searchFraction);
+    }
+}
@@ -21,11 +21,16 @@
 package org.lenskit.mf.svd;
 
 import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.AbstractRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
+import org.lenskit.util.io.BinaryCodec;
+import org.lenskit.util.io.BinaryFormat;
+import org.lenskit.util.io.BinaryInput;
+import org.lenskit.util.io.BinaryOutput;
 import org.lenskit.util.keys.KeyIndex;
-import org.lenskit.util.math.Vectors;
 
 import javax.annotation.Nullable;
 import java.io.*;
@@ -33,9 +38,19 @@ import java.io.*;
 /**
  * Common model for matrix factorization (SVD) recommendation.
  *
+ * <p>The user and item feature matrices are stored as flat, row-major {@code double} arrays, so
+ * scoring with {@link #dot(int, int)} and {@link #scoreAll(double[], int[], int, double[])}
+ * does not allocate.  {@link #getUserVector(long)}, {@link #getItemVector(long)} and the matrix
+ * accessors copy the requested data.</p>
+ *
+ * <p>When written with a {@link org.lenskit.util.io.BinaryObjectOutputStream}, the feature
+ * matrices are encoded in bulk by a {@linkplain BinaryFormat binary codec}.  Subclasses use
+ * their own serialization.</p>
+ *
  * @since 2.1
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
+@BinaryFormat(MFModel.Codec.class)
 public class MFModel implements Serializable {
     private static final long serialVersionUID = 2L;
 
@@ -44,14 +59,34 @@ public class MFModel implements Serializable {
     protected int userCount;
     protected int itemCount;
 
-    protected RealMatrix userMatrix;
-    protected RealMatrix itemMatrix;
+    /**
+     * The user feature matrix, in row-major order (users x features).
+     */
+    protected double[] userFeatures;
+    /**
+     * The item feature matrix, in row-major order (items x features).
+     */
+    protected double[] itemFeatures;
+    /**
+     * A view of {@link #userFeatures} as a matrix (users x features).  Reads and writes go to the
+     * packed array; assigning a different matrix to this field has no effect on the model.
+     * @deprecated Use {@link #userFeatures} or {@link #getUserFeature(long, int)}.
+     */
+    @Deprecated
+    protected transient RealMatrix userMatrix;
+    /**
+     * A view of {@link #itemFeatures} as a matrix (items x features).  Reads and writes go to the
+     * packed array; assigning a different matrix to this field has no effect on the model.
+     * @deprecated Use {@link #itemFeatures} or {@link #getItemFeature(long, int)}.
+     */
+    @Deprecated
+    protected transient RealMatrix itemMatrix;
     protected KeyIndex userIndex;
     protected KeyIndex itemIndex;
 
     /**
-     * Construct a matrix factorization model.  The matrices are not copied, so the caller should
-     * make sure they won't be modified by anyone else.
+     * Construct a matrix factorization model.  The matrices are copied into the model's packed
+     * storage.
      *
      * @param umat The user feature matrix (users x features).
      * @param imat The item feature matrix (items x features).
@@ -60,21 +95,53 @@ public class MFModel implements Serializable {
      */
     public MFModel(RealMatrix umat, RealMatrix imat,
                    KeyIndex uidx, KeyIndex iidx) {
-        Preconditions.checkArgument(umat.getColumnDimension() == imat.getColumnDimension(),
-                                    "mismatched matrix sizes");
-        featureCount = umat.getColumnDimension();
+        this(packRows(umat), packRows(imat), umat.getColumnDimension(), uidx, iidx);
+    }
+
+    /**
+     * Construct a matrix factorization model from packed feature arrays.  The arrays are not
+     * copied, so the caller should make sure they won't be modified by anyone else.
+     *
+     * @param ufeats The user feature matrix, in row-major order (users x features).
+     * @param ifeats The item feature matrix, in row-major order (items x features).
+     * @param nfeatures The number of features.
+     * @param uidx The user index mapping.
+     * @param iidx The item index mapping.
+     */
+    public MFModel(double[] ufeats, double[] ifeats, int nfeatures,
+                   KeyIndex uidx, KeyIndex iidx) {
+        featureCount = nfeatures;
         userCount = uidx.size();
         itemCount = iidx.size();
-        Preconditions.checkArgument(umat.getRowDimension() == userCount,
+        Preconditions.checkArgument(ufeats.length == (long) userCount * nfeatures,
                                     "user matrix has %s rows, expected %s",
-                                    umat.getRowDimension(), userCount);
-        Preconditions.checkArgument(imat.getRowDimension() == itemCount,
+                                    nfeatures > 0 ? ufeats.length / nfeatures : 0, userCount);
+        Preconditions.checkArgument(ifeats.length == (long) itemCount * nfeatures,
                                     "item matrix has %s rows, expected %s",
-                                    imat.getRowDimension(), itemCount);
-        userMatrix = umat;
-        itemMatrix = imat;
+                                    nfeatures > 0 ? ifeats.length / nfeatures : 0, itemCount);
+        userFeatures = ufeats;
+        itemFeatures = ifeats;
         userIndex = uidx;
         itemIndex = iidx;
+        createMatrixViews();
+    }
+
+    @SuppressWarnings("deprecation")
+    private void createMatrixViews() {
+        userMatrix = new PackedMatrix(userFeatures, userCount, featureCount);
+        itemMatrix = new PackedMatrix(itemFeatures, itemCount, featureCount);
+    }
+
+    private static double[] packRows(RealMatrix mat) {
+        final int nrows = mat.getRowDimension();
+        final int ncols = mat.getColumnDimension();
+        double[] data = new double[Math.multiplyExact(nrows, ncols)];
+        for (int i = 0; i < nrows; i++) {
+            for (int j = 0; j < ncols; j++) {
+                data[i * ncols + j] = mat.getEntry(i, j);
+            }
+        }
+        return data;
     }
 
     private void writeObject(ObjectOutputStream out) throws IOException {
@@ -82,16 +149,12 @@ public class MFModel implements Serializable {
         out.writeInt(userCount);
         out.writeInt(itemCount);
 
-        for (int i = 0; i < userCount; i++) {
-            for (int j = 0; j < featureCount; j++) {
-                out.writeDouble(userMatrix.getEntry(i, j));
-            }
+        for (double v: userFeatures) {
+            out.writeDouble(v);
         }
 
-        for (int i = 0; i < itemCount; i++) {
-            for (int j = 0; j < featureCount; j++) {
-                out.writeDouble(itemMatrix.getEntry(i, j));
-            }
+        for (double v: itemFeatures) {
+            out.writeDouble(v);
         }
 
         out.writeObject(userIndex);
@@ -102,32 +165,38 @@ public class MFModel implements Serializable {
         featureCount = input.readInt();
         userCount = input.readInt();
         itemCount = input.readInt();
+        if (featureCount < 0 || userCount < 0 || itemCount < 0) {
+            throw new InvalidObjectException("negative matrix dimension");
+        }
 
-        RealMatrix umat = MatrixUtils.createRealMatrix(userCount, featureCount);
-        for (int i = 0; i < userCount; i++) {
-            for (int j = 0; j < featureCount; j++) {
-                umat.setEntry(i, j, input.readDouble());
-            }
+        int usize, isize;
+        try {
+            usize = Math.multiplyExact(userCount, featureCount);
+            isize = Math.multiplyExact(itemCount, featureCount);
+        } catch (ArithmeticException e) {
+            throw new InvalidObjectException("feature matrix too large");
         }
-        userMatrix = umat;
 
-        RealMatrix imat = MatrixUtils.createRealMatrix(itemCount, featureCount);
-        for (int i = 0; i < itemCount; i++) {
-            for (int j = 0; j < featureCount; j++) {
-                imat.setEntry(i, j, input.readDouble());
-            }
+        userFeatures = new double[usize];
+        for (int i = 0; i < userFeatures.length; i++) {
+            userFeatures[i] = input.readDouble();
+        }
+
+        itemFeatures = new double[isize];
+        for (int i = 0; i < itemFeatures.length; i++) {
+            itemFeatures[i] = input.readDouble();
         }
-        itemMatrix = imat;
 
         userIndex = (KeyIndex) input.readObject();
         itemIndex = (KeyIndex) input.readObject();
 
-        if (userIndex.size() != userMatrix.getRowDimension()) {
+        if (userIndex.size() != userCount) {
             throw new InvalidObjectException("user matrix and index have different row counts");
         }
-        if (itemIndex.size() != itemMatrix.getRowDimension()) {
+        if (itemIndex.size() != itemCount) {
             throw new InvalidObjectException("item matrix and index have different row counts");
         }
+        createMatrixViews();
     }
 
     /**
@@ -169,18 +238,28 @@ public class MFModel implements Serializable {
 
     /**
      * Get the user matrix.
-     * @return The user matrix (users x features).
+     * @return A copy of the user matrix (users x features).
      */
     public RealMatrix getUserMatrix() {
-        return userMatrix;
+        return unpackRows(userFeatures, userCount);
     }
 
     /**
      * Get the item matrix.
-     * @return The item matrix (items x features).
+     * @return A copy of the item matrix (items x features).
      */
     public RealMatrix getItemMatrix() {
-        return itemMatrix;
+        return unpackRows(itemFeatures, itemCount);
+    }
+
+    private RealMatrix unpackRows(double[] data, int nrows) {
+        RealMatrix mat = MatrixUtils.createRealMatrix(nrows, featureCount);
+        for (int i = 0; i < nrows; i++) {
+            for (int j = 0; j < featureCount; j++) {
+                mat.setEntry(i, j, data[i * featureCount + j]);
+            }
+        }
+        return mat;
     }
 
     @Nullable
@@ -189,7 +268,7 @@ public class MFModel implements Serializable {
         if (uidx < 0) {
             return null;
         } else {
-            return Vectors.matrixRow(userMatrix, uidx);
+            return new ArrayRealVector(userFeatures, uidx * featureCount, featureCount);
         }
     }
 
@@ -199,10 +278,55 @@ public class MFModel implements Serializable {
         if (iidx < 0) {
             return null;
         } else {
-            return Vectors.matrixRow(itemMatrix, iidx);
+            return new ArrayRealVector(itemFeatures, iidx * featureCount, featureCount);
         }
     }
 
+    /**
+     * Compute the dot product of a user's and an item's feature vectors.
+     *
+     * @param uidx The user index (in {@link #getUserIndex()}).
+     * @param iidx The item index (in {@link #getItemIndex()}).
+     * @return The dot product of the user and item feature vectors.
+     */
+    public double dot(int uidx, int iidx) {
+        final int uoff = uidx * featureCount;
+        final int ioff = iidx * featureCount;
+        double sum = 0;
+        for (int f = 0; f < featureCount; f++) {
+            sum += userFeatures[uoff + f] * itemFeatures[ioff + f];
+        }
+        return sum;
+    }
+
+    /**
+     * Compute the dot products of a user feature vector with many items' feature vectors.
+     *
+     * @param user  The user feature vector (of length {@link #getFeatureCount()}).
+     * @param items The item indexes (in {@link #getItemIndex()}).
+     * @param n     The number of items in {@code items} to score.
+     * @param out   The array to receive the dot product of {@code user} with each item's vector.
+     */
+    public void scoreAll(double[] user, int[] items, int n, double[] out) {
+        Preconditions.checkArgument(user.length == featureCount, "user vector has wrong length");
+        for (int j = 0; j < n; j++) {
+            final int ioff = items[j] * featureCount;
+            double sum = 0;
+            for (int f = 0; f < featureCount; f++) {
+                sum += user[f] * itemFeatures[ioff + f];
+            }
+            out[j] = sum;
+        }
+    }
+
+    /**
+     * Get the packed item feature matrix, for use by kernels.
+     * @return The item feature matrix, in row-major order.  It must not be modified.
+     */
+    double[] getItemFeatureArray() {
+        return itemFeatures;
+    }
+
     /**
      * Get a particular feature value for an user.
      * @param uid The item ID.
@@ -214,7 +338,7 @@ public class MFModel implements Serializable {
         if (uidx < 0) {
             return 0;
         } else {
-            return userMatrix.getEntry(uidx, feature);
+            return userFeatures[uidx * featureCount + feature];
         }
     }
 
@@ -229,7 +353,7 @@ public class MFModel implements Serializable {
         if (iidx < 0) {
             return 0;
         } else {
-            return itemMatrix.getEntry(iidx, feature);
+            return itemFeatures[iidx * featureCount + feature];
         }
     }
 
@@ -246,4 +370,130 @@ public class MFModel implements Serializable {
           .append(")");
         return sb.toString();
     }
+
+    /**
+     * Matrix view of a packed row-major feature array, backing the deprecated matrix fields.
+     */
+    private static final class PackedMatrix extends AbstractRealMatrix {
+        private final double[] data;
+        private final int nrows;
+        private final int ncols;
+
+        PackedMatrix(double[] data, int nrows, int ncols) {
+            this.data = data;
+            this.nrows = nrows;
+            this.ncols = ncols;
+        }
+
+        @Override
+        public int getRowDimension() {
+            return nrows;
+        }
+
+        @Override
+        public int getColumnDimension() {
+            return ncols;
+        }
+
+        @Override
+        public double getEntry(int row, int column) {
+            MatrixUtils.checkMatrixIndex(this, row, column);
+            return data[row * ncols + column];
+        }
+
+        @Override
+        public void setEntry(int row, int column, double value) {
+            MatrixUtils.checkMatrixIndex(this, row, column);
+            data[row * ncols + column] = value;
+        }
+
+        @Override
+        public RealMatrix createMatrix(int rowDimension, int columnDimension) {
+            return MatrixUtils.createRealMatrix(rowDimension, columnDimension);
+        }
+
+        @Override
+        public RealMatrix copy() {
+            RealMatrix mat = createMatrix(nrows, ncols);
+            for (int i = 0; i < nrows; i++) {
+                for (int j = 0; j < ncols; j++) {
+                    mat.setEntry(i, j, data[i * ncols + j]);
+                }
+            }
+            return mat;
+        }
+    }
+
+    /**
+     * Base class for binary codecs of matrix factorization models.  It writes the feature matrices
+     * in bulk, followed by the key indexes; subclasses write any extra data after them and construct
+     * the model.
+     *
+     * @param <M> The model type.
+     */
+    protected abstract static class BaseCodec<M extends MFModel> implements BinaryCodec<M> {
+        @Override
+        public void write(M model, BinaryOutput out) throws IOException {
+            out.writeInt(model.featureCount);
+            out.writeDoubles(model.userFeatures);
+            out.writeDoubles(model.itemFeatures);
+            out.writeObject(model.userIndex);
+            out.writeObject(model.itemIndex);
+            writeExtra(model, out);
+        }
+
+        /**
+         * Write the subclass's data after the feature matrices.
+         * @param model The model.
+         * @param out The output.
+         * @throws IOException if there is an error writing the data.
+         */
+        protected void writeExtra(M model, BinaryOutput out) throws IOException {}
+
+        @Override
+        public M read(BinaryInput in) throws IOException, ClassNotFoundException {
+            int nfeatures = in.readInt();
+            double[] ufeats = in.readDoubles();
+            double[] ifeats = in.readDoubles();
+            KeyIndex uidx = (KeyIndex) in.readObject();
+            KeyIndex iidx = (KeyIndex) in.readObject();
+            if (nfeatures < 0) {
+                throw new InvalidObjectException("negative matrix dimension");
+            }
+            try {
+                return create(ufeats, ifeats, nfeatures, uidx, iidx, in);
+            } catch (IllegalArgumentException e) {
+                InvalidObjectException ex = new InvalidObjectException(e.getMessage());
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+
+        /**
+         * Read the subclass's data and construct the model.
+         *
+         * @param ufeats The user feature matrix, in row-major order.
+         * @param ifeats The item feature matrix, in row-major order.
+         * @param nfeatures The number of features.
+         * @param uidx The user index.
+         * @param iidx The item index.
+         * @param in The input, positioned after the key indexes.
+         * @return The model.
+         * @throws IllegalArgumentException if the data is inconsistent.
+         */
+        protected abstract M create(double[] ufeats, double[] ifeats, int nfeatures,
+                                    KeyIndex uidx, KeyIndex iidx,
+                                    BinaryInput in) throws IOException, ClassNotFoundException;
+    }
+
+    /**
+     * Binary codec, writing the feature matrices in bulk.
+     */
+    static class Codec extends BaseCodec<MFModel> {
+        @Override
+        protected MFModel create(double[] ufeats, double[] ifeats, int nfeatures,
+                                 KeyIndex uidx, KeyIndex iidx, BinaryInput in) {
+            return new MFModel(ufeats, ifeats, nfeatures, uidx, iidx);
+        }
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.mf.funksvd;
+
+import org.grouplens.lenskit.iterative.IterationCountStoppingCondition;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.bias.GlobalBiasModel;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.ratings.PackedRatingMatrixProvider;
+import org.lenskit.data.ratings.PreferenceDomain;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingMatrix;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.util.io.BinaryObjectOutputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class FunkSVDModelProviderTest {
+    private RatingMatrix matrix;
+    private FunkSVDUpdateRule rule;
+
+    @Before
+    public void createData() {
+        Random rng = new Random(7);
+        List<Rating> ratings = new ArrayList<>();
+        for (long user = 1; user <= 100; user++) {
+            for (long item = 1; item <= 50; item++) {
+                if (rng.nextDouble() < 0.3) {
+                    ratings.add(Rating.create(user, item, 1 + rng.nextInt(5)));
+                }
+            }
+        }
+        StandardRatingVectorPDAO pdao = new StandardRatingVectorPDAO(EntityCollectionDAO.create(ratings));
+        matrix = new PackedRatingMatrixProvider(pdao, new Random(42)).get();
+        rule = new FunkSVDUpdateRule(0.001, 0.015, new GlobalBiasModel(3.0),
+                                     new PreferenceDomain(1, 5, 1),
+                                     new IterationCountStoppingCondition(20));
+    }
+
+    @Test
+    public void testParallelTrainingIsDeterministic() {
+        FunkSVDModel m1 = new FunkSVDModelProvider(matrix, rule, 5, 0.1, 4).get();
+        FunkSVDModel m2 = new FunkSVDModelProvider(matrix, rule, 5, 0.1, 4).get();
+        assertThat(m1.getUserMatrix(), equalTo(m2.getUserMatrix()));
+        assertThat(m1.getItemMatrix(), equalTo(m2.getItemMatrix()));
+    }
+
+    @Test
+    public void testParallelTrainingMatchesSequential() {
+        FunkSVDModel seq = new FunkSVDModelProvider(matrix, rule, 5, 0.1).get();
+        FunkSVDModel par = new FunkSVDModelProvider(matrix, rule, 5, 0.1, 3).get();
+        assertThat(par.getFeatureCount(), equalTo(5));
+        for (int f = 0; f < 5; f++) {
+            List<Double> seqErr = seq.getFeatureInfo(f).getTrainingErrors();
+            List<Double> parErr = par.getFeatureInfo(f).getTrainingErrors();
+            assertThat(parErr, hasSize(seqErr.size()));
+            // the same ratings are visited in a different order, so errors are close but not equal
+            assertThat(parErr.get(parErr.size() - 1),
+                       closeTo(seqErr.get(seqErr.size() - 1), 0.01));
+        }
+    }
+
+    @Test
+    public void testBinarySerialize() throws IOException, ClassNotFoundException {
+        FunkSVDModel model = new FunkSVDModelProvider(matrix, rule, 3, 0.1).get();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new BinaryObjectOutputStream(buffer)) {
+            out.writeObject(model);
+        }
+        byte[] bytes = buffer.toByteArray();
+        // the codec writes arrays, not the model's member objects
+        assertThat(new String(bytes, StandardCharsets.ISO_8859_1), not(containsString("ArrayRealVector")));
+
+        FunkSVDModel copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            copy = (FunkSVDModel) in.readObject();
+        }
+        assertThat(copy.getFeatureCount(), equalTo(3));
+        assertThat(copy.getUserMatrix(), equalTo(model.getUserMatrix()));
+        assertThat(copy.getItemMatrix(), equalTo(model.getItemMatrix()));
+        assertThat(copy.getAverageUserVector(), equalTo(model.getAverageUserVector()));
+        for (int f = 0; f < 3; f++) {
+            assertThat(copy.getFeatureInfo(f).getTrainingErrors(),
+                       equalTo(model.getFeatureInfo(f).getTrainingErrors()));
+        }
+    }
+}
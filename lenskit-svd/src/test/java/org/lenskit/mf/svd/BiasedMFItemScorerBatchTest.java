@@ -0,0 +1,103 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.mf.svd;
+
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultMap;
+import org.lenskit.bias.UserItemBiasModel;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.HashKeyIndex;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test that batch scoring with biased MF matches scoring each user separately.
+ */
+public class BiasedMFItemScorerBatchTest {
+    private BiasedMFItemScorer scorer;
+
+    @Before
+    public void createScorer() {
+        RealMatrix umat = MatrixUtils.createRealMatrix(3, 2);
+        umat.setRow(0, new double[]{0.1, 0.3});
+        umat.setRow(1, new double[]{-0.2, 0.2});
+        umat.setRow(2, new double[]{0.0, 0.15});
+        HashKeyIndex uidx = new HashKeyIndex();
+        uidx.internId(1);
+        uidx.internId(5);
+        uidx.internId(3);
+
+        RealMatrix imat = MatrixUtils.createRealMatrix(2, 2);
+        imat.setRow(0, new double[]{0.52, 0.29});
+        imat.setRow(1, new double[]{0.3, -1.2});
+        HashKeyIndex iidx = new HashKeyIndex();
+        iidx.internId(42);
+        iidx.internId(39);
+
+        Long2DoubleMap ubias = new Long2DoubleOpenHashMap();
+        ubias.put(1, 0.25);
+        ubias.put(3, -0.5);
+        Long2DoubleMap ibias = new Long2DoubleOpenHashMap();
+        ibias.put(42, 0.1);
+
+        scorer = new BiasedMFItemScorer(new MFModel(umat, imat, uidx, iidx),
+                                        new DotProductKernel(),
+                                        new UserItemBiasModel(3.5, ubias, ibias));
+    }
+
+    @Test
+    public void testBatchMatchesSingleUser() {
+        List<Long> users = ImmutableList.of(3L, 1L, 17L, 5L);
+        Map<Long, ResultMap> batch = scorer.scoreBatch(users, LongUtils.packedSet(39, 42, 25));
+        assertThat(batch.keySet(), contains(3L, 1L, 17L, 5L));
+
+        for (long user: users) {
+            ResultMap single = scorer.scoreWithDetails(user, LongUtils.packedSet(39, 42, 25));
+            ResultMap scores = batch.get(user);
+            assertThat(scores.keySet(), equalTo(single.keySet()));
+            for (Result r: single) {
+                assertThat(scores.getScore(r.getId()), closeTo(r.getScore(), 1.0e-10));
+            }
+        }
+
+        // unknown users and items have no scores
+        assertThat(batch.get(17L).size(), equalTo(0));
+        assertThat(batch.get(1L).keySet(), containsInAnyOrder(39L, 42L));
+    }
+
+    @Test
+    public void testBiasesWithoutItemOffset() {
+        // item 39 has no bias, but still gets the intercept and user bias
+        ResultMap scores = scorer.scoreBatch(ImmutableList.of(1L), LongUtils.packedSet(39)).get(1L);
+        assertThat(scores.getScore(39), closeTo(3.5 + 0.25 + 0.1 * 0.3 - 0.3 * 1.2, 1.0e-6));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.mf.svd;
+
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.bias.UserItemBiasModel;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
+import org.lenskit.util.keys.HashKeyIndex;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class InnerProductIndexTest {
+    private static final int NFEATURES = 8;
+    private MFModel model;
+    private BiasModel bias;
+    private InnerProductIndex index;
+
+    @Before
+    public void createModel() {
+        Random rng = new Random(11);
+        HashKeyIndex uidx = new HashKeyIndex();
+        HashKeyIndex iidx = new HashKeyIndex();
+        double[] ufeats = new double[20 * NFEATURES];
+        double[] ifeats = new double[300 * NFEATURES];
+        Long2DoubleMap ubias = new Long2DoubleOpenHashMap();
+        Long2DoubleMap ibias = new Long2DoubleOpenHashMap();
+        for (int u = 0; u < 20; u++) {
+            uidx.internId(100 + u);
+            ubias.put(100 + u, rng.nextGaussian() * 0.2);
+        }
+        for (int i = 0; i < 300; i++) {
+            iidx.internId(1000 + i);
+            ibias.put(1000 + i, rng.nextGaussian() * 0.5);
+        }
+        for (int k = 0; k < ufeats.length; k++) {
+            ufeats[k] = rng.nextGaussian();
+        }
+        for (int k = 0; k < ifeats.length; k++) {
+            // give items a wide spread of norms
+            ifeats[k] = rng.nextGaussian() * (1 + (k / NFEATURES) % 7);
+        }
+        model = new MFModel(ufeats, ifeats, NFEATURES, uidx, iidx);
+        bias = new UserItemBiasModel(3.5, ubias, ibias);
+        index = new InnerProductIndex.Builder(model, bias, 16).get();
+    }
+
+    private List<Long> bruteForce(long user, int n, LongSet exclude) {
+        TopNLong2DoubleAccumulator accum = new TopNLong2DoubleAccumulator(n);
+        Map<Long, Double> scores = new BiasedMFItemScorer(model, new DotProductKernel(), bias)
+                .score(user, model.getItemIndex().getKeyList());
+        for (Map.Entry<Long, Double> e: scores.entrySet()) {
+            if (!exclude.contains(e.getKey())) {
+                accum.put(e.getKey(), e.getValue());
+            }
+        }
+        return accum.finishList();
+    }
+
+    @Test
+    public void testIndexShape() {
+        assertThat(index.getItemCount(), equalTo(300));
+        assertThat(index.getBucketCount(), equalTo(19));
+    }
+
+    @Test
+    public void testExactSearch() {
+        LongSet exclude = LongUtils.packedSet(1003, 1010, 1200);
+        for (long user = 100; user < 120; user++) {
+            double ub = bias.getIntercept() + bias.getUserBias(user);
+            ResultList results = index.search(model.getUserVector(user).toArray(), ub, 10,
+                                              null, exclude, 1.0);
+            assertThat(results.idList(), equalTo(bruteForce(user, 10, exclude)));
+            Map<Long, Double> scores = new BiasedMFItemScorer(model, new DotProductKernel(), bias)
+                    .score(user, results.idList());
+            double last = Double.POSITIVE_INFINITY;
+            for (Result r: results) {
+                assertThat(r.getScore(), closeTo(scores.get(r.getId()), 1.0e-8));
+                assertThat(r.getScore(), lessThanOrEqualTo(last));
+                last = r.getScore();
+            }
+        }
+    }
+
+    @Test
+    public void testCandidates() {
+        LongSet candidates = LongUtils.packedSet(1001, 1002, 1050, 1299);
+        ResultList results = index.search(model.getUserVector(105).toArray(), 0, 10,
+                                          candidates, null, 1.0);
+        assertThat(results.idList(), containsInAnyOrder(1001L, 1002L, 1050L, 1299L));
+    }
+
+    @Test
+    public void testApproximateSearch() {
+        ResultList results = index.search(model.getUserVector(101).toArray(), 0, 5,
+                                          null, null, 0.1);
+        assertThat(results, hasSize(5));
+        assertThat(index.search(model.getUserVector(101).toArray(), 0, 0, null, null, 1.0),
+                   hasSize(0));
+    }
+
+    @Test
+    public void testRecommender() {
+        List<Rating> ratings = ImmutableList.of(Rating.create(107, 1004, 3.0));
+        BiasedMFItemScorer scorer = new BiasedMFItemScorer(model, new DotProductKernel(), bias);
+        InnerProductItemRecommender rec =
+                new InnerProductItemRecommender(EntityCollectionDAO.create(ratings), scorer,
+                                                bias, index, 1.0);
+        List<Long> recs = rec.recommend(107, 10);
+        assertThat(recs, equalTo(bruteForce(107, 10, LongUtils.packedSet(1004))));
+        assertThat(rec.recommend(99999, 10), hasSize(0));
+    }
+}
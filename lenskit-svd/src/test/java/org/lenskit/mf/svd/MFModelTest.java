@@ -0,0 +1,165 @@
+/*
+ * LensKit, an open source recommender systems toolkit.
+ * Copyright 2010-2016 LensKit Contributors.  See CONTRIBUTORS.md.
+ * Work on LensKit has been funded by the National Science Foundation under
+ * grants IIS 05-34939, 08-08692, 08-12148, and 10-17697.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.lenskit.mf.svd;
+
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.data.ratings.PreferenceDomain;
+import org.lenskit.util.io.BinaryObjectOutputStream;
+import org.lenskit.util.keys.HashKeyIndex;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MFModelTest {
+    private MFModel model;
+
+    @Before
+    public void createModel() {
+        RealMatrix umat = MatrixUtils.createRealMatrix(2, 2);
+        umat.setRow(0, new double[]{0.1, 0.3});
+        umat.setRow(1, new double[]{-0.2, 0.2});
+        HashKeyIndex uidx = new HashKeyIndex();
+        uidx.internId(1);
+        uidx.internId(5);
+
+        RealMatrix imat = MatrixUtils.createRealMatrix(3, 2);
+        imat.setRow(0, new double[]{0.52, 0.29});
+        imat.setRow(1, new double[]{0.3, -1.2});
+        imat.setRow(2, new double[]{2.0, 4.0});
+        HashKeyIndex iidx = new HashKeyIndex();
+        iidx.internId(42);
+        iidx.internId(39);
+        iidx.internId(10);
+
+        model = new MFModel(umat, imat, uidx, iidx);
+    }
+
+    @Test
+    public void testVectors() {
+        assertThat(model.getUserVector(5).toArray(), equalTo(new double[]{-0.2, 0.2}));
+        assertThat(model.getItemVector(39).toArray(), equalTo(new double[]{0.3, -1.2}));
+        assertThat(model.getUserVector(42), nullValue());
+        assertThat(model.getItemFeature(10, 1), equalTo(4.0));
+        assertThat(model.getUserMatrix().getRow(1), equalTo(new double[]{-0.2, 0.2}));
+    }
+
+    @Test
+    public void testDot() {
+        assertThat(model.dot(0, 0), closeTo(0.1 * 0.52 + 0.3 * 0.29, 1.0e-10));
+        assertThat(model.dot(1, 1), closeTo(-0.2 * 0.3 - 0.2 * 1.2, 1.0e-10));
+    }
+
+    @Test
+    public void testScoreAll() {
+        double[] out = new double[3];
+        model.scoreAll(new double[]{1, 2}, new int[]{2, 0}, 2, out);
+        assertThat(out[0], closeTo(10.0, 1.0e-10));
+        assertThat(out[1], closeTo(0.52 + 0.58, 1.0e-10));
+        assertThat(out[2], equalTo(0.0));
+    }
+
+    @Test
+    public void testBatchKernelsMatchSingle() {
+        BiasedMFKernel[] kernels = {
+                new DotProductKernel(),
+                new DomainClampingKernel(PreferenceDomain.fromString("[1,5]"))
+        };
+        double[] user = model.getUserVector(1).toArray();
+        int[] items = {0, 1, 2};
+        for (BiasedMFKernel kernel: kernels) {
+            double[] scores = {3.0, 2.5, 4.2};
+            kernel.applyAll(user, model, items, 3, scores);
+            long[] ids = {42, 39, 10};
+            double[] biases = {3.0, 2.5, 4.2};
+            for (int j = 0; j < 3; j++) {
+                assertThat(scores[j], closeTo(kernel.apply(biases[j], model.getUserVector(1),
+                                                           model.getItemVector(ids[j])),
+                                              1.0e-10));
+            }
+        }
+    }
+
+    @Test
+    public void testSerialize() {
+        MFModel copy = SerializationUtils.clone(model);
+        assertThat(copy.getFeatureCount(), equalTo(2));
+        assertThat(copy.getItemVector(10).toArray(), equalTo(new double[]{2.0, 4.0}));
+        assertThat(copy.dot(1, 2), equalTo(model.dot(1, 2)));
+    }
+
+    @Test
+    public void testBinarySerialize() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new BinaryObjectOutputStream(buffer)) {
+            out.writeObject(model);
+        }
+        MFModel copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+            copy = (MFModel) in.readObject();
+        }
+        assertThat(copy.getFeatureCount(), equalTo(2));
+        assertThat(copy.getUserCount(), equalTo(model.getUserCount()));
+        assertThat(copy.getItemVector(10).toArray(), equalTo(new double[]{2.0, 4.0}));
+        assertThat(copy.dot(1, 2), equalTo(model.dot(1, 2)));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedMatrixViews() {
+        assertThat(model.userMatrix.getRow(1), equalTo(new double[]{-0.2, 0.2}));
+        model.itemMatrix.setEntry(2, 0, 3.0);
+        assertThat(model.getItemFeature(10, 0), equalTo(3.0));
+
+        MFModel copy = SerializationUtils.clone(model);
+        assertThat(copy.itemMatrix.getEntry(2, 0), equalTo(3.0));
+    }
+
+    @Test
+    public void testRejectOverflowingDimensions() {
+        byte[] data = SerializationUtils.serialize(model);
+        // the feature, user and item counts are written together
+        byte[] counts = {0, 0, 0, 2, 0, 0, 0, 2, 0, 0, 0, 3};
+        int pos = -1;
+        for (int i = 0; pos < 0 && i + counts.length <= data.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + counts.length), counts)) {
+                pos = i;
+            }
+        }
+        assertThat(pos, greaterThanOrEqualTo(0));
+        ByteBuffer.wrap(data).putInt(pos, 1 << 16).putInt(pos + 4, 1 << 16);
+        try {
+            SerializationUtils.deserialize(data);
+            fail("deserialized model with overflowing dimensions");
+        } catch (SerializationException e) {
+            assertThat(e.getCause(), instanceOf(InvalidObjectException.class));
+        }
+    }
+}
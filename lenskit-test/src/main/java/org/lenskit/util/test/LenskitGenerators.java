@@ -32,11 +32,22 @@ import org.lenskit.data.ratings.RatingBuilder;
  */
 public class LenskitGenerators {
     public static Generator<Rating> ratings() {
-        return new RatingGenerator();
+        return new RatingGenerator(1024, 1024);
+    }
+
+    /**
+     * Generate ratings over a user and item universe of a specified size.
+     *
+     * @param maxUser The largest user ID to generate (IDs start at 1).
+     * @param maxItem The largest item ID to generate (IDs start at 1).
+     * @return A rating generator.
+     */
+    public static Generator<Rating> ratings(long maxUser, long maxItem) {
+        return new RatingGenerator(maxUser, maxItem);
     }
 
     public static Generator<Rating> ratingsWithoutTimestamps() {
-        RatingGenerator rg = new RatingGenerator();
+        RatingGenerator rg = new RatingGenerator(1024, 1024);
         rg.timestamps = null;
         return rg;
     }
@@ -44,11 +55,16 @@ public class LenskitGenerators {
     private static class RatingGenerator implements Generator<Rating> {
         private final LongSet usedIds = new LongOpenHashSet();
         private final Generator<Long> ids = PrimitiveGenerators.positiveLongs();
-        private final Generator<Long> userIds = PrimitiveGenerators.positiveLongs(1024);
-        private final Generator<Long> itemIds = PrimitiveGenerators.positiveLongs(1024);
+        private final Generator<Long> userIds;
+        private final Generator<Long> itemIds;
         private final Generator<Double> values = PrimitiveGenerators.doubles(1, 5);
         private Generator<Long> timestamps = PrimitiveGenerators.positiveLongs();
 
+        RatingGenerator(long maxUser, long maxItem) {
+            userIds = PrimitiveGenerators.positiveLongs(maxUser);
+            itemIds = PrimitiveGenerators.positiveLongs(maxItem);
+        }
+
         @Override
         public Rating next() {
             long id = ids.next();